@@ -0,0 +1,164 @@
+package org.eclipse.jetty.nosql.key_value;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.nosql.NoSqlSession;
+import org.eclipse.jetty.nosql.key_value.benchmark.InMemorySessionIdManager;
+import org.eclipse.jetty.nosql.key_value.benchmark.SessionShapes;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.session.SessionHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hot paths of {@link KeyValueStoreSessionManager} against an in-memory
+ * client, so that only the manager's own work is measured: key mangling,
+ * session factory, version bookkeeping, attribute copying and serialization.
+ *
+ * Every thread works on its own sessions. Use
+ * {@link org.eclipse.jetty.nosql.key_value.benchmark.ThreadSweep} to run
+ * with 1 up to number-of-cores threads.
+ *
+ * Lives in this package to call the protected methods of the manager.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionManagerBenchmark {
+    @Param({"native", "kryo", "xstream"})
+    public String serializer;
+
+    @Param({SessionShapes.SMALL, SessionShapes.LARGE})
+    public String shape;
+
+    private final AtomicInteger _threads = new AtomicInteger();
+    private Server _server;
+    private KeyValueStoreSessionManager _manager;
+    private Map<String, Object> _attributes;
+
+    @Setup
+    public void setUp() throws Exception {
+        _server = new Server();
+        _server.setSessionIdManager(new InMemorySessionIdManager(_server));
+        _manager = new KeyValueStoreSessionManager();
+        _manager.setSessionIdManager(_server.getSessionIdManager());
+        _manager.setSessionFactory(SessionShapes.newSessionFactory(serializer));
+        ContextHandler context = new ContextHandler("/");
+        context.setHandler(new SessionHandler(_manager));
+        _server.setHandler(context);
+        _server.start();
+        _attributes = SessionShapes.newAttributes(shape);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        _server.stop();
+    }
+
+    /**
+     * sessions owned by a single benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Sessions {
+        KeyValueStoreSessionManager manager;
+        String id;
+        String otherId;
+        NoSqlSession stored;
+        NoSqlSession moved;
+        NoSqlSession fresh;
+        boolean swapped = false;
+        int counter = 0;
+
+        @Setup
+        public void setUp(SessionManagerBenchmark benchmark) {
+            manager = benchmark._manager;
+            int thread = benchmark._threads.getAndIncrement();
+            id = "benchmark" + thread;
+            otherId = "benchmark" + thread + "-renewed";
+            long now = System.currentTimeMillis();
+            NoSqlSession session = new NoSqlSession(manager, now, now, id, null);
+            for (Map.Entry<String, Object> attribute : benchmark._attributes.entrySet()) {
+                session.setAttribute(attribute.getKey(), attribute.getValue());
+            }
+            manager.save(session, null, false);
+            stored = manager.loadSession(id);
+            moved = new NoSqlSession(manager, now, now, otherId, 1L);
+            fresh = new NoSqlSession(manager, now, now, "benchmark" + thread + "-new", null);
+            for (Map.Entry<String, Object> attribute : benchmark._attributes.entrySet()) {
+                fresh.setAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+    }
+
+    /**
+     * a request which changed one attribute of an existing session.
+     */
+    @Benchmark
+    public Object save(Sessions sessions) {
+        sessions.stored.setAttribute("counter", Integer.valueOf(sessions.counter++));
+        return _manager.save(sessions.stored, 1L, false);
+    }
+
+    /**
+     * a session created by the request. all attributes are saved.
+     */
+    @Benchmark
+    public Object saveNew(Sessions sessions) {
+        for (Map.Entry<String, Object> attribute : _attributes.entrySet()) {
+            sessions.fresh.setAttribute(attribute.getKey(), attribute.getValue());
+        }
+        return _manager.save(sessions.fresh, null, false);
+    }
+
+    /**
+     * the session in the store has not been changed by another node.
+     * sessions are saved with version 1 in setup.
+     */
+    @Benchmark
+    public Object refreshUnchanged(Sessions sessions) {
+        return _manager.refresh(sessions.stored, 1L);
+    }
+
+    /**
+     * the session in the store has been changed by another node and
+     * the attributes are copied over.
+     */
+    @Benchmark
+    public Object refreshChanged(Sessions sessions) {
+        return _manager.refresh(sessions.stored, 0L);
+    }
+
+    @Benchmark
+    public NoSqlSession loadSession(Sessions sessions) {
+        return _manager.loadSession(sessions.id);
+    }
+
+    /**
+     * moves the session back and forth between two ids.
+     */
+    @Benchmark
+    public void update(Sessions sessions) throws Exception {
+        if (sessions.swapped) {
+            _manager.update(sessions.moved, sessions.id, null);
+        } else {
+            _manager.update(sessions.stored, sessions.otherId, null);
+        }
+        sessions.swapped = !sessions.swapped;
+    }
+}
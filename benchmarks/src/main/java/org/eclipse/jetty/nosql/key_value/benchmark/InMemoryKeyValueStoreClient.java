@@ -0,0 +1,76 @@
+package org.eclipse.jetty.nosql.key_value.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+
+/**
+ * Client keeping everything in a map of this JVM. Expiration is ignored.
+ * Used to measure the session managers without any network cost.
+ */
+public class InMemoryKeyValueStoreClient extends AbstractKeyValueStoreClient {
+    private ConcurrentMap<String, byte[]> _entries = null;
+
+    public InMemoryKeyValueStoreClient() {
+        this("memory");
+    }
+
+    public InMemoryKeyValueStoreClient(String serverString) {
+        super(serverString);
+    }
+
+    public boolean connect() throws KeyValueStoreClientException {
+        _entries = new ConcurrentHashMap<String, byte[]>();
+        return true;
+    }
+
+    public boolean shutdown() throws KeyValueStoreClientException {
+        _entries = null;
+        return true;
+    }
+
+    public boolean isAlive() {
+        return _entries != null;
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    public byte[] get(String key) throws KeyValueStoreClientException {
+        checkAlive();
+        return _entries.get(key);
+    }
+
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return set(key, raw, 0);
+    }
+
+    public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        checkAlive();
+        _entries.put(key, raw);
+        return true;
+    }
+
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return add(key, raw, 0);
+    }
+
+    public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        checkAlive();
+        return _entries.putIfAbsent(key, raw) == null;
+    }
+
+    public boolean delete(String key) throws KeyValueStoreClientException {
+        checkAlive();
+        return _entries.remove(key) != null;
+    }
+
+    private void checkAlive() throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw new KeyValueStoreClientException(new IllegalStateException("client not established"));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.eclipse.jetty.nosql.key_value.benchmark;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionIdManager;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * Session ID manager backed by an {@link InMemoryKeyValueStoreClient}.
+ */
+public class InMemorySessionIdManager extends KeyValueStoreSessionIdManager {
+    public InMemorySessionIdManager(Server server) {
+        super(server, "memory");
+    }
+
+    @Override
+    protected AbstractKeyValueStoreClient newClient(String serverString) {
+        return new InMemoryKeyValueStoreClient(serverString);
+    }
+
+    public InMemoryKeyValueStoreClient getClient() {
+        return (InMemoryKeyValueStoreClient) _client;
+    }
+}
@@ -0,0 +1,64 @@
+package org.eclipse.jetty.nosql.key_value.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nosql.key_value.session.AbstractSessionFactory;
+import org.eclipse.jetty.nosql.key_value.session.SerializableSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode/decode throughput of the session serializers through their session
+ * factories, the same path used by the session managers.
+ *
+ * Run with {@code -prof gc} to get allocation rates per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+    @Param({"native", "kryo", "xstream"})
+    public String serializer;
+
+    @Param({SessionShapes.SMALL, SessionShapes.LARGE, SessionShapes.MANY_CONTEXTS, SessionShapes.NESTED, SessionShapes.BYTES})
+    public String shape;
+
+    private AbstractSessionFactory factory;
+    private SerializableSession session;
+    private byte[] raw;
+
+    @Setup
+    public void setUp() {
+        factory = SessionShapes.newSessionFactory(serializer);
+        session = SessionShapes.newSession(factory, shape);
+        raw = factory.pack(session);
+        // byte[] attributes do not compare by value, so only the layout is checked
+        SerializableSession decoded = factory.unpack(raw);
+        if (!session.getContext().keySet().equals(decoded.getContext().keySet())
+                || !session.getContextAttributes(SessionShapes.CONTEXT).keySet().equals(decoded.getContextAttributes(SessionShapes.CONTEXT).keySet())) {
+            throw new IllegalStateException(serializer + " does not round-trip " + shape + " sessions");
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return factory.pack(session);
+    }
+
+    @Benchmark
+    public SerializableSession decode() {
+        return factory.unpack(raw);
+    }
+}
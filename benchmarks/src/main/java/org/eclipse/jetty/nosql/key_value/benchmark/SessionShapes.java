@@ -0,0 +1,135 @@
+package org.eclipse.jetty.nosql.key_value.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.jetty.nosql.key_value.session.AbstractSessionFactory;
+import org.eclipse.jetty.nosql.key_value.session.SerializableSession;
+import org.eclipse.jetty.nosql.key_value.session.kryo.KryoSessionFactory;
+import org.eclipse.jetty.nosql.key_value.session.serializable.NativeSerializationSessionFactory;
+import org.eclipse.jetty.nosql.key_value.session.xstream.XStreamSessionFactory;
+
+/**
+ * Session factories and representative session contents shared by the benchmarks.
+ *
+ * <ul>
+ *   <li>small - a login session with a handful of scalar attributes</li>
+ *   <li>large - one context with 64 string attributes of 256 chars (about 16KB)</li>
+ *   <li>manyContexts - 16 contexts with 8 attributes each</li>
+ *   <li>nested - lists of maps of lists, like a shopping cart</li>
+ *   <li>bytes - byte[] payloads of 16KB and 1KB</li>
+ * </ul>
+ *
+ * Contents are generated from a fixed seed so that runs are comparable.
+ */
+public class SessionShapes {
+    public static final String SMALL = "small";
+    public static final String LARGE = "large";
+    public static final String MANY_CONTEXTS = "manyContexts";
+    public static final String NESTED = "nested";
+    public static final String BYTES = "bytes";
+
+    public static final String CONTEXT = "0.0.0.0:/";
+
+    private SessionShapes() {
+    }
+
+    /**
+     * @param name one of "native", "kryo" or "xstream"
+     */
+    public static AbstractSessionFactory newSessionFactory(String name) {
+        ClassLoader cl = SessionShapes.class.getClassLoader();
+        if ("native".equals(name)) {
+            return new NativeSerializationSessionFactory(cl);
+        } else if ("kryo".equals(name)) {
+            return new KryoSessionFactory(cl);
+        } else if ("xstream".equals(name)) {
+            return new XStreamSessionFactory(cl);
+        }
+        throw new IllegalArgumentException("unknown serializer: " + name);
+    }
+
+    public static SerializableSession newSession(AbstractSessionFactory factory, String shape) {
+        long now = System.currentTimeMillis();
+        SerializableSession session = factory.create("node0abcdefghijklmnopqrstuv", now, now, 1800);
+        populate(session, shape);
+        return session;
+    }
+
+    /**
+     * @return attributes of given shape for a single context
+     */
+    public static Map<String, Object> newAttributes(String shape) {
+        Random random = new Random(shape.hashCode());
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        if (SMALL.equals(shape)) {
+            attributes.put("userId", Long.valueOf(1234567890L));
+            attributes.put("userName", "john.doe@example.com");
+            attributes.put("locale", "en_US");
+            attributes.put("loggedIn", Boolean.TRUE);
+            attributes.put("visits", Integer.valueOf(42));
+        } else if (LARGE.equals(shape)) {
+            for (int i = 0; i < 64; i++) {
+                attributes.put("attribute" + i, randomString(random, 256));
+            }
+        } else if (MANY_CONTEXTS.equals(shape)) {
+            for (int i = 0; i < 8; i++) {
+                attributes.put("attribute" + i, randomString(random, 32));
+            }
+        } else if (NESTED.equals(shape)) {
+            List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+            for (int i = 0; i < 16; i++) {
+                Map<String, Object> item = new HashMap<String, Object>();
+                item.put("sku", randomString(random, 12));
+                item.put("quantity", Integer.valueOf(random.nextInt(10)));
+                item.put("price", Double.valueOf(random.nextDouble() * 100));
+                item.put("tags", new ArrayList<String>(Arrays.asList(randomString(random, 8), randomString(random, 8))));
+                items.add(item);
+            }
+            attributes.put("cart", items);
+            Map<String, List<Long>> history = new HashMap<String, List<Long>>();
+            for (int i = 0; i < 8; i++) {
+                List<Long> visits = new ArrayList<Long>();
+                for (int j = 0; j < 8; j++) {
+                    visits.add(Long.valueOf(random.nextLong()));
+                }
+                history.put("page" + i, visits);
+            }
+            attributes.put("history", history);
+        } else if (BYTES.equals(shape)) {
+            byte[] large = new byte[16 * 1024];
+            random.nextBytes(large);
+            byte[] small = new byte[1024];
+            random.nextBytes(small);
+            attributes.put("payload", large);
+            attributes.put("token", small);
+        } else {
+            throw new IllegalArgumentException("unknown session shape: " + shape);
+        }
+        return attributes;
+    }
+
+    private static void populate(SerializableSession session, String shape) {
+        int contexts = MANY_CONTEXTS.equals(shape) ? 16 : 1;
+        Map<String, Object> attributes = newAttributes(shape);
+        for (int i = 0; i < contexts; i++) {
+            String context = i == 0 ? CONTEXT : "0.0.0.0:/context" + i;
+            session.setContextVersion(context, 1);
+            for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                session.setContextAttribute(context, attribute.getKey(), attribute.getValue());
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,69 @@
+package org.eclipse.jetty.nosql.key_value.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks with 1, 2, 4, ... threads up to the number
+ * of available processors and prints a summary of all runs, so that
+ * contention shows up as throughput that stops scaling.
+ *
+ * Arguments are the usual JMH command line options; {@code -t} is ignored.
+ */
+public class ThreadSweep {
+    public static void main(String... args) throws Exception {
+        Options parent = new CommandLineOptions(args);
+        List<Integer> sweep = threadCounts(Runtime.getRuntime().availableProcessors());
+        List<String> summary = new ArrayList<String>();
+        for (int threads : sweep) {
+            Options options = new OptionsBuilder().parent(parent).threads(threads).build();
+            Collection<RunResult> results = new Runner(options).run();
+            for (RunResult result : results) {
+                summary.add(String.format("%-45s %-30s %3d %14.3f +- %10.3f %s",
+                        shortName(result.getParams().getBenchmark()),
+                        params(result),
+                        threads,
+                        result.getPrimaryResult().getScore(),
+                        result.getPrimaryResult().getScoreError(),
+                        result.getPrimaryResult().getScoreUnit()));
+            }
+        }
+        System.out.println();
+        System.out.println("# thread sweep " + sweep);
+        for (String line : summary) {
+            System.out.println(line);
+        }
+    }
+
+    static List<Integer> threadCounts(int max) {
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int n = 1; n < max; n *= 2) {
+            counts.add(n);
+        }
+        counts.add(max);
+        return counts;
+    }
+
+    private static String shortName(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        return benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1);
+    }
+
+    private static String params(RunResult result) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : result.getParams().getParamsKeys()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(key).append('=').append(result.getParams().getParam(key));
+        }
+        return sb.toString();
+    }
+}
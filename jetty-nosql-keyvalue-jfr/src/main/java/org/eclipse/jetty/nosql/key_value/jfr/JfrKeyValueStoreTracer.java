@@ -0,0 +1,26 @@
+package org.eclipse.jetty.nosql.key_value.jfr;
+
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreTracer;
+
+/**
+ * Emits a {@link SessionStoreEvent} for every operation while a recording
+ * with the event enabled is running, and nothing otherwise.
+ *
+ * Registered as a service, so putting this module on the class path of
+ * Jetty is enough to get the events:
+ * <pre>
+ *   java -XX:StartFlightRecording=settings=profile,filename=jetty.jfr -jar start.jar
+ * </pre>
+ */
+public class JfrKeyValueStoreTracer implements KeyValueStoreTracer {
+    public Span start(String operation, String key) {
+        SessionStoreEvent event = new SessionStoreEvent();
+        if (!event.isEnabled()) {
+            return NOOP_SPAN;
+        }
+        event.operation = operation;
+        event.key = key;
+        event.begin();
+        return event;
+    }
+}
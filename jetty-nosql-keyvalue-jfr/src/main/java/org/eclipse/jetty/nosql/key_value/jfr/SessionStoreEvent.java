@@ -0,0 +1,46 @@
+package org.eclipse.jetty.nosql.key_value.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreTracer;
+
+/**
+ * Flight recorder event of a single store, serialization or session manager
+ * operation. The event is its own span so that tracing allocates nothing
+ * beyond the event itself.
+ */
+@Name("org.eclipse.jetty.nosql.key_value.SessionStore")
+@Label("Session Store Operation")
+@Description("Operation of a key-value session store, its serializer or session manager")
+@Category({"Jetty", "Sessions"})
+@StackTrace(false)
+public class SessionStoreEvent extends jdk.jfr.Event implements KeyValueStoreTracer.Span {
+    @Label("Operation")
+    @Description("e.g. store.get, session.pack or session.save")
+    public String operation;
+
+    @Label("Key")
+    public String key;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Outcome")
+    @Description("success, hit, miss, rejected, error or timeout")
+    public String outcome;
+
+    public void finish(long bytes, String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.bytes = bytes;
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.eclipse.jetty.nosql.key_value.jfr;
+
+import java.io.File;
+import java.util.ServiceLoader;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreTracer;
+
+public class JfrKeyValueStoreTracerTest extends TestCase {
+    private static final String EVENT = "org.eclipse.jetty.nosql.key_value.SessionStore";
+
+    public void testService() {
+        boolean found = false;
+        for (KeyValueStoreTracer tracer : ServiceLoader.load(KeyValueStoreTracer.class)) {
+            found |= tracer instanceof JfrKeyValueStoreTracer;
+        }
+        assertTrue(found);
+    }
+
+    public void testDisabled() {
+        KeyValueStoreTracer tracer = new JfrKeyValueStoreTracer();
+        assertSame(KeyValueStoreTracer.NOOP_SPAN, tracer.start("store.get", "key"));
+    }
+
+    public void testEvents() throws Exception {
+        KeyValueStoreTracer tracer = new JfrKeyValueStoreTracer();
+        File file = File.createTempFile("session-store", ".jfr");
+        Recording recording = new Recording();
+        try {
+            recording.enable(SessionStoreEvent.class).withoutThreshold();
+            recording.start();
+            tracer.start("session.save", "id1").finish(1234, KeyValueStoreTracer.SUCCESS);
+            tracer.start("store.get", "id2").finish(0, KeyValueStoreTracer.TIMEOUT);
+            recording.stop();
+            recording.dump(file.toPath());
+
+            RecordedEvent save = null;
+            RecordedEvent get = null;
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (!EVENT.equals(event.getEventType().getName())) {
+                    continue;
+                }
+                if ("id1".equals(event.getString("key"))) {
+                    save = event;
+                } else if ("id2".equals(event.getString("key"))) {
+                    get = event;
+                }
+            }
+            assertNotNull(save);
+            assertEquals("session.save", save.getString("operation"));
+            assertEquals(1234, save.getLong("bytes"));
+            assertEquals(KeyValueStoreTracer.SUCCESS, save.getString("outcome"));
+            assertNotNull(get);
+            assertEquals("store.get", get.getString("operation"));
+            assertEquals(0, get.getLong("bytes"));
+            assertEquals(KeyValueStoreTracer.TIMEOUT, get.getString("outcome"));
+        } finally {
+            recording.close();
+            file.delete();
+        }
+        assertSame(KeyValueStoreTracer.NOOP_SPAN, tracer.start("store.get", "id3"));
+    }
+}
@@ -1,6 +1,8 @@
 package org.eclipse.jetty.nosql.key_value.memcached;
 
 import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
 
 public abstract class AbstractMemcachedClient extends AbstractKeyValueStoreClient {
 	public AbstractMemcachedClient(String serverString) {
@@ -20,4 +22,14 @@ public abstract class AbstractMemcachedClient extends AbstractKeyValueStoreClien
 		}
 		return serverString.toString();
 	}
+
+	/**
+	 * fail on "unix:" entries of the server string, for clients connecting over TCP only.
+	 */
+	protected void checkTcpOnly() throws KeyValueStoreClientException {
+		if (UnixDomainSockets.containsUnixDomainSocket(_serverString)) {
+			throw new KeyValueStoreClientException(new UnsupportedOperationException(getClass().getSimpleName()
+					+ " connects over TCP only, use BinaryNioMemcachedClient for unix domain sockets"));
+		}
+	}
 }
\ No newline at end of file
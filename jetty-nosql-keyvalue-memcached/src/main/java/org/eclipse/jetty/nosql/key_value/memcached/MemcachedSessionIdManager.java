@@ -2,12 +2,15 @@ package org.eclipse.jetty.nosql.key_value.memcached;
 
 import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionIdManager;
+import org.eclipse.jetty.nosql.key_value.cluster.ReplicatedKeyValueStoreClient;
 import org.eclipse.jetty.nosql.key_value.memcached.spymemcached.SpyMemcachedClientFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class MemcachedSessionIdManager extends KeyValueStoreSessionIdManager {
 
@@ -15,6 +18,10 @@ public class MemcachedSessionIdManager extends KeyValueStoreSessionIdManager {
 
     private final static Logger log = Log.getLogger("MemcachedSessionIdManager");
     private AbstractMemcachedClientFactory _clientFactory = null;
+    private int _replicas = 1;
+    private int _hedgeDelay = -1;
+    private double _hedgePercentile = 95.0;
+    private int _replicaThreads = 64;
 
     public MemcachedSessionIdManager(Server server) throws IOException {
         this(server, "127.0.0.1:11211");
@@ -50,11 +57,75 @@ public class MemcachedSessionIdManager extends KeyValueStoreSessionIdManager {
                 _clientFactory = new SpyMemcachedClientFactory(); // default client
             }
         }
-        AbstractKeyValueStoreClient client = _clientFactory.create(serverString);
+        String[] hosts = serverString.trim().split("[\\s,]+");
+        AbstractKeyValueStoreClient client;
+        if (1 < _replicas && 1 < hosts.length) {
+            Map<String, AbstractKeyValueStoreClient> nodes = new LinkedHashMap<String, AbstractKeyValueStoreClient>();
+            for (String host : hosts) {
+                nodes.put(host, _clientFactory.create(host));
+            }
+            ReplicatedKeyValueStoreClient replicated = new ReplicatedKeyValueStoreClient(nodes);
+            replicated.setReplicas(_replicas);
+            replicated.setHedgeDelay(_hedgeDelay);
+            replicated.setHedgePercentile(_hedgePercentile);
+            replicated.setMaxThreads(_replicaThreads);
+            log.info("replicate sessions to " + Math.min(_replicas, hosts.length) + " of " + hosts.length + " servers.");
+            client = replicated;
+        } else {
+            client = _clientFactory.create(serverString);
+        }
         client.setTimeout(getTimeout());
         return client;
     }
 
+    public int getReplicas() {
+        return _replicas;
+    }
+
+    /**
+     * store every session on given number of servers, chosen by consistent
+     * hashing. 1 (no replication) by default.
+     *
+     * @see ReplicatedKeyValueStoreClient
+     */
+    public void setReplicas(int replicas) {
+        this._replicas = replicas;
+    }
+
+    public int getHedgeDelay() {
+        return _hedgeDelay;
+    }
+
+    /**
+     * @param hedgeDelay milliseconds to wait for a replica before reading from the next one.
+     *        negative to follow the hedge percentile (default).
+     */
+    public void setHedgeDelay(int hedgeDelay) {
+        this._hedgeDelay = hedgeDelay;
+    }
+
+    public double getHedgePercentile() {
+        return _hedgePercentile;
+    }
+
+    /**
+     * @param hedgePercentile percentile of recent read latencies used as hedge delay. 95 by default.
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this._hedgePercentile = hedgePercentile;
+    }
+
+    public int getReplicaThreads() {
+        return _replicaThreads;
+    }
+
+    /**
+     * @param replicaThreads number of threads calling replicas at most. 64 by default.
+     */
+    public void setReplicaThreads(int replicaThreads) {
+        this._replicaThreads = replicaThreads;
+    }
+
     public AbstractMemcachedClientFactory getClientFactory() {
         return _clientFactory;
     }
@@ -0,0 +1,455 @@
+package org.eclipse.jetty.nosql.key_value.memcached.meta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.cluster.ConsistentHashRing;
+import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClient;
+
+/**
+ * Client speaking the meta protocol of memcached 1.6 (mg/ms/md/mn).
+ *
+ * A single mg returns the value together with its CAS token, remaining TTL
+ * and client flags, and can reset the TTL on the way, see {@link #getItem(String)}
+ * and {@link #getAndTouch(String, int)}. {@link #cas(String, byte[], int, long)}
+ * stores only if the item has not changed since it was read. Every request
+ * carries an opaque token which the response has to echo, so that a
+ * connection out of step is detected instead of returning someone else's
+ * value.
+ *
+ * Keys are spread over multiple servers by ketama consistent hashing.
+ *
+ * This is a synchronous client: every call is one blocking round trip on a
+ * connection of its own, taken from a pool of at most
+ * {@link #setMaxConnections(int)} connections per server. Calls wait for a
+ * free connection up to their timeout once all are busy. Nothing is
+ * pipelined; use BinaryNioMemcachedClient to multiplex many calls over one
+ * connection.
+ */
+public class MetaMemcachedClient extends AbstractMemcachedClient {
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private int _maxConnections = 4;
+	private boolean _quietWrites = false;
+	private volatile ConsistentHashRing<Node> _ring = null;
+	private final AtomicInteger _opaque = new AtomicInteger();
+
+	public MetaMemcachedClient() {
+		this("127.0.0.1:11211");
+	}
+
+	public MetaMemcachedClient(String serverString) {
+		super(serverString);
+	}
+
+	/**
+	 * value and metadata of an item.
+	 */
+	public static class Item {
+		private final byte[] _value;
+		private final long _cas;
+		private final int _ttl;
+		private final int _flags;
+
+		Item(byte[] value, long cas, int ttl, int flags) {
+			this._value = value;
+			this._cas = cas;
+			this._ttl = ttl;
+			this._flags = flags;
+		}
+
+		public byte[] getValue() {
+			return _value;
+		}
+
+		/**
+		 * @return token to pass to {@link MetaMemcachedClient#cas(String, byte[], int, long)}
+		 */
+		public long getCas() {
+			return _cas;
+		}
+
+		/**
+		 * @return remaining seconds to live, -1 if the item does not expire
+		 */
+		public int getTtl() {
+			return _ttl;
+		}
+
+		public int getFlags() {
+			return _flags;
+		}
+	}
+
+	public int getMaxConnections() {
+		return _maxConnections;
+	}
+
+	/**
+	 * @param maxConnections connections open per server at most, busy or idle,
+	 *        which is also the number of concurrent calls per server. 4 by default.
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections <= 0) {
+			throw new IllegalArgumentException("maxConnections must be positive");
+		}
+		this._maxConnections = maxConnections;
+	}
+
+	public boolean isQuietWrites() {
+		return _quietWrites;
+	}
+
+	/**
+	 * @param quietWrites send set, add and delete in quiet mode followed by mn,
+	 *        so that the server only answers failures. the call still waits for
+	 *        the answer to mn, so this saves response bytes, not round trips.
+	 *        deletes then always return true. false by default.
+	 */
+	public void setQuietWrites(boolean quietWrites) {
+		this._quietWrites = quietWrites;
+	}
+
+	public boolean connect() throws KeyValueStoreClientException {
+		if (_ring != null) {
+			shutdown();
+		}
+		checkTcpOnly();
+		Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+		for (String address : _serverString.split(" ")) {
+			int separator = address.lastIndexOf(':');
+			InetSocketAddress socketAddress = 0 < separator
+					? new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)))
+					: new InetSocketAddress(address, 11211);
+			nodes.put(address, new Node(socketAddress, _maxConnections));
+		}
+		_ring = new ConsistentHashRing<Node>(nodes);
+		return true;
+	}
+
+	public boolean shutdown() throws KeyValueStoreClientException {
+		ConsistentHashRing<Node> ring = _ring;
+		_ring = null;
+		if (ring != null) {
+			for (Node node : ring.getNodes()) {
+				node.close();
+			}
+		}
+		return true;
+	}
+
+	public boolean isAlive() {
+		return _ring != null;
+	}
+
+	public byte[] get(String key) throws KeyValueStoreClientException {
+		Item item = meta(key, "v", getReadTimeout());
+		return item == null ? null : item.getValue();
+	}
+
+	/**
+	 * mg with the T flag, resetting the TTL in the same round trip.
+	 */
+	@Override
+	public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+		if (exp <= 0) {
+			return get(key);
+		}
+		Item item = meta(key, "v T" + exp, getReadTimeout());
+		return item == null ? null : item.getValue();
+	}
+
+	/**
+	 * @return value, CAS token, remaining TTL and flags of given key, or null if not found
+	 */
+	public Item getItem(String key) throws KeyValueStoreClientException {
+		return meta(key, "v c t f", getReadTimeout());
+	}
+
+	public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+		return set(key, raw, 0);
+	}
+
+	public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+		return store(key, raw, "T" + Math.max(0, exp));
+	}
+
+	public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+		return add(key, raw, 0);
+	}
+
+	public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+		return store(key, raw, "T" + Math.max(0, exp) + " ME");
+	}
+
+	/**
+	 * store only if the item has not been changed since its CAS token was read.
+	 *
+	 * @return false if the item has been changed or removed meanwhile
+	 */
+	public boolean cas(String key, byte[] raw, int exp, long cas) throws KeyValueStoreClientException {
+		return store(key, raw, "T" + Math.max(0, exp) + " C" + cas);
+	}
+
+	public boolean delete(String key) throws KeyValueStoreClientException {
+		String response = execute(key, "md " + key + (_quietWrites ? " q" : ""), null, getWriteTimeout());
+		return response == null || response.startsWith("HD");
+	}
+
+	private boolean store(String key, byte[] raw, String flags) throws KeyValueStoreClientException {
+		String response = execute(key, "ms " + key + " " + raw.length + " " + flags + (_quietWrites ? " q" : ""), raw,
+				getWriteTimeout());
+		return response == null || response.startsWith("HD");
+	}
+
+	private Item meta(String key, String flags, int timeout) throws KeyValueStoreClientException {
+		Node node = node(key);
+		Connection connection = node.borrow(timeout);
+		boolean reusable = false;
+		try {
+			String opaque = Integer.toString(_opaque.incrementAndGet() & Integer.MAX_VALUE, 36);
+			connection.send("mg " + key + " " + flags + " O" + opaque, null, false);
+			String line = connection.readLine();
+			String[] fields = check(line).split(" ");
+			if ("EN".equals(fields[0])) {
+				reusable = true;
+				return null;
+			}
+			byte[] value = null;
+			int first = 1;
+			if ("VA".equals(fields[0])) {
+				value = connection.readData(Integer.parseInt(fields[1]));
+				first = 2;
+			} else if (!"HD".equals(fields[0])) {
+				throw new KeyValueStoreClientException("unexpected response: " + line);
+			}
+			long cas = 0;
+			int ttl = -1;
+			int clientFlags = 0;
+			boolean matched = false;
+			for (int i = first; i < fields.length; i++) {
+				String field = fields[i];
+				switch (field.charAt(0)) {
+				case 'c':
+					cas = Long.parseLong(field.substring(1));
+					break;
+				case 't':
+					ttl = Integer.parseInt(field.substring(1));
+					break;
+				case 'f':
+					clientFlags = (int) Long.parseLong(field.substring(1));
+					break;
+				case 'O':
+					matched = opaque.equals(field.substring(1));
+					break;
+				default:
+					break;
+				}
+			}
+			if (!matched) {
+				throw new KeyValueStoreClientException("response out of step: " + line);
+			}
+			reusable = true;
+			return new Item(value, cas, ttl, clientFlags);
+		} catch (IOException error) {
+			throw new KeyValueStoreClientException(error);
+		} finally {
+			node.release(connection, reusable);
+		}
+	}
+
+	/**
+	 * send a write command, followed by mn in quiet mode.
+	 *
+	 * @return response line, or null if the server had nothing to complain about in quiet mode
+	 */
+	private String execute(String key, String command, byte[] data, int timeout) throws KeyValueStoreClientException {
+		Node node = node(key);
+		Connection connection = node.borrow(timeout);
+		boolean reusable = false;
+		try {
+			String opaque = Integer.toString(_opaque.incrementAndGet() & Integer.MAX_VALUE, 36);
+			connection.send(command + " O" + opaque, data, _quietWrites);
+			String line = check(connection.readLine());
+			if (_quietWrites) {
+				if ("MN".equals(line)) {
+					reusable = true;
+					return null;
+				}
+				// a failure, the MN follows
+				if (!"MN".equals(connection.readLine())) {
+					throw new KeyValueStoreClientException("response out of step: " + line);
+				}
+			}
+			if (!line.endsWith(" O" + opaque)) {
+				throw new KeyValueStoreClientException("response out of step: " + line);
+			}
+			reusable = true;
+			return line;
+		} catch (IOException error) {
+			throw new KeyValueStoreClientException(error);
+		} finally {
+			node.release(connection, reusable);
+		}
+	}
+
+	private static String check(String line) throws KeyValueStoreClientException {
+		if (line.startsWith("SERVER_ERROR") || line.startsWith("CLIENT_ERROR") || line.startsWith("ERROR")) {
+			throw new KeyValueStoreClientException(line);
+		}
+		return line;
+	}
+
+	private Node node(String key) throws KeyValueStoreClientException {
+		ConsistentHashRing<Node> ring = _ring;
+		if (ring == null) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		if (key.length() == 0 || 250 < key.length() || key.indexOf(' ') != -1 || key.indexOf('\r') != -1
+				|| key.indexOf('\n') != -1) {
+			throw new KeyValueStoreClientException(new IllegalArgumentException("invalid key: " + key));
+		}
+		return ring.getPrimary(key);
+	}
+
+	/**
+	 * a server with its idle connections, and a permit per connection which may be open.
+	 */
+	private class Node {
+		final InetSocketAddress address;
+		final BlockingQueue<Connection> idle;
+		final Semaphore permits;
+
+		Node(InetSocketAddress address, int maxConnections) {
+			this.address = address;
+			this.idle = new ArrayBlockingQueue<Connection>(maxConnections);
+			this.permits = new Semaphore(maxConnections);
+		}
+
+		Connection borrow(int timeout) throws KeyValueStoreClientException {
+			try {
+				if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+					throw new KeyValueStoreClientException("no connection to " + address + " free within " + timeout
+							+ "ms", new TimeoutException());
+				}
+			} catch (InterruptedException error) {
+				Thread.currentThread().interrupt();
+				throw new KeyValueStoreClientException(error);
+			}
+			Connection connection = idle.poll();
+			try {
+				if (connection == null) {
+					connection = new Connection(address, getTimeout());
+				}
+				connection.socket.setSoTimeout(timeout);
+			} catch (IOException error) {
+				if (connection != null) {
+					connection.close();
+				}
+				permits.release();
+				throw new KeyValueStoreClientException(error);
+			}
+			return connection;
+		}
+
+		void release(Connection connection, boolean reusable) {
+			if (!reusable || _ring == null || !idle.offer(connection)) {
+				connection.close();
+			}
+			permits.release();
+		}
+
+		void close() {
+			Connection connection;
+			while ((connection = idle.poll()) != null) {
+				connection.close();
+			}
+		}
+	}
+
+	private static class Connection {
+		final Socket socket;
+		final InputStream in;
+		final OutputStream out;
+
+		Connection(InetSocketAddress address, int connectTimeout) throws IOException {
+			socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(address, connectTimeout);
+			in = new BufferedInputStream(socket.getInputStream());
+			out = new BufferedOutputStream(socket.getOutputStream());
+		}
+
+		void send(String command, byte[] data, boolean noop) throws IOException {
+			out.write(command.getBytes(LATIN1));
+			out.write(CRLF);
+			if (data != null) {
+				out.write(data);
+				out.write(CRLF);
+			}
+			if (noop) {
+				out.write("mn".getBytes(LATIN1));
+				out.write(CRLF);
+			}
+			out.flush();
+		}
+
+		String readLine() throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+			int previous = -1;
+			while (true) {
+				int b = in.read();
+				if (b < 0) {
+					throw new EOFException("connection closed by server");
+				}
+				if (previous == '\r' && b == '\n') {
+					byte[] bytes = line.toByteArray();
+					return new String(bytes, 0, bytes.length - 1, LATIN1);
+				}
+				line.write(b);
+				previous = b;
+			}
+		}
+
+		byte[] readData(int length) throws IOException {
+			byte[] data = new byte[length + 2];
+			int read = 0;
+			while (read < data.length) {
+				int n = in.read(data, read, data.length - read);
+				if (n < 0) {
+					throw new EOFException("connection closed by server");
+				}
+				read += n;
+			}
+			byte[] value = new byte[length];
+			System.arraycopy(data, 0, value, 0, length);
+			return value;
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException ignore) {
+				// closing anyway
+			}
+		}
+	}
+}
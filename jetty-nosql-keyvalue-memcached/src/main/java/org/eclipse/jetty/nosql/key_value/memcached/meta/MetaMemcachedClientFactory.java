@@ -0,0 +1,39 @@
+package org.eclipse.jetty.nosql.key_value.memcached.meta;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClientFactory;
+
+public class MetaMemcachedClientFactory extends AbstractMemcachedClientFactory {
+	private int _maxConnections = 4;
+	private boolean _quietWrites = false;
+
+	@Override
+	public AbstractKeyValueStoreClient create(String serverString) {
+		MetaMemcachedClient client = new MetaMemcachedClient(serverString);
+		client.setMaxConnections(_maxConnections);
+		client.setQuietWrites(_quietWrites);
+		return client;
+	}
+
+	public int getMaxConnections() {
+		return _maxConnections;
+	}
+
+	/**
+	 * @see MetaMemcachedClient#setMaxConnections(int)
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this._maxConnections = maxConnections;
+	}
+
+	public boolean isQuietWrites() {
+		return _quietWrites;
+	}
+
+	/**
+	 * @see MetaMemcachedClient#setQuietWrites(boolean)
+	 */
+	public void setQuietWrites(boolean quietWrites) {
+		this._quietWrites = quietWrites;
+	}
+}
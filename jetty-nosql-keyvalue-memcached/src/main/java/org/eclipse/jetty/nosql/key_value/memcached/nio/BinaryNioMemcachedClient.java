@@ -0,0 +1,790 @@
+package org.eclipse.jetty.nosql.key_value.memcached.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
+import org.eclipse.jetty.nosql.key_value.cluster.ConsistentHashRing;
+import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClient;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Lean memcached client for byte[] values, speaking the binary protocol over
+ * a single pipelined NIO connection per server.
+ *
+ * Callers put requests on the queue of the server and wait for them. A
+ * single I/O thread encodes everything queued into a direct buffer, writes
+ * it in as few syscalls as possible and decodes responses straight into the
+ * byte[] returned to the caller: no futures, transcoders or intermediate
+ * value objects. With {@link #setQuiet(boolean) quiet} mode, gets and writes
+ * are sent as GETQ/SETQ/ADDQ/DELETEQ and every batch is closed by a NOOP, so
+ * that the server only answers hits and failures.
+ *
+ * Servers are given as "host:port" or, for a co-located memcached, as
+ * "unix:/path/to.sock" (Java 16 or later), which skips the TCP stack.
+ * Keys are spread over multiple servers by ketama consistent hashing. A
+ * server which fails, or does not accept the connection within
+ * {@link #getTimeout()}, is reconnected after {@link #setReconnectDelay(long)};
+ * until then its requests fail immediately.
+ */
+public class BinaryNioMemcachedClient extends AbstractMemcachedClient {
+	private final static Logger log = Log.getLogger(BinaryNioMemcachedClient.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte MAGIC_REQUEST = (byte) 0x80;
+	private static final byte MAGIC_RESPONSE = (byte) 0x81;
+	private static final int HEADER_LENGTH = 24;
+
+	static final byte OP_GET = 0x00;
+	static final byte OP_SET = 0x01;
+	static final byte OP_ADD = 0x02;
+	static final byte OP_DELETE = 0x04;
+	static final byte OP_GETQ = 0x09;
+	static final byte OP_NOOP = 0x0a;
+	static final byte OP_SETQ = 0x11;
+	static final byte OP_ADDQ = 0x12;
+	static final byte OP_DELETEQ = 0x14;
+	static final byte OP_GAT = 0x1d;
+	static final byte OP_GATQ = 0x1e;
+
+	private static final int STATUS_OK = 0x0000;
+	private static final int STATUS_KEY_NOT_FOUND = 0x0001;
+	private static final int STATUS_KEY_EXISTS = 0x0002;
+	private static final int STATUS_ITEM_NOT_STORED = 0x0005;
+
+	private int _bufferSize = 64 * 1024;
+	private boolean _quiet = true;
+	private long _reconnectDelay = 1000;
+
+	private volatile ConsistentHashRing<Connection> _ring = null;
+	private volatile Selector _selector = null;
+	private Thread _thread = null;
+	private final Queue<Connection> _ready = new ConcurrentLinkedQueue<Connection>();
+	private final AtomicInteger _opaque = new AtomicInteger();
+
+	public BinaryNioMemcachedClient() {
+		this("127.0.0.1:11211");
+	}
+
+	public BinaryNioMemcachedClient(String serverString) {
+		super(serverString);
+	}
+
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+
+	/**
+	 * @param bufferSize bytes of the direct read and write buffers per server. 65536 by default.
+	 *        responses larger than this grow the read buffer.
+	 */
+	public void setBufferSize(int bufferSize) {
+		this._bufferSize = bufferSize;
+	}
+
+	public boolean isQuiet() {
+		return _quiet;
+	}
+
+	/**
+	 * @param quiet send quiet commands closed by a NOOP per batch, so that misses
+	 *        and successful writes are not answered one by one. true by default.
+	 */
+	public void setQuiet(boolean quiet) {
+		this._quiet = quiet;
+	}
+
+	public long getReconnectDelay() {
+		return _reconnectDelay;
+	}
+
+	/**
+	 * @param reconnectDelay milliseconds before reconnecting to a failed server. 1000 by default.
+	 */
+	public void setReconnectDelay(long reconnectDelay) {
+		this._reconnectDelay = reconnectDelay;
+	}
+
+	public synchronized boolean connect() throws KeyValueStoreClientException {
+		if (_ring != null) {
+			shutdown();
+		}
+		if (UnixDomainSockets.containsUnixDomainSocket(_serverString) && !UnixDomainSockets.isSupported()) {
+			throw new KeyValueStoreClientException(new UnsupportedOperationException("unix domain sockets require Java 16 or later"));
+		}
+		Map<String, Connection> connections = new LinkedHashMap<String, Connection>();
+		for (String address : _serverString.split(" ")) {
+			connections.put(address, new Connection(address));
+		}
+		try {
+			_selector = Selector.open();
+		} catch (IOException error) {
+			throw new KeyValueStoreClientException(error);
+		}
+		_ring = new ConsistentHashRing<Connection>(connections);
+		for (Connection connection : connections.values()) {
+			schedule(connection);
+		}
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "BinaryNioMemcachedClient-" + _serverString);
+		_thread.setDaemon(true);
+		_thread.start();
+		return true;
+	}
+
+	public synchronized boolean shutdown() throws KeyValueStoreClientException {
+		ConsistentHashRing<Connection> ring = _ring;
+		if (ring == null) {
+			return true;
+		}
+		_ring = null;
+		_selector.wakeup();
+		try {
+			_thread.join(getTimeout());
+		} catch (InterruptedException error) {
+			Thread.currentThread().interrupt();
+		}
+		for (Connection connection : ring.getNodes()) {
+			connection.fail(new ClosedChannelException(), 0);
+		}
+		try {
+			_selector.close();
+		} catch (IOException error) {
+			log.debug("unable to close selector", error);
+		}
+		_thread = null;
+		_selector = null;
+		return true;
+	}
+
+	public boolean isAlive() {
+		return _ring != null;
+	}
+
+	public byte[] get(String key) throws KeyValueStoreClientException {
+		Request request = new Request(_quiet ? OP_GETQ : OP_GET, key, null, 0, true);
+		submit(request, getReadTimeout());
+		return request.value;
+	}
+
+	@Override
+	public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+		if (exp <= 0) {
+			return get(key);
+		}
+		Request request = new Request(_quiet ? OP_GATQ : OP_GAT, key, null, exp, true);
+		submit(request, getReadTimeout());
+		return request.value;
+	}
+
+	public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+		return set(key, raw, 0);
+	}
+
+	public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+		Request request = new Request(_quiet ? OP_SETQ : OP_SET, key, raw, Math.max(0, exp), false);
+		submit(request, getWriteTimeout());
+		return request.status == STATUS_OK;
+	}
+
+	public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+		return add(key, raw, 0);
+	}
+
+	public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+		Request request = new Request(_quiet ? OP_ADDQ : OP_ADD, key, raw, Math.max(0, exp), false);
+		submit(request, getWriteTimeout());
+		return request.status == STATUS_OK;
+	}
+
+	public boolean delete(String key) throws KeyValueStoreClientException {
+		Request request = new Request(_quiet ? OP_DELETEQ : OP_DELETE, key, null, 0, false);
+		submit(request, getWriteTimeout());
+		return request.status == STATUS_OK;
+	}
+
+	/**
+	 * gets are all queued before waiting for any, so that they go out as one
+	 * pipelined batch per server, closed by a single NOOP in quiet mode.
+	 */
+	@Override
+	public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+		List<Request> requests = new ArrayList<Request>(keys.size());
+		for (String key : keys) {
+			requests.add(new Request(_quiet ? OP_GETQ : OP_GET, key, null, 0, true));
+		}
+		submit(requests, getReadTimeout());
+		Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+		for (Request request : requests) {
+			if (request.value != null) {
+				values.put(request.key, request.value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * GATs are pipelined the same way as the gets of
+	 * {@link #getMulti(Collection)}.
+	 */
+	@Override
+	public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+		if (exp <= 0) {
+			return getMulti(keys);
+		}
+		List<Request> requests = new ArrayList<Request>(keys.size());
+		for (String key : keys) {
+			requests.add(new Request(_quiet ? OP_GATQ : OP_GAT, key, null, exp, true));
+		}
+		submit(requests, getReadTimeout());
+		Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+		for (Request request : requests) {
+			if (request.value != null) {
+				values.put(request.key, request.value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * sets are all queued before waiting for any, so that they go out as one
+	 * pipelined batch per server.
+	 */
+	@Override
+	public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+		List<Request> requests = new ArrayList<Request>(values.size());
+		for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+			requests.add(new Request(_quiet ? OP_SETQ : OP_SET, entry.getKey(), entry.getValue(), Math.max(0, exp), false));
+		}
+		submit(requests, getWriteTimeout());
+		boolean result = true;
+		for (Request request : requests) {
+			result &= request.status == STATUS_OK;
+		}
+		return result;
+	}
+
+	private void submit(Request request, int timeout) throws KeyValueStoreClientException {
+		schedule(enqueue(request));
+		request.await(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+	}
+
+	private void submit(List<Request> requests, int timeout) throws KeyValueStoreClientException {
+		Set<Connection> connections = new HashSet<Connection>();
+		for (Request request : requests) {
+			connections.add(enqueue(request));
+		}
+		for (Connection connection : connections) {
+			schedule(connection);
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		for (Request request : requests) {
+			request.await(deadline);
+		}
+	}
+
+	/**
+	 * put given request on the queue of the server owning its key.
+	 *
+	 * @return the connection to schedule
+	 */
+	private Connection enqueue(Request request) throws KeyValueStoreClientException {
+		ConsistentHashRing<Connection> ring = _ring;
+		if (ring == null) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		Connection connection = ring.getPrimary(request.key);
+		if (connection.isDown()) {
+			throw new KeyValueStoreClientException("server " + connection.name + " is down");
+		}
+		request.opaque = _opaque.incrementAndGet();
+		connection.queue.add(request);
+		return connection;
+	}
+
+	/**
+	 * hand given connection to the I/O thread.
+	 */
+	private void schedule(Connection connection) {
+		if (connection.scheduled.compareAndSet(false, true)) {
+			_ready.add(connection);
+			Selector selector = _selector;
+			if (selector != null) {
+				selector.wakeup();
+			}
+		}
+	}
+
+	private void loop() {
+		Selector selector = _selector;
+		while (_ring != null) {
+			try {
+				selector.select(expireConnects());
+				Connection ready;
+				while ((ready = _ready.poll()) != null) {
+					ready.scheduled.set(false);
+					ready.flush(selector);
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isValid() && key.isConnectable()) {
+							connection.finishConnect();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flush(selector);
+						}
+					} catch (IOException error) {
+						connection.fail(error, _reconnectDelay);
+					}
+				}
+			} catch (IOException error) {
+				log.warn("selector failed", error);
+			} catch (RuntimeException error) {
+				log.warn("unexpected error", error);
+			}
+		}
+	}
+
+	/**
+	 * fail connections whose connect has not finished within the timeout.
+	 *
+	 * @return milliseconds until the next pending connect times out, 0 if there is none
+	 */
+	private long expireConnects() {
+		ConsistentHashRing<Connection> ring = _ring;
+		if (ring == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		long next = 0;
+		for (Connection connection : ring.getNodes()) {
+			long remaining = connection.expireConnect(now);
+			if (0 < remaining && (next == 0 || remaining < next)) {
+				next = remaining;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * a single get, get-and-touch or write, waited for by the calling thread.
+	 */
+	static final class Request {
+		final byte opcode;
+		final String key;
+		final byte[] raw;
+		final int exp;
+		final boolean read;
+		int opaque;
+		int status = -1;
+		byte[] value;
+		Throwable failure;
+		private boolean _done;
+
+		Request(byte opcode, String key, byte[] raw, int exp, boolean read) {
+			this.opcode = opcode;
+			this.key = key;
+			this.raw = raw;
+			this.exp = exp;
+			this.read = read;
+		}
+
+		boolean isQuiet() {
+			return opcode == OP_GETQ || opcode == OP_GATQ || opcode == OP_SETQ || opcode == OP_ADDQ
+					|| opcode == OP_DELETEQ;
+		}
+
+		int extrasLength() {
+			if (opcode == OP_SET || opcode == OP_SETQ || opcode == OP_ADD || opcode == OP_ADDQ) {
+				return 8;
+			}
+			return opcode == OP_GAT || opcode == OP_GATQ ? 4 : 0;
+		}
+
+		/**
+		 * a quiet request passed without an answer: a miss or a success.
+		 */
+		void passed() {
+			complete(read ? STATUS_KEY_NOT_FOUND : STATUS_OK, null);
+		}
+
+		synchronized void complete(int status, byte[] value) {
+			this.status = status;
+			this.value = value;
+			_done = true;
+			notifyAll();
+		}
+
+		synchronized void fail(Throwable failure) {
+			if (!_done) {
+				this.failure = failure;
+				_done = true;
+				notifyAll();
+			}
+		}
+
+		/**
+		 * @param deadline in nanoseconds of {@link System#nanoTime()}
+		 */
+		synchronized void await(long deadline) throws KeyValueStoreClientException {
+			try {
+				while (!_done) {
+					long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (wait <= 0) {
+						throw new KeyValueStoreClientException(new TimeoutException("timed out waiting for " + key));
+					}
+					wait(wait);
+				}
+			} catch (InterruptedException error) {
+				Thread.currentThread().interrupt();
+				throw new KeyValueStoreClientException(error);
+			}
+			if (failure != null) {
+				throw new KeyValueStoreClientException(failure);
+			}
+			if (status != STATUS_OK && status != STATUS_KEY_NOT_FOUND && status != STATUS_KEY_EXISTS
+					&& status != STATUS_ITEM_NOT_STORED) {
+				throw new KeyValueStoreClientException("server error 0x" + Integer.toHexString(status) + " for " + key);
+			}
+		}
+	}
+
+	/**
+	 * a pipelined connection to a server. everything but queue and scheduled is
+	 * touched by the I/O thread only.
+	 */
+	private final class Connection {
+		final String name;
+		final String address;
+		final Queue<Request> queue = new ConcurrentLinkedQueue<Request>();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		private final ArrayDeque<Request> _inflight = new ArrayDeque<Request>();
+		private volatile long _downUntil = 0;
+		private SocketChannel _channel = null;
+		private SelectionKey _key = null;
+		private boolean _connected = false;
+		private long _connectDeadline = 0;
+		private ByteBuffer _out = null;
+		private ByteBuffer _in = null;
+		private Request _writing = null;
+		private int _written = 0;
+		private boolean _noop = false;
+
+		Connection(String address) {
+			this.name = address;
+			this.address = address;
+		}
+
+		boolean isDown() {
+			return _downUntil != 0 && System.currentTimeMillis() < _downUntil;
+		}
+
+		void flush(Selector selector) {
+			try {
+				if (_channel == null) {
+					open(selector);
+					return;
+				}
+				if (!_connected) {
+					return;
+				}
+				encode();
+				_out.flip();
+				_channel.write(_out);
+				_out.compact();
+				boolean pending = 0 < _out.position() || _writing != null || _noop || !queue.isEmpty();
+				_key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			} catch (IOException error) {
+				fail(error, _reconnectDelay);
+			}
+		}
+
+		private void open(Selector selector) throws IOException {
+			if (isDown()) {
+				fail(new IOException("server " + name + " is down"), -1);
+				return;
+			}
+			SocketAddress target;
+			if (UnixDomainSockets.isUnixDomainSocket(address)) {
+				_channel = UnixDomainSockets.openChannel();
+				target = UnixDomainSockets.addressOf(address);
+			} else {
+				_channel = SocketChannel.open();
+				_channel.socket().setTcpNoDelay(true);
+				int separator = address.lastIndexOf(':');
+				target = 0 < separator
+						? new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)))
+						: new InetSocketAddress(address, 11211);
+			}
+			_channel.configureBlocking(false);
+			_out = ByteBuffer.allocateDirect(_bufferSize);
+			_in = ByteBuffer.allocateDirect(_bufferSize);
+			if (_channel.connect(target)) {
+				_key = _channel.register(selector, SelectionKey.OP_READ, this);
+				connected(selector);
+			} else {
+				_key = _channel.register(selector, SelectionKey.OP_CONNECT, this);
+				_connectDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getTimeout());
+			}
+		}
+
+		/**
+		 * fail the connection and mark the server down if its connect is pending past the deadline.
+		 *
+		 * @return milliseconds left until the deadline, 0 if no connect is pending
+		 */
+		long expireConnect(long now) {
+			if (_channel == null || _connected || _connectDeadline == 0) {
+				return 0;
+			}
+			long remaining = _connectDeadline - now;
+			if (remaining <= 0) {
+				fail(new SocketTimeoutException("connect to " + name + " timed out after " + getTimeout() + "ms"),
+						_reconnectDelay);
+				return 0;
+			}
+			return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+		}
+
+		void finishConnect() throws IOException {
+			if (_channel.finishConnect()) {
+				connected(_key.selector());
+			}
+		}
+
+		private void connected(Selector selector) {
+			_connected = true;
+			_connectDeadline = 0;
+			_downUntil = 0;
+			_key.interestOps(SelectionKey.OP_READ);
+			log.debug("connected to " + name);
+			flush(selector);
+		}
+
+		/**
+		 * move queued requests into the write buffer, as far as they fit.
+		 */
+		private void encode() {
+			boolean quiet = false;
+			while (true) {
+				if (_writing == null) {
+					Request request = queue.poll();
+					if (request == null) {
+						break;
+					}
+					if (_out.remaining() < HEADER_LENGTH + request.extrasLength() + request.key.length() * 3) {
+						// no room for the header, wait for the buffer to drain
+						_writing = request;
+						_written = -1;
+						break;
+					}
+					writeHeader(request);
+					_writing = request;
+					_written = 0;
+				} else if (_written < 0) {
+					if (_out.remaining() < HEADER_LENGTH + _writing.extrasLength() + _writing.key.length() * 3) {
+						break;
+					}
+					writeHeader(_writing);
+					_written = 0;
+				}
+				if (_writing.raw != null) {
+					int length = Math.min(_out.remaining(), _writing.raw.length - _written);
+					_out.put(_writing.raw, _written, length);
+					_written += length;
+					if (_written < _writing.raw.length) {
+						break;
+					}
+				}
+				quiet |= _writing.isQuiet();
+				_inflight.add(_writing);
+				_writing = null;
+			}
+			_noop |= quiet;
+			if (_noop && _writing == null && HEADER_LENGTH <= _out.remaining()) {
+				// close the batch, so that quiet requests before it are known to have passed
+				Request noop = new Request(OP_NOOP, "", null, 0, false);
+				noop.opaque = _opaque.incrementAndGet();
+				writeHeader(noop);
+				_inflight.add(noop);
+				_noop = false;
+			}
+		}
+
+		private void writeHeader(Request request) {
+			int start = _out.position();
+			int extras = request.extrasLength();
+			_out.position(start + HEADER_LENGTH + extras);
+			int keyLength = putKey(request.key);
+			int valueLength = request.raw == null ? 0 : request.raw.length;
+			_out.put(start, MAGIC_REQUEST);
+			_out.put(start + 1, request.opcode);
+			_out.putShort(start + 2, (short) keyLength);
+			_out.put(start + 4, (byte) extras);
+			_out.put(start + 5, (byte) 0);
+			_out.putShort(start + 6, (short) 0);
+			_out.putInt(start + 8, extras + keyLength + valueLength);
+			_out.putInt(start + 12, request.opaque);
+			_out.putLong(start + 16, 0L);
+			if (extras == 8) {
+				_out.putInt(start + HEADER_LENGTH, 0); // flags
+				_out.putInt(start + HEADER_LENGTH + 4, request.exp);
+			} else if (extras == 4) {
+				_out.putInt(start + HEADER_LENGTH, request.exp);
+			}
+		}
+
+		/**
+		 * write the key without an intermediate byte[] when it is ASCII.
+		 *
+		 * @return length of the key in bytes
+		 */
+		private int putKey(String key) {
+			int length = key.length();
+			for (int i = 0; i < length; i++) {
+				if (0x80 <= key.charAt(i)) {
+					byte[] bytes = key.getBytes(UTF8);
+					_out.put(bytes);
+					return bytes.length;
+				}
+			}
+			for (int i = 0; i < length; i++) {
+				_out.put((byte) key.charAt(i));
+			}
+			return length;
+		}
+
+		void read() throws IOException {
+			if (_channel.read(_in) < 0) {
+				throw new EOFException("connection closed by " + name);
+			}
+			_in.flip();
+			while (HEADER_LENGTH <= _in.remaining()) {
+				int start = _in.position();
+				if (_in.get(start) != MAGIC_RESPONSE) {
+					throw new IOException("unexpected magic from " + name);
+				}
+				int bodyLength = _in.getInt(start + 8);
+				if (_in.remaining() < HEADER_LENGTH + bodyLength) {
+					if (_in.capacity() < HEADER_LENGTH + bodyLength) {
+						grow(HEADER_LENGTH + bodyLength);
+						return;
+					}
+					break;
+				}
+				int keyLength = _in.getShort(start + 2) & 0xffff;
+				int extrasLength = _in.get(start + 4) & 0xff;
+				int status = _in.getShort(start + 6) & 0xffff;
+				int opaque = _in.getInt(start + 12);
+				Request request = match(opaque);
+				byte[] value = null;
+				if (request.read && status == STATUS_OK) {
+					value = new byte[bodyLength - extrasLength - keyLength];
+					_in.position(start + HEADER_LENGTH + extrasLength + keyLength);
+					_in.get(value);
+				}
+				_in.position(start + HEADER_LENGTH + bodyLength);
+				request.complete(status, value);
+			}
+			_in.compact();
+		}
+
+		/**
+		 * @return in-flight request with given opaque. quiet requests before it have passed.
+		 */
+		private Request match(int opaque) throws IOException {
+			while (true) {
+				Request request = _inflight.poll();
+				if (request == null) {
+					throw new IOException("unexpected response from " + name);
+				}
+				if (request.opaque == opaque) {
+					return request;
+				}
+				if (!request.isQuiet()) {
+					throw new IOException("response out of order from " + name);
+				}
+				request.passed();
+			}
+		}
+
+		/**
+		 * replace the read buffer by one which fits a response of given length.
+		 */
+		private void grow(int length) {
+			ByteBuffer in = ByteBuffer.allocateDirect(Math.max(length, _in.capacity() * 2));
+			in.put(_in);
+			_in = in;
+		}
+
+		/**
+		 * close the connection and fail everything queued on it.
+		 *
+		 * @param reconnectDelay milliseconds to fail fast, negative to keep the current delay
+		 */
+		void fail(Throwable error, long reconnectDelay) {
+			if (_channel != null) {
+				if (0 < reconnectDelay) {
+					log.warn("connection to " + name + " failed", error);
+				}
+				try {
+					_channel.close();
+				} catch (IOException ignore) {
+					// closing anyway
+				}
+			}
+			_channel = null;
+			_key = null;
+			_connected = false;
+			_connectDeadline = 0;
+			_writing = null;
+			_noop = false;
+			if (0 <= reconnectDelay) {
+				_downUntil = System.currentTimeMillis() + reconnectDelay;
+			}
+			Request request;
+			while ((request = _inflight.poll()) != null) {
+				request.fail(error);
+			}
+			while ((request = queue.poll()) != null) {
+				request.fail(error);
+			}
+		}
+	}
+}
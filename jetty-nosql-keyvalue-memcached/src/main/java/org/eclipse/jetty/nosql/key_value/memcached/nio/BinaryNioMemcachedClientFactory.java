@@ -0,0 +1,52 @@
+package org.eclipse.jetty.nosql.key_value.memcached.nio;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClientFactory;
+
+public class BinaryNioMemcachedClientFactory extends AbstractMemcachedClientFactory {
+	private int _bufferSize = 64 * 1024;
+	private boolean _quiet = true;
+	private long _reconnectDelay = 1000;
+
+	@Override
+	public AbstractKeyValueStoreClient create(String serverString) {
+		BinaryNioMemcachedClient client = new BinaryNioMemcachedClient(serverString);
+		client.setBufferSize(_bufferSize);
+		client.setQuiet(_quiet);
+		client.setReconnectDelay(_reconnectDelay);
+		return client;
+	}
+
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+
+	/**
+	 * @see BinaryNioMemcachedClient#setBufferSize(int)
+	 */
+	public void setBufferSize(int bufferSize) {
+		this._bufferSize = bufferSize;
+	}
+
+	public boolean isQuiet() {
+		return _quiet;
+	}
+
+	/**
+	 * @see BinaryNioMemcachedClient#setQuiet(boolean)
+	 */
+	public void setQuiet(boolean quiet) {
+		this._quiet = quiet;
+	}
+
+	public long getReconnectDelay() {
+		return _reconnectDelay;
+	}
+
+	/**
+	 * @see BinaryNioMemcachedClient#setReconnectDelay(long)
+	 */
+	public void setReconnectDelay(long reconnectDelay) {
+		this._reconnectDelay = reconnectDelay;
+	}
+}
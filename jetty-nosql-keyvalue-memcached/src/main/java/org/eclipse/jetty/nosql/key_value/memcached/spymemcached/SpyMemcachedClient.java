@@ -1,22 +1,42 @@
 package org.eclipse.jetty.nosql.key_value.memcached.spymemcached;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import net.spy.memcached.AddrUtil;
+import net.spy.memcached.CASValue;
 import net.spy.memcached.ConnectionFactory;
 import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.DefaultConnectionFactory;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.FailureMode;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.Transcoder;
 
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
 import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClient;
 
 public class SpyMemcachedClient extends AbstractMemcachedClient {
+	public static final String REDISTRIBUTE = "redistribute";
+	public static final String RETRY = "retry";
+	public static final String CANCEL = "cancel";
+
 	private static final int FOREVER = 0;
 	private MemcachedClient _client = null;
+	private boolean _binary = false;
 	private Transcoder<byte[]> _transcoder = null;
+	private boolean _ketama = false;
+	private String _failureMode = REDISTRIBUTE;
+	private int _opQueueLength = DefaultConnectionFactory.DEFAULT_OP_QUEUE_LEN;
+	private long _opQueueMaxBlockTime = DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME;
+	private int _readBufferSize = DefaultConnectionFactory.DEFAULT_READ_BUFFER_SIZE;
 
 	public SpyMemcachedClient() {
 		this("127.0.0.1:11211");
@@ -31,8 +51,10 @@ public class SpyMemcachedClient extends AbstractMemcachedClient {
 		if (_client != null) {
 			shutdown();
 		}
+		checkTcpOnly();
 		try {
 			ConnectionFactory cf = getConnectionFactory();
+			_binary = cf != null && cf.getOperationFactory() instanceof BinaryOperationFactory;
 			if (cf == null) {
 				this._client = new MemcachedClient(AddrUtil.getAddresses(_serverString));
 			} else {
@@ -44,8 +66,90 @@ public class SpyMemcachedClient extends AbstractMemcachedClient {
 		return true;
 	}
 
+	public boolean isKetama() {
+		return _ketama;
+	}
+
+	/**
+	 * @param ketama spread keys over the servers by ketama consistent hashing, so that
+	 *        adding or removing a server moves only its share of the keys. false by default:
+	 *        keys are spread by their hash modulo the number of servers, as in earlier versions.
+	 *        Switching moves most keys to another server, so sessions stored before are lost.
+	 */
+	public void setKetama(boolean ketama) {
+		this._ketama = ketama;
+	}
+
+	public String getFailureMode() {
+		return _failureMode;
+	}
+
+	/**
+	 * @param failureMode what to do with operations for a server which is down:
+	 *        {@link #REDISTRIBUTE} them to the next server (default), {@link #RETRY}
+	 *        them on the same server once it is back, or {@link #CANCEL} them.
+	 */
+	public void setFailureMode(String failureMode) {
+		failureModeOf(failureMode);
+		this._failureMode = failureMode;
+	}
+
+	private static FailureMode failureModeOf(String failureMode) {
+		if (REDISTRIBUTE.equalsIgnoreCase(failureMode)) {
+			return FailureMode.Redistribute;
+		} else if (RETRY.equalsIgnoreCase(failureMode)) {
+			return FailureMode.Retry;
+		} else if (CANCEL.equalsIgnoreCase(failureMode)) {
+			return FailureMode.Cancel;
+		}
+		throw new IllegalArgumentException("unknown failure mode: " + failureMode);
+	}
+
+	public int getOpQueueLength() {
+		return _opQueueLength;
+	}
+
+	/**
+	 * @param opQueueLength operations queued per server. 16384 by default.
+	 */
+	public void setOpQueueLength(int opQueueLength) {
+		this._opQueueLength = opQueueLength;
+	}
+
+	public long getOpQueueMaxBlockTime() {
+		return _opQueueMaxBlockTime;
+	}
+
+	/**
+	 * @param opQueueMaxBlockTime milliseconds to wait for room in a full queue before
+	 *        failing the operation. 10000 by default.
+	 */
+	public void setOpQueueMaxBlockTime(long opQueueMaxBlockTime) {
+		this._opQueueMaxBlockTime = opQueueMaxBlockTime;
+	}
+
+	public int getReadBufferSize() {
+		return _readBufferSize;
+	}
+
+	/**
+	 * @param readBufferSize bytes read from a server at once. 16384 by default.
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		this._readBufferSize = readBufferSize;
+	}
+
 	protected ConnectionFactoryBuilder getConnectionFactoryBuilder() {
-		return new ConnectionFactoryBuilder();
+		ConnectionFactoryBuilder factoryBuilder = new ConnectionFactoryBuilder();
+		if (_ketama) {
+			factoryBuilder.setLocatorType(ConnectionFactoryBuilder.Locator.CONSISTENT);
+			factoryBuilder.setHashAlg(DefaultHashAlgorithm.KETAMA_HASH);
+		}
+		factoryBuilder.setFailureMode(failureModeOf(_failureMode));
+		factoryBuilder.setOpQueueFactory(new ArrayOperationQueueFactory(_opQueueLength));
+		factoryBuilder.setOpQueueMaxBlockTime(_opQueueMaxBlockTime);
+		factoryBuilder.setReadBufferSize(_readBufferSize);
+		return factoryBuilder;
 	}
 
 	protected ConnectionFactory getConnectionFactory() {
@@ -72,7 +176,37 @@ public class SpyMemcachedClient extends AbstractMemcachedClient {
 		byte[] raw = null;
 		try {
 			Future<byte[]> f = _client.asyncGet(key, _transcoder);
-			raw = f.get(timeout, TimeUnit.MILLISECONDS);
+			raw = f.get(getReadTimeout(), TimeUnit.MILLISECONDS);
+		} catch (Exception error) {
+			throw(new KeyValueStoreClientException(error));
+		}
+		return raw;
+	}
+
+	/**
+	 * GAT on the binary protocol. the text protocol of spymemcached has no GAT,
+	 * so get and touch are sent together instead.
+	 */
+	@Override
+	public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+		if (exp <= 0) {
+			return get(key);
+		}
+		if (!isAlive()) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		byte[] raw = null;
+		try {
+			if (_binary) {
+				Future<CASValue<byte[]>> f = _client.asyncGetAndTouch(key, exp, _transcoder);
+				CASValue<byte[]> value = f.get(getReadTimeout(), TimeUnit.MILLISECONDS);
+				raw = value == null ? null : value.getValue();
+			} else {
+				Future<byte[]> f = _client.asyncGet(key, _transcoder);
+				Future<Boolean> touched = _client.touch(key, exp);
+				raw = f.get(getReadTimeout(), TimeUnit.MILLISECONDS);
+				touched.get(getWriteTimeout(), TimeUnit.MILLISECONDS);
+			}
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
@@ -90,7 +224,7 @@ public class SpyMemcachedClient extends AbstractMemcachedClient {
 		boolean result;
 		try {
 			Future<Boolean> f = _client.set(key, exp, raw, _transcoder);
-			result = f.get(timeout, TimeUnit.MILLISECONDS);
+			result = f.get(getWriteTimeout(), TimeUnit.MILLISECONDS);
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
@@ -108,7 +242,7 @@ public class SpyMemcachedClient extends AbstractMemcachedClient {
 		boolean result;
 		try {
 			Future<Boolean> f = _client.add(key, exp, raw, _transcoder);
-			result = f.get(timeout, TimeUnit.MILLISECONDS);
+			result = f.get(getWriteTimeout(), TimeUnit.MILLISECONDS);
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
@@ -122,7 +256,43 @@ public class SpyMemcachedClient extends AbstractMemcachedClient {
 		boolean result;
 		try {
 			Future<Boolean> f = _client.delete(key);
-			result = f.get(timeout, TimeUnit.MILLISECONDS);
+			result = f.get(getWriteTimeout(), TimeUnit.MILLISECONDS);
+		} catch (Exception error) {
+			throw(new KeyValueStoreClientException(error));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+		if (!isAlive()) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		try {
+			return _client.asyncGetBulk(keys, _transcoder).get(getReadTimeout(), TimeUnit.MILLISECONDS);
+		} catch (Exception error) {
+			throw(new KeyValueStoreClientException(error));
+		}
+	}
+
+	/**
+	 * queue all sets before waiting for any, so that they are written as one batch.
+	 */
+	@Override
+	public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+		if (!isAlive()) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(values.size());
+		for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+			futures.add(_client.set(entry.getKey(), exp, entry.getValue(), _transcoder));
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getWriteTimeout());
+		boolean result = true;
+		try {
+			for (Future<Boolean> f : futures) {
+				result &= f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
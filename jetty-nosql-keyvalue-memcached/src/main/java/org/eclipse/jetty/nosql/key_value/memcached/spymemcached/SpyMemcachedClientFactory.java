@@ -3,9 +3,82 @@ package org.eclipse.jetty.nosql.key_value.memcached.spymemcached;
 import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
 import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClientFactory;
 
+import net.spy.memcached.DefaultConnectionFactory;
+
 public class SpyMemcachedClientFactory extends AbstractMemcachedClientFactory {
+	private boolean _ketama = false;
+	private String _failureMode = SpyMemcachedClient.REDISTRIBUTE;
+	private int _opQueueLength = DefaultConnectionFactory.DEFAULT_OP_QUEUE_LEN;
+	private long _opQueueMaxBlockTime = DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME;
+	private int _readBufferSize = DefaultConnectionFactory.DEFAULT_READ_BUFFER_SIZE;
+
 	@Override
 	public AbstractKeyValueStoreClient create(String serverString) {
+		SpyMemcachedClient client = newClient(serverString);
+		client.setKetama(_ketama);
+		client.setFailureMode(_failureMode);
+		client.setOpQueueLength(_opQueueLength);
+		client.setOpQueueMaxBlockTime(_opQueueMaxBlockTime);
+		client.setReadBufferSize(_readBufferSize);
+		return client;
+	}
+
+	protected SpyMemcachedClient newClient(String serverString) {
 		return new SpyMemcachedClient(serverString);
 	}
+
+	public boolean isKetama() {
+		return _ketama;
+	}
+
+	/**
+	 * @see SpyMemcachedClient#setKetama(boolean)
+	 */
+	public void setKetama(boolean ketama) {
+		this._ketama = ketama;
+	}
+
+	public String getFailureMode() {
+		return _failureMode;
+	}
+
+	/**
+	 * @see SpyMemcachedClient#setFailureMode(String)
+	 */
+	public void setFailureMode(String failureMode) {
+		this._failureMode = failureMode;
+	}
+
+	public int getOpQueueLength() {
+		return _opQueueLength;
+	}
+
+	/**
+	 * @see SpyMemcachedClient#setOpQueueLength(int)
+	 */
+	public void setOpQueueLength(int opQueueLength) {
+		this._opQueueLength = opQueueLength;
+	}
+
+	public long getOpQueueMaxBlockTime() {
+		return _opQueueMaxBlockTime;
+	}
+
+	/**
+	 * @see SpyMemcachedClient#setOpQueueMaxBlockTime(long)
+	 */
+	public void setOpQueueMaxBlockTime(long opQueueMaxBlockTime) {
+		this._opQueueMaxBlockTime = opQueueMaxBlockTime;
+	}
+
+	public int getReadBufferSize() {
+		return _readBufferSize;
+	}
+
+	/**
+	 * @see SpyMemcachedClient#setReadBufferSize(int)
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		this._readBufferSize = readBufferSize;
+	}
 }
@@ -1,7 +1,5 @@
 package org.eclipse.jetty.nosql.key_value.memcached.xmemcached;
 
-import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
-
 /**
  * Created by IntelliJ IDEA.
  * User: yyuu
@@ -11,7 +9,7 @@ import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
  */
 public class BinaryXMemcachedClientFactory extends XMemcachedClientFactory {
 	@Override
-	public AbstractKeyValueStoreClient create(String serverString) {
+	protected XMemcachedClient newClient(String serverString) {
 		return new BinaryXMemcachedClient(serverString);
 	}
 }
@@ -1,20 +1,38 @@
 package org.eclipse.jetty.nosql.key_value.memcached.xmemcached;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.code.yanf4j.config.Configuration;
 
 import net.rubyeye.xmemcached.MemcachedClient;
 import net.rubyeye.xmemcached.XMemcachedClientBuilder;
+import net.rubyeye.xmemcached.impl.ArrayMemcachedSessionLocator;
+import net.rubyeye.xmemcached.impl.KetamaMemcachedSessionLocator;
 import net.rubyeye.xmemcached.transcoders.Transcoder;
 import net.rubyeye.xmemcached.utils.AddrUtil;
+import net.rubyeye.xmemcached.utils.Protocol;
 
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
 import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClient;
 
 public class XMemcachedClient extends AbstractMemcachedClient {
+	public static final String KETAMA = "ketama";
+	public static final String ARRAY = "array";
+
 	private static final int FOREVER = 0;
 	private XMemcachedClientBuilder _builder = null;
 	private MemcachedClient _client = null;
 	private Transcoder<byte[]> _transcoder = null;
+	private int _connectionPoolSize = 1;
+	private String _sessionLocator = ARRAY;
+	private int _readThreadCount = -1;
+	private boolean _failureMode = false;
+	private String _standbyServers = null;
 
 	public XMemcachedClient() {
 		this("127.0.0.1:11211");
@@ -34,6 +52,7 @@ public class XMemcachedClient extends AbstractMemcachedClient {
 			}
 		}
 		
+		checkTcpOnly();
 		this._builder = getClientBuilder(_serverString);
 		try {
 			this._client = _builder.build();
@@ -43,12 +62,112 @@ public class XMemcachedClient extends AbstractMemcachedClient {
 		return true;
 	}
 
+	public int getConnectionPoolSize() {
+		return _connectionPoolSize;
+	}
+
+	/**
+	 * @param connectionPoolSize NIO connections per server. 1 by default.
+	 */
+	public void setConnectionPoolSize(int connectionPoolSize) {
+		if (connectionPoolSize <= 0) {
+			throw new IllegalArgumentException("connectionPoolSize must be positive");
+		}
+		this._connectionPoolSize = connectionPoolSize;
+	}
+
+	public String getSessionLocator() {
+		return _sessionLocator;
+	}
+
+	/**
+	 * @param sessionLocator {@link #ARRAY} to pick servers by hash modulo the number of
+	 *        servers (default, as in earlier versions), or {@link #KETAMA} consistent
+	 *        hashing, which moves fewer keys when servers are added or removed. Switching
+	 *        moves most keys to another server, so sessions stored before are lost.
+	 */
+	public void setSessionLocator(String sessionLocator) {
+		if (!KETAMA.equals(sessionLocator) && !ARRAY.equals(sessionLocator)) {
+			throw new IllegalArgumentException("unknown session locator: " + sessionLocator);
+		}
+		this._sessionLocator = sessionLocator;
+	}
+
+	public int getReadThreadCount() {
+		return _readThreadCount;
+	}
+
+	/**
+	 * @param readThreadCount threads decoding responses, 0 to decode on the selector
+	 *        threads. negative to keep the default of xmemcached. the number of
+	 *        selectors is set with the system property "xmemcached.selector.pool.size".
+	 */
+	public void setReadThreadCount(int readThreadCount) {
+		this._readThreadCount = readThreadCount;
+	}
+
+	public boolean isFailureMode() {
+		return _failureMode;
+	}
+
+	/**
+	 * @param failureMode fail operations for a server which is down, or send them to its
+	 *        standby server, instead of redistributing them to the other servers. false by default.
+	 */
+	public void setFailureMode(boolean failureMode) {
+		this._failureMode = failureMode;
+	}
+
+	public String getStandbyServers() {
+		return _standbyServers;
+	}
+
+	/**
+	 * @param standbyServers "host:port" of a standby for every server of the server string,
+	 *        in the same order, separated by spaces or commas. used in failure mode only.
+	 */
+	public void setStandbyServers(String standbyServers) {
+		this._standbyServers = standbyServers;
+	}
+
 	protected XMemcachedClientBuilder getClientBuilder(String serverString) {
-		XMemcachedClientBuilder builder =  new XMemcachedClientBuilder(AddrUtil.getAddresses(serverString));
+		XMemcachedClientBuilder builder;
+		if (_standbyServers != null && _standbyServers.trim().length() != 0) {
+			builder = new XMemcachedClientBuilder(standbyMap(serverString, _standbyServers));
+		} else {
+			builder = new XMemcachedClientBuilder(AddrUtil.getAddresses(serverString));
+		}
 		builder.setTranscoder(_transcoder);
+		builder.setConnectionPoolSize(_connectionPoolSize);
+		if (KETAMA.equals(_sessionLocator)) {
+			builder.setSessionLocator(new KetamaMemcachedSessionLocator());
+		} else {
+			builder.setSessionLocator(new ArrayMemcachedSessionLocator());
+		}
+		if (0 <= _readThreadCount) {
+			Configuration configuration = XMemcachedClientBuilder.getDefaultConfiguration();
+			configuration.setReadThreadCount(_readThreadCount);
+			builder.setConfiguration(configuration);
+		}
+		builder.setFailureMode(_failureMode);
+		builder.setConnectTimeout(getTimeout());
+		builder.setOpTimeout(Math.max(getReadTimeout(), getWriteTimeout()));
 		return builder;
 	}
 
+	private static Map<InetSocketAddress, InetSocketAddress> standbyMap(String serverString, String standbyServers) {
+		List<InetSocketAddress> servers = AddrUtil.getAddresses(serverString);
+		List<InetSocketAddress> standbys = AddrUtil.getAddresses(standbyServers.trim().replaceAll("[\\s,]+", " "));
+		if (servers.size() != standbys.size()) {
+			throw new IllegalArgumentException("expected " + servers.size() + " standby servers, got " + standbys.size());
+		}
+		Map<InetSocketAddress, InetSocketAddress> map = new LinkedHashMap<InetSocketAddress, InetSocketAddress>();
+		for (int i = 0; i < servers.size(); i++) {
+			map.put(servers.get(i), standbys.get(i));
+		}
+		return map;
+	}
+
 	public boolean shutdown() throws KeyValueStoreClientException {
 		if (_client != null) {
 			try {
@@ -72,7 +191,34 @@ public class XMemcachedClient extends AbstractMemcachedClient {
 		}
 		byte[] raw = null;
 		try {
-			raw = _client.get(key);
+			raw = _client.get(key, (long) getReadTimeout());
+		} catch (Exception error) {
+			throw(new KeyValueStoreClientException(error));
+		}
+		return raw;
+	}
+
+	/**
+	 * GAT on the binary protocol, get then touch on the text protocol which has no GAT in xmemcached.
+	 */
+	@Override
+	public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+		if (exp <= 0) {
+			return get(key);
+		}
+		if (!isAlive()) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		byte[] raw = null;
+		try {
+			if (_client.getProtocol() == Protocol.Binary) {
+				raw = _client.getAndTouch(key, exp, (long) getReadTimeout());
+			} else {
+				raw = _client.get(key, (long) getReadTimeout());
+				if (raw != null) {
+					_client.touch(key, exp, (long) getWriteTimeout());
+				}
+			}
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
@@ -89,7 +235,7 @@ public class XMemcachedClient extends AbstractMemcachedClient {
 		}
 		boolean result = false;
 		try {
-			result = _client.set(key, exp, raw);
+			result = _client.set(key, exp, raw, (long) getWriteTimeout());
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
@@ -106,7 +252,7 @@ public class XMemcachedClient extends AbstractMemcachedClient {
 		}
 		boolean result = false;
 		try {
-			result = _client.add(key, exp, raw);
+			result = _client.add(key, exp, raw, (long) getWriteTimeout());
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
@@ -119,10 +265,23 @@ public class XMemcachedClient extends AbstractMemcachedClient {
 		}
 		boolean result = false;
 		try {
-			result = _client.delete(key);
+			result = _client.delete(key, (long) getWriteTimeout());
 		} catch (Exception error) {
 			throw(new KeyValueStoreClientException(error));
 		}
 		return result;
 	}
+
+	@Override
+	public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+		if (!isAlive()) {
+			throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+		}
+		try {
+			Map<String, byte[]> values = _client.get(keys, (long) getReadTimeout());
+			return values != null ? values : new LinkedHashMap<String, byte[]>();
+		} catch (Exception error) {
+			throw(new KeyValueStoreClientException(error));
+		}
+	}
 }
\ No newline at end of file
@@ -4,8 +4,79 @@ import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
 import org.eclipse.jetty.nosql.key_value.memcached.AbstractMemcachedClientFactory;
 
 public class XMemcachedClientFactory extends AbstractMemcachedClientFactory {
+	private int _connectionPoolSize = 1;
+	private String _sessionLocator = XMemcachedClient.ARRAY;
+	private int _readThreadCount = -1;
+	private boolean _failureMode = false;
+	private String _standbyServers = null;
+
 	@Override
 	public AbstractKeyValueStoreClient create(String serverString) {
+		XMemcachedClient client = newClient(serverString);
+		client.setConnectionPoolSize(_connectionPoolSize);
+		client.setSessionLocator(_sessionLocator);
+		client.setReadThreadCount(_readThreadCount);
+		client.setFailureMode(_failureMode);
+		client.setStandbyServers(_standbyServers);
+		return client;
+	}
+
+	protected XMemcachedClient newClient(String serverString) {
 		return new XMemcachedClient(serverString);
 	}
+
+	public int getConnectionPoolSize() {
+		return _connectionPoolSize;
+	}
+
+	/**
+	 * @see XMemcachedClient#setConnectionPoolSize(int)
+	 */
+	public void setConnectionPoolSize(int connectionPoolSize) {
+		this._connectionPoolSize = connectionPoolSize;
+	}
+
+	public String getSessionLocator() {
+		return _sessionLocator;
+	}
+
+	/**
+	 * @see XMemcachedClient#setSessionLocator(String)
+	 */
+	public void setSessionLocator(String sessionLocator) {
+		this._sessionLocator = sessionLocator;
+	}
+
+	public int getReadThreadCount() {
+		return _readThreadCount;
+	}
+
+	/**
+	 * @see XMemcachedClient#setReadThreadCount(int)
+	 */
+	public void setReadThreadCount(int readThreadCount) {
+		this._readThreadCount = readThreadCount;
+	}
+
+	public boolean isFailureMode() {
+		return _failureMode;
+	}
+
+	/**
+	 * @see XMemcachedClient#setFailureMode(boolean)
+	 */
+	public void setFailureMode(boolean failureMode) {
+		this._failureMode = failureMode;
+	}
+
+	public String getStandbyServers() {
+		return _standbyServers;
+	}
+
+	/**
+	 * @see XMemcachedClient#setStandbyServers(String)
+	 */
+	public void setStandbyServers(String standbyServers) {
+		this._standbyServers = standbyServers;
+	}
 }
@@ -0,0 +1,470 @@
+package org.eclipse.jetty.nosql.key_value.mmap;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Local key-value store backed by memory-mapped, append-only log segments.
+ *
+ * The server string is the path of the data directory. Every write appends a
+ * record to the active segment and updates an in-memory index; the index is
+ * rebuilt by replaying the segments on {@link #connect()}. A background task
+ * drops expired entries and rewrites segments which are mostly dead.
+ */
+public class MmapClient extends AbstractKeyValueStoreClient {
+    private final static Logger log = Log.getLogger(MmapClient.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String LOCK_FILE = "lock";
+
+    private int _segmentSize = 64 * 1024 * 1024;
+    private long _compactionInterval = 60;
+    private double _compactionThreshold = 0.5;
+    private boolean _syncOnWrite = false;
+
+    private final Object _writeLock = new Object();
+    private final Map<String, Location> _index = new ConcurrentHashMap<String, Location>();
+    private final List<Segment> _segments = new ArrayList<Segment>();
+    private volatile Segment _active = null;
+    private long _nextSegmentId = 0;
+    private File _directory = null;
+    private RandomAccessFile _lockFile = null;
+    private FileLock _lock = null;
+    private ScheduledExecutorService _compactor = null;
+
+    public MmapClient() {
+        this(new File(System.getProperty("java.io.tmpdir"), "jetty-nosql-sessions").getPath());
+    }
+
+    public MmapClient(String serverString) {
+        super(serverString);
+    }
+
+    public boolean connect() throws KeyValueStoreClientException {
+        if (isAlive()) {
+            shutdown();
+        }
+        synchronized (_writeLock) {
+            try {
+                _directory = new File(_serverString.trim());
+                if (!_directory.isDirectory() && !_directory.mkdirs()) {
+                    throw new IOException("unable to create directory: " + _directory);
+                }
+                _lockFile = new RandomAccessFile(new File(_directory, LOCK_FILE), "rw");
+                _lock = _lockFile.getChannel().tryLock();
+                if (_lock == null) {
+                    _lockFile.close();
+                    _lockFile = null;
+                    throw new IOException("directory is in use by another process: " + _directory);
+                }
+                recover();
+            } catch (IOException error) {
+                closeSegments();
+                throw new KeyValueStoreClientException(error);
+            }
+        }
+        _compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MmapClient-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _compactor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception error) {
+                    log.warn("compaction failed", error);
+                }
+            }
+        }, _compactionInterval, _compactionInterval, TimeUnit.SECONDS);
+        return true;
+    }
+
+    public boolean shutdown() throws KeyValueStoreClientException {
+        if (_compactor != null) {
+            _compactor.shutdownNow();
+            try {
+                _compactor.awaitTermination(_compactionInterval, TimeUnit.SECONDS);
+            } catch (InterruptedException ignore) {
+                Thread.currentThread().interrupt();
+            }
+            _compactor = null;
+        }
+        synchronized (_writeLock) {
+            for (Segment segment : _segments) {
+                segment.force();
+            }
+            closeSegments();
+        }
+        return true;
+    }
+
+    public boolean isAlive() {
+        return _active != null;
+    }
+
+    public byte[] get(String key) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        Location location = _index.get(key);
+        if (location == null || location.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+        return location.segment.readValue(location.offset);
+    }
+
+    /**
+     * append the value again with the new expiry, under the write lock so that
+     * no write in between is undone.
+     */
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return get(key);
+        }
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        synchronized (_writeLock) {
+            Location location = _index.get(key);
+            if (location == null || location.isExpired(System.currentTimeMillis())) {
+                return null;
+            }
+            byte[] raw = location.segment.readValue(location.offset);
+            put(key, raw, expiresAt(exp));
+            return raw;
+        }
+    }
+
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return set(key, raw, 0);
+    }
+
+    public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        synchronized (_writeLock) {
+            put(key, raw, expiresAt(exp));
+        }
+        return true;
+    }
+
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return add(key, raw, 0);
+    }
+
+    public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        synchronized (_writeLock) {
+            Location location = _index.get(key);
+            if (location != null && !location.isExpired(System.currentTimeMillis())) {
+                return false;
+            }
+            put(key, raw, expiresAt(exp));
+        }
+        return true;
+    }
+
+    public boolean delete(String key) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        synchronized (_writeLock) {
+            Location location = _index.remove(key);
+            if (location == null) {
+                return false;
+            }
+            location.segment.addDeadBytes(location.length);
+            try {
+                byte[] k = key.getBytes(UTF8);
+                Segment segment = reserve(Segment.recordSize(k.length, 0));
+                segment.append(Segment.DELETE, 0, k, null);
+                segment.addDeadBytes(Segment.recordSize(k.length, 0));
+                if (_syncOnWrite) {
+                    segment.force();
+                }
+            } catch (IOException error) {
+                throw new KeyValueStoreClientException(error);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * drop expired entries and rewrite sealed segments whose ratio of dead
+     * bytes exceeds the compaction threshold. live records are copied into
+     * the active segment one by one, so writers are only blocked briefly.
+     */
+    public void compact() throws KeyValueStoreClientException {
+        long now = System.currentTimeMillis();
+        synchronized (_writeLock) {
+            for (Iterator<Map.Entry<String, Location>> it = _index.entrySet().iterator(); it.hasNext();) {
+                Location location = it.next().getValue();
+                if (location.isExpired(now)) {
+                    it.remove();
+                    location.segment.addDeadBytes(location.length);
+                }
+            }
+        }
+        List<Segment> candidates;
+        synchronized (_writeLock) {
+            candidates = new ArrayList<Segment>(_segments);
+        }
+        for (Segment segment : candidates) {
+            if (segment == _active || segment.getDeadRatio() < _compactionThreshold) {
+                continue;
+            }
+            try {
+                rewrite(segment);
+            } catch (IOException error) {
+                throw new KeyValueStoreClientException(error);
+            }
+        }
+    }
+
+    private void rewrite(Segment segment) throws IOException {
+        log.debug("compacting " + segment);
+        int offset = 0;
+        Segment.Record record;
+        while ((record = segment.readRecord(offset)) != null) {
+            String key = new String(record.key, UTF8);
+            synchronized (_writeLock) {
+                Location location = _index.get(key);
+                if (location != null && location.segment == segment && location.offset == record.offset) {
+                    Segment target = reserve(record.length);
+                    int copied = target.append(Segment.PUT, record.expiresAt, record.key, record.value);
+                    _index.put(key, new Location(target, copied, record.length, record.expiresAt));
+                } else if (location == null && isHeldBefore(segment, record.key)) {
+                    // deleted or expired; keep a tombstone since an older segment may still hold the key
+                    int length = Segment.recordSize(record.key.length, 0);
+                    Segment target = reserve(length);
+                    target.append(Segment.DELETE, 0, record.key, null);
+                    target.addDeadBytes(length);
+                }
+            }
+            offset += record.length;
+        }
+        synchronized (_writeLock) {
+            if (_syncOnWrite) {
+                _active.force();
+            }
+            _segments.remove(segment);
+        }
+        segment.close();
+        if (!segment.delete()) {
+            log.warn("unable to delete compacted segment " + segment);
+        }
+    }
+
+    /**
+     * @return true if a segment older than given one may hold a PUT record of given key
+     */
+    private boolean isHeldBefore(Segment segment, byte[] key) {
+        for (Segment older : _segments) {
+            if (older == segment) {
+                return false;
+            }
+            if (older.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void put(String key, byte[] raw, long expiresAt) throws KeyValueStoreClientException {
+        byte[] k = key.getBytes(UTF8);
+        if (k.length > 0xffff) {
+            throw new KeyValueStoreClientException("key too long: " + key);
+        }
+        int length = Segment.recordSize(k.length, raw.length);
+        try {
+            Segment segment = reserve(length);
+            int offset = segment.append(Segment.PUT, expiresAt, k, raw);
+            Location previous = _index.put(key, new Location(segment, offset, length, expiresAt));
+            if (previous != null) {
+                previous.segment.addDeadBytes(previous.length);
+            }
+            if (_syncOnWrite) {
+                segment.force();
+            }
+        } catch (IOException error) {
+            throw new KeyValueStoreClientException(error);
+        }
+    }
+
+    /**
+     * return a segment with room for a record of given length, rolling over
+     * to a new segment when the active one is full.
+     */
+    private Segment reserve(int length) throws IOException {
+        if (length <= _active.remaining()) {
+            return _active;
+        }
+        _active.force();
+        Segment segment = Segment.create(_directory, _nextSegmentId++, Math.max(_segmentSize, length));
+        _segments.add(segment);
+        _active = segment;
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        File[] files = _directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return Segment.isSegmentFile(name);
+            }
+        });
+        Arrays.sort(files);
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            Segment segment = Segment.open(file);
+            _segments.add(segment);
+            int offset = 0;
+            Segment.Record record;
+            while ((record = segment.readRecord(offset)) != null) {
+                String key = new String(record.key, UTF8);
+                Location previous;
+                if (record.type == Segment.PUT) {
+                    segment.addKey(record.key);
+                }
+                if (record.type == Segment.PUT && (record.expiresAt == 0 || now < record.expiresAt)) {
+                    previous = _index.put(key, new Location(segment, record.offset, record.length, record.expiresAt));
+                } else {
+                    previous = _index.remove(key);
+                    segment.addDeadBytes(record.length);
+                }
+                if (previous != null) {
+                    previous.segment.addDeadBytes(previous.length);
+                }
+                offset += record.length;
+            }
+            segment.setPosition(offset);
+            if (!segment.isEmptyAt(offset)) {
+                log.warn("ignoring corrupted records in " + segment + " after offset " + offset);
+            }
+            _nextSegmentId = segment.getId() + 1;
+        }
+        if (_segments.isEmpty()) {
+            _segments.add(Segment.create(_directory, _nextSegmentId++, _segmentSize));
+        }
+        Segment last = _segments.get(_segments.size() - 1);
+        // never append after a corrupted tail
+        _active = last.isEmptyAt(last.getPosition()) ? last : null;
+        if (_active == null) {
+            _active = Segment.create(_directory, _nextSegmentId++, _segmentSize);
+            _segments.add(_active);
+        }
+        log.info("recovered " + _index.size() + " entries from " + _segments.size() + " segment(s) in " + _directory);
+    }
+
+    private void closeSegments() {
+        for (Segment segment : _segments) {
+            try {
+                segment.close();
+            } catch (IOException error) {
+                log.warn("unable to close " + segment, error);
+            }
+        }
+        _segments.clear();
+        _index.clear();
+        _active = null;
+        try {
+            if (_lock != null) {
+                _lock.release();
+                _lock = null;
+            }
+            if (_lockFile != null) {
+                _lockFile.close();
+                _lockFile = null;
+            }
+        } catch (IOException error) {
+            log.warn("unable to release lock on " + _directory, error);
+        }
+    }
+
+    private static long expiresAt(int exp) {
+        return exp <= 0 ? 0 : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(exp);
+    }
+
+    public int getSegmentSize() {
+        return _segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this._segmentSize = segmentSize;
+    }
+
+    public long getCompactionInterval() {
+        return _compactionInterval;
+    }
+
+    /**
+     * @param compactionInterval seconds between compaction runs
+     */
+    public void setCompactionInterval(long compactionInterval) {
+        this._compactionInterval = compactionInterval;
+    }
+
+    public double getCompactionThreshold() {
+        return _compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold ratio of dead bytes which makes a segment eligible for compaction
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        this._compactionThreshold = compactionThreshold;
+    }
+
+    public boolean isSyncOnWrite() {
+        return _syncOnWrite;
+    }
+
+    /**
+     * @param syncOnWrite flush the mapping to disk after every write. without
+     *                    this, data survives process restarts but not an OS crash.
+     */
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this._syncOnWrite = syncOnWrite;
+    }
+
+    private static class Location {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final long expiresAt;
+
+        Location(Segment segment, int offset, int length, long expiresAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && expiresAt <= now;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.eclipse.jetty.nosql.key_value.mmap;
+
+import java.io.File;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionIdManager;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Session ID manager storing sessions in memory-mapped files on the local disk.
+ * Sessions survive restarts of Jetty, but are not shared between hosts.
+ * The server string is the path of the data directory.
+ */
+public class MmapSessionIdManager extends KeyValueStoreSessionIdManager {
+    private final static Logger log = Log.getLogger(MmapSessionIdManager.class);
+
+    private int _segmentSize = 64 * 1024 * 1024;
+    private long _compactionInterval = 60;
+    private double _compactionThreshold = 0.5;
+    private boolean _syncOnWrite = false;
+
+    public MmapSessionIdManager(Server server) {
+        this(server, new File(System.getProperty("java.io.tmpdir"), "jetty-nosql-sessions").getPath());
+    }
+
+    public MmapSessionIdManager(Server server, String directory) {
+        super(server, directory);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        log.info("starting...");
+        super.doStart();
+        log.info("started.");
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        log.info("stopping...");
+        super.doStop();
+        log.info("stopped.");
+    }
+
+    @Override
+    protected AbstractKeyValueStoreClient newClient(String serverString) {
+        MmapClient client = new MmapClient(serverString);
+        client.setTimeout(getTimeout());
+        client.setSegmentSize(_segmentSize);
+        client.setCompactionInterval(_compactionInterval);
+        client.setCompactionThreshold(_compactionThreshold);
+        client.setSyncOnWrite(_syncOnWrite);
+        return client;
+    }
+
+    public int getSegmentSize() {
+        return _segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this._segmentSize = segmentSize;
+    }
+
+    public long getCompactionInterval() {
+        return _compactionInterval;
+    }
+
+    public void setCompactionInterval(long compactionInterval) {
+        this._compactionInterval = compactionInterval;
+    }
+
+    public double getCompactionThreshold() {
+        return _compactionThreshold;
+    }
+
+    public void setCompactionThreshold(double compactionThreshold) {
+        this._compactionThreshold = compactionThreshold;
+    }
+
+    public boolean isSyncOnWrite() {
+        return _syncOnWrite;
+    }
+
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this._syncOnWrite = syncOnWrite;
+    }
+}
@@ -0,0 +1,27 @@
+package org.eclipse.jetty.nosql.key_value.mmap;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionManager;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+public class MmapSessionManager extends KeyValueStoreSessionManager {
+    private final static Logger log = Log.getLogger(MmapSessionManager.class);
+
+    public MmapSessionManager() {
+        super();
+    }
+
+    @Override
+    public void doStart() throws Exception {
+        log.info("starting...");
+        super.doStart();
+        log.info("started.");
+    }
+
+    @Override
+    public void doStop() throws Exception {
+        log.info("stopping...");
+        super.doStop();
+        log.info("stopped.");
+    }
+}
@@ -0,0 +1,274 @@
+package org.eclipse.jetty.nosql.key_value.mmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * A pre-allocated, memory-mapped log file holding a sequence of records.
+ *
+ * Record layout (big endian):
+ * <pre>
+ *   int   record length (header + key + value), 0 marks the end of the log
+ *   byte  record type (PUT or DELETE)
+ *   long  expiration time in epoch millis, 0 means forever
+ *   short key length
+ *   int   value length
+ *   int   CRC32 of type, expiration, key and value
+ *   byte[] key (UTF-8)
+ *   byte[] value
+ * </pre>
+ *
+ * Writes are serialized by {@link MmapClient}; reads work on duplicates of the
+ * mapping and need no locking. The mapping stays valid after the channel has
+ * been closed, so readers holding a stale location are safe even while the
+ * segment is being compacted away.
+ *
+ * Keys of PUT records are remembered in a bloom filter, so that compaction can
+ * tell which tombstones are still needed.
+ */
+class Segment {
+    static final int HEADER_SIZE = 4 + 1 + 8 + 2 + 4 + 4;
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+    private static final int KEY_FILTER_BITS = 1 << 20;
+
+    private final long _id;
+    private final File _file;
+    private final RandomAccessFile _raf;
+    private final MappedByteBuffer _buffer;
+    private final int _capacity;
+    private int _position = 0;
+    private long _deadBytes = 0;
+    private final BitSet _keys = new BitSet(KEY_FILTER_BITS);
+
+    private Segment(long id, File file, int capacity) throws IOException {
+        _id = id;
+        _file = file;
+        _raf = new RandomAccessFile(file, "rw");
+        if (_raf.length() < capacity) {
+            _raf.setLength(capacity);
+        }
+        _capacity = (int) Math.min(Integer.MAX_VALUE, _raf.length());
+        _buffer = _raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _capacity);
+    }
+
+    static Segment create(File directory, long id, int capacity) throws IOException {
+        return new Segment(id, new File(directory, fileName(id)), capacity);
+    }
+
+    static Segment open(File file) throws IOException {
+        return new Segment(parseId(file.getName()), file, 0);
+    }
+
+    static String fileName(long id) {
+        return String.format("%s%016d%s", PREFIX, id, SUFFIX);
+    }
+
+    static boolean isSegmentFile(String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    static long parseId(String name) {
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    static int recordSize(int keyLength, int valueLength) {
+        return HEADER_SIZE + keyLength + valueLength;
+    }
+
+    long getId() {
+        return _id;
+    }
+
+    int getCapacity() {
+        return _capacity;
+    }
+
+    int getPosition() {
+        return _position;
+    }
+
+    void setPosition(int position) {
+        _position = position;
+    }
+
+    int remaining() {
+        return _capacity - _position;
+    }
+
+    long getDeadBytes() {
+        return _deadBytes;
+    }
+
+    void addDeadBytes(long bytes) {
+        _deadBytes += bytes;
+    }
+
+    double getDeadRatio() {
+        return _position == 0 ? 0.0 : (double) _deadBytes / _position;
+    }
+
+    /**
+     * remember that this segment holds a PUT record of given key.
+     */
+    void addKey(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        _keys.set((hash & 0x7fffffff) % KEY_FILTER_BITS);
+        _keys.set((int) (crc(key) % KEY_FILTER_BITS));
+    }
+
+    /**
+     * @return false if this segment holds no PUT record of given key, true if it may
+     */
+    boolean mightContain(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        return _keys.get((hash & 0x7fffffff) % KEY_FILTER_BITS) && _keys.get((int) (crc(key) % KEY_FILTER_BITS));
+    }
+
+    private static long crc(byte[] key) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        return crc.getValue();
+    }
+
+    /**
+     * append a record at the current position. caller must hold the write lock
+     * and must have checked {@link #remaining()}.
+     *
+     * @return offset of the record
+     */
+    int append(byte type, long expiresAt, byte[] key, byte[] value) {
+        int valueLength = value == null ? 0 : value.length;
+        int length = recordSize(key.length, valueLength);
+        int offset = _position;
+        ByteBuffer buf = _buffer.duplicate();
+        buf.position(offset + 4);
+        buf.put(type);
+        buf.putLong(expiresAt);
+        buf.putShort((short) key.length);
+        buf.putInt(valueLength);
+        buf.putInt(checksum(type, expiresAt, key, value));
+        buf.put(key);
+        if (value != null) {
+            buf.put(value);
+        }
+        // the length is written last, so a torn write is seen as the end of the log
+        _buffer.putInt(offset, length);
+        _position = offset + length;
+        if (type == PUT) {
+            addKey(key);
+        }
+        return offset;
+    }
+
+    /**
+     * copy the value of the record at given offset into a new array.
+     */
+    byte[] readValue(int offset) {
+        int keyLength = _buffer.getShort(offset + 13) & 0xffff;
+        int valueLength = _buffer.getInt(offset + 15);
+        byte[] raw = new byte[valueLength];
+        ByteBuffer buf = _buffer.duplicate();
+        buf.position(offset + HEADER_SIZE + keyLength);
+        buf.get(raw);
+        return raw;
+    }
+
+    /**
+     * read and validate the record at given offset.
+     *
+     * @return the record, or null if there is no valid record at the offset
+     */
+    Record readRecord(int offset) {
+        if (_capacity - offset < HEADER_SIZE) {
+            return null;
+        }
+        int length = _buffer.getInt(offset);
+        if (length < HEADER_SIZE || _capacity - offset < length) {
+            return null;
+        }
+        byte type = _buffer.get(offset + 4);
+        long expiresAt = _buffer.getLong(offset + 5);
+        int keyLength = _buffer.getShort(offset + 13) & 0xffff;
+        int valueLength = _buffer.getInt(offset + 15);
+        int crc = _buffer.getInt(offset + 19);
+        if ((type != PUT && type != DELETE) || valueLength < 0 || recordSize(keyLength, valueLength) != length) {
+            return null;
+        }
+        ByteBuffer buf = _buffer.duplicate();
+        buf.position(offset + HEADER_SIZE);
+        byte[] key = new byte[keyLength];
+        buf.get(key);
+        byte[] value = new byte[valueLength];
+        buf.get(value);
+        if (checksum(type, expiresAt, key, value) != crc) {
+            return null;
+        }
+        return new Record(offset, length, type, expiresAt, key, value);
+    }
+
+    /**
+     * @return true if nothing has been written at given offset
+     */
+    boolean isEmptyAt(int offset) {
+        return _capacity - offset < 4 || _buffer.getInt(offset) == 0;
+    }
+
+    void force() {
+        _buffer.force();
+    }
+
+    void close() throws IOException {
+        _raf.close();
+    }
+
+    boolean delete() {
+        return _file.delete();
+    }
+
+    @Override
+    public String toString() {
+        return _file.getName() + "(" + _position + "/" + _capacity + ", dead=" + _deadBytes + ")";
+    }
+
+    private static int checksum(byte type, long expiresAt, byte[] key, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (expiresAt >>> i));
+        }
+        crc.update(key);
+        if (value != null) {
+            crc.update(value);
+        }
+        return (int) crc.getValue();
+    }
+
+    static class Record {
+        final int offset;
+        final int length;
+        final byte type;
+        final long expiresAt;
+        final byte[] key;
+        final byte[] value;
+
+        Record(int offset, int length, byte type, long expiresAt, byte[] key, byte[] value) {
+            this.offset = offset;
+            this.length = length;
+            this.type = type;
+            this.expiresAt = expiresAt;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -16,16 +16,99 @@
 
 package org.eclipse.jetty.nosql.key_value.redis;
 
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
 
-/**
- *
- * @author den
- */
 public abstract class AbstractRedisClient extends AbstractKeyValueStoreClient {
+    private int _maxConnections = GenericObjectPoolConfig.DEFAULT_MAX_TOTAL;
+    private int _maxIdleConnections = GenericObjectPoolConfig.DEFAULT_MAX_IDLE;
+    private int _minIdleConnections = 0;
+    private long _maxWaitTime = -1;
+    private long _evictionInterval = -1;
+    private long _minEvictableIdleTime = 60000;
 
     public AbstractRedisClient(String serverString) {
         super(serverString);
     }
-    
+
+    public int getMaxConnections() {
+        return _maxConnections;
+    }
+
+    /**
+     * @param maxConnections connections per server. 8 by default.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this._maxConnections = maxConnections;
+    }
+
+    public int getMaxIdleConnections() {
+        return _maxIdleConnections;
+    }
+
+    /**
+     * @param maxIdleConnections idle connections kept per server. 8 by default.
+     */
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this._maxIdleConnections = maxIdleConnections;
+    }
+
+    public int getMinIdleConnections() {
+        return _minIdleConnections;
+    }
+
+    /**
+     * @param minIdleConnections idle connections kept per server, opened on connect. 0 by default.
+     */
+    public void setMinIdleConnections(int minIdleConnections) {
+        this._minIdleConnections = minIdleConnections;
+    }
+
+    public long getMaxWaitTime() {
+        return _maxWaitTime;
+    }
+
+    /**
+     * @param maxWaitTime milliseconds to wait for a free connection, negative to wait for the timeout (default)
+     */
+    public void setMaxWaitTime(long maxWaitTime) {
+        this._maxWaitTime = maxWaitTime;
+    }
+
+    public long getEvictionInterval() {
+        return _evictionInterval;
+    }
+
+    /**
+     * @param evictionInterval milliseconds between runs of the idle connection evictor, negative to disable (default)
+     */
+    public void setEvictionInterval(long evictionInterval) {
+        this._evictionInterval = evictionInterval;
+    }
+
+    public long getMinEvictableIdleTime() {
+        return _minEvictableIdleTime;
+    }
+
+    /**
+     * @param minEvictableIdleTime milliseconds a connection has to be idle before it may be evicted. 60000 by default.
+     */
+    public void setMinEvictableIdleTime(long minEvictableIdleTime) {
+        this._minEvictableIdleTime = minEvictableIdleTime;
+    }
+
+    /**
+     * @return pool configuration of a single server
+     */
+    protected GenericObjectPoolConfig newPoolConfig() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxTotal(_maxConnections);
+        config.setMaxIdle(Math.max(_maxIdleConnections, _minIdleConnections));
+        config.setMinIdle(_minIdleConnections);
+        config.setMaxWaitMillis(0 <= _maxWaitTime ? _maxWaitTime : Math.max(getReadTimeout(), getWriteTimeout()));
+        config.setTimeBetweenEvictionRunsMillis(_evictionInterval);
+        config.setMinEvictableIdleTimeMillis(_minEvictableIdleTime);
+        config.setTestWhileIdle(0 < _evictionInterval);
+        return config;
+    }
 }
@@ -16,9 +16,14 @@
 package org.eclipse.jetty.nosql.key_value.redis;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionIdManager;
+import org.eclipse.jetty.nosql.key_value.cluster.ShardedKeyValueStoreClient;
 import org.eclipse.jetty.nosql.key_value.redis.jedis.JedisClientFactory;
+import org.eclipse.jetty.nosql.key_value.redis.jedis.JedisClusterClientFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -30,6 +35,13 @@ import org.eclipse.jetty.util.log.Logger;
 public class RedisSessionIdManager extends KeyValueStoreSessionIdManager {
     private final static Logger log = Log.getLogger(RedisSessionIdManager.class);
     private AbstractRedisClientFactory _clientFactory = null;
+    private Boolean _hashTags = null;
+    private int _maxConnections = 8;
+    private int _maxIdleConnections = 8;
+    private int _minIdleConnections = 0;
+    private long _maxWaitTime = -1;
+    private long _evictionInterval = -1;
+    private long _minEvictableIdleTime = 60000;
 
     public RedisSessionIdManager(Server server) throws IOException {
         this(server, "127.0.0.1:6379");
@@ -65,11 +77,139 @@ public class RedisSessionIdManager extends KeyValueStoreSessionIdManager {
                 _clientFactory = new JedisClientFactory(); // default client
             }
         }
-        AbstractKeyValueStoreClient client = _clientFactory.create(serverString);
+        String[] hosts = serverString.trim().split("[\\s,]+");
+        AbstractKeyValueStoreClient client;
+        if (1 < hosts.length && !(_clientFactory instanceof JedisClusterClientFactory)) {
+            // standalone servers, shard sessions by consistent hashing
+            if (_clientFactory instanceof JedisClientFactory) {
+                JedisClientFactory jedis = (JedisClientFactory) _clientFactory;
+                String replicas = jedis.getReadReplicas();
+                if (replicas != null && replicas.trim().length() != 0 && !jedis.isGroupedReadReplicas()) {
+                    // the same replicas would serve the reads of every shard
+                    throw new IllegalStateException("read replicas of sharded servers must be grouped by primary,"
+                            + " e.g. \"primary1=replica1,replica2;primary2=replica3\": " + replicas);
+                }
+            }
+            Map<String, AbstractKeyValueStoreClient> shards = new LinkedHashMap<String, AbstractKeyValueStoreClient>();
+            for (String host : hosts) {
+                shards.put(host, configure(_clientFactory.create(host)));
+            }
+            log.info("shard sessions over " + hosts.length + " servers.");
+            client = new ShardedKeyValueStoreClient(shards);
+        } else {
+            client = configure(_clientFactory.create(serverString));
+        }
         client.setTimeout(getTimeout());
         return client;
     }
 
+    private AbstractKeyValueStoreClient configure(AbstractKeyValueStoreClient client) {
+        if (client instanceof AbstractRedisClient) {
+            AbstractRedisClient redis = (AbstractRedisClient) client;
+            redis.setMaxConnections(_maxConnections);
+            redis.setMaxIdleConnections(_maxIdleConnections);
+            redis.setMinIdleConnections(_minIdleConnections);
+            redis.setMaxWaitTime(_maxWaitTime);
+            redis.setEvictionInterval(_evictionInterval);
+            redis.setMinEvictableIdleTime(_minEvictableIdleTime);
+        }
+        return client;
+    }
+
+    /**
+     * wrap the session id of every key in a hash tag, e.g. "prefix{id}suffix",
+     * so that all keys of a session are stored in the same Redis Cluster slot.
+     * enabled by default with {@link JedisClusterClientFactory}.
+     */
+    @Override
+    protected String mangleKey(final String key) {
+        if (!isHashTags()) {
+            return super.mangleKey(key);
+        }
+        return _keyPrefix + "{" + key + "}" + _keySuffix;
+    }
+
+    public boolean isHashTags() {
+        Boolean hashTags = _hashTags;
+        return hashTags != null ? hashTags : _clientFactory instanceof JedisClusterClientFactory;
+    }
+
+    /**
+     * @param hashTags wrap session ids in hash tags. the key prefix must not contain '{' then.
+     */
+    public void setHashTags(boolean hashTags) {
+        this._hashTags = hashTags;
+    }
+
+    public int getMaxConnections() {
+        return _maxConnections;
+    }
+
+    /**
+     * @see AbstractRedisClient#setMaxConnections(int)
+     */
+    public void setMaxConnections(int maxConnections) {
+        this._maxConnections = maxConnections;
+    }
+
+    public int getMaxIdleConnections() {
+        return _maxIdleConnections;
+    }
+
+    /**
+     * @see AbstractRedisClient#setMaxIdleConnections(int)
+     */
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this._maxIdleConnections = maxIdleConnections;
+    }
+
+    public int getMinIdleConnections() {
+        return _minIdleConnections;
+    }
+
+    /**
+     * connections kept open per server. as many are opened on start, so
+     * that the first requests do not pay for connecting.
+     *
+     * @see AbstractRedisClient#setMinIdleConnections(int)
+     */
+    public void setMinIdleConnections(int minIdleConnections) {
+        this._minIdleConnections = minIdleConnections;
+    }
+
+    public long getMaxWaitTime() {
+        return _maxWaitTime;
+    }
+
+    /**
+     * @see AbstractRedisClient#setMaxWaitTime(long)
+     */
+    public void setMaxWaitTime(long maxWaitTime) {
+        this._maxWaitTime = maxWaitTime;
+    }
+
+    public long getEvictionInterval() {
+        return _evictionInterval;
+    }
+
+    /**
+     * @see AbstractRedisClient#setEvictionInterval(long)
+     */
+    public void setEvictionInterval(long evictionInterval) {
+        this._evictionInterval = evictionInterval;
+    }
+
+    public long getMinEvictableIdleTime() {
+        return _minEvictableIdleTime;
+    }
+
+    /**
+     * @see AbstractRedisClient#setMinEvictableIdleTime(long)
+     */
+    public void setMinEvictableIdleTime(long minEvictableIdleTime) {
+        this._minEvictableIdleTime = minEvictableIdleTime;
+    }
+
     public AbstractRedisClientFactory getClientFactory() {
         return _clientFactory;
     }
@@ -16,12 +16,24 @@
 
 package org.eclipse.jetty.nosql.key_value.redis.jedis;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
 import org.eclipse.jetty.nosql.key_value.redis.AbstractRedisClient;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.Response;
-import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisException;
 
 /**
@@ -29,8 +41,33 @@ import redis.clients.jedis.exceptions.JedisException;
  * @author den
  */
 public class JedisClient extends AbstractRedisClient {
+    private final static Logger log = Log.getLogger(JedisClient.class);
+
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_LATENCY = "least-latency";
+
+    /** remember at most this many recently written keys for read-your-writes */
+    private static final int MAX_RECENT_WRITES = 100000;
+
+    private static final byte[] NX = "NX".getBytes();
+    private static final byte[] EX = "EX".getBytes();
+
     private JedisPool _client = null;
-    
+    private String _readReplicas = null;
+    private String _readStrategy = ROUND_ROBIN;
+    private int _readYourWritesWindow = 0;
+    private List<Replica> _replicas = new ArrayList<Replica>();
+    private final AtomicInteger _nextReplica = new AtomicInteger();
+    /** write times of recently written keys, oldest first */
+    private final Map<String, Long> _recentWrites = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return MAX_RECENT_WRITES < size();
+        }
+    };
+
     public JedisClient() {
         this("localhost:6379");
     }
@@ -39,18 +76,142 @@ public class JedisClient extends AbstractRedisClient {
         super(serverString);
     }
 
+    /**
+     * a read replica with the moving average of its read latency.
+     */
+    private static class Replica {
+        final String address;
+        final JedisPool pool;
+        final AtomicLong latency = new AtomicLong();
+
+        Replica(String address, JedisPool pool) {
+            this.address = address;
+            this.pool = pool;
+        }
+
+        void record(long nanos) {
+            // exponentially weighted with alpha = 1/8
+            long average = latency.get();
+            latency.compareAndSet(average, average == 0 ? nanos : average + (nanos - average) / 8);
+        }
+    }
+
+    public String getReadReplicas() {
+        return _readReplicas;
+    }
+
+    /**
+     * @param readReplicas "host:port" of read replicas, separated by spaces or commas.
+     *        {@link #getAndTouch(String, int)}, which loads sessions, reads from the
+     *        replicas; plain gets and writes go to the server string. a miss on a
+     *        replica is retried on the primary, since the replica may lag behind.
+     */
+    public void setReadReplicas(String readReplicas) {
+        this._readReplicas = readReplicas;
+    }
+
+    public String getReadStrategy() {
+        return _readStrategy;
+    }
+
+    /**
+     * @param readStrategy {@link #ROUND_ROBIN} (default) or {@link #LEAST_LATENCY}
+     */
+    public void setReadStrategy(String readStrategy) {
+        if (!ROUND_ROBIN.equals(readStrategy) && !LEAST_LATENCY.equals(readStrategy)) {
+            throw new IllegalArgumentException("unknown read strategy: " + readStrategy);
+        }
+        this._readStrategy = readStrategy;
+    }
+
+    public int getReadYourWritesWindow() {
+        return _readYourWritesWindow;
+    }
+
+    /**
+     * @param readYourWritesWindow milliseconds after a write during which the key is
+     *        read from the primary, to hide replication lag. 0 (disabled) by default.
+     */
+    public void setReadYourWritesWindow(int readYourWritesWindow) {
+        this._readYourWritesWindow = readYourWritesWindow;
+    }
+
+    private JedisPool newPool(String address) {
+        String[] splittedAddress = address.split(":");
+        // the socket timeout is fixed per connection, so use the larger one of both
+        int socketTimeout = Math.max(getReadTimeout(), getWriteTimeout());
+        JedisPool pool = new JedisPool(newPoolConfig(), splittedAddress[0], Integer.parseInt(splittedAddress[1]), socketTimeout);
+        prewarm(pool, getMinIdleConnections(), address);
+        return pool;
+    }
+
+    /**
+     * open given number of connections up front, so that the first requests
+     * after start do not pay for connecting.
+     */
+    static void prewarm(JedisPool pool, int count, String address) {
+        List<Jedis> connections = new ArrayList<Jedis>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                // the pool connects new connections before handing them out
+                connections.add(pool.getResource());
+            }
+        } catch (JedisException error) {
+            log.warn("unable to open " + count + " connection(s) to " + address + " up front", error);
+        } finally {
+            for (Jedis jedis : connections) {
+                pool.returnResource(jedis);
+            }
+        }
+    }
+
+    /**
+     * @return connection from given pool, waiting at most the max wait time
+     */
+    private static Jedis borrow(JedisPool pool) throws KeyValueStoreClientException {
+        try {
+            return pool.getResource();
+        } catch (JedisException error) {
+            throw new KeyValueStoreClientException(error);
+        }
+    }
+
     @Override
     public boolean connect() throws KeyValueStoreClientException {
+        if (UnixDomainSockets.containsUnixDomainSocket(_serverString)
+                || (_readReplicas != null && UnixDomainSockets.containsUnixDomainSocket(_readReplicas))) {
+            // Jedis 2.6 has no way to plug in another socket
+            throw new KeyValueStoreClientException(new UnsupportedOperationException(
+                    "JedisClient connects over TCP only, use MultiplexedRedisClient for unix domain sockets"));
+        }
         if (_client != null) {
             shutdown();
         }
-        String[] splittedAddress = this._serverString.split(":");
-        _client = new JedisPool(splittedAddress[0], Integer.parseInt(splittedAddress[1]));
+        _client = newPool(this._serverString.trim());
+        List<Replica> replicas = new ArrayList<Replica>();
+        if (_readReplicas != null && _readReplicas.trim().length() != 0) {
+            for (String address : _readReplicas.trim().split("[\\s,]+")) {
+                replicas.add(new Replica(address, newPool(address)));
+            }
+            log.info("read from " + replicas.size() + " replica(s) by " + _readStrategy);
+        }
+        _replicas = replicas;
         return true;
     }
 
     @Override
     public boolean shutdown() throws KeyValueStoreClientException {
+        for (Replica replica : _replicas) {
+            try {
+                replica.pool.destroy();
+            } catch (JedisException je) {
+                log.warn("unable to close replica " + replica.address, je);
+            }
+        }
+        _replicas = new ArrayList<Replica>();
+        synchronized (_recentWrites) {
+            _recentWrites.clear();
+        }
         if(_client != null) {
             try {
                 _client.destroy();
@@ -68,101 +229,381 @@ public class JedisClient extends AbstractRedisClient {
         return this._client != null;
     }
 
+    /**
+     * get from the primary. the session manager reads a session this way
+     * before modifying and storing it again, where a stale copy from a
+     * lagging replica would undo other writes. sessions are loaded and
+     * refreshed by {@link #getAndTouch(String, int)}, which reads from the
+     * replicas.
+     */
     @Override
     public byte[] get(String key) throws KeyValueStoreClientException {
         if (!isAlive()) {
             throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
         }
-        Jedis jedis = _client.getResource();
+        return get(_client, key);
+    }
+
+    /**
+     * get from given replica, falling back to the primary on a failure or a miss.
+     */
+    private byte[] get(Replica replica, String key) throws KeyValueStoreClientException {
+        long start = System.nanoTime();
+        try {
+            byte[] raw = get(replica.pool, key);
+            replica.record(System.nanoTime() - start);
+            if (raw != null) {
+                return raw;
+            }
+            // the replica may lag behind, a miss is only trusted from the primary
+        } catch (KeyValueStoreClientException error) {
+            // penalize the replica and fall back to the primary
+            replica.record(TimeUnit.MILLISECONDS.toNanos(getReadTimeout()));
+            log.debug("unable to read from replica " + replica.address, error);
+        }
+        return get(_client, key);
+    }
+
+    private byte[] get(JedisPool pool, String key) throws KeyValueStoreClientException {
+        Jedis jedis = borrow(pool);
         byte[] raw = null;
         try {
             raw = jedis.get(key.getBytes());
         } catch(JedisException je) {
-            _client.returnBrokenResource(jedis);
+            pool.returnBrokenResource(jedis);
+            jedis = null;
             throw new KeyValueStoreClientException(je);
         } finally {
-            _client.returnResource(jedis);
+            if (jedis != null) {
+                pool.returnResource(jedis);
+            }
         }
         return raw;
     }
 
+    /**
+     * without read replicas, GET and EXPIRE in one pipeline on the primary.
+     * with read replicas, EXPIRE on the primary, which also tells whether the
+     * key exists, then GET from a replica. GETEX would need Redis 6.2 and a
+     * newer Jedis.
+     */
+    @Override
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        Replica replica = chooseReplica(key);
+        if (replica != null) {
+            if (0 < exp && !expire(key, exp)) {
+                return null;
+            }
+            return get(replica, key);
+        }
+        if (exp <= 0) {
+            return get(_client, key);
+        }
+        Jedis jedis = borrow(_client);
+        try {
+            byte[] _key = key.getBytes();
+            Pipeline pipeline = jedis.pipelined();
+            Response<byte[]> raw = pipeline.get(_key);
+            pipeline.expire(_key, exp);
+            pipeline.sync();
+            return raw.get();
+        } catch(JedisException je) {
+            _client.returnBrokenResource(jedis);
+            jedis = null;
+            throw new KeyValueStoreClientException(je);
+        } finally {
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
+        }
+    }
+
+    /**
+     * @return true if the primary holds given key and its expiry has been reset
+     */
+    private boolean expire(String key, int exp) throws KeyValueStoreClientException {
+        Jedis jedis = borrow(_client);
+        try {
+            return jedis.expire(key.getBytes(), exp) == 1;
+        } catch(JedisException je) {
+            _client.returnBrokenResource(jedis);
+            jedis = null;
+            throw new KeyValueStoreClientException(je);
+        } finally {
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
+        }
+    }
+
+    /**
+     * MGET on the primary.
+     */
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        List<String> keyList = new ArrayList<String>(keys);
+        byte[][] _keys = new byte[keyList.size()][];
+        for (int i = 0; i < _keys.length; i++) {
+            _keys[i] = keyList.get(i).getBytes();
+        }
+        Jedis jedis = borrow(_client);
+        try {
+            List<byte[]> raws = jedis.mget(_keys);
+            Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; i < raws.size(); i++) {
+                if (raws.get(i) != null) {
+                    values.put(keyList.get(i), raws.get(i));
+                }
+            }
+            return values;
+        } catch(JedisException je) {
+            _client.returnBrokenResource(jedis);
+            jedis = null;
+            throw new KeyValueStoreClientException(je);
+        } finally {
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
+        }
+    }
+
+    /**
+     * GET and EXPIRE of every key in one pipeline on the primary, the same as
+     * {@link #getMulti(Collection)} which does not use the read replicas either.
+     */
+    @Override
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return getMulti(keys);
+        }
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        List<String> keyList = new ArrayList<String>(keys);
+        List<Response<byte[]>> raws = new ArrayList<Response<byte[]>>(keyList.size());
+        Jedis jedis = borrow(_client);
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            for (String key : keyList) {
+                byte[] _key = key.getBytes();
+                raws.add(pipeline.get(_key));
+                pipeline.expire(_key, exp);
+            }
+            pipeline.sync();
+            Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; i < raws.size(); i++) {
+                if (raws.get(i).get() != null) {
+                    values.put(keyList.get(i), raws.get(i).get());
+                }
+            }
+            return values;
+        } catch(JedisException je) {
+            _client.returnBrokenResource(jedis);
+            jedis = null;
+            throw new KeyValueStoreClientException(je);
+        } finally {
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
+        }
+    }
+
+    /**
+     * SET or SETEX of every key in one pipeline on the primary.
+     */
+    @Override
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        Jedis jedis = borrow(_client);
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                if (0 < exp) {
+                    pipeline.setex(entry.getKey().getBytes(), exp, entry.getValue());
+                } else {
+                    pipeline.set(entry.getKey().getBytes(), entry.getValue());
+                }
+            }
+            pipeline.sync();
+        } catch(JedisException je) {
+            _client.returnBrokenResource(jedis);
+            jedis = null;
+            throw new KeyValueStoreClientException(je);
+        } finally {
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
+        }
+        for (String key : values.keySet()) {
+            written(key);
+        }
+        return true;
+    }
+
+    /**
+     * @return replica to read given key from, or null to read from the primary
+     */
+    private Replica chooseReplica(String key) {
+        List<Replica> replicas = _replicas;
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        if (0 < _readYourWritesWindow) {
+            synchronized (_recentWrites) {
+                Long written = _recentWrites.get(key);
+                if (written != null) {
+                    if (System.nanoTime() - written < TimeUnit.MILLISECONDS.toNanos(_readYourWritesWindow)) {
+                        return null;
+                    }
+                    _recentWrites.remove(key);
+                }
+            }
+        }
+        if (LEAST_LATENCY.equals(_readStrategy)) {
+            Replica best = null;
+            for (Replica replica : replicas) {
+                if (best == null || replica.latency.get() < best.latency.get()) {
+                    best = replica;
+                }
+            }
+            return best;
+        }
+        int next = _nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+        return replicas.get(next % replicas.size());
+    }
+
+    /**
+     * remember a written key for the read-your-writes window. the map is kept
+     * in write order, so the oldest write is dropped once it is full.
+     */
+    private void written(String key) {
+        if (_readYourWritesWindow <= 0 || _replicas.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (_recentWrites) {
+            // re-insert, so that the key moves to the end
+            _recentWrites.remove(key);
+            _recentWrites.put(key, now);
+        }
+    }
+
     @Override
     public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
         if (!isAlive()) {
             throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
         }
-        Jedis jedis = _client.getResource();
+        Jedis jedis = borrow(_client);
         try {
             jedis.set(key.getBytes(), raw);
         } catch(JedisException je) {
             _client.returnBrokenResource(jedis);
+            jedis = null;
             throw new KeyValueStoreClientException(je);
         } finally {
-            _client.returnResource(jedis);
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
         }
+        written(key);
         return true;
     }
 
     @Override
     public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return set(key, raw); // SETEX rejects a non-positive expiry
+        }
         if (!isAlive()) {
             throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
         }
-        Jedis jedis = _client.getResource();
+        Jedis jedis = borrow(_client);
         try {
             jedis.setex(key.getBytes(), exp, raw);
         } catch(JedisException je) {
             _client.returnBrokenResource(jedis);
+            jedis = null;
             throw new KeyValueStoreClientException(je);
         } finally {
-            _client.returnResource(jedis);
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
         }
+        written(key);
         return true;
     }
 
     @Override
     public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
-        Jedis jedis = _client.getResource();
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        Jedis jedis = borrow(_client);
         try {
             Long r = jedis.setnx(key.getBytes(), raw);
+            written(key);
             return r.longValue() == 1;
         } catch(JedisException je) {
             _client.returnBrokenResource(jedis);
+            jedis = null;
             throw new KeyValueStoreClientException(je);
         } finally {
-            _client.returnResource(jedis);
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
         }
     }
 
+    /**
+     * add with a single SET NX EX, so that the expiry of an existing key is left untouched.
+     */
     @Override
     public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
-        Jedis jedis = _client.getResource();
+        if (exp <= 0) {
+            return add(key, raw);
+        }
+        if (!isAlive()) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        Jedis jedis = borrow(_client);
         try {
-            Transaction tr = jedis.multi();
-            byte[] _key = key.getBytes();
-            Response<Long> r = tr.setnx(_key, raw);
-            tr.expire(_key, exp);
-            tr.exec();
-            return r.get() == 1;
+            String r = jedis.set(key.getBytes(), raw, NX, EX, exp);
+            written(key);
+            return "OK".equals(r);
         } catch(JedisException je) {
             _client.returnBrokenResource(jedis);
+            jedis = null;
             throw new KeyValueStoreClientException(je);
         } finally {
-            _client.returnResource(jedis);
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
         }
     }
 
     @Override
     public boolean delete(String key) throws KeyValueStoreClientException {
-        Jedis jedis = _client.getResource();
+        Jedis jedis = borrow(_client);
         try {
             jedis.del(key);
         } catch(JedisException je) {
             _client.returnBrokenResource(jedis);
+            jedis = null;
             throw new KeyValueStoreClientException(je);
         } finally {
-            _client.returnResource(jedis);
+            if (jedis != null) {
+                _client.returnResource(jedis);
+            }
         }
+        written(key);
         return true;
     }
 }
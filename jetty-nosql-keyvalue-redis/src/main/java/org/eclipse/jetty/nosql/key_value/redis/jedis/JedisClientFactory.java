@@ -24,10 +24,76 @@ import org.eclipse.jetty.nosql.key_value.redis.AbstractRedisClientFactory;
  * @author den
  */
 public class JedisClientFactory extends AbstractRedisClientFactory {
+    private String _readReplicas = null;
+    private String _readStrategy = JedisClient.ROUND_ROBIN;
+    private int _readYourWritesWindow = 0;
 
     @Override
     public AbstractKeyValueStoreClient create(String serverString) {
-        return new JedisClient(serverString);
+        JedisClient client = new JedisClient(serverString);
+        client.setReadReplicas(getReadReplicasOf(serverString));
+        client.setReadStrategy(_readStrategy);
+        client.setReadYourWritesWindow(_readYourWritesWindow);
+        return client;
+    }
+
+    public String getReadReplicas() {
+        return _readReplicas;
+    }
+
+    /**
+     * @param readReplicas "host:port" of read replicas, separated by spaces or commas. when
+     *        sessions are sharded over several primaries, the replicas of every primary are
+     *        given as a group "primary=replica,replica", groups separated by ';'.
+     * @see JedisClient#setReadReplicas(String)
+     */
+    public void setReadReplicas(String readReplicas) {
+        this._readReplicas = readReplicas;
+    }
+
+    /**
+     * @return true if the read replicas are grouped by primary
+     */
+    public boolean isGroupedReadReplicas() {
+        return _readReplicas != null && _readReplicas.indexOf('=') != -1;
+    }
+
+    /**
+     * @param primary "host:port" of a primary
+     * @return read replicas of given primary, or null if it has none
+     */
+    public String getReadReplicasOf(String primary) {
+        if (!isGroupedReadReplicas()) {
+            return _readReplicas;
+        }
+        for (String group : _readReplicas.split(";")) {
+            int separator = group.indexOf('=');
+            if (separator != -1 && group.substring(0, separator).trim().equals(primary.trim())) {
+                return group.substring(separator + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    public String getReadStrategy() {
+        return _readStrategy;
+    }
+
+    /**
+     * @see JedisClient#setReadStrategy(String)
+     */
+    public void setReadStrategy(String readStrategy) {
+        this._readStrategy = readStrategy;
+    }
+
+    public int getReadYourWritesWindow() {
+        return _readYourWritesWindow;
+    }
+
+    /**
+     * @see JedisClient#setReadYourWritesWindow(int)
+     */
+    public void setReadYourWritesWindow(int readYourWritesWindow) {
+        this._readYourWritesWindow = readYourWritesWindow;
     }
-    
 }
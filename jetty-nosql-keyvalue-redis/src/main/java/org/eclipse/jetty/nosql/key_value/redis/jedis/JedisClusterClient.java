@@ -0,0 +1,351 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eclipse.jetty.nosql.key_value.redis.jedis;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.redis.AbstractRedisClient;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * Client of a Redis Cluster.
+ *
+ * Keys are routed to the node owning their hash slot, after the slot map
+ * read with CLUSTER SLOTS from any of the seed nodes in the server string.
+ * MOVED redirections update the slot and trigger a refresh of the whole map,
+ * ASK redirections are followed for a single command. Connection failures
+ * refresh the map as well, to pick up a failover.
+ *
+ * The JedisCluster of Jedis 2.6 is not used since it has no binary API.
+ */
+public class JedisClusterClient extends AbstractRedisClient {
+    private final static Logger log = Log.getLogger(JedisClusterClient.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SLOTS = 16384;
+    private static final byte[] NX = "NX".getBytes(UTF8);
+    private static final byte[] EX = "EX".getBytes(UTF8);
+
+    private final Map<String, JedisPool> _pools = new ConcurrentHashMap<String, JedisPool>();
+    private volatile JedisPool[] _slots = null;
+    private volatile long _refreshedAt = 0;
+    private int _maxRedirections = 5;
+    private long _minRefreshInterval = 1000;
+
+    public JedisClusterClient() {
+        this("127.0.0.1:7000");
+    }
+
+    /**
+     * @param serverString "host:port" of one or more seed nodes, separated by spaces or commas
+     */
+    public JedisClusterClient(String serverString) {
+        super(serverString);
+    }
+
+    public int getMaxRedirections() {
+        return _maxRedirections;
+    }
+
+    /**
+     * @param maxRedirections redirections followed before giving up. 5 by default.
+     */
+    public void setMaxRedirections(int maxRedirections) {
+        this._maxRedirections = maxRedirections;
+    }
+
+    public long getMinRefreshInterval() {
+        return _minRefreshInterval;
+    }
+
+    /**
+     * @param minRefreshInterval milliseconds between two refreshes of the slot map. 1000 by default.
+     */
+    public void setMinRefreshInterval(long minRefreshInterval) {
+        this._minRefreshInterval = minRefreshInterval;
+    }
+
+    @Override
+    public boolean connect() throws KeyValueStoreClientException {
+        if (_slots != null) {
+            shutdown();
+        }
+        JedisPool[] slots = new JedisPool[SLOTS];
+        JedisException failure = null;
+        for (String seed : _serverString.trim().split("[\\s,]+")) {
+            try {
+                readSlots(poolOf(seed), slots);
+                _slots = slots;
+                _refreshedAt = System.nanoTime();
+                log.info("connected to a cluster of " + _pools.size() + " node(s) via " + seed);
+                return true;
+            } catch (JedisException error) {
+                failure = error;
+                log.debug("unable to read slots from " + seed, error);
+            }
+        }
+        shutdown();
+        throw new KeyValueStoreClientException("unable to read slots from " + _serverString, failure);
+    }
+
+    @Override
+    public boolean shutdown() throws KeyValueStoreClientException {
+        _slots = null;
+        for (JedisPool pool : _pools.values()) {
+            try {
+                pool.destroy();
+            } catch (JedisException error) {
+                log.warn("unable to close pool", error);
+            }
+        }
+        _pools.clear();
+        return true;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return _slots != null;
+    }
+
+    /**
+     * @return slot of given key, honouring hash tags
+     */
+    public static int slotOf(String key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    private JedisPool poolOf(String address) {
+        JedisPool pool = _pools.get(address);
+        if (pool == null) {
+            synchronized (_pools) {
+                pool = _pools.get(address);
+                if (pool == null) {
+                    int separator = address.lastIndexOf(':');
+                    int socketTimeout = Math.max(getReadTimeout(), getWriteTimeout());
+                    pool = new JedisPool(newPoolConfig(), address.substring(0, separator),
+                            Integer.parseInt(address.substring(separator + 1)), socketTimeout);
+                    JedisClient.prewarm(pool, getMinIdleConnections(), address);
+                    _pools.put(address, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    private JedisPool poolOf(HostAndPort node) {
+        return poolOf(node.getHost() + ":" + node.getPort());
+    }
+
+    /**
+     * fill given slot map from CLUSTER SLOTS of given node.
+     */
+    private void readSlots(JedisPool pool, JedisPool[] slots) {
+        Jedis jedis = pool.getResource();
+        try {
+            for (Object range : jedis.clusterSlots()) {
+                List<?> fields = (List<?>) range;
+                int from = ((Long) fields.get(0)).intValue();
+                int to = ((Long) fields.get(1)).intValue();
+                List<?> master = (List<?>) fields.get(2);
+                String host = new String((byte[]) master.get(0), UTF8);
+                int port = ((Long) master.get(1)).intValue();
+                JedisPool owner = poolOf(host + ":" + port);
+                for (int slot = from; slot <= to; slot++) {
+                    slots[slot] = owner;
+                }
+            }
+        } catch (JedisConnectionException error) {
+            pool.returnBrokenResource(jedis);
+            jedis = null;
+            throw error;
+        } finally {
+            if (jedis != null) {
+                pool.returnResource(jedis);
+            }
+        }
+    }
+
+    /**
+     * re-read the slot map from any known node, at most once per refresh interval.
+     */
+    private void refreshSlots() {
+        long now = System.nanoTime();
+        if (now - _refreshedAt < TimeUnit.MILLISECONDS.toNanos(_minRefreshInterval)) {
+            return;
+        }
+        _refreshedAt = now;
+        for (JedisPool pool : new ArrayList<JedisPool>(_pools.values())) {
+            JedisPool[] slots = new JedisPool[SLOTS];
+            try {
+                readSlots(pool, slots);
+                _slots = slots;
+                return;
+            } catch (JedisException error) {
+                log.debug("unable to refresh slots", error);
+            }
+        }
+        log.warn("unable to refresh slots from any node");
+    }
+
+    private abstract class Command<T> {
+        abstract T execute(Jedis jedis);
+
+        T run(String key) throws KeyValueStoreClientException {
+            JedisPool[] slots = _slots;
+            if (slots == null) {
+                throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+            }
+            int slot = slotOf(key);
+            JedisPool pool = slots[slot];
+            boolean asking = false;
+            JedisException failure = null;
+            for (int attempt = 0; attempt <= _maxRedirections; attempt++) {
+                if (pool == null) {
+                    refreshSlots();
+                    pool = _slots[slot];
+                    if (pool == null) {
+                        throw new KeyValueStoreClientException("slot " + slot + " is not served by any node");
+                    }
+                }
+                JedisPool used = pool;
+                Jedis jedis = null;
+                try {
+                    jedis = used.getResource();
+                    if (asking) {
+                        jedis.asking();
+                    }
+                    return execute(jedis);
+                } catch (JedisMovedDataException moved) {
+                    failure = moved;
+                    refreshSlots();
+                    pool = poolOf(moved.getTargetNode());
+                    _slots[moved.getSlot()] = pool;
+                    asking = false;
+                } catch (JedisAskDataException ask) {
+                    failure = ask;
+                    pool = poolOf(ask.getTargetNode());
+                    asking = true;
+                } catch (JedisConnectionException error) {
+                    if (jedis != null) {
+                        used.returnBrokenResource(jedis);
+                        jedis = null;
+                    }
+                    failure = error;
+                    refreshSlots();
+                    pool = _slots[slot];
+                    if (pool == used) {
+                        break; // no failover happened
+                    }
+                    asking = false;
+                } catch (JedisException error) {
+                    throw new KeyValueStoreClientException(error);
+                } finally {
+                    if (jedis != null) {
+                        used.returnResource(jedis);
+                    }
+                }
+            }
+            throw new KeyValueStoreClientException("unable to execute command on slot " + slot, failure);
+        }
+    }
+
+    @Override
+    public byte[] get(final String key) throws KeyValueStoreClientException {
+        return new Command<byte[]>() {
+            byte[] execute(Jedis jedis) {
+                return jedis.get(key.getBytes(UTF8));
+            }
+        }.run(key);
+    }
+
+    @Override
+    public byte[] getAndTouch(final String key, final int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return get(key);
+        }
+        return new Command<byte[]>() {
+            byte[] execute(Jedis jedis) {
+                byte[] _key = key.getBytes(UTF8);
+                Pipeline pipeline = jedis.pipelined();
+                Response<byte[]> raw = pipeline.get(_key);
+                pipeline.expire(_key, exp);
+                pipeline.sync();
+                return raw.get();
+            }
+        }.run(key);
+    }
+
+    @Override
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return set(key, raw, 0);
+    }
+
+    @Override
+    public boolean set(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+        return new Command<Boolean>() {
+            Boolean execute(Jedis jedis) {
+                if (0 < exp) {
+                    jedis.setex(key.getBytes(UTF8), exp, raw);
+                } else {
+                    jedis.set(key.getBytes(UTF8), raw);
+                }
+                return true;
+            }
+        }.run(key);
+    }
+
+    @Override
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return add(key, raw, 0);
+    }
+
+    @Override
+    public boolean add(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+        return new Command<Boolean>() {
+            Boolean execute(Jedis jedis) {
+                if (0 < exp) {
+                    return "OK".equals(jedis.set(key.getBytes(UTF8), raw, NX, EX, exp));
+                }
+                return jedis.setnx(key.getBytes(UTF8), raw) == 1;
+            }
+        }.run(key);
+    }
+
+    @Override
+    public boolean delete(final String key) throws KeyValueStoreClientException {
+        return new Command<Boolean>() {
+            Boolean execute(Jedis jedis) {
+                return 0 < jedis.del(key.getBytes(UTF8));
+            }
+        }.run(key);
+    }
+}
@@ -0,0 +1,756 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eclipse.jetty.nosql.key_value.redis.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
+import org.eclipse.jetty.nosql.key_value.redis.AbstractRedisClient;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Redis client multiplexing concurrent requests over a few connections.
+ *
+ * Callers put their command on the queue of a connection, chosen round
+ * robin, and wait for it. A single I/O thread writes everything queued on a
+ * connection since its last tick as one pipeline, and hands the replies back
+ * in order. Connections are never borrowed for a round trip, so throughput is
+ * not capped by a pool size, and a handful of sockets serve any number of
+ * threads.
+ *
+ * The server is given as "host:port" or, for a co-located Redis, as
+ * "unix:/path/to.sock" (Java 16 or later), which skips the TCP stack.
+ *
+ * The pool settings of {@link AbstractRedisClient} do not apply. A connection
+ * which fails is reopened after {@link #setReconnectDelay(long)}; requests are
+ * sent over the other connections meanwhile.
+ */
+public class MultiplexedRedisClient extends AbstractRedisClient {
+    private final static Logger log = Log.getLogger(MultiplexedRedisClient.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final int MAX_HEADER_LENGTH = 24; // '$' or '*', a long and CRLF
+
+    private static final byte[] GET = "GET".getBytes(UTF8);
+    private static final byte[] SET = "SET".getBytes(UTF8);
+    private static final byte[] DEL = "DEL".getBytes(UTF8);
+    private static final byte[] EXPIRE = "EXPIRE".getBytes(UTF8);
+    private static final byte[] NX = "NX".getBytes(UTF8);
+    private static final byte[] EX = "EX".getBytes(UTF8);
+
+    private int _connections = 2;
+    private int _bufferSize = 64 * 1024;
+    private long _reconnectDelay = 1000;
+
+    private volatile Connection[] _pipes = null;
+    private volatile Selector _selector = null;
+    private Thread _thread = null;
+    private final Queue<Connection> _ready = new ConcurrentLinkedQueue<Connection>();
+    private final AtomicInteger _next = new AtomicInteger();
+
+    public MultiplexedRedisClient() {
+        this("127.0.0.1:6379");
+    }
+
+    public MultiplexedRedisClient(String serverString) {
+        super(serverString);
+    }
+
+    public int getConnections() {
+        return _connections;
+    }
+
+    /**
+     * @param connections connections opened to the server. 2 by default.
+     */
+    public void setConnections(int connections) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections must be positive");
+        }
+        this._connections = connections;
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    /**
+     * @param bufferSize bytes of the direct read and write buffers per connection. 65536 by default.
+     *        replies larger than this grow the read buffer.
+     */
+    public void setBufferSize(int bufferSize) {
+        this._bufferSize = bufferSize;
+    }
+
+    public long getReconnectDelay() {
+        return _reconnectDelay;
+    }
+
+    /**
+     * @param reconnectDelay milliseconds before reopening a failed connection. 1000 by default.
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this._reconnectDelay = reconnectDelay;
+    }
+
+    @Override
+    public synchronized boolean connect() throws KeyValueStoreClientException {
+        if (_pipes != null) {
+            shutdown();
+        }
+        if (UnixDomainSockets.containsUnixDomainSocket(_serverString) && !UnixDomainSockets.isSupported()) {
+            throw new KeyValueStoreClientException(new UnsupportedOperationException("unix domain sockets require Java 16 or later"));
+        }
+        String address = _serverString.trim();
+        try {
+            _selector = Selector.open();
+        } catch (IOException error) {
+            throw new KeyValueStoreClientException(error);
+        }
+        Connection[] pipes = new Connection[_connections];
+        for (int i = 0; i < pipes.length; i++) {
+            pipes[i] = new Connection(address + "#" + i, address);
+        }
+        _pipes = pipes;
+        for (Connection pipe : pipes) {
+            schedule(pipe);
+        }
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "MultiplexedRedisClient-" + address);
+        _thread.setDaemon(true);
+        _thread.start();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean shutdown() throws KeyValueStoreClientException {
+        Connection[] pipes = _pipes;
+        if (pipes == null) {
+            return true;
+        }
+        _pipes = null;
+        _selector.wakeup();
+        try {
+            _thread.join(getTimeout());
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection pipe : pipes) {
+            pipe.fail(new ClosedChannelException(), 0);
+        }
+        try {
+            _selector.close();
+        } catch (IOException error) {
+            log.debug("unable to close selector", error);
+        }
+        _thread = null;
+        _selector = null;
+        return true;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return _pipes != null;
+    }
+
+    @Override
+    public byte[] get(String key) throws KeyValueStoreClientException {
+        Request request = new Request(GET, key.getBytes(UTF8));
+        submit(request, null, getReadTimeout());
+        return request.value;
+    }
+
+    /**
+     * GET and EXPIRE, pipelined on the same connection.
+     */
+    @Override
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return get(key);
+        }
+        byte[] _key = key.getBytes(UTF8);
+        Request get = new Request(GET, _key);
+        Request expire = new Request(EXPIRE, _key, decimal(exp));
+        submit(get, expire, getReadTimeout());
+        return get.value;
+    }
+
+    @Override
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return set(key, raw, 0);
+    }
+
+    @Override
+    public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        Request request = 0 < exp
+                ? new Request(SET, key.getBytes(UTF8), raw, EX, decimal(exp))
+                : new Request(SET, key.getBytes(UTF8), raw);
+        submit(request, null, getWriteTimeout());
+        return true;
+    }
+
+    @Override
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return add(key, raw, 0);
+    }
+
+    @Override
+    public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        Request request = 0 < exp
+                ? new Request(SET, key.getBytes(UTF8), raw, NX, EX, decimal(exp))
+                : new Request(SET, key.getBytes(UTF8), raw, NX);
+        submit(request, null, getWriteTimeout());
+        return !request.nil;
+    }
+
+    @Override
+    public boolean delete(String key) throws KeyValueStoreClientException {
+        Request request = new Request(DEL, key.getBytes(UTF8));
+        submit(request, null, getWriteTimeout());
+        return 0 < request.integer;
+    }
+
+    private static byte[] decimal(long value) {
+        return Long.toString(value).getBytes(UTF8);
+    }
+
+    /**
+     * pipelined GETs on the same connection.
+     */
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+        List<String> keyList = new ArrayList<String>(keys);
+        List<Request> requests = new ArrayList<Request>(keyList.size());
+        for (String key : keyList) {
+            requests.add(new Request(GET, key.getBytes(UTF8)));
+        }
+        submit(requests, getReadTimeout());
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < requests.size(); i++) {
+            if (requests.get(i).value != null) {
+                values.put(keyList.get(i), requests.get(i).value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * pipelined GET and EXPIRE pairs on the same connection.
+     */
+    @Override
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return getMulti(keys);
+        }
+        List<String> keyList = new ArrayList<String>(keys);
+        List<Request> requests = new ArrayList<Request>(keyList.size() * 2);
+        for (String key : keyList) {
+            byte[] _key = key.getBytes(UTF8);
+            requests.add(new Request(GET, _key));
+            requests.add(new Request(EXPIRE, _key, decimal(exp)));
+        }
+        submit(requests, getReadTimeout());
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < keyList.size(); i++) {
+            if (requests.get(i * 2).value != null) {
+                values.put(keyList.get(i), requests.get(i * 2).value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * pipelined SETs on the same connection.
+     */
+    @Override
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        List<Request> requests = new ArrayList<Request>(values.size());
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            byte[] key = entry.getKey().getBytes(UTF8);
+            requests.add(0 < exp
+                    ? new Request(SET, key, entry.getValue(), EX, decimal(exp))
+                    : new Request(SET, key, entry.getValue()));
+        }
+        submit(requests, getWriteTimeout());
+        return true;
+    }
+
+    /**
+     * queue given request, and an optional second one right behind it, and
+     * wait for both.
+     */
+    private void submit(Request request, Request next, int timeout) throws KeyValueStoreClientException {
+        submit(next == null ? Collections.singletonList(request) : Arrays.asList(request, next), timeout);
+    }
+
+    /**
+     * queue given requests in order on the same connection, and wait for all of them.
+     */
+    private void submit(List<Request> requests, int timeout) throws KeyValueStoreClientException {
+        Connection pipe = choose();
+        pipe.queue.addAll(requests);
+        schedule(pipe);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (Request request : requests) {
+            request.await(deadline);
+        }
+    }
+
+    /**
+     * @return next connection round robin, skipping the ones which are down
+     */
+    private Connection choose() throws KeyValueStoreClientException {
+        Connection[] pipes = _pipes;
+        if (pipes == null) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        int start = (_next.getAndIncrement() & Integer.MAX_VALUE) % pipes.length;
+        for (int i = 0; i < pipes.length; i++) {
+            Connection pipe = pipes[(start + i) % pipes.length];
+            if (!pipe.isDown()) {
+                return pipe;
+            }
+        }
+        throw new KeyValueStoreClientException("server " + _serverString + " is down");
+    }
+
+    /**
+     * hand given connection to the I/O thread.
+     */
+    private void schedule(Connection pipe) {
+        if (pipe.scheduled.compareAndSet(false, true)) {
+            _ready.add(pipe);
+            Selector selector = _selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    private void loop() {
+        Selector selector = _selector;
+        while (_pipes != null) {
+            try {
+                selector.select();
+                Connection ready;
+                while ((ready = _ready.poll()) != null) {
+                    ready.scheduled.set(false);
+                    ready.flush(selector);
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection pipe = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            pipe.finishConnect();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            pipe.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            pipe.flush(selector);
+                        }
+                    } catch (IOException error) {
+                        pipe.fail(error, _reconnectDelay);
+                    }
+                }
+            } catch (IOException error) {
+                log.warn("selector failed", error);
+            } catch (RuntimeException error) {
+                log.warn("unexpected error", error);
+            }
+        }
+    }
+
+    /**
+     * a command, waited for by the calling thread.
+     */
+    static final class Request {
+        final byte[][] args;
+        byte[] value;
+        long integer;
+        boolean nil;
+        String error;
+        Throwable failure;
+        private boolean _done;
+
+        Request(byte[]... args) {
+            this.args = args;
+        }
+
+        synchronized void complete(byte[] value, long integer, boolean nil, String error) {
+            this.value = value;
+            this.integer = integer;
+            this.nil = nil;
+            this.error = error;
+            _done = true;
+            notifyAll();
+        }
+
+        synchronized void fail(Throwable failure) {
+            if (!_done) {
+                this.failure = failure;
+                _done = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * @param deadline in nanoseconds of {@link System#nanoTime()}
+         */
+        synchronized void await(long deadline) throws KeyValueStoreClientException {
+            try {
+                while (!_done) {
+                    long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (wait <= 0) {
+                        throw new KeyValueStoreClientException(new TimeoutException("timed out waiting for "
+                                + new String(args[0], UTF8)));
+                    }
+                    wait(wait);
+                }
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new KeyValueStoreClientException(error);
+            }
+            if (failure != null) {
+                throw new KeyValueStoreClientException(failure);
+            }
+            if (error != null) {
+                throw new KeyValueStoreClientException(error);
+            }
+        }
+    }
+
+    /**
+     * a pipelined connection. everything but queue and scheduled is touched
+     * by the I/O thread only.
+     */
+    private final class Connection {
+        final String name;
+        final String address;
+        final Queue<Request> queue = new ConcurrentLinkedQueue<Request>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        private final ArrayDeque<Request> _inflight = new ArrayDeque<Request>();
+        private volatile long _downUntil = 0;
+        private SocketChannel _channel = null;
+        private SelectionKey _key = null;
+        private boolean _connected = false;
+        private ByteBuffer _out = null;
+        private ByteBuffer _in = null;
+        private Request _writing = null;
+        private int _arg = -1;
+        private int _offset = -1;
+
+        Connection(String name, String address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        boolean isDown() {
+            return _downUntil != 0 && System.currentTimeMillis() < _downUntil;
+        }
+
+        void flush(Selector selector) {
+            try {
+                if (_channel == null) {
+                    open(selector);
+                    return;
+                }
+                if (!_connected) {
+                    return;
+                }
+                encode();
+                _out.flip();
+                _channel.write(_out);
+                _out.compact();
+                boolean pending = 0 < _out.position() || _writing != null || !queue.isEmpty();
+                _key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException error) {
+                fail(error, _reconnectDelay);
+            }
+        }
+
+        private void open(Selector selector) throws IOException {
+            if (isDown()) {
+                fail(new IOException("connection " + name + " is down"), -1);
+                return;
+            }
+            SocketAddress target;
+            if (UnixDomainSockets.isUnixDomainSocket(address)) {
+                _channel = UnixDomainSockets.openChannel();
+                target = UnixDomainSockets.addressOf(address);
+            } else {
+                _channel = SocketChannel.open();
+                _channel.socket().setTcpNoDelay(true);
+                int separator = address.lastIndexOf(':');
+                target = 0 < separator
+                        ? new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)))
+                        : new InetSocketAddress(address, 6379);
+            }
+            _channel.configureBlocking(false);
+            _out = ByteBuffer.allocateDirect(_bufferSize);
+            _in = ByteBuffer.allocateDirect(_bufferSize);
+            if (_channel.connect(target)) {
+                _key = _channel.register(selector, SelectionKey.OP_READ, this);
+                connected(selector);
+            } else {
+                _key = _channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        void finishConnect() throws IOException {
+            if (_channel.finishConnect()) {
+                connected(_key.selector());
+            }
+        }
+
+        private void connected(Selector selector) {
+            _connected = true;
+            _downUntil = 0;
+            _key.interestOps(SelectionKey.OP_READ);
+            log.debug("connected " + name);
+            flush(selector);
+        }
+
+        /**
+         * move queued commands into the write buffer, as far as they fit.
+         */
+        private void encode() {
+            while (true) {
+                if (_writing == null) {
+                    _writing = queue.poll();
+                    if (_writing == null) {
+                        return;
+                    }
+                    _arg = -1;
+                }
+                if (!encode(_writing)) {
+                    return;
+                }
+                _inflight.add(_writing);
+                _writing = null;
+            }
+        }
+
+        /**
+         * @return true if given command is complete in the write buffer
+         */
+        private boolean encode(Request request) {
+            if (_arg < 0) {
+                if (_out.remaining() < MAX_HEADER_LENGTH) {
+                    return false;
+                }
+                putHeader('*', request.args.length);
+                _arg = 0;
+                _offset = -1;
+            }
+            while (_arg < request.args.length) {
+                byte[] arg = request.args[_arg];
+                if (_offset < 0) {
+                    if (_out.remaining() < MAX_HEADER_LENGTH) {
+                        return false;
+                    }
+                    putHeader('$', arg.length);
+                    _offset = 0;
+                }
+                int length = Math.min(_out.remaining(), arg.length - _offset);
+                _out.put(arg, _offset, length);
+                _offset += length;
+                if (_offset < arg.length || _out.remaining() < CRLF.length) {
+                    return false;
+                }
+                _out.put(CRLF);
+                _arg++;
+                _offset = -1;
+            }
+            return true;
+        }
+
+        /**
+         * write type and length without an intermediate String.
+         */
+        private void putHeader(char type, int length) {
+            _out.put((byte) type);
+            if (length == 0) {
+                _out.put((byte) '0');
+            } else {
+                int divisor = 1;
+                while (divisor <= length / 10) {
+                    divisor *= 10;
+                }
+                for (; 0 < divisor; divisor /= 10) {
+                    _out.put((byte) ('0' + length / divisor % 10));
+                }
+            }
+            _out.put(CRLF);
+        }
+
+        void read() throws IOException {
+            if (_channel.read(_in) < 0) {
+                throw new EOFException("connection " + name + " closed by server");
+            }
+            _in.flip();
+            while (_in.hasRemaining()) {
+                int start = _in.position();
+                int lineEnd = lineEnd(start);
+                if (lineEnd < 0) {
+                    break;
+                }
+                byte type = _in.get(start);
+                Request request;
+                if (type == '$') {
+                    long length = parseLong(start + 1, lineEnd);
+                    if (length < 0) {
+                        request = inflight();
+                        _in.position(lineEnd + 2);
+                        request.complete(null, 0, true, null);
+                        continue;
+                    }
+                    int end = lineEnd + 2 + (int) length + 2;
+                    if (_in.limit() < end) {
+                        if (_in.capacity() < end - start) {
+                            grow(end - start);
+                            return;
+                        }
+                        break;
+                    }
+                    request = inflight();
+                    byte[] value = new byte[(int) length];
+                    _in.position(lineEnd + 2);
+                    _in.get(value);
+                    _in.position(end);
+                    request.complete(value, 0, false, null);
+                } else if (type == '+' || type == ':' || type == '-') {
+                    request = inflight();
+                    if (type == ':') {
+                        request.complete(null, parseLong(start + 1, lineEnd), false, null);
+                    } else if (type == '-') {
+                        byte[] message = new byte[lineEnd - start - 1];
+                        _in.position(start + 1);
+                        _in.get(message);
+                        request.complete(null, 0, false, new String(message, UTF8));
+                    } else {
+                        request.complete(null, 0, false, null);
+                    }
+                    _in.position(lineEnd + 2);
+                } else {
+                    throw new IOException("unexpected reply type '" + (char) type + "' from " + name);
+                }
+            }
+            _in.compact();
+        }
+
+        /**
+         * @return position of the CR ending the line at given position, or -1 if incomplete
+         */
+        private int lineEnd(int start) {
+            for (int i = start; i + 1 < _in.limit(); i++) {
+                if (_in.get(i) == '\r' && _in.get(i + 1) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private long parseLong(int from, int to) {
+            boolean negative = _in.get(from) == '-';
+            long value = 0;
+            for (int i = negative ? from + 1 : from; i < to; i++) {
+                value = value * 10 + (_in.get(i) - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        private Request inflight() throws IOException {
+            Request request = _inflight.poll();
+            if (request == null) {
+                throw new IOException("unexpected reply from " + name);
+            }
+            return request;
+        }
+
+        /**
+         * replace the read buffer by one which fits a reply of given length.
+         */
+        private void grow(int length) {
+            ByteBuffer in = ByteBuffer.allocateDirect(Math.max(length, _in.capacity() * 2));
+            in.put(_in);
+            _in = in;
+        }
+
+        /**
+         * close the connection and fail everything queued on it.
+         *
+         * @param reconnectDelay milliseconds to stay down, negative to keep the current delay
+         */
+        void fail(Throwable error, long reconnectDelay) {
+            if (_channel != null) {
+                if (0 < reconnectDelay) {
+                    log.warn("connection " + name + " failed", error);
+                }
+                try {
+                    _channel.close();
+                } catch (IOException ignore) {
+                    // closing anyway
+                }
+            }
+            _channel = null;
+            _key = null;
+            _connected = false;
+            _writing = null;
+            if (0 <= reconnectDelay) {
+                _downUntil = System.currentTimeMillis() + reconnectDelay;
+            }
+            Request request;
+            while ((request = _inflight.poll()) != null) {
+                request.fail(error);
+            }
+            while ((request = queue.poll()) != null) {
+                request.fail(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.eclipse.jetty.nosql.key_value.redis.nio;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.redis.AbstractRedisClientFactory;
+
+public class MultiplexedRedisClientFactory extends AbstractRedisClientFactory {
+    private int _connections = 2;
+    private int _bufferSize = 64 * 1024;
+    private long _reconnectDelay = 1000;
+
+    @Override
+    public AbstractKeyValueStoreClient create(String serverString) {
+        MultiplexedRedisClient client = new MultiplexedRedisClient(serverString);
+        client.setConnections(_connections);
+        client.setBufferSize(_bufferSize);
+        client.setReconnectDelay(_reconnectDelay);
+        return client;
+    }
+
+    public int getConnections() {
+        return _connections;
+    }
+
+    /**
+     * @see MultiplexedRedisClient#setConnections(int)
+     */
+    public void setConnections(int connections) {
+        this._connections = connections;
+    }
+
+    public int getBufferSize() {
+        return _bufferSize;
+    }
+
+    /**
+     * @see MultiplexedRedisClient#setBufferSize(int)
+     */
+    public void setBufferSize(int bufferSize) {
+        this._bufferSize = bufferSize;
+    }
+
+    public long getReconnectDelay() {
+        return _reconnectDelay;
+    }
+
+    /**
+     * @see MultiplexedRedisClient#setReconnectDelay(long)
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        this._reconnectDelay = reconnectDelay;
+    }
+}
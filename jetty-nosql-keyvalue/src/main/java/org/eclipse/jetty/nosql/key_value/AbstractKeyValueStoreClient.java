@@ -1,9 +1,15 @@
 package org.eclipse.jetty.nosql.key_value;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public abstract class AbstractKeyValueStoreClient implements KeyValueStoreClient {
 
     protected String _serverString = null;
     protected int timeout = 1000;
+    protected volatile int readTimeout = -1;
+    protected volatile int writeTimeout = -1;
 
     public AbstractKeyValueStoreClient(String serverString) {
         setServerString(serverString);
@@ -24,4 +30,111 @@ public abstract class AbstractKeyValueStoreClient implements KeyValueStoreClient
     public void setTimeout(int _timeoutInMs) {
         this.timeout = _timeoutInMs;
     }
+
+    /**
+     * @return timeout of get in milliseconds, defaults to {@link #getTimeout()}
+     */
+    public int getReadTimeout() {
+        int t = readTimeout;
+        return t < 0 ? timeout : t;
+    }
+
+    /**
+     * may be changed while the client is connected.
+     *
+     * @param readTimeoutInMs timeout of get in milliseconds, negative to use {@link #getTimeout()}
+     */
+    public void setReadTimeout(int readTimeoutInMs) {
+        this.readTimeout = readTimeoutInMs;
+    }
+
+    /**
+     * @return timeout of set, add and delete in milliseconds, defaults to {@link #getTimeout()}
+     */
+    public int getWriteTimeout() {
+        int t = writeTimeout;
+        return t < 0 ? timeout : t;
+    }
+
+    /**
+     * may be changed while the client is connected.
+     *
+     * @param writeTimeoutInMs timeout of set, add and delete in milliseconds, negative to use {@link #getTimeout()}
+     */
+    public void setWriteTimeout(int writeTimeoutInMs) {
+        this.writeTimeout = writeTimeoutInMs;
+    }
+
+    /**
+     * get only, leaving the expiry as is until the key is stored again.
+     * storing the value read would silently undo a write made in between, so
+     * clients of stores which can reset the expiry of a key atomically should
+     * override this.
+     */
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+        return get(key);
+    }
+
+    /**
+     * get one key after the other. clients of stores which can fetch several
+     * keys in one round trip should override this.
+     */
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+        return getEach(keys);
+    }
+
+    /**
+     * get and touch one key after the other. clients of stores which can
+     * pipeline these should override this.
+     */
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        return getAndTouchEach(keys, exp);
+    }
+
+    /**
+     * set one key after the other. clients of stores which can pipeline
+     * writes should override this.
+     */
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        return setEach(values, exp);
+    }
+
+    /**
+     * @return values of given keys, read by {@link #get(String)} one after the other
+     */
+    protected Map<String, byte[]> getEach(Collection<String> keys) throws KeyValueStoreClientException {
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (String key : keys) {
+            byte[] raw = get(key);
+            if (raw != null) {
+                values.put(key, raw);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return values of given keys, read by {@link #getAndTouch(String, int)} one after the other
+     */
+    protected Map<String, byte[]> getAndTouchEach(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (String key : keys) {
+            byte[] raw = getAndTouch(key, exp);
+            if (raw != null) {
+                values.put(key, raw);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * store given values by {@link #set(String, byte[], int)} one after the other.
+     */
+    protected boolean setEach(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        boolean result = true;
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            result &= set(entry.getKey(), entry.getValue(), exp);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,80 @@
+package org.eclipse.jetty.nosql.key_value;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Client forwarding every call to another client. Base of decorators
+ * returned by {@link KeyValueStoreClientInterceptor}s.
+ */
+public class ForwardingKeyValueStoreClient implements KeyValueStoreClient {
+    protected final KeyValueStoreClient _delegate;
+
+    public ForwardingKeyValueStoreClient(KeyValueStoreClient delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        _delegate = delegate;
+    }
+
+    public KeyValueStoreClient getDelegate() {
+        return _delegate;
+    }
+
+    public boolean connect() throws KeyValueStoreClientException {
+        return _delegate.connect();
+    }
+
+    public boolean shutdown() throws KeyValueStoreClientException {
+        return _delegate.shutdown();
+    }
+
+    public boolean isAlive() {
+        return _delegate.isAlive();
+    }
+
+    public byte[] get(String key) throws KeyValueStoreClientException {
+        return _delegate.get(key);
+    }
+
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+        return _delegate.getAndTouch(key, exp);
+    }
+
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return _delegate.set(key, raw);
+    }
+
+    public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        return _delegate.set(key, raw, exp);
+    }
+
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return _delegate.add(key, raw);
+    }
+
+    public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        return _delegate.add(key, raw, exp);
+    }
+
+    public boolean delete(String key) throws KeyValueStoreClientException {
+        return _delegate.delete(key);
+    }
+
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+        return _delegate.getMulti(keys);
+    }
+
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        return _delegate.getAndTouchMulti(keys, exp);
+    }
+
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        return _delegate.setMulti(values, exp);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + _delegate + ")";
+    }
+}
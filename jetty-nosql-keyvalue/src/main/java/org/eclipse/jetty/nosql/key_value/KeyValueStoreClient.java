@@ -1,5 +1,8 @@
 package org.eclipse.jetty.nosql.key_value;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface KeyValueStoreClient {
     public boolean connect() throws KeyValueStoreClientException;
 
@@ -9,6 +12,10 @@ public interface KeyValueStoreClient {
 
     public byte[] get(String key) throws KeyValueStoreClientException;
 
+    // "getAndTouch" means "get this data and reset its expiry", to keep a
+// session alive without storing it again. exp <= 0 leaves the expiry as is.
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException;
+
     // "set" means "store this data".
     public boolean set(String key, byte[] raw) throws KeyValueStoreClientException;
 
@@ -21,4 +28,16 @@ public interface KeyValueStoreClient {
     public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException;
 
     public boolean delete(String key) throws KeyValueStoreClientException;
+
+    // "getMulti" means "get the data of all these keys in one batch". keys
+// without data are left out of the result.
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException;
+
+    // "getAndTouchMulti" means "get the data of all these keys and reset their
+// expiry in one batch". keys without data are left out of the result.
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException;
+
+    // "setMulti" means "store all this data in one batch". true if every key
+// has been stored.
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException;
 }
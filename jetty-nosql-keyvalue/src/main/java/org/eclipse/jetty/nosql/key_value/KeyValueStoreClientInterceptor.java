@@ -0,0 +1,16 @@
+package org.eclipse.jetty.nosql.key_value;
+
+/**
+ * Decorates the client of a session ID manager, e.g. to add retries,
+ * compression or key rewriting to every client implementation alike.
+ *
+ * @see KeyValueStoreSessionIdManager#addInterceptor(KeyValueStoreClientInterceptor)
+ * @see ForwardingKeyValueStoreClient
+ */
+public interface KeyValueStoreClientInterceptor {
+    /**
+     * @param client the client, possibly already decorated by other interceptors
+     * @return decorated client, or the given client as is
+     */
+    public KeyValueStoreClient intercept(KeyValueStoreClient client);
+}
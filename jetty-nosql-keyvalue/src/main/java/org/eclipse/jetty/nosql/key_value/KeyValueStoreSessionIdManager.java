@@ -14,6 +14,10 @@ package org.eclipse.jetty.nosql.key_value;
 //You may elect to redistribute this code under either of these licenses.
 //========================================================================
 
+import org.eclipse.jetty.nosql.key_value.statistics.AdaptiveTimeout;
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreStatistics;
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreTracer;
+import org.eclipse.jetty.nosql.key_value.statistics.OperationStatistics;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.SessionManager;
@@ -23,9 +27,18 @@ import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdManager {
@@ -39,6 +52,112 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
         this.timeout = timeout;
     }
 
+    private int _readTimeout = -1;
+    private int _writeTimeout = -1;
+    private boolean _adaptiveTimeout = false;
+    private double _adaptiveTimeoutPercentile = 99.9;
+    private double _adaptiveTimeoutFactor = 2.0;
+    private int _minTimeout = 10;
+    private int _maxTimeout = 5000;
+    private AdaptiveTimeout _adaptiveReadTimeout = null;
+    private AdaptiveTimeout _adaptiveWriteTimeout = null;
+
+    public int getReadTimeout() {
+        return _readTimeout;
+    }
+
+    /**
+     * @param readTimeout timeout of get in milliseconds. negative to use {@link #getTimeout()} (default).
+     */
+    public void setReadTimeout(int readTimeout) {
+        this._readTimeout = readTimeout;
+    }
+
+    public int getWriteTimeout() {
+        return _writeTimeout;
+    }
+
+    /**
+     * @param writeTimeout timeout of set, add and delete in milliseconds. negative to use {@link #getTimeout()} (default).
+     */
+    public void setWriteTimeout(int writeTimeout) {
+        this._writeTimeout = writeTimeout;
+    }
+
+    public boolean isAdaptiveTimeout() {
+        return _adaptiveTimeout;
+    }
+
+    /**
+     * derive read and write timeouts from the latencies of recent operations,
+     * starting from the configured ones. false by default.
+     *
+     * @see AdaptiveTimeout
+     */
+    public void setAdaptiveTimeout(boolean adaptiveTimeout) {
+        this._adaptiveTimeout = adaptiveTimeout;
+    }
+
+    public double getAdaptiveTimeoutPercentile() {
+        return _adaptiveTimeoutPercentile;
+    }
+
+    /**
+     * @param percentile percentile of latencies adaptive timeouts are based on. 99.9 by default.
+     */
+    public void setAdaptiveTimeoutPercentile(double percentile) {
+        this._adaptiveTimeoutPercentile = percentile;
+    }
+
+    public double getAdaptiveTimeoutFactor() {
+        return _adaptiveTimeoutFactor;
+    }
+
+    /**
+     * @param factor multiplier applied to the percentile. 2.0 by default.
+     */
+    public void setAdaptiveTimeoutFactor(double factor) {
+        this._adaptiveTimeoutFactor = factor;
+    }
+
+    public int getMinTimeout() {
+        return _minTimeout;
+    }
+
+    /**
+     * @param minTimeout lower bound of adaptive timeouts in milliseconds. 10 by default.
+     */
+    public void setMinTimeout(int minTimeout) {
+        this._minTimeout = minTimeout;
+    }
+
+    public int getMaxTimeout() {
+        return _maxTimeout;
+    }
+
+    /**
+     * @param maxTimeout upper bound of adaptive timeouts in milliseconds. 5000 by default.
+     */
+    public void setMaxTimeout(int maxTimeout) {
+        this._maxTimeout = maxTimeout;
+    }
+
+    /**
+     * @return timeout of get in effect, in milliseconds. -1 if not started.
+     */
+    public int getCurrentReadTimeout() {
+        AbstractKeyValueStoreClient client = _storeClient;
+        return client == null ? -1 : client.getReadTimeout();
+    }
+
+    /**
+     * @return timeout of set, add and delete in effect, in milliseconds. -1 if not started.
+     */
+    public int getCurrentWriteTimeout() {
+        AbstractKeyValueStoreClient client = _storeClient;
+        return client == null ? -1 : client.getWriteTimeout();
+    }
+
     private final static Logger log = Log.getLogger(KeyValueStoreSessionIdManager.class);
 
     final static long __defaultScavengePeriod = 30 * 60 * 1000; // every 30 minutes
@@ -50,7 +169,13 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
     protected String _keyPrefix = "";
     protected String _keySuffix = "";
     protected KeyValueStoreClient _client = null;
+    private volatile AbstractKeyValueStoreClient _storeClient = null;
     protected String _serverString = "";
+    protected final KeyValueStoreStatistics _statistics = new KeyValueStoreStatistics();
+    private boolean _statisticsMBeanEnabled = true;
+    private ObjectName _statisticsMBeanName = null;
+    protected KeyValueStoreTracer _tracer = null;
+    private final List<KeyValueStoreClientInterceptor> _interceptors = new CopyOnWriteArrayList<KeyValueStoreClientInterceptor>();
 
     public KeyValueStoreSessionIdManager(Server server, String serverString) {
         super(new Random());
@@ -80,12 +205,26 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
     protected void doStart() throws Exception {
         log.info("starting...");
         super.doStart();
-        _client = newClient(_serverString);
-        if (_client == null) {
+        if (_tracer == null) {
+            _tracer = loadTracer();
+        }
+        AbstractKeyValueStoreClient client = newClient(_serverString);
+        if (client == null) {
             throw new IllegalStateException("newClient(" + _serverString + ") returns null.");
         }
-        log.info("use " + _client.getClass().getSimpleName() + " as client factory.");
+        log.info("use " + client.getClass().getSimpleName() + " as client factory.");
+        client.setReadTimeout(_readTimeout);
+        client.setWriteTimeout(_writeTimeout);
+        if (_adaptiveTimeout) {
+            _adaptiveReadTimeout = newAdaptiveTimeout(client.getReadTimeout());
+            _adaptiveWriteTimeout = newAdaptiveTimeout(client.getWriteTimeout());
+        }
+        _storeClient = client;
+        _client = intercept(client);
         _client.connect();
+        if (_statisticsMBeanEnabled) {
+            registerStatisticsMBean();
+        }
         log.info("started.");
     }
 
@@ -93,14 +232,108 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
     @Override
     protected void doStop() throws Exception {
         log.info("stopping...");
+        unregisterStatisticsMBean();
         if (_client != null) {
             _client.shutdown();
             _client = null;
         }
+        _storeClient = null;
+        _adaptiveReadTimeout = null;
+        _adaptiveWriteTimeout = null;
         super.doStop();
         log.info("stopped.");
     }
 
+    private AdaptiveTimeout newAdaptiveTimeout(int initialTimeout) {
+        AdaptiveTimeout adaptive = new AdaptiveTimeout(initialTimeout);
+        adaptive.setPercentile(_adaptiveTimeoutPercentile);
+        adaptive.setFactor(_adaptiveTimeoutFactor);
+        adaptive.setMinTimeout(_minTimeout);
+        adaptive.setMaxTimeout(_maxTimeout);
+        return adaptive;
+    }
+
+    /**
+     * feed the latency of a successful operation to the adaptive timeouts.
+     */
+    private void adaptTimeout(long start, boolean read) {
+        AdaptiveTimeout adaptive = read ? _adaptiveReadTimeout : _adaptiveWriteTimeout;
+        AbstractKeyValueStoreClient client = _storeClient;
+        if (adaptive == null || client == null || !adaptive.record(System.nanoTime() - start)) {
+            return;
+        }
+        if (read) {
+            client.setReadTimeout(adaptive.getTimeout());
+        } else {
+            client.setWriteTimeout(adaptive.getTimeout());
+        }
+        log.debug("adaptive " + (read ? "read" : "write") + " timeout: " + adaptive.getTimeout() + "ms");
+    }
+
+    /**
+     * decorate the client with the interceptors. the first interceptor added
+     * sees every call first.
+     */
+    protected KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        for (int i = _interceptors.size() - 1; 0 <= i; i--) {
+            KeyValueStoreClient intercepted = _interceptors.get(i).intercept(client);
+            if (intercepted == null) {
+                throw new IllegalStateException(_interceptors.get(i) + " returns null.");
+            }
+            client = intercepted;
+        }
+        return client;
+    }
+
+    /**
+     * register statistics to the platform MBean server as
+     * "org.eclipse.jetty.nosql.key_value:type=KeyValueStoreStatistics,manager=(class),name=(server string),id=(hash)".
+     */
+    protected void registerStatisticsMBean() {
+        try {
+            ObjectName name = new ObjectName("org.eclipse.jetty.nosql.key_value:type=KeyValueStoreStatistics"
+                    + ",manager=" + getClass().getSimpleName()
+                    + ",name=" + ObjectName.quote(String.valueOf(_serverString))
+                    + ",id=" + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(_statistics, name);
+            _statisticsMBeanName = name;
+        } catch (Exception error) {
+            log.warn("unable to register statistics MBean", error);
+        }
+    }
+
+    /**
+     * @return the first {@link KeyValueStoreTracer} found by {@link ServiceLoader}, or {@link KeyValueStoreTracer#NOOP}
+     */
+    protected KeyValueStoreTracer loadTracer() {
+        try {
+            Iterator<KeyValueStoreTracer> tracers = ServiceLoader.load(KeyValueStoreTracer.class, getClass().getClassLoader()).iterator();
+            if (tracers.hasNext()) {
+                KeyValueStoreTracer tracer = tracers.next();
+                log.info("use " + tracer.getClass().getSimpleName() + " as tracer.");
+                return tracer;
+            }
+        } catch (ServiceConfigurationError error) {
+            log.warn("unable to load tracer", error);
+        }
+        return KeyValueStoreTracer.NOOP;
+    }
+
+    protected void unregisterStatisticsMBean() {
+        if (_statisticsMBeanName != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(_statisticsMBeanName)) {
+                    server.unregisterMBean(_statisticsMBeanName);
+                }
+            } catch (Exception error) {
+                log.warn("unable to unregister statistics MBean", error);
+            } finally {
+                _statisticsMBeanName = null;
+            }
+        }
+    }
+
     public void removeSession(HttpSession session) {}
 
     public void addSession(HttpSession session) {}
@@ -178,14 +411,58 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
     protected byte[] getKey(final String idInCluster) {
         log.debug("get: id=" + idInCluster);
         byte[] raw = null;
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("store.get", idInCluster);
         try {
             raw = _client.get(mangleKey(idInCluster));
+            adaptTimeout(start, true);
+            if (raw == null) {
+                _statistics.getStoreGet().miss(start);
+                span.finish(0, KeyValueStoreTracer.MISS);
+            } else {
+                _statistics.getStoreGet().hit(start);
+                span.finish(raw.length, KeyValueStoreTracer.HIT);
+            }
         } catch (KeyValueStoreClientException error) {
+            _statistics.getStoreGet().error(start, error);
+            span.finish(0, OperationStatistics.outcomeOf(error));
             log.warn("unable to get key: id=" + idInCluster, error);
         }
         return raw;
     }
 
+    /**
+     * get and reset the expiry of the key in a single operation where the
+     * store supports it.
+     *
+     * @param expiry new expiry in seconds, 0 or less to get only
+     */
+    protected byte[] getKey(final String idInCluster, int expiry) {
+        if (expiry <= 0) {
+            return getKey(idInCluster);
+        }
+        log.debug("getAndTouch: id=" + idInCluster + ", expiry=" + expiry);
+        byte[] raw = null;
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("store.getAndTouch", idInCluster);
+        try {
+            raw = _client.getAndTouch(mangleKey(idInCluster), expiry);
+            adaptTimeout(start, true);
+            if (raw == null) {
+                _statistics.getStoreGet().miss(start);
+                span.finish(0, KeyValueStoreTracer.MISS);
+            } else {
+                _statistics.getStoreGet().hit(start);
+                span.finish(raw.length, KeyValueStoreTracer.HIT);
+            }
+        } catch (KeyValueStoreClientException error) {
+            _statistics.getStoreGet().error(start, error);
+            span.finish(0, OperationStatistics.outcomeOf(error));
+            log.warn("unable to get and touch key: id=" + idInCluster, error);
+        }
+        return raw;
+    }
+
     protected boolean setKey(final String idInCluster, final byte[] raw) {
         return setKey(idInCluster, raw, getDefaultExpiry());
     }
@@ -196,9 +473,21 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
         }
         log.debug("set: id=" + idInCluster + ", expiry=" + expiry);
         boolean result = false;
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("store.set", idInCluster);
         try {
             result = _client.set(mangleKey(idInCluster), raw, expiry);
+            adaptTimeout(start, false);
+            if (result) {
+                _statistics.getStoreSet().success(start);
+                span.finish(raw.length, KeyValueStoreTracer.SUCCESS);
+            } else {
+                _statistics.getStoreSet().rejected(start);
+                span.finish(raw.length, KeyValueStoreTracer.REJECTED);
+            }
         } catch (KeyValueStoreClientException error) {
+            _statistics.getStoreSet().error(start, error);
+            span.finish(raw.length, OperationStatistics.outcomeOf(error));
             log.warn("unable to set key: id=" + idInCluster, error);
         }
         return result;
@@ -214,9 +503,21 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
         }
         log.debug("add: id=" + idInCluster + ", expiry=" + expiry);
         boolean result = false;
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("store.add", idInCluster);
         try {
             result = _client.add(mangleKey(idInCluster), raw, expiry);
+            adaptTimeout(start, false);
+            if (result) {
+                _statistics.getStoreAdd().success(start);
+                span.finish(raw.length, KeyValueStoreTracer.SUCCESS);
+            } else {
+                _statistics.getStoreAdd().rejected(start);
+                span.finish(raw.length, KeyValueStoreTracer.REJECTED);
+            }
         } catch (KeyValueStoreClientException error) {
+            _statistics.getStoreAdd().error(start, error);
+            span.finish(raw.length, OperationStatistics.outcomeOf(error));
             log.warn("unable to add key: id=" + idInCluster, error);
         }
         return result;
@@ -225,9 +526,16 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
     protected boolean deleteKey(final String idInCluster) {
         log.debug("delete: id=" + idInCluster);
         boolean result = false;
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("store.delete", idInCluster);
         try {
             result = _client.delete(mangleKey(idInCluster));
+            adaptTimeout(start, false);
+            _statistics.getStoreDelete().success(start);
+            span.finish(0, result ? KeyValueStoreTracer.SUCCESS : KeyValueStoreTracer.MISS);
         } catch (KeyValueStoreClientException error) {
+            _statistics.getStoreDelete().error(start, error);
+            span.finish(0, OperationStatistics.outcomeOf(error));
             log.warn("unable to delete key: id=" + idInCluster, error);
         }
         return result;
@@ -237,6 +545,29 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
         return (int) TimeUnit.MILLISECONDS.toSeconds(_scavengePeriod);
     }
 
+    /**
+     * add an interceptor around the client. takes effect on the next start.
+     */
+    public void addInterceptor(KeyValueStoreClientInterceptor interceptor) {
+        if (interceptor == null) {
+            throw new IllegalArgumentException("interceptor must not be null");
+        }
+        _interceptors.add(interceptor);
+    }
+
+    public void setInterceptors(List<KeyValueStoreClientInterceptor> interceptors) {
+        _interceptors.clear();
+        if (interceptors != null) {
+            for (KeyValueStoreClientInterceptor interceptor : interceptors) {
+                addInterceptor(interceptor);
+            }
+        }
+    }
+
+    public List<KeyValueStoreClientInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(_interceptors);
+    }
+
     public String getKeyPrefix() {
         return _keyPrefix;
     }
@@ -253,6 +584,39 @@ public abstract class KeyValueStoreSessionIdManager extends AbstractSessionIdMan
         this._keySuffix = keySuffix;
     }
 
+    /**
+     * @return statistics of this ID manager and the session managers using it
+     */
+    public KeyValueStoreStatistics getStatistics() {
+        return _statistics;
+    }
+
+    /**
+     * @return tracer receiving all operations, never null
+     */
+    public KeyValueStoreTracer getTracer() {
+        KeyValueStoreTracer tracer = _tracer;
+        return tracer == null ? KeyValueStoreTracer.NOOP : tracer;
+    }
+
+    /**
+     * @param tracer tracer to use instead of the one found by {@link ServiceLoader}
+     */
+    public void setTracer(KeyValueStoreTracer tracer) {
+        this._tracer = tracer;
+    }
+
+    public boolean isStatisticsMBeanEnabled() {
+        return _statisticsMBeanEnabled;
+    }
+
+    /**
+     * @param statisticsMBeanEnabled register statistics to the platform MBean server on start. true by default.
+     */
+    public void setStatisticsMBeanEnabled(boolean statisticsMBeanEnabled) {
+        this._statisticsMBeanEnabled = statisticsMBeanEnabled;
+    }
+
     public String getServerString() {
         return _serverString;
     }
@@ -20,6 +20,9 @@ import org.eclipse.jetty.nosql.key_value.session.AbstractSessionFactory;
 import org.eclipse.jetty.nosql.key_value.session.SerializableSession;
 import org.eclipse.jetty.nosql.key_value.session.SerializationException;
 import org.eclipse.jetty.nosql.key_value.session.serializable.NativeSerializationSessionFactory;
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreStatistics;
+import org.eclipse.jetty.nosql.key_value.statistics.KeyValueStoreTracer;
+import org.eclipse.jetty.nosql.key_value.statistics.OperationStatistics;
 import org.eclipse.jetty.server.SessionIdManager;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -89,6 +92,10 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
     /* ------------------------------------------------------------ */
     @Override
     protected Object save(final NoSqlSession session, final Object version, final boolean activateAfterSave) {
+        OperationStatistics statistics = getStatistics().getSessionSave();
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("session.save", session.getClusterId());
+        int bytes = 0;
         try {
             log.debug("save session {}", session.getClusterId());
             session.willPassivate();
@@ -121,25 +128,34 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
             } else {
                 log.debug("save: delete invalidated session: id=" + session.getId());
                 deleteKey(session.getId());
+                statistics.success(start);
+                span.finish(0, KeyValueStoreTracer.SUCCESS);
                 return null;
             }
 
+            byte[] raw;
             try {
-                if (!setKey(session.getClusterId(), data)) {
-                    throw (new RuntimeException("unable to set key: data=" + data));
-                }
+                raw = pack(data);
             } catch (SerializationException error) {
                 throw (new IllegalArgumentException("unable to serialize session: id=" + session.getClusterId() + ", data="
                         + data, error));
             }
+            if (raw == null || !storeKey(session.getClusterId(), raw, data.getMaxIdle())) {
+                throw (new RuntimeException("unable to set key: data=" + data));
+            }
+            bytes = raw.length;
             log.debug("save: sessions.update(" + session.getClusterId() + "," + data + ")");
 
             if (activateAfterSave) {
                 session.didActivate();
             }
 
+            statistics.success(start);
+            span.finish(bytes, KeyValueStoreTracer.SUCCESS);
             return version;
         } catch (Exception e) {
+            statistics.error(start, e);
+            span.finish(bytes, OperationStatistics.outcomeOf(e));
             log.warn(e);
         }
         return null;
@@ -149,10 +165,20 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
     @Override
     protected Object refresh(final NoSqlSession session, Object version) {
         log.debug("refresh {}", session.getId());
+        OperationStatistics statistics = getStatistics().getSessionRefresh();
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("session.refresh", session.getClusterId());
         SerializableSession data = null;
+        int bytes = 0;
         try {
-            data = getKey(session.getClusterId());
+            byte[] raw = getRawAndTouch(session.getClusterId());
+            if (raw != null) {
+                bytes = raw.length;
+                data = unpackAndTouch(session.getClusterId(), raw);
+            }
         } catch (SerializationException error) {
+            statistics.error(start, error);
+            span.finish(bytes, OperationStatistics.outcomeOf(error));
             throw new IllegalStateException("unable to deserialize session: id=" + session.getClusterId(), error);
         }
         // check if our in memory version is the same as what is on KVS
@@ -163,6 +189,8 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
 
                 if (saved == (Long) version) {
                     log.debug("refresh not needed session {}", session.getId());
+                    statistics.hit(start);
+                    span.finish(bytes, KeyValueStoreTracer.HIT);
                     return version;
                 }
                 version = saved;
@@ -172,6 +200,8 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
         // If it doesn't exist, invalidate
         if (data == null) {
             log.debug("refresh:marking session {} invalid, no object", session.getClusterId());
+            statistics.miss(start);
+            span.finish(0, KeyValueStoreTracer.MISS);
             session.invalidate();
             return null;
         }
@@ -180,6 +210,8 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
         boolean valid = data.isValid();
         if (!valid) {
             log.debug("refresh:marking session {} invalid, valid flag {}", session.getClusterId(), valid);
+            statistics.miss(start);
+            span.finish(bytes, KeyValueStoreTracer.MISS);
             session.invalidate();
             return null;
         }
@@ -207,20 +239,14 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
                 }
             }
 
-            data.setAccessed(System.currentTimeMillis());
-
-            try {
-                if (!setKey(session.getClusterId(), data)) {
-                    throw (new RuntimeException("unable to set key: data=" + data));
-                }
-            } catch (SerializationException error) {
-                throw (new IllegalArgumentException("unable to serialize session: id=" + session.getClusterId() + ", data="
-                        + data, error));
-            }
-
+            // the expiry has been reset by getKeyAndTouch, no need to store the session again
             session.didActivate();
+            statistics.hit(start);
+            span.finish(bytes, KeyValueStoreTracer.HIT);
             return version;
         } catch (Exception e) {
+            statistics.error(start, e);
+            span.finish(bytes, OperationStatistics.outcomeOf(e));
             log.warn(e);
         }
 
@@ -231,21 +257,42 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
     @Override
     protected NoSqlSession loadSession(final String clusterId) {
         log.debug("loadSession: loading: id={}", clusterId);
-        SerializableSession data = getKey(clusterId);
+        OperationStatistics statistics = getStatistics().getSessionLoad();
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("session.load", clusterId);
+        SerializableSession data = null;
+        int bytes = 0;
+        try {
+            byte[] raw = getRawAndTouch(clusterId);
+            if (raw != null) {
+                bytes = raw.length;
+                data = unpackAndTouch(clusterId, raw);
+            }
+        } catch (RuntimeException error) {
+            statistics.error(start, error);
+            span.finish(bytes, OperationStatistics.outcomeOf(error));
+            throw error;
+        }
         log.debug("loadSession: loaded: id={}, data={}", clusterId, data);
 
         if (data == null) {
+            statistics.miss(start);
+            span.finish(0, KeyValueStoreTracer.MISS);
             return null;
         }
 
         boolean valid = data.isValid();
         if (!valid) {
             log.debug("loadSession: id=" + clusterId + ", data=" + data + " has been invalidated.");
+            statistics.miss(start);
+            span.finish(bytes, KeyValueStoreTracer.MISS);
             return null;
         }
 
         if (!clusterId.equals(data.getId())) {
             log.warn("loadSession: invalid id (expected:" + clusterId + ", got:" + data.getId() + ")");
+            statistics.miss(start);
+            span.finish(bytes, KeyValueStoreTracer.MISS);
             return null;
         }
 
@@ -260,6 +307,8 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
 
             if (attrs == null) {
                 log.debug("session  {} not present for context {}", clusterId, _contextId);
+                statistics.hit(start);
+                span.finish(bytes, KeyValueStoreTracer.HIT);
                 return session;
             }
 
@@ -271,8 +320,12 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
 
             session.didActivate();
 
+            statistics.hit(start);
+            span.finish(bytes, KeyValueStoreTracer.HIT);
             return session;
         } catch (Exception e) {
+            statistics.error(start, e);
+            span.finish(bytes, OperationStatistics.outcomeOf(e));
             log.warn(e);
         }
         return null;
@@ -355,22 +408,67 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
         if (raw == null) {
             return null;
         } else {
-            return getSessionFactory().unpack(raw);
+            return unpack(idInCluster, raw);
+        }
+    }
+
+    /**
+     * get the session and extend its expiry, so that sessions which are only
+     * read stay alive without being stored again.
+     *
+     * the expiry is the max idle of the session, as in {@link #setKey(String, SerializableSession)}.
+     * it is only known once the session has been read, so the max inactive
+     * interval of this context is used first, and the expiry is reset again
+     * in the rare case the session carries another max idle, e.g. when it is
+     * shared with a context configured differently.
+     */
+    protected SerializableSession getKeyAndTouch(final String idInCluster) throws SerializationException {
+        byte[] raw = getRawAndTouch(idInCluster);
+        if (raw == null) {
+            return null;
         }
+        return unpackAndTouch(idInCluster, raw);
+    }
+
+    private byte[] getRawAndTouch(final String idInCluster) {
+        return ((KeyValueStoreSessionIdManager) _sessionIdManager).getKey(mangleKey(idInCluster),
+                getMaxInactiveInterval());
+    }
+
+    /**
+     * unpack a session read by {@link #getRawAndTouch(String)} and reset its
+     * expiry if it carries another max idle.
+     */
+    private SerializableSession unpackAndTouch(final String idInCluster, final byte[] raw) throws SerializationException {
+        SerializableSession data = unpack(idInCluster, raw);
+        int expiry = getMaxInactiveInterval();
+        int maxIdle = data.getMaxIdle();
+        if (maxIdle != expiry && (0 < maxIdle || 0 < expiry)) {
+            if (0 < maxIdle) {
+                ((KeyValueStoreSessionIdManager) _sessionIdManager).getKey(mangleKey(idInCluster), maxIdle);
+            } else {
+                // only a write takes the expiry away again
+                setKey(idInCluster, data);
+            }
+        }
+        return data;
     }
 
     protected boolean setKey(final String idInCluster, final SerializableSession data) throws SerializationException {
-        byte[] raw = getSessionFactory().pack(data);
+        byte[] raw = pack(data);
         if (raw == null) {
             return false;
         } else {
-            return ((KeyValueStoreSessionIdManager) _sessionIdManager).setKey(mangleKey(idInCluster), raw,
-                    data.getMaxIdle());
+            return storeKey(idInCluster, raw, data.getMaxIdle());
         }
     }
 
+    private boolean storeKey(final String idInCluster, final byte[] raw, int expiry) {
+        return ((KeyValueStoreSessionIdManager) _sessionIdManager).setKey(mangleKey(idInCluster), raw, expiry);
+    }
+
     protected boolean addKey(final String idInCluster, final SerializableSession data) throws SerializationException {
-        byte[] raw = getSessionFactory().pack(data);
+        byte[] raw = pack(data);
         if (raw == null) {
             return false;
         } else {
@@ -383,6 +481,56 @@ public class KeyValueStoreSessionManager extends NoSqlSessionManager {
         return ((KeyValueStoreSessionIdManager) _sessionIdManager).deleteKey(mangleKey(idInCluster));
     }
 
+    private byte[] pack(final SerializableSession data) throws SerializationException {
+        OperationStatistics statistics = getStatistics().getPack();
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("session.pack", data.getId());
+        try {
+            byte[] raw = getSessionFactory().pack(data);
+            if (raw != null) {
+                statistics.bytes(raw.length);
+            }
+            statistics.success(start);
+            span.finish(raw == null ? 0 : raw.length, KeyValueStoreTracer.SUCCESS);
+            return raw;
+        } catch (RuntimeException error) {
+            statistics.error(start, error);
+            span.finish(0, OperationStatistics.outcomeOf(error));
+            throw error;
+        }
+    }
+
+    private SerializableSession unpack(final String idInCluster, final byte[] raw) throws SerializationException {
+        OperationStatistics statistics = getStatistics().getUnpack();
+        long start = System.nanoTime();
+        KeyValueStoreTracer.Span span = getTracer().start("session.unpack", idInCluster);
+        try {
+            SerializableSession data = getSessionFactory().unpack(raw);
+            statistics.bytes(raw.length);
+            statistics.success(start);
+            span.finish(raw.length, KeyValueStoreTracer.SUCCESS);
+            return data;
+        } catch (RuntimeException error) {
+            statistics.error(start, error);
+            span.finish(raw.length, OperationStatistics.outcomeOf(error));
+            throw error;
+        }
+    }
+
+    /**
+     * @return tracer of the session ID manager
+     */
+    public KeyValueStoreTracer getTracer() {
+        return ((KeyValueStoreSessionIdManager) _sessionIdManager).getTracer();
+    }
+
+    /**
+     * @return statistics shared with the session ID manager
+     */
+    public KeyValueStoreStatistics getStatistics() {
+        return ((KeyValueStoreSessionIdManager) _sessionIdManager).getStatistics();
+    }
+
 
     public AbstractSessionFactory getSessionFactory() {
         return sessionFactory;
@@ -0,0 +1,137 @@
+package org.eclipse.jetty.nosql.key_value;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Unix domain socket entries of server strings, written as
+ * <code>unix:/path/to.sock</code>.
+ *
+ * Connecting to a store on the same host through a unix domain socket skips
+ * the TCP stack. The channels are those of Java 16 and later, looked up by
+ * reflection so that the rest of the code still runs on older versions; there
+ * {@link #isSupported()} is false and opening a channel fails.
+ */
+public final class UnixDomainSockets {
+    public static final String SCHEME = "unix:";
+
+    private UnixDomainSockets() {
+    }
+
+    /**
+     * @param address entry of a server string
+     * @return true if given entry names a unix domain socket
+     */
+    public static boolean isUnixDomainSocket(String address) {
+        return address.startsWith(SCHEME);
+    }
+
+    /**
+     * @param serverString addresses separated by spaces or commas
+     * @return true if any of the addresses names a unix domain socket
+     */
+    public static boolean containsUnixDomainSocket(String serverString) {
+        for (String address : serverString.trim().split("[\\s,]+")) {
+            if (isUnixDomainSocket(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return file system path of given <code>unix:</code> entry
+     */
+    public static String pathOf(String address) {
+        String path = address.substring(SCHEME.length());
+        // accept unix:///path as well
+        return path.startsWith("//") ? path.substring(2) : path;
+    }
+
+    /**
+     * @return true if the running JVM offers unix domain socket channels
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            return true;
+        } catch (ClassNotFoundException error) {
+            return false;
+        }
+    }
+
+    /**
+     * @param address <code>unix:</code> entry of a server string
+     * @return socket address to connect or bind to
+     */
+    public static SocketAddress addressOf(String address) throws IOException {
+        Class<?> type = classOf("java.net.UnixDomainSocketAddress");
+        return (SocketAddress) invoke(method(type, "of", String.class), null, pathOf(address));
+    }
+
+    /**
+     * @return unconnected unix domain socket channel, in blocking mode
+     */
+    public static SocketChannel openChannel() throws IOException {
+        return (SocketChannel) invoke(method(SocketChannel.class, "open", classOf("java.net.ProtocolFamily")), null,
+                unixFamily());
+    }
+
+    /**
+     * @param address <code>unix:</code> entry of a server string. the socket file must not exist.
+     * @return server channel bound to given address, in blocking mode
+     */
+    public static ServerSocketChannel openServerChannel(String address) throws IOException {
+        ServerSocketChannel channel = (ServerSocketChannel) invoke(method(ServerSocketChannel.class, "open",
+                classOf("java.net.ProtocolFamily")), null, unixFamily());
+        try {
+            invoke(method(ServerSocketChannel.class, "bind", SocketAddress.class), channel, addressOf(address));
+        } catch (IOException error) {
+            channel.close();
+            throw error;
+        }
+        return channel;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object unixFamily() throws IOException {
+        return Enum.valueOf((Class<Enum>) classOf("java.net.StandardProtocolFamily"), "UNIX");
+    }
+
+    private static Class<?> classOf(String name) throws IOException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException error) {
+            throw new IOException("unix domain sockets require Java 16 or later");
+        }
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) throws IOException {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException error) {
+            throw new IOException("unix domain sockets require Java 16 or later");
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) throws IOException {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.toString());
+        } catch (IllegalAccessException error) {
+            throw new IOException(error.toString());
+        }
+    }
+}
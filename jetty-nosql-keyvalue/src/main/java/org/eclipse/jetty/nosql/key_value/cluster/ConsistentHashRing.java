@@ -0,0 +1,102 @@
+package org.eclipse.jetty.nosql.key_value.cluster;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of keys to nodes, compatible with the ketama
+ * distribution of libmemcached and spymemcached: every node is placed on
+ * the ring 160 times at points derived from the MD5 of its name.
+ *
+ * @param <T> type of nodes
+ */
+public class ConsistentHashRing<T> {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int POINTS_PER_NODE = 160;
+
+    private final TreeMap<Long, T> _ring = new TreeMap<Long, T>();
+    private final List<T> _nodes;
+
+    /**
+     * @param nodes nodes by name, the name is usually "host:port"
+     */
+    public ConsistentHashRing(Map<String, T> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("no nodes");
+        }
+        _nodes = Collections.unmodifiableList(new ArrayList<T>(nodes.values()));
+        for (Map.Entry<String, T> node : nodes.entrySet()) {
+            for (int i = 0; i < POINTS_PER_NODE / 4; i++) {
+                byte[] digest = md5(node.getKey() + "-" + i);
+                for (int h = 0; h < 4; h++) {
+                    _ring.put(pointOf(digest, h), node.getValue());
+                }
+            }
+        }
+    }
+
+    public List<T> getNodes() {
+        return _nodes;
+    }
+
+    /**
+     * @return node owning given key
+     */
+    public T getPrimary(String key) {
+        SortedMap<Long, T> tail = _ring.tailMap(hash(key));
+        return tail.isEmpty() ? _ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * @return up to count distinct nodes for given key, the owner first and
+     *         then the following nodes clockwise on the ring
+     */
+    public List<T> getNodes(String key, int count) {
+        count = Math.min(count, _nodes.size());
+        List<T> result = new ArrayList<T>(count);
+        long hash = hash(key);
+        for (T node : _ring.tailMap(hash).values()) {
+            if (result.size() == count) {
+                return result;
+            }
+            if (!result.contains(node)) {
+                result.add(node);
+            }
+        }
+        for (T node : _ring.headMap(hash).values()) {
+            if (result.size() == count) {
+                break;
+            }
+            if (!result.contains(node)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    static long hash(String key) {
+        return pointOf(md5(key), 0);
+    }
+
+    private static long pointOf(byte[] digest, int h) {
+        return ((long) (digest[3 + h * 4] & 0xff) << 24)
+                | ((long) (digest[2 + h * 4] & 0xff) << 16)
+                | ((long) (digest[1 + h * 4] & 0xff) << 8)
+                | (digest[h * 4] & 0xff);
+    }
+
+    private static byte[] md5(String s) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(s.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
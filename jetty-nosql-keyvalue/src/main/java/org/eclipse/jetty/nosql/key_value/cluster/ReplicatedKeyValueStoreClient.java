@@ -0,0 +1,473 @@
+package org.eclipse.jetty.nosql.key_value.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.statistics.AdaptiveTimeout;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Stores every key on several nodes chosen by {@link ConsistentHashRing}.
+ *
+ * Writes go to all replicas in parallel and succeed if one replica has
+ * stored the value. Reads go to the owner of the key first. If it has not
+ * answered within the hedge delay, or answered with an error or a miss, the
+ * next replica is asked as well, and the first value found is returned.
+ * Sessions thus survive the loss of a node, and a single slow node does not
+ * show up as tail latency.
+ *
+ * The hedge delay is either fixed or follows a percentile of recent read
+ * latencies.
+ *
+ * Replicas are called from a pool of at most {@link #setMaxThreads(int)}
+ * threads. Once all of them are busy, reads are not hedged and writes run in
+ * the calling thread.
+ */
+public class ReplicatedKeyValueStoreClient extends ShardedKeyValueStoreClient {
+    private final static Logger log = Log.getLogger(ReplicatedKeyValueStoreClient.class);
+
+    private int _replicas = 2;
+    private int _hedgeDelay = -1;
+    private double _hedgePercentile = 95.0;
+    private int _maxThreads = 64;
+    private volatile AdaptiveTimeout _adaptiveHedgeDelay = null;
+    private volatile ExecutorService _executor = null;
+
+    /**
+     * @param nodes clients of single nodes by "host:port"
+     */
+    public ReplicatedKeyValueStoreClient(Map<String, ? extends KeyValueStoreClient> nodes) {
+        super(nodes);
+    }
+
+    public int getReplicas() {
+        return _replicas;
+    }
+
+    /**
+     * @param replicas number of nodes every key is stored on. 2 by default.
+     */
+    public void setReplicas(int replicas) {
+        if (replicas <= 0) {
+            throw new IllegalArgumentException("replicas must be positive");
+        }
+        this._replicas = replicas;
+    }
+
+    public int getHedgeDelay() {
+        return _hedgeDelay;
+    }
+
+    /**
+     * @param hedgeDelay milliseconds to wait for a replica before asking the
+     *        next one, negative to follow the {@link #setHedgePercentile(double) percentile} (default)
+     */
+    public void setHedgeDelay(int hedgeDelay) {
+        this._hedgeDelay = hedgeDelay;
+    }
+
+    public double getHedgePercentile() {
+        return _hedgePercentile;
+    }
+
+    /**
+     * @param hedgePercentile percentile of recent read latencies used as hedge delay. 95 by default.
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this._hedgePercentile = hedgePercentile;
+    }
+
+    public int getMaxThreads() {
+        return _maxThreads;
+    }
+
+    /**
+     * @param maxThreads number of threads calling replicas at most. 64 by default.
+     */
+    public void setMaxThreads(int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        this._maxThreads = maxThreads;
+    }
+
+    /**
+     * @return hedge delay in effect, in milliseconds
+     */
+    public int getCurrentHedgeDelay() {
+        if (0 <= _hedgeDelay) {
+            return _hedgeDelay;
+        }
+        AdaptiveTimeout adaptive = _adaptiveHedgeDelay;
+        return adaptive == null ? getReadTimeout() : adaptive.getTimeout();
+    }
+
+    public synchronized boolean connect() throws KeyValueStoreClientException {
+        if (_executor == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            // no queue: tasks are rejected once every thread is busy
+            _executor = new ThreadPoolExecutor(0, _maxThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ReplicatedKeyValueStoreClient-" + threads.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        AdaptiveTimeout adaptive = new AdaptiveTimeout(getReadTimeout());
+        adaptive.setPercentile(_hedgePercentile);
+        adaptive.setFactor(1.0);
+        adaptive.setMinTimeout(1);
+        adaptive.setMaxTimeout(getReadTimeout());
+        _adaptiveHedgeDelay = adaptive;
+        return super.connect();
+    }
+
+    public synchronized boolean shutdown() throws KeyValueStoreClientException {
+        try {
+            return super.shutdown();
+        } finally {
+            if (_executor != null) {
+                _executor.shutdownNow();
+                _executor = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return _executor != null && super.isAlive();
+    }
+
+    private ExecutorService executor() throws KeyValueStoreClientException {
+        ExecutorService executor = _executor;
+        if (executor == null) {
+            throw(new KeyValueStoreClientException(new IllegalStateException("client not established")));
+        }
+        return executor;
+    }
+
+    /**
+     * a read from a single replica.
+     */
+    private abstract class Read {
+        abstract byte[] read(KeyValueStoreClient replica) throws KeyValueStoreClientException;
+    }
+
+    @Override
+    public byte[] get(final String key) throws KeyValueStoreClientException {
+        return hedge(key, new Read() {
+            byte[] read(KeyValueStoreClient replica) throws KeyValueStoreClientException {
+                return replica.get(key);
+            }
+        }, false);
+    }
+
+    /**
+     * hedged like {@link #get(String)}, so that the first copy found is
+     * returned. the other replicas are touched in the background, so that
+     * every copy stays alive without waiting for the slowest one.
+     */
+    @Override
+    public byte[] getAndTouch(final String key, final int exp) throws KeyValueStoreClientException {
+        if (exp <= 0) {
+            return get(key);
+        }
+        return hedge(key, new Read() {
+            byte[] read(KeyValueStoreClient replica) throws KeyValueStoreClientException {
+                return replica.getAndTouch(key, exp);
+            }
+        }, true);
+    }
+
+    /**
+     * ask the owner of given key first, then the next replica whenever the
+     * hedge delay passes or a replica answers with an error or a miss. no
+     * replica is added once every thread is busy.
+     *
+     * @param all true to send the read to every replica in the end, false
+     *        to cancel the outstanding reads once a value has been found
+     * @return the first value found
+     */
+    private byte[] hedge(final String key, final Read read, boolean all) throws KeyValueStoreClientException {
+        ExecutorService executor = executor();
+        final long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(getReadTimeout());
+        List<KeyValueStoreClient> replicas = _ring.getNodes(key, _replicas);
+        ExecutorCompletionService<byte[]> completion = new ExecutorCompletionService<byte[]>(executor);
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(replicas.size());
+        Throwable failure = null;
+        boolean answered = false;
+        int pending = 0;
+        int sent = 0;
+        int hedges = replicas.size();
+        try {
+            while (true) {
+                if (sent < hedges) {
+                    final KeyValueStoreClient replica = replicas.get(sent);
+                    try {
+                        futures.add(completion.submit(new Callable<byte[]>() {
+                            public byte[] call() throws KeyValueStoreClientException {
+                                return read.read(replica);
+                            }
+                        }));
+                        sent++;
+                        pending++;
+                    } catch (RejectedExecutionException error) {
+                        if (sent == 0) {
+                            // every thread is busy, read in the calling thread
+                            sent++;
+                            return read.read(replica);
+                        }
+                        // every thread is busy, wait for the replicas asked already
+                        log.debug("skipped hedging " + key, error);
+                        hedges = sent;
+                    }
+                } else if (pending == 0) {
+                    break;
+                }
+                // wait the hedge delay unless every replica has been asked already
+                long wait = deadline - System.nanoTime();
+                if (sent < hedges) {
+                    wait = Math.min(wait, TimeUnit.MILLISECONDS.toNanos(getCurrentHedgeDelay()));
+                }
+                if (wait <= 0 && sent == hedges) {
+                    if (answered) {
+                        return null;
+                    }
+                    throw new KeyValueStoreClientException("timed out reading " + key + " from replicas",
+                            new TimeoutException());
+                }
+                Future<byte[]> done = completion.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    continue; // hedge
+                }
+                pending--;
+                try {
+                    byte[] raw = done.get();
+                    if (raw != null) {
+                        AdaptiveTimeout adaptive = _adaptiveHedgeDelay;
+                        if (adaptive != null) {
+                            adaptive.record(System.nanoTime() - start);
+                        }
+                        return raw;
+                    }
+                    answered = true;
+                } catch (ExecutionException error) {
+                    failure = error.getCause();
+                    log.debug("unable to get " + key + " from a replica", failure);
+                }
+            }
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new KeyValueStoreClientException(error);
+        } finally {
+            if (all) {
+                // let outstanding reads finish, and send the read to the replicas not asked yet
+                for (final KeyValueStoreClient replica : replicas.subList(sent, replicas.size())) {
+                    background(executor, new Runnable() {
+                        public void run() {
+                            try {
+                                read.read(replica);
+                            } catch (KeyValueStoreClientException error) {
+                                log.debug("unable to touch " + key + " on a replica", error);
+                            }
+                        }
+                    });
+                }
+            } else {
+                for (Future<byte[]> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        if (!answered && failure != null) {
+            throw new KeyValueStoreClientException(failure);
+        }
+        return null;
+    }
+
+    private static void background(ExecutorService executor, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException error) {
+            log.debug("skipped a background task", error);
+        }
+    }
+
+    private abstract class Write implements Callable<Boolean> {
+        final KeyValueStoreClient replica;
+
+        Write(KeyValueStoreClient replica) {
+            this.replica = replica;
+        }
+    }
+
+    /**
+     * run given writes in parallel, those rejected by the busy pool in the
+     * calling thread.
+     *
+     * @return true if any write returned true
+     */
+    private boolean writeAll(String operation, String key, List<? extends Write> writes) throws KeyValueStoreClientException {
+        ExecutorService executor = executor();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getWriteTimeout());
+        List<FutureTask<Boolean>> futures = new ArrayList<FutureTask<Boolean>>(writes.size());
+        List<FutureTask<Boolean>> rejected = new ArrayList<FutureTask<Boolean>>();
+        for (Write write : writes) {
+            FutureTask<Boolean> future = new FutureTask<Boolean>(write);
+            try {
+                executor.execute(future);
+            } catch (RejectedExecutionException error) {
+                rejected.add(future);
+            }
+            futures.add(future);
+        }
+        for (FutureTask<Boolean> future : rejected) {
+            future.run();
+        }
+        boolean result = false;
+        int succeeded = 0;
+        Throwable failure = null;
+        try {
+            for (Future<Boolean> future : futures) {
+                try {
+                    result |= future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    succeeded++;
+                } catch (ExecutionException error) {
+                    failure = error.getCause();
+                } catch (TimeoutException error) {
+                    failure = error;
+                }
+            }
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new KeyValueStoreClientException(error);
+        } finally {
+            for (Future<Boolean> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (succeeded == 0) {
+            throw new KeyValueStoreClientException("unable to " + operation + " " + key + " on any replica", failure);
+        }
+        if (failure != null) {
+            log.debug("unable to " + operation + " " + key + " on " + (futures.size() - succeeded) + " replica(s)", failure);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return set(key, raw, 0);
+    }
+
+    @Override
+    public boolean set(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+        List<Write> writes = new ArrayList<Write>();
+        for (KeyValueStoreClient replica : _ring.getNodes(key, _replicas)) {
+            writes.add(new Write(replica) {
+                public Boolean call() throws KeyValueStoreClientException {
+                    return replica.set(key, raw, exp);
+                }
+            });
+        }
+        return writeAll("set", key, writes);
+    }
+
+    @Override
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return add(key, raw, 0);
+    }
+
+    /**
+     * add to the first replica which is able to answer, then copy to the others.
+     */
+    @Override
+    public boolean add(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+        List<KeyValueStoreClient> replicas = _ring.getNodes(key, _replicas);
+        KeyValueStoreClientException failure = null;
+        for (int i = 0; i < replicas.size(); i++) {
+            boolean added;
+            try {
+                added = replicas.get(i).add(key, raw, exp);
+            } catch (KeyValueStoreClientException error) {
+                failure = error;
+                continue;
+            }
+            if (added && i + 1 < replicas.size()) {
+                List<Write> writes = new ArrayList<Write>();
+                for (KeyValueStoreClient replica : replicas.subList(i + 1, replicas.size())) {
+                    writes.add(new Write(replica) {
+                        public Boolean call() throws KeyValueStoreClientException {
+                            return replica.set(key, raw, exp);
+                        }
+                    });
+                }
+                try {
+                    writeAll("set", key, writes);
+                } catch (KeyValueStoreClientException error) {
+                    log.debug("unable to copy " + key + " to other replicas", error);
+                }
+            }
+            return added;
+        }
+        throw failure;
+    }
+
+    @Override
+    public boolean delete(final String key) throws KeyValueStoreClientException {
+        List<Write> writes = new ArrayList<Write>();
+        for (KeyValueStoreClient replica : _ring.getNodes(key, _replicas)) {
+            writes.add(new Write(replica) {
+                public Boolean call() throws KeyValueStoreClientException {
+                    return replica.delete(key);
+                }
+            });
+        }
+        return writeAll("delete", key, writes);
+    }
+
+    /**
+     * key by key, so that every key is read with hedging.
+     */
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+        return getEach(keys);
+    }
+
+    /**
+     * key by key, so that every key is read with hedging.
+     */
+    @Override
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        return getAndTouchEach(keys, exp);
+    }
+
+    /**
+     * key by key, so that every key is written to all of its replicas.
+     */
+    @Override
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        return setEach(values, exp);
+    }
+}
@@ -0,0 +1,211 @@
+package org.eclipse.jetty.nosql.key_value.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+
+/**
+ * Spreads keys over several nodes with {@link ConsistentHashRing}. Every
+ * key is stored on a single node, so adding a node moves only about
+ * 1/(nodes + 1) of the keys to it, and removing one loses only its keys.
+ *
+ * Timeouts set on this client are passed to the clients of the nodes.
+ */
+public class ShardedKeyValueStoreClient extends AbstractKeyValueStoreClient {
+    protected final Map<String, KeyValueStoreClient> _nodes;
+    protected final ConsistentHashRing<KeyValueStoreClient> _ring;
+
+    /**
+     * @param nodes clients of single nodes by "host:port"
+     */
+    public ShardedKeyValueStoreClient(Map<String, ? extends KeyValueStoreClient> nodes) {
+        super(serverStringOf(nodes));
+        _nodes = new LinkedHashMap<String, KeyValueStoreClient>(nodes);
+        _ring = new ConsistentHashRing<KeyValueStoreClient>(_nodes);
+    }
+
+    private static String serverStringOf(Map<String, ?> nodes) {
+        StringBuilder sb = new StringBuilder();
+        for (String node : nodes.keySet()) {
+            if (sb.length() != 0) {
+                sb.append(' ');
+            }
+            sb.append(node);
+        }
+        return sb.toString();
+    }
+
+    public ConsistentHashRing<KeyValueStoreClient> getRing() {
+        return _ring;
+    }
+
+    /**
+     * @return clients of the nodes by "host:port"
+     */
+    public Map<String, KeyValueStoreClient> getNodes() {
+        return _nodes;
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        super.setTimeout(timeout);
+        for (KeyValueStoreClient node : _nodes.values()) {
+            if (node instanceof AbstractKeyValueStoreClient) {
+                ((AbstractKeyValueStoreClient) node).setTimeout(timeout);
+            }
+        }
+    }
+
+    @Override
+    public void setReadTimeout(int readTimeout) {
+        super.setReadTimeout(readTimeout);
+        for (KeyValueStoreClient node : _nodes.values()) {
+            if (node instanceof AbstractKeyValueStoreClient) {
+                ((AbstractKeyValueStoreClient) node).setReadTimeout(readTimeout);
+            }
+        }
+    }
+
+    @Override
+    public void setWriteTimeout(int writeTimeout) {
+        super.setWriteTimeout(writeTimeout);
+        for (KeyValueStoreClient node : _nodes.values()) {
+            if (node instanceof AbstractKeyValueStoreClient) {
+                ((AbstractKeyValueStoreClient) node).setWriteTimeout(writeTimeout);
+            }
+        }
+    }
+
+    public boolean connect() throws KeyValueStoreClientException {
+        boolean result = true;
+        for (KeyValueStoreClient node : _nodes.values()) {
+            result &= node.connect();
+        }
+        return result;
+    }
+
+    public boolean shutdown() throws KeyValueStoreClientException {
+        KeyValueStoreClientException failure = null;
+        for (KeyValueStoreClient node : _nodes.values()) {
+            try {
+                node.shutdown();
+            } catch (KeyValueStoreClientException error) {
+                failure = error;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any node is alive
+     */
+    public boolean isAlive() {
+        for (KeyValueStoreClient node : _nodes.values()) {
+            if (node.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public byte[] get(String key) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).get(key);
+    }
+
+    @Override
+    public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).getAndTouch(key, exp);
+    }
+
+    public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).set(key, raw);
+    }
+
+    public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).set(key, raw, exp);
+    }
+
+    public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).add(key, raw);
+    }
+
+    public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).add(key, raw, exp);
+    }
+
+    public boolean delete(String key) throws KeyValueStoreClientException {
+        return _ring.getPrimary(key).delete(key);
+    }
+
+    /**
+     * @return given keys grouped by the node owning them
+     */
+    private Map<KeyValueStoreClient, List<String>> batches(Collection<String> keys) {
+        Map<KeyValueStoreClient, List<String>> batches = new LinkedHashMap<KeyValueStoreClient, List<String>>();
+        for (String key : keys) {
+            KeyValueStoreClient node = _ring.getPrimary(key);
+            List<String> batch = batches.get(node);
+            if (batch == null) {
+                batch = new ArrayList<String>();
+                batches.put(node, batch);
+            }
+            batch.add(key);
+        }
+        return batches;
+    }
+
+    /**
+     * one batch per node owning any of the keys.
+     */
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<KeyValueStoreClient, List<String>> batch : batches(keys).entrySet()) {
+            values.putAll(batch.getKey().getMulti(batch.getValue()));
+        }
+        return values;
+    }
+
+    /**
+     * one batch per node owning any of the keys.
+     */
+    @Override
+    public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        for (Map.Entry<KeyValueStoreClient, List<String>> batch : batches(keys).entrySet()) {
+            values.putAll(batch.getKey().getAndTouchMulti(batch.getValue(), exp));
+        }
+        return values;
+    }
+
+    /**
+     * one batch per node owning any of the keys.
+     */
+    @Override
+    public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+        Map<KeyValueStoreClient, Map<String, byte[]>> batches = new LinkedHashMap<KeyValueStoreClient, Map<String, byte[]>>();
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            KeyValueStoreClient node = _ring.getPrimary(entry.getKey());
+            Map<String, byte[]> batch = batches.get(node);
+            if (batch == null) {
+                batch = new LinkedHashMap<String, byte[]>();
+                batches.put(node, batch);
+            }
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        boolean result = true;
+        for (Map.Entry<KeyValueStoreClient, Map<String, byte[]>> batch : batches.entrySet()) {
+            result &= batch.getKey().setMulti(batch.getValue(), exp);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,382 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Splits values larger than the chunk size into chunks stored under keys of
+ * their own, plus a small manifest stored under the original key, so that
+ * sessions may outgrow the item size limit of the store (1 MB for memcached
+ * by default).
+ *
+ * The chunks are written in one {@link KeyValueStoreClient#setMulti(Map, int)}
+ * batch before the manifest, and read back with one
+ * {@link KeyValueStoreClient#getMulti(Collection)}, or one
+ * {@link KeyValueStoreClient#getAndTouchMulti(Collection, int)} when the read
+ * resets the expiry. Chunk keys carry a generation which changes on every
+ * write, so a reader never mixes chunks of two writes: the manifest switches to
+ * the new chunks at once. Chunks of a replaced or deleted value are deleted
+ * once the manifest is gone.
+ *
+ * To find these chunks without reading the key again, the manifest last seen
+ * per key is remembered, up to {@link #getMaxKnownKeys()} keys. Only keys not
+ * seen by this client before are read ahead of a set or delete.
+ *
+ * Values up to the chunk size are stored as is, so the interceptor can be
+ * added to an installation with sessions already in the store. Add it after
+ * a {@link CompressionInterceptor}, so that values are split once compressed.
+ */
+public class ChunkingInterceptor implements KeyValueStoreClientInterceptor {
+    private final static Logger log = Log.getLogger(ChunkingInterceptor.class);
+
+    private static final byte[] MAGIC = { (byte) 0xff, 'C', 'H', 'U', 'N', 'K', 'S', 1 };
+    private static final int MANIFEST_LENGTH = MAGIC.length + 8 + 4 + 4;
+
+    private int _chunkSize = 1000 * 1024;
+    private int _maxKnownKeys = 10000;
+    private final Random _random = new Random();
+
+    public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        return new ChunkingClient(client);
+    }
+
+    public int getChunkSize() {
+        return _chunkSize;
+    }
+
+    /**
+     * @param chunkSize values larger than this many bytes are split into chunks of
+     *        this size. 1024000 by default, below the item size limit of memcached.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this._chunkSize = chunkSize;
+    }
+
+    public int getMaxKnownKeys() {
+        return _maxKnownKeys;
+    }
+
+    /**
+     * @param maxKnownKeys number of keys to remember the manifest of, 10000 by default
+     */
+    public void setMaxKnownKeys(int maxKnownKeys) {
+        this._maxKnownKeys = maxKnownKeys;
+    }
+
+    /**
+     * manifest of a chunked value.
+     */
+    static final class Manifest {
+        final long generation;
+        final int count;
+        final int length;
+
+        Manifest(long generation, int count, int length) {
+            this.generation = generation;
+            this.count = count;
+            this.length = length;
+        }
+
+        /**
+         * @return manifest held by given value, or null if it is a plain value
+         */
+        static Manifest of(byte[] raw) {
+            if (raw == null || raw.length != MANIFEST_LENGTH) {
+                return null;
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (raw[i] != MAGIC[i]) {
+                    return null;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(raw, MAGIC.length, MANIFEST_LENGTH - MAGIC.length);
+            return new Manifest(buffer.getLong(), buffer.getInt(), buffer.getInt());
+        }
+
+        byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(MANIFEST_LENGTH);
+            buffer.put(MAGIC);
+            buffer.putLong(generation);
+            buffer.putInt(count);
+            buffer.putInt(length);
+            return buffer.array();
+        }
+
+        String chunkKey(String key, int index) {
+            return key + "#" + Long.toHexString(generation) + "." + index;
+        }
+
+        List<String> chunkKeys(String key) {
+            List<String> keys = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(chunkKey(key, i));
+            }
+            return keys;
+        }
+    }
+
+    private long nextGeneration() {
+        synchronized (_random) {
+            return _random.nextLong();
+        }
+    }
+
+    /**
+     * stands for a key known to hold a plain value, or none at all.
+     */
+    private static final Manifest PLAIN = new Manifest(0, 0, 0);
+
+    private class ChunkingClient extends ForwardingKeyValueStoreClient {
+        // manifest last seen per key, least recently used first
+        private final Map<String, Manifest> _known = new LinkedHashMap<String, Manifest>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Manifest> eldest) {
+                return _maxKnownKeys < size();
+            }
+        };
+
+        ChunkingClient(KeyValueStoreClient delegate) {
+            super(delegate);
+        }
+
+        private void remember(String key, Manifest manifest) {
+            synchronized (_known) {
+                _known.put(key, manifest == null ? PLAIN : manifest);
+            }
+        }
+
+        /**
+         * @return manifest currently stored under given key, null if there is none
+         */
+        private Manifest replaced(String key) throws KeyValueStoreClientException {
+            Manifest manifest;
+            synchronized (_known) {
+                manifest = _known.get(key);
+            }
+            if (manifest == null) {
+                // not seen before
+                return Manifest.of(_delegate.get(key));
+            }
+            return manifest == PLAIN ? null : manifest;
+        }
+
+        /**
+         * @return given value, or the value assembled from the chunks if it is a
+         *         manifest. null if chunks are missing.
+         */
+        private byte[] join(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            Manifest manifest = Manifest.of(raw);
+            remember(key, manifest);
+            if (manifest == null) {
+                return raw;
+            }
+            byte[] joined = read(key, manifest, exp);
+            if (joined == null) {
+                // replaced while reading, follow the new manifest once
+                Manifest current = Manifest.of(_delegate.get(key));
+                remember(key, current);
+                if (current != null && current.generation != manifest.generation) {
+                    joined = read(key, current, exp);
+                }
+            }
+            if (joined == null) {
+                log.debug("chunks of " + key + " are missing");
+            }
+            return joined;
+        }
+
+        /**
+         * @return value assembled from the chunks of given manifest, null if any is missing
+         */
+        private byte[] read(String key, Manifest manifest, int exp) throws KeyValueStoreClientException {
+            List<String> keys = manifest.chunkKeys(key);
+            // chunks have to live as long as the manifest
+            Map<String, byte[]> chunks = 0 < exp ? _delegate.getAndTouchMulti(keys, exp) : _delegate.getMulti(keys);
+            byte[] joined = new byte[manifest.length];
+            int offset = 0;
+            for (String chunkKey : keys) {
+                byte[] chunk = chunks.get(chunkKey);
+                if (chunk == null) {
+                    return null;
+                }
+                if (joined.length < offset + chunk.length) {
+                    throw new KeyValueStoreClientException("chunks of " + key + " exceed " + manifest.length + " bytes");
+                }
+                System.arraycopy(chunk, 0, joined, offset, chunk.length);
+                offset += chunk.length;
+            }
+            if (offset != joined.length) {
+                throw new KeyValueStoreClientException("chunks of " + key + " hold " + offset + " of " + manifest.length
+                        + " bytes");
+            }
+            return joined;
+        }
+
+        /**
+         * store the chunks of given value.
+         *
+         * @return manifest to store under the key, or null if not all chunks have been stored
+         */
+        private Manifest write(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            int count = (raw.length + _chunkSize - 1) / _chunkSize;
+            Manifest manifest = new Manifest(nextGeneration(), count, raw.length);
+            Map<String, byte[]> chunks = new LinkedHashMap<String, byte[]>();
+            for (int i = 0; i < count; i++) {
+                int from = i * _chunkSize;
+                chunks.put(manifest.chunkKey(key, i), Arrays.copyOfRange(raw, from, Math.min(raw.length, from + _chunkSize)));
+            }
+            return _delegate.setMulti(chunks, exp) ? manifest : null;
+        }
+
+        private void deleteChunks(String key, Manifest manifest) {
+            for (String chunkKey : manifest.chunkKeys(key)) {
+                try {
+                    _delegate.delete(chunkKey);
+                } catch (KeyValueStoreClientException error) {
+                    log.debug("unable to delete chunk " + chunkKey, error);
+                }
+            }
+        }
+
+        @Override
+        public byte[] get(String key) throws KeyValueStoreClientException {
+            return join(key, _delegate.get(key), 0);
+        }
+
+        @Override
+        public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+            return join(key, _delegate.getAndTouch(key, exp), exp);
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+            return joinAll(_delegate.getMulti(keys), 0);
+        }
+
+        @Override
+        public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+            return joinAll(_delegate.getAndTouchMulti(keys, exp), exp);
+        }
+
+        private Map<String, byte[]> joinAll(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+            for (Iterator<Map.Entry<String, byte[]>> it = values.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, byte[]> entry = it.next();
+                byte[] joined = join(entry.getKey(), entry.getValue(), exp);
+                if (joined == null) {
+                    it.remove();
+                } else {
+                    entry.setValue(joined);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+            return set(key, raw, 0);
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            Manifest replaced = replaced(key);
+            Manifest manifest = null;
+            boolean result;
+            if (raw == null || raw.length <= _chunkSize) {
+                result = _delegate.set(key, raw, exp);
+            } else {
+                manifest = write(key, raw, exp);
+                result = manifest != null && _delegate.set(key, manifest.toBytes(), exp);
+            }
+            if (result) {
+                remember(key, manifest);
+                if (replaced != null) {
+                    deleteChunks(key, replaced);
+                }
+            } else if (manifest != null) {
+                deleteChunks(key, manifest);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+            Map<String, byte[]> small = new LinkedHashMap<String, byte[]>();
+            boolean result = true;
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                byte[] raw = entry.getValue();
+                Manifest replaced = replaced(entry.getKey());
+                if (replaced == null && (raw == null || raw.length <= _chunkSize)) {
+                    small.put(entry.getKey(), raw);
+                } else {
+                    result &= set(entry.getKey(), raw, exp);
+                }
+            }
+            if (!small.isEmpty()) {
+                if (_delegate.setMulti(small, exp)) {
+                    for (String key : small.keySet()) {
+                        remember(key, null);
+                    }
+                } else {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+            return add(key, raw, 0);
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            if (raw == null || raw.length <= _chunkSize) {
+                if (_delegate.add(key, raw, exp)) {
+                    remember(key, null);
+                    return true;
+                }
+                return false;
+            }
+            Manifest manifest = write(key, raw, exp);
+            if (manifest == null) {
+                return false;
+            }
+            if (_delegate.add(key, manifest.toBytes(), exp)) {
+                remember(key, manifest);
+                return true;
+            }
+            deleteChunks(key, manifest);
+            return false;
+        }
+
+        @Override
+        public boolean delete(String key) throws KeyValueStoreClientException {
+            Manifest manifest = replaced(key);
+            boolean result = _delegate.delete(key);
+            remember(key, null);
+            if (manifest != null) {
+                deleteChunks(key, manifest);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,689 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Stops calling the store while it fails or answers too slowly, so that a
+ * degraded store does not hold every request thread for the full timeout.
+ *
+ * The breaker keeps the outcome of the last {@link #setWindowSize(int) window}
+ * calls. Once at least {@link #setMinimumCalls(int) minimum} calls have been
+ * seen and the ratio of errors and slow calls reaches the
+ * {@link #setFailureRateThreshold(double) threshold}, the breaker opens and
+ * every call fails immediately. After {@link #setOpenDuration(long) open duration}
+ * a single call is let through as a probe: the breaker closes if it succeeds
+ * and opens again otherwise.
+ *
+ * With {@link #setFallback(boolean) fallback} enabled, sessions are kept in
+ * local memory while the breaker is open instead of failing, and written
+ * back to the store by a background thread when it closes, so that the first
+ * requests after a recovery do not wait for it. Sessions are then only
+ * visible to the node which wrote them until the store has recovered. A
+ * session written to the store once it has closed is not overwritten by the
+ * write back, and a session read before its turn is written back first.
+ */
+public class CircuitBreakerInterceptor implements KeyValueStoreClientInterceptor {
+    private final static Logger log = Log.getLogger(CircuitBreakerInterceptor.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private int _windowSize = 100;
+    private int _minimumCalls = 20;
+    private double _failureRateThreshold = 0.5;
+    private long _slowCallThreshold = 0;
+    private long _openDuration = 5000;
+    private boolean _fallback = false;
+    private int _maxFallbackEntries = 10000;
+
+    private State _state = State.CLOSED;
+    private boolean[] _window = new boolean[_windowSize];
+    private int _windowPosition = 0;
+    private int _windowCalls = 0;
+    private int _windowFailures = 0;
+    private long _openedAt = 0;
+    private boolean _probing = false;
+    private final AtomicLong _rejected = new AtomicLong();
+    private final AtomicLong _opened = new AtomicLong();
+    private final ConcurrentMap<String, Entry> _local = new ConcurrentHashMap<String, Entry>();
+    private final AtomicBoolean _writingBack = new AtomicBoolean();
+
+    public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        reset();
+        return new BreakerClient(client);
+    }
+
+    public int getWindowSize() {
+        return _windowSize;
+    }
+
+    /**
+     * @param windowSize number of recent calls the failure rate is computed from. 100 by default.
+     */
+    public synchronized void setWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        this._windowSize = windowSize;
+        reset();
+    }
+
+    public int getMinimumCalls() {
+        return _minimumCalls;
+    }
+
+    /**
+     * @param minimumCalls calls needed in the window before the breaker may open. 20 by default.
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        this._minimumCalls = minimumCalls;
+    }
+
+    public double getFailureRateThreshold() {
+        return _failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold ratio of failed calls which opens the breaker. 0.5 by default.
+     */
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this._failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallThreshold() {
+        return _slowCallThreshold;
+    }
+
+    /**
+     * @param slowCallThreshold milliseconds after which a successful call counts as failed, 0 to disable (default)
+     */
+    public void setSlowCallThreshold(long slowCallThreshold) {
+        this._slowCallThreshold = slowCallThreshold;
+    }
+
+    public long getOpenDuration() {
+        return _openDuration;
+    }
+
+    /**
+     * @param openDuration milliseconds to fail fast before probing the store. 5000 by default.
+     */
+    public void setOpenDuration(long openDuration) {
+        this._openDuration = openDuration;
+    }
+
+    public boolean isFallback() {
+        return _fallback;
+    }
+
+    /**
+     * @param fallback keep sessions in local memory while the breaker is open. false by default.
+     */
+    public void setFallback(boolean fallback) {
+        this._fallback = fallback;
+    }
+
+    public int getMaxFallbackEntries() {
+        return _maxFallbackEntries;
+    }
+
+    /**
+     * @param maxFallbackEntries writes beyond this many local entries fail. 10000 by default.
+     */
+    public void setMaxFallbackEntries(int maxFallbackEntries) {
+        this._maxFallbackEntries = maxFallbackEntries;
+    }
+
+    public synchronized State getState() {
+        return _state;
+    }
+
+    /**
+     * @return number of calls failed fast or served locally since start
+     */
+    public long getRejectedCount() {
+        return _rejected.get();
+    }
+
+    /**
+     * @return number of times the breaker has opened since start
+     */
+    public long getOpenedCount() {
+        return _opened.get();
+    }
+
+    /**
+     * @return ratio of failed calls in the current window
+     */
+    public synchronized double getFailureRate() {
+        return _windowCalls == 0 ? 0.0 : (double) _windowFailures / _windowCalls;
+    }
+
+    public synchronized void reset() {
+        _state = State.CLOSED;
+        _window = new boolean[_windowSize];
+        _windowPosition = 0;
+        _windowCalls = 0;
+        _windowFailures = 0;
+        _probing = false;
+        _local.clear();
+    }
+
+    /**
+     * @return true if the call may go to the store
+     */
+    synchronized boolean acquire() {
+        switch (_state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.currentTimeMillis() - _openedAt < _openDuration) {
+                return false;
+            }
+            _state = State.HALF_OPEN;
+            log.info("half-open, probing the store");
+            return probe();
+        case HALF_OPEN:
+            return probe();
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the call may go to the store as the single probe
+     */
+    private boolean probe() {
+        if (_probing) {
+            return false;
+        }
+        _probing = true;
+        return true;
+    }
+
+    /**
+     * @return true if the breaker has closed with this call
+     */
+    synchronized boolean release(boolean failed) {
+        if (_state == State.HALF_OPEN) {
+            _probing = false;
+            if (failed) {
+                open();
+                return false;
+            }
+            _state = State.CLOSED;
+            _window = new boolean[_windowSize];
+            _windowPosition = 0;
+            _windowCalls = 0;
+            _windowFailures = 0;
+            log.info("closed, the store has recovered");
+            return true;
+        }
+        if (_state != State.CLOSED) {
+            return false;
+        }
+        if (_windowCalls == _window.length) {
+            if (_window[_windowPosition]) {
+                _windowFailures--;
+            }
+        } else {
+            _windowCalls++;
+        }
+        _window[_windowPosition] = failed;
+        if (failed) {
+            _windowFailures++;
+        }
+        _windowPosition = (_windowPosition + 1) % _window.length;
+        if (_minimumCalls <= _windowCalls && _failureRateThreshold <= (double) _windowFailures / _windowCalls) {
+            open();
+        }
+        return false;
+    }
+
+    private void open() {
+        _state = State.OPEN;
+        _openedAt = System.currentTimeMillis();
+        _opened.incrementAndGet();
+        log.warn("open, failing fast for " + _openDuration + "ms (failure rate=" + getFailureRate() + ")");
+    }
+
+    private static class Entry {
+        final byte[] raw;
+        final int exp;
+        final long expiresAt;
+        final boolean deleted;
+
+        Entry(byte[] raw, int exp) {
+            this(raw, exp, false);
+        }
+
+        private Entry(byte[] raw, int exp, boolean deleted) {
+            this.raw = raw;
+            this.exp = exp;
+            this.expiresAt = exp <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(exp);
+            this.deleted = deleted;
+        }
+
+        /**
+         * @return a deleted key, to be deleted from the store on recovery.
+         */
+        static Entry deleted() {
+            return new Entry(null, 0, true);
+        }
+
+        boolean isExpired() {
+            return expiresAt <= System.currentTimeMillis();
+        }
+    }
+
+    private abstract class Call<T> {
+        private final String _key;
+        private boolean _closed = false;
+
+        Call() {
+            this(null);
+        }
+
+        /**
+         * @param key key written by this call, which supersedes its entry kept locally
+         */
+        Call(String key) {
+            this._key = key;
+        }
+
+        abstract T call() throws KeyValueStoreClientException;
+
+        abstract T local() throws KeyValueStoreClientException;
+
+        /**
+         * @return true if the store holds newer data than the entry kept locally after given result
+         */
+        boolean supersedes(T result) {
+            return true;
+        }
+
+        T run(KeyValueStoreClient delegate, String operation) throws KeyValueStoreClientException {
+            if (!acquire()) {
+                _rejected.incrementAndGet();
+                if (_fallback) {
+                    return local();
+                }
+                throw new KeyValueStoreClientException("circuit breaker is open, " + operation + " rejected");
+            }
+            try {
+                Entry pending = _key == null || !_fallback ? null : _local.get(_key);
+                if (pending == null) {
+                    return attempt();
+                }
+                // the write back of the entry kept locally must not overwrite this call
+                synchronized (pending) {
+                    T result = attempt();
+                    if (supersedes(result)) {
+                        _local.remove(_key, pending);
+                    }
+                    return result;
+                }
+            } finally {
+                if (_closed && _fallback) {
+                    startWriteBack(delegate);
+                }
+            }
+        }
+
+        private T attempt() throws KeyValueStoreClientException {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = call();
+                failed = 0 < _slowCallThreshold
+                        && TimeUnit.MILLISECONDS.toNanos(_slowCallThreshold) < System.nanoTime() - start;
+                return result;
+            } finally {
+                _closed = release(failed);
+            }
+        }
+    }
+
+    private void putLocal(String key, Entry entry) throws KeyValueStoreClientException {
+        if (_maxFallbackEntries <= _local.size() && !_local.containsKey(key)) {
+            throw new KeyValueStoreClientException("circuit breaker is open and local fallback is full");
+        }
+        _local.put(key, entry);
+    }
+
+    private byte[] getLocal(String key) {
+        Entry entry = _local.get(key);
+        if (entry == null || entry.deleted || entry.isExpired()) {
+            return null;
+        }
+        return entry.raw;
+    }
+
+    private byte[] touchLocal(String key, int exp) {
+        byte[] raw = getLocal(key);
+        if (raw != null && 0 < exp) {
+            _local.put(key, new Entry(raw, exp));
+        }
+        return raw;
+    }
+
+    /**
+     * start writing back the sessions kept locally in a background thread,
+     * unless one is running already.
+     */
+    void startWriteBack(final KeyValueStoreClient delegate) {
+        if (_local.isEmpty() || !_writingBack.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    writeBack(delegate);
+                } finally {
+                    _writingBack.set(false);
+                }
+                // the breaker may have opened and closed again meanwhile
+                if (getState() == State.CLOSED) {
+                    startWriteBack(delegate);
+                }
+            }
+        }, "CircuitBreakerInterceptor-writeBack");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return true while sessions kept locally are written back in the background
+     */
+    public boolean isWritingBack() {
+        return _writingBack.get();
+    }
+
+    /**
+     * write sessions kept locally while the breaker was open back to the
+     * store, until the breaker opens again.
+     */
+    void writeBack(KeyValueStoreClient delegate) {
+        int written = 0;
+        for (String key : _local.keySet()) {
+            if (getState() != State.CLOSED) {
+                break;
+            }
+            if (writeBack(delegate, key)) {
+                written++;
+            }
+        }
+        if (0 < written) {
+            log.info("wrote back " + written + " local entries");
+        }
+    }
+
+    /**
+     * write the entry kept locally for given key back to the store, unless a
+     * write of the key has reached the store since the breaker closed.
+     *
+     * @return true if the entry has been written back
+     */
+    boolean writeBack(KeyValueStoreClient delegate, String key) {
+        Entry entry;
+        while ((entry = _local.get(key)) != null) {
+            synchronized (entry) {
+                if (_local.get(key) != entry) {
+                    // superseded or replaced meanwhile
+                    continue;
+                }
+                try {
+                    if (entry.deleted) {
+                        delegate.delete(key);
+                    } else if (!entry.isExpired()) {
+                        delegate.set(key, entry.raw, entry.exp);
+                    }
+                    return true;
+                } catch (KeyValueStoreClientException error) {
+                    log.warn("unable to write back " + key, error);
+                    return false;
+                } finally {
+                    _local.remove(key, entry);
+                }
+            }
+        }
+        return false;
+    }
+
+    private class BreakerClient extends ForwardingKeyValueStoreClient {
+        BreakerClient(KeyValueStoreClient delegate) {
+            super(delegate);
+        }
+
+        /**
+         * @return true if given key has to be read from local memory
+         */
+        private boolean isLocal(String key) {
+            if (!_fallback || !_local.containsKey(key)) {
+                return false;
+            }
+            if (getState() != State.CLOSED) {
+                // not written back yet
+                return true;
+            }
+            // not written back yet by the background thread, the store is up to date once written
+            writeBack(_delegate, key);
+            return false;
+        }
+
+        @Override
+        public byte[] get(final String key) throws KeyValueStoreClientException {
+            if (isLocal(key)) {
+                return getLocal(key);
+            }
+            return new Call<byte[]>() {
+                byte[] call() throws KeyValueStoreClientException {
+                    return _delegate.get(key);
+                }
+
+                byte[] local() {
+                    return getLocal(key);
+                }
+            }.run(_delegate, "get");
+        }
+
+        @Override
+        public byte[] getAndTouch(final String key, final int exp) throws KeyValueStoreClientException {
+            if (isLocal(key)) {
+                return touchLocal(key, exp);
+            }
+            return new Call<byte[]>() {
+                byte[] call() throws KeyValueStoreClientException {
+                    return _delegate.getAndTouch(key, exp);
+                }
+
+                byte[] local() {
+                    return touchLocal(key, exp);
+                }
+            }.run(_delegate, "getAndTouch");
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+            return set(key, raw, 0);
+        }
+
+        @Override
+        public boolean set(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+            return new Call<Boolean>(key) {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.set(key, raw, exp);
+                }
+
+                Boolean local() throws KeyValueStoreClientException {
+                    putLocal(key, new Entry(raw, exp));
+                    return true;
+                }
+            }.run(_delegate, "set");
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+            return add(key, raw, 0);
+        }
+
+        @Override
+        public boolean add(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+            return new Call<Boolean>(key) {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.add(key, raw, exp);
+                }
+
+                @Override
+                boolean supersedes(Boolean result) {
+                    // the key kept locally is still to be written back otherwise
+                    return result;
+                }
+
+                Boolean local() throws KeyValueStoreClientException {
+                    if (getLocal(key) != null) {
+                        return false;
+                    }
+                    putLocal(key, new Entry(raw, exp));
+                    return true;
+                }
+            }.run(_delegate, "add");
+        }
+
+        @Override
+        public boolean delete(final String key) throws KeyValueStoreClientException {
+            return new Call<Boolean>(key) {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.delete(key);
+                }
+
+                Boolean local() throws KeyValueStoreClientException {
+                    boolean existed = getLocal(key) != null;
+                    putLocal(key, Entry.deleted());
+                    return existed;
+                }
+            }.run(_delegate, "delete");
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+            final Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+            final List<String> remote = new ArrayList<String>(keys.size());
+            for (String key : keys) {
+                if (isLocal(key)) {
+                    byte[] raw = getLocal(key);
+                    if (raw != null) {
+                        values.put(key, raw);
+                    }
+                } else {
+                    remote.add(key);
+                }
+            }
+            if (remote.isEmpty()) {
+                return values;
+            }
+            values.putAll(new Call<Map<String, byte[]>>() {
+                Map<String, byte[]> call() throws KeyValueStoreClientException {
+                    return _delegate.getMulti(remote);
+                }
+
+                Map<String, byte[]> local() {
+                    Map<String, byte[]> found = new LinkedHashMap<String, byte[]>();
+                    for (String key : remote) {
+                        byte[] raw = getLocal(key);
+                        if (raw != null) {
+                            found.put(key, raw);
+                        }
+                    }
+                    return found;
+                }
+            }.run(_delegate, "getMulti"));
+            return values;
+        }
+
+        @Override
+        public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, final int exp) throws KeyValueStoreClientException {
+            final Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+            final List<String> remote = new ArrayList<String>(keys.size());
+            for (String key : keys) {
+                if (isLocal(key)) {
+                    byte[] raw = touchLocal(key, exp);
+                    if (raw != null) {
+                        values.put(key, raw);
+                    }
+                } else {
+                    remote.add(key);
+                }
+            }
+            if (remote.isEmpty()) {
+                return values;
+            }
+            values.putAll(new Call<Map<String, byte[]>>() {
+                Map<String, byte[]> call() throws KeyValueStoreClientException {
+                    return _delegate.getAndTouchMulti(remote, exp);
+                }
+
+                Map<String, byte[]> local() {
+                    Map<String, byte[]> found = new LinkedHashMap<String, byte[]>();
+                    for (String key : remote) {
+                        byte[] raw = touchLocal(key, exp);
+                        if (raw != null) {
+                            found.put(key, raw);
+                        }
+                    }
+                    return found;
+                }
+            }.run(_delegate, "getAndTouchMulti"));
+            return values;
+        }
+
+        @Override
+        public boolean setMulti(Map<String, byte[]> values, final int exp) throws KeyValueStoreClientException {
+            final Map<String, byte[]> batch = new LinkedHashMap<String, byte[]>(values);
+            boolean result = true;
+            if (_fallback) {
+                for (Iterator<Map.Entry<String, byte[]>> it = batch.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<String, byte[]> entry = it.next();
+                    if (_local.containsKey(entry.getKey())) {
+                        // one by one, so that each supersedes its entry kept locally
+                        result &= set(entry.getKey(), entry.getValue(), exp);
+                        it.remove();
+                    }
+                }
+                if (batch.isEmpty()) {
+                    return result;
+                }
+            }
+            return new Call<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.setMulti(batch, exp);
+                }
+
+                Boolean local() throws KeyValueStoreClientException {
+                    for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                        putLocal(entry.getKey(), new Entry(entry.getValue(), exp));
+                    }
+                    return true;
+                }
+            }.run(_delegate, "setMulti") && result;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+
+/**
+ * GZIP-compresses values larger than a threshold.
+ *
+ * Values read back are recognized by the GZIP header, so the interceptor
+ * can be added to an installation with sessions already in the store.
+ * Values which merely start like a GZIP stream are returned as is.
+ */
+public class CompressionInterceptor implements KeyValueStoreClientInterceptor {
+    private int _threshold = 1024;
+
+    public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        return new CompressingClient(client);
+    }
+
+    public int getThreshold() {
+        return _threshold;
+    }
+
+    /**
+     * @param threshold values of at least this many bytes are compressed. 1024 by default.
+     */
+    public void setThreshold(int threshold) {
+        this._threshold = threshold;
+    }
+
+    public byte[] compress(byte[] raw) throws KeyValueStoreClientException {
+        if (raw == null || raw.length < _threshold) {
+            return raw;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(raw);
+            gzip.close();
+        } catch (IOException error) {
+            throw new KeyValueStoreClientException(error);
+        }
+        byte[] compressed = out.toByteArray();
+        return compressed.length < raw.length ? compressed : raw;
+    }
+
+    public byte[] decompress(byte[] raw) throws KeyValueStoreClientException {
+        if (!isCompressed(raw)) {
+            return raw;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length * 4);
+        try {
+            GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(raw));
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = gzip.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            gzip.close();
+        } catch (ZipException error) {
+            return raw;
+        } catch (EOFException error) {
+            return raw;
+        } catch (IOException error) {
+            throw new KeyValueStoreClientException(error);
+        }
+        return out.toByteArray();
+    }
+
+    static boolean isCompressed(byte[] raw) {
+        // GZIP magic followed by the deflate method
+        return raw != null && 18 <= raw.length
+            && raw[0] == (byte) 0x1f && raw[1] == (byte) 0x8b && raw[2] == (byte) 0x08;
+    }
+
+    private class CompressingClient extends ForwardingKeyValueStoreClient {
+        CompressingClient(KeyValueStoreClient delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public byte[] get(String key) throws KeyValueStoreClientException {
+            return decompress(super.get(key));
+        }
+
+        @Override
+        public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+            return decompress(super.getAndTouch(key, exp));
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+            return super.set(key, compress(raw));
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            return super.set(key, compress(raw), exp);
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+            return super.add(key, compress(raw));
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            return super.add(key, compress(raw), exp);
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+            Map<String, byte[]> values = super.getMulti(keys);
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                entry.setValue(decompress(entry.getValue()));
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+            Map<String, byte[]> values = super.getAndTouchMulti(keys, exp);
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                entry.setValue(decompress(entry.getValue()));
+            }
+            return values;
+        }
+
+        @Override
+        public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+            Map<String, byte[]> compressed = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                compressed.put(entry.getKey(), compress(entry.getValue()));
+            }
+            return super.setMulti(compressed, exp);
+        }
+    }
+}
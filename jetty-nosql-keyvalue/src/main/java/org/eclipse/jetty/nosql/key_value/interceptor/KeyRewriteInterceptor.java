@@ -0,0 +1,183 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+
+/**
+ * Adds a prefix and a suffix to every key, e.g. to share a store between
+ * several installations. Keys longer than the given maximum in UTF-8 bytes
+ * (memcached refuses keys above 250 bytes) are replaced by a digest of their
+ * tail.
+ */
+public class KeyRewriteInterceptor implements KeyValueStoreClientInterceptor {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // ":" followed by 40 hex digits of SHA-1
+    private static final int DIGEST_LENGTH = 41;
+
+    private String _prefix = "";
+    private String _suffix = "";
+    private int _maxKeyLength = 0;
+
+    public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        return new RewritingClient(client);
+    }
+
+    public String getPrefix() {
+        return _prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this._prefix = prefix == null ? "" : prefix;
+    }
+
+    public String getSuffix() {
+        return _suffix;
+    }
+
+    public void setSuffix(String suffix) {
+        this._suffix = suffix == null ? "" : suffix;
+    }
+
+    public int getMaxKeyLength() {
+        return _maxKeyLength;
+    }
+
+    /**
+     * @param maxKeyLength maximum length of rewritten keys in UTF-8 bytes, 0 for unlimited (default).
+     *        at least 41, the length of the digest replacing longer keys.
+     */
+    public void setMaxKeyLength(int maxKeyLength) {
+        if (0 < maxKeyLength && maxKeyLength < DIGEST_LENGTH) {
+            throw new IllegalArgumentException("maxKeyLength must be 0 or at least " + DIGEST_LENGTH);
+        }
+        this._maxKeyLength = maxKeyLength;
+    }
+
+    public String rewrite(String key) {
+        String rewritten = _prefix + key + _suffix;
+        if (_maxKeyLength <= 0 || rewritten.getBytes(UTF8).length <= _maxKeyLength) {
+            return rewritten;
+        }
+        // keep the prefix readable
+        return head(rewritten, _maxKeyLength - DIGEST_LENGTH) + ":" + sha1(rewritten);
+    }
+
+    /**
+     * @return the longest head of given string within given number of UTF-8 bytes,
+     *         without splitting a character
+     */
+    private static String head(String s, int maxBytes) {
+        int bytes = 0;
+        int i = 0;
+        while (i < s.length()) {
+            int codePoint = s.codePointAt(i);
+            bytes += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (maxBytes < bytes) {
+                break;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return s.substring(0, i);
+    }
+
+    private static String sha1(String s) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private class RewritingClient extends ForwardingKeyValueStoreClient {
+        RewritingClient(KeyValueStoreClient delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public byte[] get(String key) throws KeyValueStoreClientException {
+            return super.get(rewrite(key));
+        }
+
+        @Override
+        public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+            return super.getAndTouch(rewrite(key), exp);
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+            return super.set(rewrite(key), raw);
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            return super.set(rewrite(key), raw, exp);
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+            return super.add(rewrite(key), raw);
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            return super.add(rewrite(key), raw, exp);
+        }
+
+        @Override
+        public boolean delete(String key) throws KeyValueStoreClientException {
+            return super.delete(rewrite(key));
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+            Map<String, String> originals = new LinkedHashMap<String, String>();
+            for (String key : keys) {
+                originals.put(rewrite(key), key);
+            }
+            Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, byte[]> entry : super.getMulti(originals.keySet()).entrySet()) {
+                values.put(originals.get(entry.getKey()), entry.getValue());
+            }
+            return values;
+        }
+
+        @Override
+        public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+            Map<String, String> originals = new LinkedHashMap<String, String>();
+            for (String key : keys) {
+                originals.put(rewrite(key), key);
+            }
+            Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, byte[]> entry : super.getAndTouchMulti(originals.keySet(), exp).entrySet()) {
+                values.put(originals.get(entry.getKey()), entry.getValue());
+            }
+            return values;
+        }
+
+        @Override
+        public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+            Map<String, byte[]> rewritten = new LinkedHashMap<String, byte[]>();
+            for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                rewritten.put(rewrite(entry.getKey()), entry.getValue());
+            }
+            return super.setMulti(rewritten, exp);
+        }
+    }
+}
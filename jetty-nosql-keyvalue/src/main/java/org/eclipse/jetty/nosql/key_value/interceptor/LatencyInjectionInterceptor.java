@@ -0,0 +1,148 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+
+/**
+ * Delays every operation and optionally fails some of them, to see how an
+ * installation behaves with a slow or unreliable store. Not meant for
+ * production.
+ */
+public class LatencyInjectionInterceptor implements KeyValueStoreClientInterceptor {
+    private final Random _random = new Random();
+    private volatile long _latency = 0;
+    private volatile long _jitter = 0;
+    private volatile double _failureRate = 0.0;
+
+    public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        return new DelayedClient(client);
+    }
+
+    public long getLatency() {
+        return _latency;
+    }
+
+    /**
+     * @param latency milliseconds to delay every operation
+     */
+    public void setLatency(long latency) {
+        this._latency = latency;
+    }
+
+    public long getJitter() {
+        return _jitter;
+    }
+
+    /**
+     * @param jitter upper bound of random milliseconds added to the latency
+     */
+    public void setJitter(long jitter) {
+        this._jitter = jitter;
+    }
+
+    public double getFailureRate() {
+        return _failureRate;
+    }
+
+    /**
+     * @param failureRate probability of failing an operation after the delay
+     */
+    public void setFailureRate(double failureRate) {
+        this._failureRate = failureRate;
+    }
+
+    void inject(String operation) throws KeyValueStoreClientException {
+        long delay = _latency;
+        double failure;
+        synchronized (_random) {
+            if (0 < _jitter) {
+                delay += (long) (_random.nextDouble() * _jitter);
+            }
+            failure = _random.nextDouble();
+        }
+        if (0 < delay) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new KeyValueStoreClientException(error);
+            }
+        }
+        if (failure < _failureRate) {
+            throw new KeyValueStoreClientException("injected failure of " + operation);
+        }
+    }
+
+    private class DelayedClient extends ForwardingKeyValueStoreClient {
+        DelayedClient(KeyValueStoreClient delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public byte[] get(String key) throws KeyValueStoreClientException {
+            inject("get");
+            return super.get(key);
+        }
+
+        @Override
+        public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+            inject("get");
+            return super.getAndTouch(key, exp);
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+            inject("set");
+            return super.set(key, raw);
+        }
+
+        @Override
+        public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            inject("set");
+            return super.set(key, raw, exp);
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+            inject("add");
+            return super.add(key, raw);
+        }
+
+        @Override
+        public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+            inject("add");
+            return super.add(key, raw, exp);
+        }
+
+        @Override
+        public boolean delete(String key) throws KeyValueStoreClientException {
+            inject("delete");
+            return super.delete(key);
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti(Collection<String> keys) throws KeyValueStoreClientException {
+            inject("get");
+            return super.getMulti(keys);
+        }
+
+        @Override
+        public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+            inject("get");
+            return super.getAndTouchMulti(keys, exp);
+        }
+
+        @Override
+        public boolean setMulti(Map<String, byte[]> values, int exp) throws KeyValueStoreClientException {
+            inject("set");
+            return super.setMulti(values, exp);
+        }
+    }
+}
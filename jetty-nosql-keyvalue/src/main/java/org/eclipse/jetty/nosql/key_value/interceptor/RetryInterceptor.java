@@ -0,0 +1,199 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Retries get, set and delete failed with an exception.
+ *
+ * add is not retried by default: if the first attempt reached the store
+ * but its answer got lost, the retry would report the key as taken.
+ */
+public class RetryInterceptor implements KeyValueStoreClientInterceptor {
+    private final static Logger log = Log.getLogger(RetryInterceptor.class);
+
+    private int _maxRetries = 1;
+    private long _backoff = 10;
+    private boolean _retryAdd = false;
+
+    public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+        return new RetryingClient(client);
+    }
+
+    public int getMaxRetries() {
+        return _maxRetries;
+    }
+
+    /**
+     * @param maxRetries number of retries after the first attempt. 1 by default.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this._maxRetries = maxRetries;
+    }
+
+    public long getBackoff() {
+        return _backoff;
+    }
+
+    /**
+     * @param backoff milliseconds to wait before the first retry, doubled for every further retry. 10 by default.
+     */
+    public void setBackoff(long backoff) {
+        this._backoff = backoff;
+    }
+
+    public boolean isRetryAdd() {
+        return _retryAdd;
+    }
+
+    public void setRetryAdd(boolean retryAdd) {
+        this._retryAdd = retryAdd;
+    }
+
+    /**
+     * wait before given retry.
+     *
+     * @return false if interrupted
+     */
+    protected boolean backoff(int retry) {
+        long delay = _backoff << Math.min(retry - 1, 16);
+        if (delay <= 0) {
+            return true;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+            return true;
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private abstract class Attempt<T> {
+        abstract T call() throws KeyValueStoreClientException;
+
+        T run(String operation, String key) throws KeyValueStoreClientException {
+            int retry = 0;
+            while (true) {
+                try {
+                    return call();
+                } catch (KeyValueStoreClientException error) {
+                    if (retry >= _maxRetries || !backoff(++retry)) {
+                        throw error;
+                    }
+                    log.debug("retrying " + operation + ": key=" + key + ", retry=" + retry, error);
+                }
+            }
+        }
+    }
+
+    private class RetryingClient extends ForwardingKeyValueStoreClient {
+        RetryingClient(KeyValueStoreClient delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public byte[] get(final String key) throws KeyValueStoreClientException {
+            return new Attempt<byte[]>() {
+                byte[] call() throws KeyValueStoreClientException {
+                    return _delegate.get(key);
+                }
+            }.run("get", key);
+        }
+
+        @Override
+        public byte[] getAndTouch(final String key, final int exp) throws KeyValueStoreClientException {
+            return new Attempt<byte[]>() {
+                byte[] call() throws KeyValueStoreClientException {
+                    return _delegate.getAndTouch(key, exp);
+                }
+            }.run("getAndTouch", key);
+        }
+
+        @Override
+        public boolean set(final String key, final byte[] raw) throws KeyValueStoreClientException {
+            return new Attempt<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.set(key, raw);
+                }
+            }.run("set", key);
+        }
+
+        @Override
+        public boolean set(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+            return new Attempt<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.set(key, raw, exp);
+                }
+            }.run("set", key);
+        }
+
+        @Override
+        public boolean add(final String key, final byte[] raw) throws KeyValueStoreClientException {
+            if (!_retryAdd) {
+                return _delegate.add(key, raw);
+            }
+            return new Attempt<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.add(key, raw);
+                }
+            }.run("add", key);
+        }
+
+        @Override
+        public boolean add(final String key, final byte[] raw, final int exp) throws KeyValueStoreClientException {
+            if (!_retryAdd) {
+                return _delegate.add(key, raw, exp);
+            }
+            return new Attempt<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.add(key, raw, exp);
+                }
+            }.run("add", key);
+        }
+
+        @Override
+        public boolean delete(final String key) throws KeyValueStoreClientException {
+            return new Attempt<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.delete(key);
+                }
+            }.run("delete", key);
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti(final Collection<String> keys) throws KeyValueStoreClientException {
+            return new Attempt<Map<String, byte[]>>() {
+                Map<String, byte[]> call() throws KeyValueStoreClientException {
+                    return _delegate.getMulti(keys);
+                }
+            }.run("getMulti", String.valueOf(keys));
+        }
+
+        @Override
+        public Map<String, byte[]> getAndTouchMulti(final Collection<String> keys, final int exp) throws KeyValueStoreClientException {
+            return new Attempt<Map<String, byte[]>>() {
+                Map<String, byte[]> call() throws KeyValueStoreClientException {
+                    return _delegate.getAndTouchMulti(keys, exp);
+                }
+            }.run("getAndTouchMulti", String.valueOf(keys));
+        }
+
+        @Override
+        public boolean setMulti(final Map<String, byte[]> values, final int exp) throws KeyValueStoreClientException {
+            return new Attempt<Boolean>() {
+                Boolean call() throws KeyValueStoreClientException {
+                    return _delegate.setMulti(values, exp);
+                }
+            }.run("setMulti", String.valueOf(values.keySet()));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timeout derived from the latencies of recent successful operations: the
+ * given percentile multiplied by a factor, clamped between a minimum and a
+ * maximum.
+ *
+ * Latencies are collected in windows of {@link #setWindow(int) window}
+ * operations, and the timeout is recomputed whenever a window is complete.
+ * Until then, the initial timeout is used. Failed operations are not
+ * recorded, so the timeout can grow by at most the factor per window while
+ * the store slows down.
+ */
+public class AdaptiveTimeout {
+    private volatile double _percentile = 99.9;
+    private volatile double _factor = 2.0;
+    private volatile int _minTimeout = 10;
+    private volatile int _maxTimeout = 5000;
+    private volatile int _window = 1000;
+
+    private volatile LatencyHistogram _histogram = new LatencyHistogram();
+    private final AtomicLong _recorded = new AtomicLong();
+    private volatile int _timeout;
+
+    /**
+     * @param initialTimeout timeout in milliseconds until the first window is complete
+     */
+    public AdaptiveTimeout(int initialTimeout) {
+        _timeout = initialTimeout;
+    }
+
+    /**
+     * @return current timeout in milliseconds
+     */
+    public int getTimeout() {
+        return _timeout;
+    }
+
+    /**
+     * record latency of a successful operation.
+     *
+     * @param nanos elapsed time in nanoseconds
+     * @return true if the timeout has been recomputed
+     */
+    public boolean record(long nanos) {
+        LatencyHistogram histogram = _histogram;
+        histogram.record(nanos);
+        if (_recorded.incrementAndGet() % _window != 0) {
+            return false;
+        }
+        _histogram = new LatencyHistogram();
+        _timeout = timeoutOf(histogram.getPercentile(_percentile));
+        return true;
+    }
+
+    /**
+     * @param micros latency at the percentile in microseconds
+     * @return timeout in milliseconds
+     */
+    int timeoutOf(long micros) {
+        long millis = (long) Math.ceil(micros * _factor / 1000.0);
+        return (int) Math.min(_maxTimeout, Math.max(_minTimeout, millis));
+    }
+
+    public double getPercentile() {
+        return _percentile;
+    }
+
+    /**
+     * @param percentile percentile of latencies the timeout is based on. 99.9 by default.
+     */
+    public void setPercentile(double percentile) {
+        this._percentile = percentile;
+    }
+
+    public double getFactor() {
+        return _factor;
+    }
+
+    /**
+     * @param factor multiplier applied to the percentile. 2.0 by default.
+     */
+    public void setFactor(double factor) {
+        this._factor = factor;
+    }
+
+    public int getMinTimeout() {
+        return _minTimeout;
+    }
+
+    /**
+     * @param minTimeout lower bound in milliseconds. 10 by default.
+     */
+    public void setMinTimeout(int minTimeout) {
+        this._minTimeout = minTimeout;
+    }
+
+    public int getMaxTimeout() {
+        return _maxTimeout;
+    }
+
+    /**
+     * @param maxTimeout upper bound in milliseconds. 5000 by default.
+     */
+    public void setMaxTimeout(int maxTimeout) {
+        this._maxTimeout = maxTimeout;
+    }
+
+    public int getWindow() {
+        return _window;
+    }
+
+    /**
+     * @param window number of operations between recomputations. 1000 by default.
+     */
+    public void setWindow(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this._window = window;
+    }
+}
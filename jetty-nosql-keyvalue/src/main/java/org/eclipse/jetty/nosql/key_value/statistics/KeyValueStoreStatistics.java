@@ -0,0 +1,71 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+/**
+ * Statistics of a session ID manager and the session managers using it.
+ */
+public class KeyValueStoreStatistics implements KeyValueStoreStatisticsMXBean {
+    private final OperationStatistics _storeGet = new OperationStatistics();
+    private final OperationStatistics _storeSet = new OperationStatistics();
+    private final OperationStatistics _storeAdd = new OperationStatistics();
+    private final OperationStatistics _storeDelete = new OperationStatistics();
+    private final OperationStatistics _sessionSave = new OperationStatistics();
+    private final OperationStatistics _sessionRefresh = new OperationStatistics();
+    private final OperationStatistics _sessionLoad = new OperationStatistics();
+    private final OperationStatistics _pack = new OperationStatistics();
+    private final OperationStatistics _unpack = new OperationStatistics();
+
+    public OperationStatistics getStoreGet() {
+        return _storeGet;
+    }
+
+    public OperationStatistics getStoreSet() {
+        return _storeSet;
+    }
+
+    public OperationStatistics getStoreAdd() {
+        return _storeAdd;
+    }
+
+    public OperationStatistics getStoreDelete() {
+        return _storeDelete;
+    }
+
+    public OperationStatistics getSessionSave() {
+        return _sessionSave;
+    }
+
+    public OperationStatistics getSessionRefresh() {
+        return _sessionRefresh;
+    }
+
+    public OperationStatistics getSessionLoad() {
+        return _sessionLoad;
+    }
+
+    public OperationStatistics getPack() {
+        return _pack;
+    }
+
+    public OperationStatistics getUnpack() {
+        return _unpack;
+    }
+
+    public void reset() {
+        _storeGet.reset();
+        _storeSet.reset();
+        _storeAdd.reset();
+        _storeDelete.reset();
+        _sessionSave.reset();
+        _sessionRefresh.reset();
+        _sessionLoad.reset();
+        _pack.reset();
+        _unpack.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "get={" + _storeGet + "}, set={" + _storeSet + "}, add={" + _storeAdd + "}, delete={" + _storeDelete
+                + "}, save={" + _sessionSave + "}, refresh={" + _sessionRefresh + "}, load={" + _sessionLoad
+                + "}, pack={" + _pack + "}, unpack={" + _unpack + "}";
+    }
+}
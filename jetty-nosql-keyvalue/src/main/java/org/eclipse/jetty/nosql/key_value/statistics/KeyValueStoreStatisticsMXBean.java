@@ -0,0 +1,30 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+/**
+ * Management interface of {@link KeyValueStoreStatistics}.
+ *
+ * "Store" attributes measure the calls to the key-value store client alone,
+ * "Session" attributes the whole operation of the session manager, and
+ * "Pack"/"Unpack" serialization of sessions including their sizes in bytes.
+ */
+public interface KeyValueStoreStatisticsMXBean {
+    public OperationStatistics getStoreGet();
+
+    public OperationStatistics getStoreSet();
+
+    public OperationStatistics getStoreAdd();
+
+    public OperationStatistics getStoreDelete();
+
+    public OperationStatistics getSessionSave();
+
+    public OperationStatistics getSessionRefresh();
+
+    public OperationStatistics getSessionLoad();
+
+    public OperationStatistics getPack();
+
+    public OperationStatistics getUnpack();
+
+    public void reset();
+}
@@ -0,0 +1,45 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+/**
+ * Receives every store, serialization and session manager operation as a
+ * span, e.g. to emit events to a profiler.
+ *
+ * Implementations are looked up with {@link java.util.ServiceLoader} when a
+ * session ID manager starts, unless one has been set explicitly. Starting a
+ * span is on the hot path of every request; tracers which are switched off
+ * should return {@link #NOOP_SPAN}.
+ */
+public interface KeyValueStoreTracer {
+    public static final String SUCCESS = "success";
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    public static final String REJECTED = "rejected";
+    public static final String ERROR = "error";
+    public static final String TIMEOUT = "timeout";
+
+    public static final Span NOOP_SPAN = new Span() {
+        public void finish(long bytes, String outcome) {
+        }
+    };
+
+    public static final KeyValueStoreTracer NOOP = new KeyValueStoreTracer() {
+        public Span start(String operation, String key) {
+            return NOOP_SPAN;
+        }
+    };
+
+    /**
+     * @param operation name of the operation, e.g. "store.get" or "session.save"
+     * @param key session id or store key the operation works on
+     * @return span to finish when the operation is done
+     */
+    public Span start(String operation, String key);
+
+    public interface Span {
+        /**
+         * @param bytes size of the payload, 0 if there is none
+         * @param outcome one of the outcome constants of {@link KeyValueStoreTracer}
+         */
+        public void finish(long bytes, String outcome);
+    }
+}
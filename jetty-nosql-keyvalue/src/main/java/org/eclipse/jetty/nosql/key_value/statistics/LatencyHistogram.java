@@ -0,0 +1,107 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds.
+ *
+ * Every power of two is split into 4 buckets, so percentiles are reported
+ * with a relative error below 25% over the whole range of longs. Recording
+ * is two atomic increments and needs no allocation.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 63 * SUB_BUCKETS;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * @param nanos elapsed time in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+        _buckets.incrementAndGet(bucketOf(micros));
+        _count.incrementAndGet();
+        _sum.addAndGet(micros);
+        long max = _max.get();
+        while (max < micros && !_max.compareAndSet(max, micros)) {
+            max = _max.get();
+        }
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * @return mean in microseconds
+     */
+    public double getMean() {
+        long count = _count.get();
+        return count == 0 ? 0.0 : (double) _sum.get() / count;
+    }
+
+    /**
+     * @return maximum in microseconds
+     */
+    public long getMax() {
+        return _max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding given percentile, in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = _buckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _sum.set(0);
+        _max.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int log = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (log - 2)) & (SUB_BUCKETS - 1));
+        return (log - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int log = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (log - 2)) - 1;
+    }
+}
@@ -0,0 +1,185 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency of a single kind of operation.
+ *
+ * Getters of this class are exposed as a composite attribute by
+ * {@link KeyValueStoreStatisticsMXBean}. Latencies are in milliseconds.
+ */
+public class OperationStatistics {
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _rejections = new AtomicLong();
+    private final AtomicLong _errors = new AtomicLong();
+    private final AtomicLong _timeouts = new AtomicLong();
+    private final AtomicLong _bytes = new AtomicLong();
+    private final AtomicLong _maxBytes = new AtomicLong();
+
+    /**
+     * record a successful operation.
+     *
+     * @param start value of {@link System#nanoTime()} when the operation started
+     */
+    public void success(long start) {
+        _latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * record a successful lookup which found its key.
+     */
+    public void hit(long start) {
+        _hits.incrementAndGet();
+        success(start);
+    }
+
+    /**
+     * record a successful lookup which did not find its key.
+     */
+    public void miss(long start) {
+        _misses.incrementAndGet();
+        success(start);
+    }
+
+    /**
+     * record an operation the store answered but refused, e.g. a set not stored.
+     */
+    public void rejected(long start) {
+        _rejections.incrementAndGet();
+        success(start);
+    }
+
+    /**
+     * record a failed operation. errors caused by a timeout are counted as timeouts too.
+     */
+    public void error(long start, Throwable error) {
+        _errors.incrementAndGet();
+        if (isTimeout(error)) {
+            _timeouts.incrementAndGet();
+        }
+        _latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * record the size of the payload of an operation.
+     */
+    public void bytes(long bytes) {
+        _bytes.addAndGet(bytes);
+        long max = _maxBytes.get();
+        while (max < bytes && !_maxBytes.compareAndSet(max, bytes)) {
+            max = _maxBytes.get();
+        }
+    }
+
+    public long getCount() {
+        return _latency.getCount();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    public long getRejections() {
+        return _rejections.get();
+    }
+
+    public long getErrors() {
+        return _errors.get();
+    }
+
+    public long getTimeouts() {
+        return _timeouts.get();
+    }
+
+    public long getBytes() {
+        return _bytes.get();
+    }
+
+    public long getMaxBytes() {
+        return _maxBytes.get();
+    }
+
+    public double getMeanBytes() {
+        long count = getCount();
+        return count == 0 ? 0.0 : (double) _bytes.get() / count;
+    }
+
+    public double getMeanMillis() {
+        return _latency.getMean() / 1000.0;
+    }
+
+    public double getP50Millis() {
+        return _latency.getPercentile(50) / 1000.0;
+    }
+
+    public double getP90Millis() {
+        return _latency.getPercentile(90) / 1000.0;
+    }
+
+    public double getP99Millis() {
+        return _latency.getPercentile(99) / 1000.0;
+    }
+
+    public double getP999Millis() {
+        return _latency.getPercentile(99.9) / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return _latency.getMax() / 1000.0;
+    }
+
+    public LatencyHistogram latency() {
+        return _latency;
+    }
+
+    public void reset() {
+        _latency.reset();
+        _hits.set(0);
+        _misses.set(0);
+        _rejections.set(0);
+        _errors.set(0);
+        _timeouts.set(0);
+        _bytes.set(0);
+        _maxBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, hits=%d, misses=%d, rejections=%d, errors=%d, timeouts=%d, mean=%.3fms, p99=%.3fms, max=%.3fms",
+                getCount(), getHits(), getMisses(), getRejections(), getErrors(), getTimeouts(), getMeanMillis(), getP99Millis(),
+                getMaxMillis());
+    }
+
+    /**
+     * @return outcome of an operation failed with given error, for {@link KeyValueStoreTracer.Span#finish(long, String)}
+     */
+    public static String outcomeOf(Throwable error) {
+        return isTimeout(error) ? KeyValueStoreTracer.TIMEOUT : KeyValueStoreTracer.ERROR;
+    }
+
+    /**
+     * @return true if given error or one of its causes is a {@link TimeoutException}
+     * or a {@link SocketTimeoutException}. client libraries wrap their timeouts
+     * in one of these, e.g. spymemcached's OperationTimeoutException or the
+     * JedisConnectionException of a read timeout.
+     */
+    public static boolean isTimeout(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,400 @@
+package org.eclipse.jetty.nosql.key_value.embedded;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * Base of the in-process stand-in servers used by tests and benchmarks.
+ *
+ * Runs a single NIO selector thread which accepts connections, feeds the
+ * received bytes to {@link #process(Connection)} and writes the responses
+ * back in order. Every batch of responses can be delayed by a fixed latency
+ * plus random jitter, and connections can be dropped at random to simulate
+ * an unreliable remote server.
+ *
+ * With {@link #setUnixDomainSocket(String)}, the server listens on a unix
+ * domain socket instead of TCP (Java 16 or later).
+ */
+public abstract class AbstractEmbeddedServer {
+    private final static Logger log = Log.getLogger(AbstractEmbeddedServer.class);
+    protected static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private final InetSocketAddress _address;
+    private volatile String _unixDomainSocket = null;
+    private final AtomicLong _operations = new AtomicLong();
+    private final AtomicLong _accepted = new AtomicLong();
+    private final Random _random = new Random();
+    private volatile long _latency = 0;
+    private volatile long _latencyJitter = 0;
+    private volatile double _disconnectRate = 0.0;
+    private ServerSocketChannel _serverChannel = null;
+    private Selector _selector = null;
+    private Thread _thread = null;
+    private volatile boolean _running = false;
+
+    protected AbstractEmbeddedServer(InetSocketAddress address) {
+        _address = address;
+    }
+
+    /**
+     * parse and execute a single command from {@link Connection#in()}.
+     *
+     * @return false if the buffer does not hold a complete command yet. the
+     *         position of the buffer is restored by the caller in that case.
+     */
+    protected abstract boolean process(Connection connection);
+
+    public synchronized void start() throws IOException {
+        if (_running) {
+            return;
+        }
+        _selector = Selector.open();
+        if (_unixDomainSocket != null) {
+            new File(_unixDomainSocket).delete();
+            _serverChannel = UnixDomainSockets.openServerChannel(UnixDomainSockets.SCHEME + _unixDomainSocket);
+        } else {
+            _serverChannel = ServerSocketChannel.open();
+            _serverChannel.socket().setReuseAddress(true);
+            _serverChannel.socket().bind(_address);
+        }
+        _serverChannel.configureBlocking(false);
+        _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+        _running = true;
+        _thread = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, getClass().getSimpleName() + "-" + getPort());
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    public synchronized void stop() throws IOException {
+        if (!_running) {
+            return;
+        }
+        _running = false;
+        _selector.wakeup();
+        try {
+            _thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ignore) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : _selector.keys()) {
+            key.channel().close();
+        }
+        _selector.close();
+        _thread = null;
+        if (_unixDomainSocket != null) {
+            new File(_unixDomainSocket).delete();
+        }
+    }
+
+    public boolean isRunning() {
+        return _running;
+    }
+
+    /**
+     * @return local port, -1 when listening on a unix domain socket
+     */
+    public int getPort() {
+        return _unixDomainSocket != null ? -1 : _serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return server string to give to the clients
+     */
+    public String getServerString() {
+        return _unixDomainSocket != null ? UnixDomainSockets.SCHEME + _unixDomainSocket : "127.0.0.1:" + getPort();
+    }
+
+    public String getUnixDomainSocket() {
+        return _unixDomainSocket;
+    }
+
+    /**
+     * @param path socket file to listen on instead of TCP, taking effect on start. an existing file is replaced.
+     */
+    public void setUnixDomainSocket(String path) {
+        this._unixDomainSocket = path;
+    }
+
+    public long getLatency() {
+        return _latency;
+    }
+
+    /**
+     * @param latency milliseconds to delay every response
+     */
+    public void setLatency(long latency) {
+        this._latency = latency;
+    }
+
+    public long getLatencyJitter() {
+        return _latencyJitter;
+    }
+
+    /**
+     * @param latencyJitter upper bound of random milliseconds added to the latency
+     */
+    public void setLatencyJitter(long latencyJitter) {
+        this._latencyJitter = latencyJitter;
+    }
+
+    public double getDisconnectRate() {
+        return _disconnectRate;
+    }
+
+    /**
+     * @param disconnectRate probability of closing the connection instead of answering a command
+     */
+    public void setDisconnectRate(double disconnectRate) {
+        this._disconnectRate = disconnectRate;
+    }
+
+    /**
+     * @return number of commands processed so far
+     */
+    public long getOperations() {
+        return _operations.get();
+    }
+
+    /**
+     * @return number of connections accepted so far
+     */
+    public long getAcceptedConnections() {
+        return _accepted.get();
+    }
+
+    /**
+     * @return true with given probability
+     */
+    protected boolean chance(double rate) {
+        if (rate <= 0.0) {
+            return false;
+        }
+        synchronized (_random) {
+            return _random.nextDouble() < rate;
+        }
+    }
+
+    private long delay() {
+        long delay = _latency;
+        if (0 < _latencyJitter) {
+            synchronized (_random) {
+                delay += (long) (_random.nextDouble() * _latencyJitter);
+            }
+        }
+        return TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+
+    private void loop() {
+        while (_running) {
+            try {
+                long wait = 0;
+                for (SelectionKey key : _selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        long due = ((Connection) key.attachment()).nextDue();
+                        if (0 < due) {
+                            long delay = Math.max(1, TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime()));
+                            wait = wait == 0 ? delay : Math.min(wait, delay);
+                        }
+                    }
+                }
+                _selector.select(wait);
+                Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        ((Connection) key.attachment()).read();
+                    }
+                }
+                for (SelectionKey key : _selector.keys()) {
+                    if (key.isValid() && key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).flush();
+                    }
+                }
+            } catch (IOException error) {
+                if (_running) {
+                    log.warn("embedded server failed: address=" + _address, error);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = _serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        _accepted.incrementAndGet();
+        channel.configureBlocking(false);
+        if (_unixDomainSocket == null) {
+            channel.socket().setTcpNoDelay(true);
+        }
+        SelectionKey key = channel.register(_selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private static class Response {
+        final ByteBuffer buffer;
+        final long due;
+
+        Response(ByteBuffer buffer, long due) {
+            this.buffer = buffer;
+            this.due = due;
+        }
+    }
+
+    public class Connection {
+        private final SocketChannel _channel;
+        private final SelectionKey _key;
+        private final LinkedList<Response> _responses = new LinkedList<Response>();
+        private final ByteArrayOutputStream _out = new ByteArrayOutputStream();
+        private ByteBuffer _in = ByteBuffer.allocate(16 * 1024);
+        private Object _attachment = null;
+        private long _lastDue = 0;
+        private boolean _closing = false;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            _channel = channel;
+            _key = key;
+        }
+
+        /**
+         * @return received bytes, in read mode
+         */
+        public ByteBuffer in() {
+            return _in;
+        }
+
+        public void write(byte[] bytes) {
+            _out.write(bytes, 0, bytes.length);
+        }
+
+        public void write(String s) {
+            write(s.getBytes(LATIN1));
+        }
+
+        /**
+         * close the connection once pending responses have been written.
+         */
+        public void closeAfterFlush() {
+            _closing = true;
+        }
+
+        /**
+         * @return protocol specific per-connection state
+         */
+        public Object getAttachment() {
+            return _attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this._attachment = attachment;
+        }
+
+        long nextDue() {
+            return _responses.isEmpty() ? 0 : _responses.getFirst().due;
+        }
+
+        void read() throws IOException {
+            int n;
+            try {
+                n = _channel.read(_in);
+            } catch (IOException error) {
+                n = -1;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            _in.flip();
+            while (!_closing && _in.hasRemaining()) {
+                int mark = _in.position();
+                if (!process(this)) {
+                    _in.position(mark);
+                    break;
+                }
+                _operations.incrementAndGet();
+                if (chance(_disconnectRate)) {
+                    close();
+                    return;
+                }
+            }
+            _in.compact();
+            if (!_in.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(_in.capacity() * 2);
+                _in.flip();
+                bigger.put(_in);
+                _in = bigger;
+            }
+            enqueue();
+        }
+
+        /**
+         * move responses produced by the last batch of commands to the output queue.
+         */
+        private void enqueue() {
+            if (_out.size() == 0 && !_closing) {
+                return;
+            }
+            long due = Math.max(_lastDue, System.nanoTime() + delay());
+            _lastDue = due;
+            _responses.add(new Response(ByteBuffer.wrap(_out.toByteArray()), due));
+            _out.reset();
+        }
+
+        void flush() throws IOException {
+            long now = System.nanoTime();
+            while (!_responses.isEmpty() && _responses.getFirst().due <= now) {
+                ByteBuffer buffer = _responses.getFirst().buffer;
+                try {
+                    _channel.write(buffer);
+                } catch (IOException error) {
+                    close();
+                    return;
+                }
+                if (buffer.hasRemaining()) {
+                    _key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                _responses.removeFirst();
+            }
+            if (_key.isValid()) {
+                _key.interestOps(SelectionKey.OP_READ);
+            }
+            if (_closing && _responses.isEmpty()) {
+                close();
+            }
+        }
+
+        private void close() throws IOException {
+            _key.cancel();
+            _channel.close();
+        }
+    }
+}
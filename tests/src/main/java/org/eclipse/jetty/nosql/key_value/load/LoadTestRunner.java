@@ -0,0 +1,343 @@
+package org.eclipse.jetty.nosql.key_value.load;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.nosql.key_value.memcached.KryoMemcachedTestServer;
+import org.eclipse.jetty.nosql.key_value.memcached.MemcachedTestServer;
+import org.eclipse.jetty.nosql.key_value.memcached.XStreamMemcachedTestServer;
+import org.eclipse.jetty.nosql.key_value.redis.KryoRedisTestServer;
+import org.eclipse.jetty.nosql.key_value.redis.RedisTestServer;
+import org.eclipse.jetty.nosql.key_value.redis.XStreamRedisTestServer;
+import org.eclipse.jetty.server.session.AbstractTestServer;
+import org.eclipse.jetty.util.HttpCookieStore;
+
+/**
+ * HTTP load test against a cluster of Jetty nodes sharing sessions through
+ * {@link MemcachedTestServer} or {@link RedisTestServer}.
+ *
+ * Every client thread plays one user: it holds a session cookie, picks an
+ * operation from the request mix and sends it to a random node. Latencies
+ * are recorded per operation in HdrHistograms; throughput and percentiles
+ * are printed for every backend/serializer combination.
+ *
+ * Clients send the next request as soon as the previous one is answered, so
+ * latencies do not include queueing a real open workload would see once the
+ * cluster is saturated.
+ *
+ * Configured with system properties (defaults in brackets):
+ * <pre>
+ *   org.eclipse.jetty.nosql.load.backends     memcached and/or redis [memcached]
+ *   org.eclipse.jetty.nosql.load.serializers  native, kryo and/or xstream [native]
+ *   org.eclipse.jetty.nosql.load.nodes        number of Jetty nodes [2]
+ *   org.eclipse.jetty.nosql.load.concurrency  number of client threads [16]
+ *   org.eclipse.jetty.nosql.load.duration     seconds to measure [30]
+ *   org.eclipse.jetty.nosql.load.warmup       seconds to run before measuring [5]
+ *   org.eclipse.jetty.nosql.load.sessionSize  bytes of payload in each session [1024]
+ *   org.eclipse.jetty.nosql.load.mix          weights of operations [read:70,write:20,new:8,invalidate:2]
+ * </pre>
+ */
+public class LoadTestRunner {
+    private static final String PREFIX = "org.eclipse.jetty.nosql.load.";
+
+    public enum Operation {
+        READ, WRITE, NEW, INVALIDATE
+    }
+
+    private final String _backend;
+    private final String _serializer;
+    private final int _nodes;
+    private final int _concurrency;
+    private final long _duration;
+    private final long _warmup;
+    private final int _sessionSize;
+    private final Map<Operation, Integer> _mix;
+
+    public LoadTestRunner(String backend, String serializer, int nodes, int concurrency, long duration, long warmup,
+            int sessionSize, Map<Operation, Integer> mix) {
+        _backend = backend;
+        _serializer = serializer;
+        _nodes = nodes;
+        _concurrency = concurrency;
+        _duration = duration;
+        _warmup = warmup;
+        _sessionSize = sessionSize;
+        _mix = mix;
+    }
+
+    public static void main(String... args) throws Exception {
+        String[] backends = System.getProperty(PREFIX + "backends", "memcached").split(",");
+        String[] serializers = System.getProperty(PREFIX + "serializers", "native").split(",");
+        int nodes = Integer.getInteger(PREFIX + "nodes", 2);
+        int concurrency = Integer.getInteger(PREFIX + "concurrency", 16);
+        long duration = Long.getLong(PREFIX + "duration", 30);
+        long warmup = Long.getLong(PREFIX + "warmup", 5);
+        int sessionSize = Integer.getInteger(PREFIX + "sessionSize", 1024);
+        Map<Operation, Integer> mix = parseMix(System.getProperty(PREFIX + "mix", "read:70,write:20,new:8,invalidate:2"));
+
+        List<Result> results = new ArrayList<Result>();
+        for (String backend : backends) {
+            for (String serializer : serializers) {
+                LoadTestRunner runner = new LoadTestRunner(backend.trim(), serializer.trim(), nodes, concurrency,
+                        duration, warmup, sessionSize, mix);
+                Result result = runner.run();
+                result.print(System.out);
+                results.add(result);
+            }
+        }
+        System.out.println();
+        System.out.println("# summary");
+        System.out.println(String.format("%-20s %12s %10s %10s %10s %10s", "", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "errors"));
+        for (Result result : results) {
+            Histogram total = result.total();
+            System.out.println(String.format("%-20s %12.1f %10.3f %10.3f %10.3f %10d", result.name,
+                    result.throughput(total.getTotalCount()), millis(total.getValueAtPercentile(50)),
+                    millis(total.getValueAtPercentile(99)), millis(total.getValueAtPercentile(99.9)), result.errors()));
+        }
+    }
+
+    static Map<Operation, Integer> parseMix(String spec) {
+        Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+        for (String entry : spec.split(",")) {
+            String[] pair = entry.split(":");
+            mix.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.valueOf(pair[1].trim()));
+        }
+        return mix;
+    }
+
+    public Result run() throws Exception {
+        List<AbstractTestServer> servers = new ArrayList<AbstractTestServer>();
+        HttpClient client = new HttpClient();
+        client.setCookieStore(new HttpCookieStore.Empty());
+        client.setMaxConnectionsPerDestination(_concurrency);
+        try {
+            for (int i = 0; i < _nodes; i++) {
+                AbstractTestServer server = newServer(_backend, _serializer);
+                server.addContext("/").addServlet(LoadTestServlet.class, "/load");
+                server.start();
+                servers.add(server);
+            }
+            String[] urls = new String[servers.size()];
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = "http://127.0.0.1:" + servers.get(i).getPort() + "/load";
+            }
+            client.start();
+
+            long now = System.nanoTime();
+            long measureFrom = now + TimeUnit.SECONDS.toNanos(_warmup);
+            long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(_duration);
+            CountDownLatch done = new CountDownLatch(_concurrency);
+            List<User> users = new ArrayList<User>();
+            for (int i = 0; i < _concurrency; i++) {
+                User user = new User(client, urls, measureFrom, measureUntil, done, i);
+                users.add(user);
+                Thread thread = new Thread(user, "load-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            done.await();
+
+            Result result = new Result(_backend + "/" + _serializer, _duration);
+            for (User user : users) {
+                result.add(user);
+            }
+            return result;
+        } finally {
+            client.stop();
+            for (AbstractTestServer server : servers) {
+                server.stop();
+            }
+        }
+    }
+
+    static AbstractTestServer newServer(String backend, String serializer) {
+        int maxInactivePeriod = (int) TimeUnit.MINUTES.toSeconds(30);
+        int scavengePeriod = 60;
+        if ("memcached".equals(backend)) {
+            if ("kryo".equals(serializer)) {
+                return new KryoMemcachedTestServer(0, maxInactivePeriod, scavengePeriod);
+            } else if ("xstream".equals(serializer)) {
+                return new XStreamMemcachedTestServer(0, maxInactivePeriod, scavengePeriod);
+            } else if ("native".equals(serializer)) {
+                return new MemcachedTestServer(0, maxInactivePeriod, scavengePeriod);
+            }
+        } else if ("redis".equals(backend)) {
+            if ("kryo".equals(serializer)) {
+                return new KryoRedisTestServer(0, maxInactivePeriod, scavengePeriod);
+            } else if ("xstream".equals(serializer)) {
+                return new XStreamRedisTestServer(0, maxInactivePeriod, scavengePeriod);
+            } else if ("native".equals(serializer)) {
+                return new RedisTestServer(0, maxInactivePeriod, scavengePeriod);
+            }
+        }
+        throw new IllegalArgumentException("unknown backend/serializer: " + backend + "/" + serializer);
+    }
+
+    static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    /**
+     * a client thread holding one session at a time.
+     */
+    private class User implements Runnable {
+        final Map<Operation, Histogram> histograms = new EnumMap<Operation, Histogram>(Operation.class);
+        final Map<Operation, Long> errors = new EnumMap<Operation, Long>(Operation.class);
+        private final HttpClient _client;
+        private final String[] _urls;
+        private final long _measureFrom;
+        private final long _measureUntil;
+        private final CountDownLatch _done;
+        private final Random _random;
+        private final int _totalWeight;
+        private String _cookie = null;
+
+        User(HttpClient client, String[] urls, long measureFrom, long measureUntil, CountDownLatch done, int seed) {
+            _client = client;
+            _urls = urls;
+            _measureFrom = measureFrom;
+            _measureUntil = measureUntil;
+            _done = done;
+            _random = new Random(seed);
+            int totalWeight = 0;
+            for (Operation operation : Operation.values()) {
+                histograms.put(operation, new Histogram(3));
+                errors.put(operation, 0L);
+                totalWeight += _mix.containsKey(operation) ? _mix.get(operation) : 0;
+            }
+            _totalWeight = totalWeight;
+        }
+
+        public void run() {
+            try {
+                long now = System.nanoTime();
+                while (now < _measureUntil) {
+                    Operation operation = _cookie == null ? Operation.NEW : nextOperation();
+                    boolean success = send(operation);
+                    long end = System.nanoTime();
+                    if (_measureFrom <= now) {
+                        if (success) {
+                            histograms.get(operation).recordValue(end - now);
+                        } else {
+                            errors.put(operation, errors.get(operation) + 1);
+                        }
+                    }
+                    now = end;
+                }
+            } finally {
+                _done.countDown();
+            }
+        }
+
+        private Operation nextOperation() {
+            int n = _random.nextInt(Math.max(1, _totalWeight));
+            for (Map.Entry<Operation, Integer> entry : _mix.entrySet()) {
+                n -= entry.getValue();
+                if (n < 0) {
+                    return entry.getKey();
+                }
+            }
+            return Operation.READ;
+        }
+
+        private boolean send(Operation operation) {
+            String url = _urls[_random.nextInt(_urls.length)];
+            Request request = _client.newRequest(url).param("action", operation.name().toLowerCase());
+            if (operation == Operation.NEW) {
+                request.param("size", String.valueOf(_sessionSize));
+            } else {
+                request.header("Cookie", _cookie);
+            }
+            try {
+                ContentResponse response = request.timeout(30, TimeUnit.SECONDS).send();
+                String setCookie = response.getHeaders().get("Set-Cookie");
+                if (setCookie != null) {
+                    int semicolon = setCookie.indexOf(';');
+                    _cookie = semicolon < 0 ? setCookie : setCookie.substring(0, semicolon);
+                }
+                if (operation == Operation.INVALIDATE || response.getStatus() != 200) {
+                    _cookie = null;
+                }
+                return response.getStatus() == 200;
+            } catch (Exception error) {
+                _cookie = null;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * latencies of all users of one run.
+     */
+    public static class Result {
+        final String name;
+        final long duration;
+        final Map<Operation, Histogram> histograms = new EnumMap<Operation, Histogram>(Operation.class);
+        final Map<Operation, Long> errors = new EnumMap<Operation, Long>(Operation.class);
+
+        Result(String name, long duration) {
+            this.name = name;
+            this.duration = duration;
+            for (Operation operation : Operation.values()) {
+                histograms.put(operation, new Histogram(3));
+                errors.put(operation, 0L);
+            }
+        }
+
+        void add(User user) {
+            for (Operation operation : Operation.values()) {
+                histograms.get(operation).add(user.histograms.get(operation));
+                errors.put(operation, errors.get(operation) + user.errors.get(operation));
+            }
+        }
+
+        Histogram total() {
+            Histogram total = new Histogram(3);
+            for (Histogram histogram : histograms.values()) {
+                total.add(histogram);
+            }
+            return total;
+        }
+
+        long errors() {
+            long sum = 0;
+            for (long n : errors.values()) {
+                sum += n;
+            }
+            return sum;
+        }
+
+        double throughput(long count) {
+            return duration <= 0 ? 0.0 : (double) count / duration;
+        }
+
+        void print(PrintStream out) {
+            out.println();
+            out.println("# " + name);
+            out.println(String.format("%-12s %10s %12s %10s %10s %10s %10s %10s %10s", "operation", "count", "ops/s",
+                    "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors"));
+            for (Operation operation : Operation.values()) {
+                print(out, operation.name().toLowerCase(), histograms.get(operation), errors.get(operation));
+            }
+            print(out, "total", total(), errors());
+        }
+
+        private void print(PrintStream out, String label, Histogram histogram, long errors) {
+            out.println(String.format("%-12s %10d %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f %10d", label,
+                    histogram.getTotalCount(), throughput(histogram.getTotalCount()),
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()), errors));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.eclipse.jetty.nosql.key_value.load;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Servlet driven by {@link LoadTestRunner}. The "action" parameter selects
+ * what the request does with its session:
+ *
+ * <ul>
+ *   <li>new - create a session holding a payload of "size" bytes</li>
+ *   <li>read - read all attributes of the session</li>
+ *   <li>write - update one attribute of the session</li>
+ *   <li>invalidate - invalidate the session</li>
+ * </ul>
+ *
+ * Requests other than "new" answer 404 when there is no session.
+ */
+public class LoadTestServlet extends HttpServlet {
+    private static final long serialVersionUID = -3460919327562398162L;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String action = request.getParameter("action");
+        if ("new".equals(action)) {
+            HttpSession session = request.getSession(true);
+            int size = Integer.parseInt(request.getParameter("size"));
+            byte[] payload = new byte[size];
+            Arrays.fill(payload, (byte) 'x');
+            session.setAttribute("payload", payload);
+            session.setAttribute("counter", Integer.valueOf(0));
+            return;
+        }
+        HttpSession session = request.getSession(false);
+        if (session == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if ("read".equals(action)) {
+            int length = 0;
+            for (String name : Collections.list(session.getAttributeNames())) {
+                Object value = session.getAttribute(name);
+                length += value instanceof byte[] ? ((byte[]) value).length : 1;
+            }
+            response.setContentLength(0);
+            response.setHeader("X-Attributes-Length", String.valueOf(length));
+        } else if ("write".equals(action)) {
+            Integer counter = (Integer) session.getAttribute("counter");
+            session.setAttribute("counter", Integer.valueOf(counter == null ? 0 : counter.intValue() + 1));
+        } else if ("invalidate".equals(action)) {
+            session.invalidate();
+        } else {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        }
+    }
+}
@@ -16,10 +16,12 @@ package org.eclipse.jetty.nosql.key_value.memcached;
 
 
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionIdManager;
 import org.eclipse.jetty.nosql.key_value.SessionDump;
+import org.eclipse.jetty.nosql.key_value.memcached.embedded.EmbeddedMemcachedServer;
 import org.eclipse.jetty.nosql.key_value.memcached.spymemcached.BinarySpyMemcachedClientFactory;
 import org.eclipse.jetty.nosql.key_value.memcached.spymemcached.HerokuSpyMemcachedClientFactory;
 import org.eclipse.jetty.nosql.key_value.memcached.spymemcached.SpyMemcachedClientFactory;
@@ -36,6 +38,8 @@ import org.eclipse.jetty.server.session.SessionHandler;
  */
 public class MemcachedTestServer extends AbstractTestServer
 {
+    private static EmbeddedMemcachedServer _embeddedServer;
+
     protected KeyValueStoreSessionIdManager _idManager;
     protected boolean _saveAllAttributes = false; // false save dirty, true save all
     
@@ -64,6 +68,9 @@ public class MemcachedTestServer extends AbstractTestServer
         if (config == null) {
             config = "127.0.0.1:11211";
         }
+        if (Boolean.getBoolean("org.eclipse.jetty.nosql.key_value.memcached.embedded")) {
+            config = getEmbeddedServer().getServerString();
+        }
         if ( _idManager != null )
         {
             try
@@ -115,6 +122,29 @@ public class MemcachedTestServer extends AbstractTestServer
         }
     }
 
+    /**
+     * in-process memcached shared by all test servers in this JVM.
+     * used instead of real memcached when "org.eclipse.jetty.nosql.key_value.memcached.embedded" is true.
+     */
+    public static synchronized EmbeddedMemcachedServer getEmbeddedServer()
+    {
+        if (_embeddedServer == null)
+        {
+            EmbeddedMemcachedServer server = new EmbeddedMemcachedServer();
+            server.setLatency(Long.getLong("org.eclipse.jetty.nosql.key_value.memcached.embedded.latency", 0));
+            try
+            {
+                server.start();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("unable to start embedded memcached", e);
+            }
+            _embeddedServer = server;
+        }
+        return _embeddedServer;
+    }
+
     public SessionManager newSessionManager()
     {
         MemcachedSessionManager manager;
@@ -0,0 +1,572 @@
+package org.eclipse.jetty.nosql.key_value.memcached.embedded;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.nosql.key_value.embedded.AbstractEmbeddedServer;
+
+/**
+ * In-process stand-in for memcached, speaking both the text and the binary
+ * protocol. The protocol is chosen per command from its first byte.
+ *
+ * Supported commands are the ones used by the session store clients:
+ * get/gets/gat/gats (with multiple keys), set/add/replace/cas, delete, touch,
+ * version, flush_all, quit, plus their binary (and quiet) counterparts,
+ * noop and PLAIN SASL authentication which always succeeds. The meta
+ * commands mg, ms, md and mn are understood with the flags v, c, t, f, k,
+ * O, q, T, C and M.
+ */
+public class EmbeddedMemcachedServer extends AbstractEmbeddedServer {
+    private static final long RELATIVE_EXPIRY_LIMIT = TimeUnit.DAYS.toSeconds(30);
+
+    private static final byte MAGIC_REQUEST = (byte) 0x80;
+    private static final byte MAGIC_RESPONSE = (byte) 0x81;
+
+    private static final int OP_GET = 0x00;
+    private static final int OP_SET = 0x01;
+    private static final int OP_ADD = 0x02;
+    private static final int OP_REPLACE = 0x03;
+    private static final int OP_DELETE = 0x04;
+    private static final int OP_QUIT = 0x07;
+    private static final int OP_FLUSH = 0x08;
+    private static final int OP_GETQ = 0x09;
+    private static final int OP_NOOP = 0x0a;
+    private static final int OP_VERSION = 0x0b;
+    private static final int OP_GETK = 0x0c;
+    private static final int OP_GETKQ = 0x0d;
+    private static final int OP_SETQ = 0x11;
+    private static final int OP_ADDQ = 0x12;
+    private static final int OP_REPLACEQ = 0x13;
+    private static final int OP_DELETEQ = 0x14;
+    private static final int OP_QUITQ = 0x17;
+    private static final int OP_FLUSHQ = 0x18;
+    private static final int OP_TOUCH = 0x1c;
+    private static final int OP_GAT = 0x1d;
+    private static final int OP_GATQ = 0x1e;
+    private static final int OP_SASL_LIST = 0x20;
+    private static final int OP_SASL_AUTH = 0x21;
+    private static final int OP_SASL_STEP = 0x22;
+    private static final int OP_GATK = 0x23;
+    private static final int OP_GATKQ = 0x24;
+
+    private static final short STATUS_OK = 0x0000;
+    private static final short STATUS_KEY_NOT_FOUND = 0x0001;
+    private static final short STATUS_KEY_EXISTS = 0x0002;
+    private static final short STATUS_ITEM_NOT_STORED = 0x0005;
+    private static final short STATUS_UNKNOWN_COMMAND = 0x0081;
+
+    private static final String VERSION = "1.4.20-embedded";
+
+    private final ConcurrentMap<String, Item> _items = new ConcurrentHashMap<String, Item>();
+    private final AtomicLong _casCounter = new AtomicLong();
+
+    public EmbeddedMemcachedServer() {
+        this(0);
+    }
+
+    public EmbeddedMemcachedServer(int port) {
+        this(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    public EmbeddedMemcachedServer(InetSocketAddress address) {
+        super(address);
+    }
+
+    public int size() {
+        return _items.size();
+    }
+
+    public void flushAll() {
+        _items.clear();
+    }
+
+    @Override
+    protected boolean process(Connection connection) {
+        ByteBuffer in = connection.in();
+        if (in.get(in.position()) == MAGIC_REQUEST) {
+            return processBinary(connection);
+        } else {
+            return processText(connection);
+        }
+    }
+
+    private Item lookup(String key) {
+        Item item = _items.get(key);
+        if (item != null && item.isExpired()) {
+            _items.remove(key, item);
+            return null;
+        }
+        return item;
+    }
+
+    private static long expiresAt(long exp) {
+        if (exp == 0) {
+            return 0;
+        } else if (exp < 0) {
+            return 1; // already expired
+        } else if (exp <= RELATIVE_EXPIRY_LIMIT) {
+            return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(exp);
+        } else {
+            return TimeUnit.SECONDS.toMillis(exp);
+        }
+    }
+
+    private enum Mode {
+        SET, ADD, REPLACE, CAS
+    }
+
+    private enum Result {
+        STORED, NOT_STORED, EXISTS, NOT_FOUND
+    }
+
+    private Result store(Mode mode, String key, int flags, long exp, byte[] data, long cas) {
+        Item item = new Item(data, flags, expiresAt(exp), _casCounter.incrementAndGet());
+        synchronized (_items) {
+            Item current = lookup(key);
+            switch (mode) {
+                case ADD:
+                    if (current != null) {
+                        return Result.NOT_STORED;
+                    }
+                    break;
+                case REPLACE:
+                    if (current == null) {
+                        return Result.NOT_STORED;
+                    }
+                    break;
+                case CAS:
+                    if (current == null) {
+                        return Result.NOT_FOUND;
+                    }
+                    if (current.cas != cas) {
+                        return Result.EXISTS;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            _items.put(key, item);
+        }
+        return Result.STORED;
+    }
+
+    private Item touch(String key, long exp) {
+        synchronized (_items) {
+            Item current = lookup(key);
+            if (current == null) {
+                return null;
+            }
+            Item touched = new Item(current.data, current.flags, expiresAt(exp), current.cas);
+            _items.put(key, touched);
+            return touched;
+        }
+    }
+
+    private boolean remove(String key) {
+        synchronized (_items) {
+            return lookup(key) != null && _items.remove(key) != null;
+        }
+    }
+
+    private static class Item {
+        final byte[] data;
+        final int flags;
+        final long expiresAt;
+        final long cas;
+
+        Item(byte[] data, int flags, long expiresAt, long cas) {
+            this.data = data;
+            this.flags = flags;
+            this.expiresAt = expiresAt;
+            this.cas = cas;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* text protocol                                                */
+    /* ------------------------------------------------------------ */
+
+    private String readLine(ByteBuffer in) {
+        for (int i = in.position(); i + 1 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                byte[] line = new byte[i - in.position()];
+                in.get(line);
+                in.position(in.position() + 2);
+                return new String(line, LATIN1);
+            }
+        }
+        return null;
+    }
+
+    private boolean processText(Connection c) {
+        ByteBuffer in = c.in();
+        String line = readLine(in);
+        if (line == null) {
+            return false;
+        }
+        String[] args = line.trim().split(" +");
+        String command = args[0].toLowerCase();
+        try {
+            if ("get".equals(command) || "gets".equals(command)) {
+                for (int i = 1; i < args.length; i++) {
+                    writeValue(c, args[i], lookup(args[i]), "gets".equals(command));
+                }
+                c.write("END\r\n");
+            } else if ("gat".equals(command) || "gats".equals(command)) {
+                long exp = Long.parseLong(args[1]);
+                for (int i = 2; i < args.length; i++) {
+                    writeValue(c, args[i], touch(args[i], exp), "gats".equals(command));
+                }
+                c.write("END\r\n");
+            } else if ("set".equals(command) || "add".equals(command) || "replace".equals(command) || "cas".equals(command)) {
+                int length = Integer.parseInt(args[4]);
+                if (in.remaining() < length + 2) {
+                    return false;
+                }
+                byte[] data = new byte[length];
+                in.get(data);
+                in.position(in.position() + 2);
+                Mode mode = Mode.valueOf(command.toUpperCase());
+                long cas = mode == Mode.CAS ? Long.parseLong(args[5]) : 0;
+                boolean noreply = "noreply".equals(args[args.length - 1]);
+                Result result = store(mode, args[1], (int) Long.parseLong(args[2]), Long.parseLong(args[3]), data, cas);
+                if (!noreply) {
+                    c.write(result.name() + "\r\n");
+                }
+            } else if ("delete".equals(command)) {
+                boolean deleted = remove(args[1]);
+                if (!"noreply".equals(args[args.length - 1])) {
+                    c.write(deleted ? "DELETED\r\n" : "NOT_FOUND\r\n");
+                }
+            } else if ("touch".equals(command)) {
+                Item item = touch(args[1], Long.parseLong(args[2]));
+                if (!"noreply".equals(args[args.length - 1])) {
+                    c.write(item != null ? "TOUCHED\r\n" : "NOT_FOUND\r\n");
+                }
+            } else if ("mg".equals(command)) {
+                processMetaGet(c, args);
+            } else if ("ms".equals(command)) {
+                int length = Integer.parseInt(args[2]);
+                if (in.remaining() < length + 2) {
+                    return false;
+                }
+                byte[] data = new byte[length];
+                in.get(data);
+                in.position(in.position() + 2);
+                processMetaSet(c, args, data);
+            } else if ("md".equals(command)) {
+                boolean deleted = remove(args[1]);
+                writeMeta(c, args, 2, deleted ? "HD" : "NF", deleted || hasFlag(args, 2, 'q'));
+            } else if ("mn".equals(command)) {
+                c.write("MN\r\n");
+            } else if ("version".equals(command)) {
+                c.write("VERSION " + VERSION + "\r\n");
+            } else if ("flush_all".equals(command)) {
+                flushAll();
+                if (!"noreply".equals(args[args.length - 1])) {
+                    c.write("OK\r\n");
+                }
+            } else if ("verbosity".equals(command)) {
+                c.write("OK\r\n");
+            } else if ("quit".equals(command)) {
+                c.closeAfterFlush();
+            } else {
+                c.write("ERROR\r\n");
+            }
+        } catch (RuntimeException error) {
+            c.write("CLIENT_ERROR bad command line format\r\n");
+        }
+        return true;
+    }
+
+    private static boolean hasFlag(String[] args, int first, char flag) {
+        return flagOf(args, first, flag) != null;
+    }
+
+    /**
+     * @return token of given meta flag, "" for a flag without token, null if absent
+     */
+    private static String flagOf(String[] args, int first, char flag) {
+        for (int i = first; i < args.length; i++) {
+            if (args[i].charAt(0) == flag) {
+                return args[i].substring(1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * write a meta status line echoing the opaque and key flags, unless quiet.
+     */
+    private void writeMeta(Connection c, String[] args, int first, String status, boolean quiet) {
+        if (quiet && hasFlag(args, first, 'q')) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(status);
+        String opaque = flagOf(args, first, 'O');
+        if (opaque != null) {
+            line.append(" O").append(opaque);
+        }
+        if (hasFlag(args, first, 'k')) {
+            line.append(" k").append(args[1]);
+        }
+        c.write(line.append("\r\n").toString());
+    }
+
+    private void processMetaGet(Connection c, String[] args) {
+        String ttl = flagOf(args, 2, 'T');
+        Item item = ttl != null ? touch(args[1], Long.parseLong(ttl)) : lookup(args[1]);
+        if (item == null) {
+            writeMeta(c, args, 2, "EN", true);
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        boolean value = hasFlag(args, 2, 'v');
+        line.append(value ? "VA " + item.data.length : "HD");
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i].charAt(0)) {
+                case 'c':
+                    line.append(" c").append(item.cas);
+                    break;
+                case 't':
+                    line.append(" t").append(item.expiresAt == 0 ? -1
+                            : TimeUnit.MILLISECONDS.toSeconds(item.expiresAt - System.currentTimeMillis()));
+                    break;
+                case 'f':
+                    line.append(" f").append(item.flags & 0xffffffffL);
+                    break;
+                case 'k':
+                    line.append(" k").append(args[1]);
+                    break;
+                case 'O':
+                    line.append(' ').append(args[i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        c.write(line.append("\r\n").toString());
+        if (value) {
+            c.write(item.data);
+            c.write("\r\n");
+        }
+    }
+
+    private void processMetaSet(Connection c, String[] args, byte[] data) {
+        String ttl = flagOf(args, 3, 'T');
+        String flags = flagOf(args, 3, 'F');
+        String cas = flagOf(args, 3, 'C');
+        String mode = flagOf(args, 3, 'M');
+        Mode storeMode = Mode.SET;
+        if (cas != null) {
+            storeMode = Mode.CAS;
+        } else if ("E".equalsIgnoreCase(mode)) {
+            storeMode = Mode.ADD;
+        } else if ("R".equalsIgnoreCase(mode)) {
+            storeMode = Mode.REPLACE;
+        }
+        Result result = store(storeMode, args[1], flags == null ? 0 : (int) Long.parseLong(flags),
+                ttl == null ? 0 : Long.parseLong(ttl), data, cas == null ? 0 : Long.parseLong(cas));
+        switch (result) {
+            case STORED:
+                writeMeta(c, args, 3, "HD", true);
+                break;
+            case NOT_STORED:
+                writeMeta(c, args, 3, "NS", false);
+                break;
+            case EXISTS:
+                writeMeta(c, args, 3, "EX", false);
+                break;
+            default:
+                writeMeta(c, args, 3, "NF", false);
+                break;
+        }
+    }
+
+    private void writeValue(Connection c, String key, Item item, boolean withCas) {
+        if (item == null) {
+            return;
+        }
+        c.write("VALUE " + key + " " + (item.flags & 0xffffffffL) + " " + item.data.length
+                + (withCas ? " " + item.cas : "") + "\r\n");
+        c.write(item.data);
+        c.write("\r\n");
+    }
+
+    /* ------------------------------------------------------------ */
+    /* binary protocol                                              */
+    /* ------------------------------------------------------------ */
+
+    private boolean processBinary(Connection c) {
+        ByteBuffer in = c.in();
+        if (in.remaining() < 24) {
+            return false;
+        }
+        int start = in.position();
+        int opcode = in.get(start + 1) & 0xff;
+        int keyLength = in.getShort(start + 2) & 0xffff;
+        int extrasLength = in.get(start + 4) & 0xff;
+        int bodyLength = in.getInt(start + 8);
+        int opaque = in.getInt(start + 12);
+        long cas = in.getLong(start + 16);
+        if (in.remaining() < 24 + bodyLength) {
+            return false;
+        }
+        in.position(start + 24);
+        byte[] extras = new byte[extrasLength];
+        in.get(extras);
+        byte[] k = new byte[keyLength];
+        in.get(k);
+        byte[] value = new byte[bodyLength - extrasLength - keyLength];
+        in.get(value);
+        String key = new String(k, LATIN1);
+        ByteBuffer ext = ByteBuffer.wrap(extras);
+
+        switch (opcode) {
+            case OP_GET:
+            case OP_GETQ:
+            case OP_GETK:
+            case OP_GETKQ:
+            case OP_GAT:
+            case OP_GATQ:
+            case OP_GATK:
+            case OP_GATKQ: {
+                boolean touch = opcode == OP_GAT || opcode == OP_GATQ || opcode == OP_GATK || opcode == OP_GATKQ;
+                boolean quiet = opcode == OP_GETQ || opcode == OP_GETKQ || opcode == OP_GATQ || opcode == OP_GATKQ;
+                boolean withKey = opcode == OP_GETK || opcode == OP_GETKQ || opcode == OP_GATK || opcode == OP_GATKQ;
+                Item item = touch ? touch(key, ext.getInt()) : lookup(key);
+                if (item == null) {
+                    if (!quiet) {
+                        writeBinary(c, opcode, STATUS_KEY_NOT_FOUND, opaque, 0, null, withKey ? k : null,
+                                "Not found".getBytes(LATIN1));
+                    }
+                } else {
+                    writeBinary(c, opcode, STATUS_OK, opaque, item.cas, ByteBuffer.allocate(4).putInt(item.flags).array(),
+                            withKey ? k : null, item.data);
+                }
+                break;
+            }
+            case OP_SET:
+            case OP_SETQ:
+            case OP_ADD:
+            case OP_ADDQ:
+            case OP_REPLACE:
+            case OP_REPLACEQ: {
+                int flags = ext.getInt();
+                long exp = ext.getInt() & 0xffffffffL;
+                Mode mode;
+                if (opcode == OP_ADD || opcode == OP_ADDQ) {
+                    mode = Mode.ADD;
+                } else if (opcode == OP_REPLACE || opcode == OP_REPLACEQ) {
+                    mode = Mode.REPLACE;
+                } else {
+                    mode = cas != 0 ? Mode.CAS : Mode.SET;
+                }
+                Result result = store(mode, key, flags, exp, value, cas);
+                boolean quiet = opcode == OP_SETQ || opcode == OP_ADDQ || opcode == OP_REPLACEQ;
+                if (result == Result.STORED) {
+                    if (!quiet) {
+                        writeBinary(c, opcode, STATUS_OK, opaque, lookupCas(key), null, null, null);
+                    }
+                } else {
+                    short status = result == Result.NOT_STORED ? STATUS_ITEM_NOT_STORED
+                            : result == Result.NOT_FOUND ? STATUS_KEY_NOT_FOUND : STATUS_KEY_EXISTS;
+                    if (mode == Mode.ADD) {
+                        status = STATUS_KEY_EXISTS;
+                    } else if (mode == Mode.REPLACE) {
+                        status = STATUS_KEY_NOT_FOUND;
+                    }
+                    writeBinary(c, opcode, status, opaque, 0, null, null, result.name().getBytes(LATIN1));
+                }
+                break;
+            }
+            case OP_DELETE:
+            case OP_DELETEQ:
+                if (remove(key)) {
+                    if (opcode == OP_DELETE) {
+                        writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, null);
+                    }
+                } else {
+                    writeBinary(c, opcode, STATUS_KEY_NOT_FOUND, opaque, 0, null, null, "Not found".getBytes(LATIN1));
+                }
+                break;
+            case OP_TOUCH:
+                if (touch(key, ext.getInt()) != null) {
+                    writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, null);
+                } else {
+                    writeBinary(c, opcode, STATUS_KEY_NOT_FOUND, opaque, 0, null, null, "Not found".getBytes(LATIN1));
+                }
+                break;
+            case OP_NOOP:
+                writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, null);
+                break;
+            case OP_VERSION:
+                writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, VERSION.getBytes(LATIN1));
+                break;
+            case OP_FLUSH:
+            case OP_FLUSHQ:
+                flushAll();
+                if (opcode == OP_FLUSH) {
+                    writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, null);
+                }
+                break;
+            case OP_QUIT:
+            case OP_QUITQ:
+                if (opcode == OP_QUIT) {
+                    writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, null);
+                }
+                c.closeAfterFlush();
+                break;
+            case OP_SASL_LIST:
+                writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, "PLAIN".getBytes(LATIN1));
+                break;
+            case OP_SASL_AUTH:
+            case OP_SASL_STEP:
+                writeBinary(c, opcode, STATUS_OK, opaque, 0, null, null, "Authenticated".getBytes(LATIN1));
+                break;
+            default:
+                writeBinary(c, opcode, STATUS_UNKNOWN_COMMAND, opaque, 0, null, null, "Unknown command".getBytes(LATIN1));
+                break;
+        }
+        return true;
+    }
+
+    private long lookupCas(String key) {
+        Item item = _items.get(key);
+        return item == null ? 0 : item.cas;
+    }
+
+    private void writeBinary(Connection c, int opcode, short status, int opaque, long cas, byte[] extras, byte[] key, byte[] value) {
+        int extrasLength = extras == null ? 0 : extras.length;
+        int keyLength = key == null ? 0 : key.length;
+        int valueLength = value == null ? 0 : value.length;
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.put(MAGIC_RESPONSE);
+        header.put((byte) opcode);
+        header.putShort((short) keyLength);
+        header.put((byte) extrasLength);
+        header.put((byte) 0);
+        header.putShort(status);
+        header.putInt(extrasLength + keyLength + valueLength);
+        header.putInt(opaque);
+        header.putLong(cas);
+        c.write(header.array());
+        if (extras != null) {
+            c.write(extras);
+        }
+        if (key != null) {
+            c.write(key);
+        }
+        if (value != null) {
+            c.write(value);
+        }
+    }
+}
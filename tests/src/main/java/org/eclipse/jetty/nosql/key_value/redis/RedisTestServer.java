@@ -15,10 +15,12 @@
  */
 package org.eclipse.jetty.nosql.key_value.redis;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.nosql.key_value.KeyValueStoreSessionIdManager;
 import org.eclipse.jetty.nosql.key_value.SessionDump;
+import org.eclipse.jetty.nosql.key_value.redis.embedded.EmbeddedRedisServer;
 import org.eclipse.jetty.nosql.key_value.redis.jedis.JedisClientFactory;
 import org.eclipse.jetty.server.SessionIdManager;
 import org.eclipse.jetty.server.SessionManager;
@@ -29,6 +31,7 @@ import org.eclipse.jetty.server.session.SessionHandler;
  * @version $Revision$ $Date$
  */
 public class RedisTestServer extends AbstractTestServer {
+    private static EmbeddedRedisServer _embeddedServer;
 
     protected KeyValueStoreSessionIdManager _idManager;
     protected boolean _saveAllAttributes = false; // false save dirty, true save all
@@ -54,6 +57,9 @@ public class RedisTestServer extends AbstractTestServer {
         if (config == null) {
             config = "127.0.0.1:6379";
         }
+        if (Boolean.getBoolean("org.eclipse.jetty.nosql.key_value.redis.embedded")) {
+            config = getEmbeddedServer().getServerString();
+        }
         if (_idManager != null) {
             try {
                 _idManager.stop();
@@ -95,6 +101,24 @@ public class RedisTestServer extends AbstractTestServer {
         }
     }
 
+    /**
+     * in-process redis shared by all test servers in this JVM.
+     * used instead of real redis when "org.eclipse.jetty.nosql.key_value.redis.embedded" is true.
+     */
+    public static synchronized EmbeddedRedisServer getEmbeddedServer() {
+        if (_embeddedServer == null) {
+            EmbeddedRedisServer server = new EmbeddedRedisServer();
+            server.setLatency(Long.getLong("org.eclipse.jetty.nosql.key_value.redis.embedded.latency", 0));
+            try {
+                server.start();
+            } catch (IOException e) {
+                throw new IllegalStateException("unable to start embedded redis", e);
+            }
+            _embeddedServer = server;
+        }
+        return _embeddedServer;
+    }
+
     public SessionManager newSessionManager() {
         RedisSessionManager manager;
         try {
@@ -0,0 +1,469 @@
+package org.eclipse.jetty.nosql.key_value.redis.embedded;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.nosql.key_value.embedded.AbstractEmbeddedServer;
+
+import redis.clients.util.JedisClusterCRC16;
+
+/**
+ * In-process stand-in for Redis speaking RESP. Pipelined commands are
+ * answered in order, each batch after the configured latency.
+ *
+ * Supported commands are the ones used by the session store clients:
+ * GET, MGET, SET (with EX/PX/NX/XX), SETEX, PSETEX, SETNX, GETEX, DEL, EXISTS,
+ * EXPIRE, PEXPIRE, PERSIST, TTL, PTTL, MULTI, EXEC, DISCARD, plus PING, ECHO,
+ * AUTH, SELECT, DBSIZE, FLUSHDB, FLUSHALL and QUIT. Inline commands are
+ * accepted as well.
+ *
+ * With an error rate set, commands are randomly answered with an error
+ * instead of being executed.
+ *
+ * Several servers can form a cluster with {@link #setCluster(List, int, int)}:
+ * CLUSTER SLOTS reports the slot ranges of all nodes, and commands on keys
+ * owned by another node are answered with a MOVED redirection.
+ */
+public class EmbeddedRedisServer extends AbstractEmbeddedServer {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final String OK = "+OK\r\n";
+    private static final String NULL_BULK = "$-1\r\n";
+    private static final Set<String> KEYED = new HashSet<String>(Arrays.asList("GET", "MGET", "SET", "SETEX",
+            "PSETEX", "SETNX", "GETEX", "DEL", "EXISTS", "EXPIRE", "PEXPIRE", "PERSIST", "TTL", "PTTL"));
+
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private volatile double _errorRate = 0.0;
+    private volatile List<EmbeddedRedisServer> _cluster = null;
+    private volatile int _slotFrom = 0;
+    private volatile int _slotTo = 16383;
+
+    public EmbeddedRedisServer() {
+        this(0);
+    }
+
+    public EmbeddedRedisServer(int port) {
+        this(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    public EmbeddedRedisServer(InetSocketAddress address) {
+        super(address);
+    }
+
+    public double getErrorRate() {
+        return _errorRate;
+    }
+
+    /**
+     * @param errorRate probability of answering a command with an error reply
+     */
+    public void setErrorRate(double errorRate) {
+        this._errorRate = errorRate;
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    public void flushAll() {
+        _entries.clear();
+    }
+
+    /**
+     * join a cluster.
+     *
+     * @param nodes all nodes of the cluster, including this one
+     * @param slotFrom first slot owned by this node, -1 for none
+     * @param slotTo last slot owned by this node
+     */
+    public void setCluster(List<EmbeddedRedisServer> nodes, int slotFrom, int slotTo) {
+        _slotFrom = slotFrom;
+        _slotTo = slotTo;
+        _cluster = nodes;
+    }
+
+    /**
+     * @return node of the cluster owning given key, or null if this one does
+     */
+    private EmbeddedRedisServer redirect(String key) {
+        List<EmbeddedRedisServer> cluster = _cluster;
+        if (cluster == null) {
+            return null;
+        }
+        int slot = JedisClusterCRC16.getSlot(key);
+        if (_slotFrom <= slot && slot <= _slotTo) {
+            return null;
+        }
+        for (EmbeddedRedisServer node : cluster) {
+            if (node._slotFrom <= slot && slot <= node._slotTo) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void clusterSlots(Connection c) {
+        List<EmbeddedRedisServer> cluster = _cluster;
+        if (cluster == null) {
+            c.write("-ERR This instance has cluster support disabled\r\n");
+            return;
+        }
+        List<EmbeddedRedisServer> owners = new ArrayList<EmbeddedRedisServer>();
+        for (EmbeddedRedisServer node : cluster) {
+            if (0 <= node._slotFrom) {
+                owners.add(node);
+            }
+        }
+        c.write("*" + owners.size() + "\r\n");
+        for (EmbeddedRedisServer node : owners) {
+            c.write("*3\r\n");
+            integer(c, node._slotFrom);
+            integer(c, node._slotTo);
+            c.write("*2\r\n");
+            bulk(c, "127.0.0.1".getBytes(LATIN1));
+            integer(c, node.getPort());
+        }
+    }
+
+    @Override
+    protected boolean process(Connection connection) {
+        ByteBuffer in = connection.in();
+        byte[][] args = in.get(in.position()) == '*' ? readMultiBulk(in) : readInline(in);
+        if (args == null) {
+            return false;
+        }
+        if (args.length == 0) {
+            return true;
+        }
+        String command = string(args[0]).toUpperCase();
+        @SuppressWarnings("unchecked")
+        List<byte[][]> transaction = (List<byte[][]>) connection.getAttachment();
+        if ("QUIT".equals(command)) {
+            connection.write(OK);
+            connection.closeAfterFlush();
+        } else if (chance(_errorRate)) {
+            connection.write("-ERR injected failure\r\n");
+        } else if (KEYED.contains(command) && 1 < args.length && redirect(string(args[1])) != null) {
+            connection.write("-MOVED " + JedisClusterCRC16.getSlot(string(args[1]))
+                    + " " + redirect(string(args[1])).getServerString() + "\r\n");
+        } else if ("CLUSTER".equals(command) && 1 < args.length && "SLOTS".equalsIgnoreCase(string(args[1]))) {
+            clusterSlots(connection);
+        } else if ("ASKING".equals(command)) {
+            connection.write(OK);
+        } else if ("MULTI".equals(command)) {
+            if (transaction != null) {
+                connection.write("-ERR MULTI calls can not be nested\r\n");
+            } else {
+                connection.setAttachment(new ArrayList<byte[][]>());
+                connection.write(OK);
+            }
+        } else if ("EXEC".equals(command)) {
+            if (transaction == null) {
+                connection.write("-ERR EXEC without MULTI\r\n");
+            } else {
+                connection.setAttachment(null);
+                connection.write("*" + transaction.size() + "\r\n");
+                for (byte[][] queued : transaction) {
+                    execute(connection, string(queued[0]).toUpperCase(), queued);
+                }
+            }
+        } else if ("DISCARD".equals(command)) {
+            if (transaction == null) {
+                connection.write("-ERR DISCARD without MULTI\r\n");
+            } else {
+                connection.setAttachment(null);
+                connection.write(OK);
+            }
+        } else if (transaction != null) {
+            transaction.add(args);
+            connection.write("+QUEUED\r\n");
+        } else {
+            execute(connection, command, args);
+        }
+        return true;
+    }
+
+    private void execute(Connection c, String command, byte[][] args) {
+        try {
+            if ("GET".equals(command)) {
+                arity(args, 2);
+                bulk(c, value(lookup(string(args[1]))));
+            } else if ("MGET".equals(command)) {
+                arity(args, 2);
+                c.write("*" + (args.length - 1) + "\r\n");
+                for (int i = 1; i < args.length; i++) {
+                    bulk(c, value(lookup(string(args[i]))));
+                }
+            } else if ("SET".equals(command)) {
+                arity(args, 3);
+                long ttl = 0;
+                boolean nx = false;
+                boolean xx = false;
+                for (int i = 3; i < args.length; i++) {
+                    String option = string(args[i]).toUpperCase();
+                    if ("NX".equals(option)) {
+                        nx = true;
+                    } else if ("XX".equals(option)) {
+                        xx = true;
+                    } else if ("EX".equals(option) && i + 1 < args.length) {
+                        ttl = TimeUnit.SECONDS.toMillis(number(args[++i]));
+                    } else if ("PX".equals(option) && i + 1 < args.length) {
+                        ttl = number(args[++i]);
+                    } else {
+                        throw new IllegalArgumentException("syntax error");
+                    }
+                }
+                String key = string(args[1]);
+                boolean exists = lookup(key) != null;
+                if ((nx && exists) || (xx && !exists)) {
+                    c.write(NULL_BULK);
+                } else {
+                    store(key, args[2], ttl);
+                    c.write(OK);
+                }
+            } else if ("SETEX".equals(command) || "PSETEX".equals(command)) {
+                arity(args, 4);
+                long ttl = number(args[2]);
+                if (ttl <= 0) {
+                    throw new IllegalArgumentException("invalid expire time in " + command.toLowerCase());
+                }
+                store(string(args[1]), args[3], "SETEX".equals(command) ? TimeUnit.SECONDS.toMillis(ttl) : ttl);
+                c.write(OK);
+            } else if ("SETNX".equals(command)) {
+                arity(args, 3);
+                String key = string(args[1]);
+                if (lookup(key) != null) {
+                    integer(c, 0);
+                } else {
+                    store(key, args[2], 0);
+                    integer(c, 1);
+                }
+            } else if ("GETEX".equals(command)) {
+                arity(args, 2);
+                String key = string(args[1]);
+                Entry entry = lookup(key);
+                if (entry != null && 2 < args.length) {
+                    String option = string(args[2]).toUpperCase();
+                    if ("PERSIST".equals(option)) {
+                        entry = expire(key, entry, 0);
+                    } else if ("EX".equals(option) && 3 < args.length) {
+                        entry = expire(key, entry, TimeUnit.SECONDS.toMillis(number(args[3])));
+                    } else if ("PX".equals(option) && 3 < args.length) {
+                        entry = expire(key, entry, number(args[3]));
+                    } else {
+                        throw new IllegalArgumentException("syntax error");
+                    }
+                }
+                bulk(c, value(entry));
+            } else if ("DEL".equals(command) || "EXISTS".equals(command)) {
+                arity(args, 2);
+                int count = 0;
+                for (int i = 1; i < args.length; i++) {
+                    String key = string(args[i]);
+                    if (lookup(key) != null) {
+                        count++;
+                        if ("DEL".equals(command)) {
+                            _entries.remove(key);
+                        }
+                    }
+                }
+                integer(c, count);
+            } else if ("EXPIRE".equals(command) || "PEXPIRE".equals(command)) {
+                arity(args, 3);
+                String key = string(args[1]);
+                Entry entry = lookup(key);
+                long ttl = number(args[2]);
+                if (entry == null) {
+                    integer(c, 0);
+                } else {
+                    if (ttl <= 0) {
+                        _entries.remove(key);
+                    } else {
+                        expire(key, entry, "EXPIRE".equals(command) ? TimeUnit.SECONDS.toMillis(ttl) : ttl);
+                    }
+                    integer(c, 1);
+                }
+            } else if ("PERSIST".equals(command)) {
+                arity(args, 2);
+                String key = string(args[1]);
+                Entry entry = lookup(key);
+                if (entry == null || entry.expiresAt == 0) {
+                    integer(c, 0);
+                } else {
+                    expire(key, entry, 0);
+                    integer(c, 1);
+                }
+            } else if ("TTL".equals(command) || "PTTL".equals(command)) {
+                arity(args, 2);
+                Entry entry = lookup(string(args[1]));
+                if (entry == null) {
+                    integer(c, -2);
+                } else if (entry.expiresAt == 0) {
+                    integer(c, -1);
+                } else {
+                    long ttl = entry.expiresAt - System.currentTimeMillis();
+                    integer(c, "TTL".equals(command) ? TimeUnit.MILLISECONDS.toSeconds(ttl + 999) : ttl);
+                }
+            } else if ("PING".equals(command)) {
+                if (1 < args.length) {
+                    bulk(c, args[1]);
+                } else {
+                    c.write("+PONG\r\n");
+                }
+            } else if ("ECHO".equals(command)) {
+                arity(args, 2);
+                bulk(c, args[1]);
+            } else if ("AUTH".equals(command) || "SELECT".equals(command) || "CLIENT".equals(command)) {
+                c.write(OK);
+            } else if ("DBSIZE".equals(command)) {
+                integer(c, _entries.size());
+            } else if ("FLUSHDB".equals(command) || "FLUSHALL".equals(command)) {
+                flushAll();
+                c.write(OK);
+            } else {
+                c.write("-ERR unknown command '" + command.toLowerCase() + "'\r\n");
+            }
+        } catch (IllegalArgumentException error) {
+            c.write("-ERR " + error.getMessage() + "\r\n");
+        }
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = _entries.get(key);
+        if (entry != null && entry.isExpired()) {
+            _entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void store(String key, byte[] value, long ttl) {
+        _entries.put(key, new Entry(value, ttl <= 0 ? 0 : System.currentTimeMillis() + ttl));
+    }
+
+    private Entry expire(String key, Entry entry, long ttl) {
+        Entry expired = new Entry(entry.value, ttl <= 0 ? 0 : System.currentTimeMillis() + ttl);
+        _entries.put(key, expired);
+        return expired;
+    }
+
+    private static byte[] value(Entry entry) {
+        return entry == null ? null : entry.value;
+    }
+
+    private static void arity(byte[][] args, int min) {
+        if (args.length < min) {
+            throw new IllegalArgumentException("wrong number of arguments for '" + string(args[0]).toLowerCase() + "' command");
+        }
+    }
+
+    private static long number(byte[] arg) {
+        try {
+            return Long.parseLong(string(arg));
+        } catch (NumberFormatException error) {
+            throw new IllegalArgumentException("value is not an integer or out of range");
+        }
+    }
+
+    private static String string(byte[] arg) {
+        return new String(arg, LATIN1);
+    }
+
+    private static void bulk(Connection c, byte[] value) {
+        if (value == null) {
+            c.write(NULL_BULK);
+        } else {
+            c.write("$" + value.length + "\r\n");
+            c.write(value);
+            c.write(CRLF);
+        }
+    }
+
+    private static void integer(Connection c, long value) {
+        c.write(":" + value + "\r\n");
+    }
+
+    /**
+     * @return position of the next CRLF, or -1 if the buffer has none
+     */
+    private static int findLineEnd(ByteBuffer in, int from) {
+        for (int i = from; i + 1 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String readLine(ByteBuffer in) {
+        int end = findLineEnd(in, in.position());
+        if (end < 0) {
+            return null;
+        }
+        byte[] line = new byte[end - in.position()];
+        in.get(line);
+        in.position(end + 2);
+        return new String(line, LATIN1);
+    }
+
+    private static byte[][] readMultiBulk(ByteBuffer in) {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int count = Integer.parseInt(header.substring(1));
+        byte[][] args = new byte[Math.max(0, count)][];
+        for (int i = 0; i < args.length; i++) {
+            String length = readLine(in);
+            if (length == null) {
+                return null;
+            }
+            int n = Integer.parseInt(length.substring(1));
+            if (in.remaining() < n + 2) {
+                return null;
+            }
+            args[i] = new byte[n];
+            in.get(args[i]);
+            in.position(in.position() + 2);
+        }
+        return args;
+    }
+
+    private static byte[][] readInline(ByteBuffer in) {
+        String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        line = line.trim();
+        if (line.length() == 0) {
+            return new byte[0][];
+        }
+        String[] words = line.split(" +");
+        byte[][] args = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            args[i] = words[i].getBytes(LATIN1);
+        }
+        return args;
+    }
+
+    private static class Entry {
+        final byte[] value;
+        final long expiresAt;
+
+        Entry(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0 && expiresAt <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.eclipse.jetty.nosql.key_value.cluster;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+
+public class ReplicatedKeyValueStoreClientTest extends TestCase {
+	/**
+	 * map backed node which can be slowed down or taken down.
+	 */
+	static class Node extends AbstractKeyValueStoreClient {
+		final Map<String, byte[]> data = new ConcurrentHashMap<String, byte[]>();
+		final Set<String> touched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		volatile long delay = 0;
+		volatile boolean down = false;
+
+		Node(String serverString) {
+			super(serverString);
+		}
+
+		private void call() throws KeyValueStoreClientException {
+			if (down) {
+				throw new KeyValueStoreClientException("down");
+			}
+			if (0 < delay) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException error) {
+					throw new KeyValueStoreClientException(error);
+				}
+			}
+		}
+
+		public boolean connect() { return true; }
+
+		public boolean shutdown() { return true; }
+
+		public boolean isAlive() { return true; }
+
+		public byte[] get(String key) throws KeyValueStoreClientException {
+			call();
+			return data.get(key);
+		}
+
+		@Override
+		public byte[] getAndTouch(String key, int exp) throws KeyValueStoreClientException {
+			call();
+			touched.add(key);
+			return data.get(key);
+		}
+
+		public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+			return set(key, raw, 0);
+		}
+
+		public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+			call();
+			data.put(key, raw);
+			return true;
+		}
+
+		public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+			return add(key, raw, 0);
+		}
+
+		public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+			call();
+			if (data.containsKey(key)) {
+				return false;
+			}
+			data.put(key, raw);
+			return true;
+		}
+
+		public boolean delete(String key) throws KeyValueStoreClientException {
+			call();
+			return data.remove(key) != null;
+		}
+	}
+
+	private Map<String, Node> _nodes;
+	private ReplicatedKeyValueStoreClient _client;
+
+	@Override
+	protected void setUp() throws Exception {
+		_nodes = new LinkedHashMap<String, Node>();
+		for (int i = 0; i < 3; i++) {
+			String name = "10.0.0." + i + ":11211";
+			_nodes.put(name, new Node(name));
+		}
+		_client = new ReplicatedKeyValueStoreClient(_nodes);
+		_client.setReplicas(2);
+		_client.setHedgeDelay(20);
+		_client.setTimeout(1000);
+		_client.connect();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		_client.shutdown();
+	}
+
+	public void testRing() {
+		Map<String, String> nodes = new LinkedHashMap<String, String>();
+		for (int i = 0; i < 4; i++) {
+			nodes.put("10.0.0." + i + ":11211", "node" + i);
+		}
+		ConsistentHashRing<String> ring = new ConsistentHashRing<String>(nodes);
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < 10000; i++) {
+			List<String> owners = ring.getNodes("key" + i, 2);
+			assertEquals(2, owners.size());
+			assertFalse(owners.get(0).equals(owners.get(1)));
+			assertEquals(ring.getPrimary("key" + i), owners.get(0));
+			Integer count = counts.get(owners.get(0));
+			counts.put(owners.get(0), count == null ? 1 : count + 1);
+		}
+		for (Integer count : counts.values()) {
+			assertTrue(1500 < count && count < 3500);
+		}
+		assertEquals(4, ring.getNodes("key", 10).size());
+	}
+
+	public void testReplication() throws Exception {
+		assertTrue(_client.set("key", new byte[] { 1 }));
+		List<?> replicas = _client.getRing().getNodes("key", 2);
+		int stored = 0;
+		for (Node node : _nodes.values()) {
+			if (node.data.containsKey("key")) {
+				assertTrue(replicas.contains(node));
+				stored++;
+			}
+		}
+		assertEquals(2, stored);
+
+		// survives the loss of the owner
+		((Node) replicas.get(0)).down = true;
+		assertEquals(1, _client.get("key")[0]);
+		((Node) replicas.get(0)).down = false;
+
+		assertFalse(_client.add("key", new byte[] { 2 }));
+		assertTrue(_client.delete("key"));
+		assertNull(_client.get("key"));
+	}
+
+	public void testHedgedRead() throws Exception {
+		_client.set("key", new byte[] { 1 });
+		Node owner = (Node) _client.getRing().getPrimary("key");
+		owner.delay = 500;
+		long start = System.nanoTime();
+		assertEquals(1, _client.get("key")[0]);
+		assertTrue(System.nanoTime() - start < 400 * 1000000L);
+	}
+
+	public void testHedgedGetAndTouch() throws Exception {
+		_client.set("key", new byte[] { 1 });
+		List<?> replicas = _client.getRing().getNodes("key", 2);
+		Node owner = (Node) replicas.get(0);
+		Node other = (Node) replicas.get(1);
+		// the first value found is returned, without waiting for the slow owner
+		owner.delay = 500;
+		long start = System.nanoTime();
+		assertEquals(1, _client.getAndTouch("key", 60)[0]);
+		assertTrue(System.nanoTime() - start < 400 * 1000000L);
+		assertTrue(other.touched.contains("key"));
+		// the owner is touched still
+		Thread.sleep(600);
+		assertTrue(owner.touched.contains("key"));
+
+		// the other replica is touched in the background
+		owner.delay = 0;
+		other.touched.clear();
+		assertEquals(1, _client.getAndTouch("key", 60)[0]);
+		for (int i = 0; i < 100 && !other.touched.contains("key"); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(other.touched.contains("key"));
+	}
+
+	public void testAllDown() throws Exception {
+		for (Node node : _nodes.values()) {
+			node.down = true;
+		}
+		try {
+			_client.get("key");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		try {
+			_client.set("key", new byte[1]);
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+	}
+
+	public void testBusyPool() throws Exception {
+		_client.shutdown();
+		_client = new ReplicatedKeyValueStoreClient(_nodes);
+		_client.setReplicas(2);
+		_client.setHedgeDelay(20);
+		_client.setTimeout(1000);
+		_client.setMaxThreads(1);
+		_client.connect();
+
+		// the write rejected by the pool runs in the calling thread
+		assertTrue(_client.set("key", new byte[] { 1 }));
+		for (Object replica : _client.getRing().getNodes("key", 2)) {
+			assertTrue(((Node) replica).data.containsKey("key"));
+		}
+
+		// the hedge is skipped while the only thread waits for the owner
+		Node owner = (Node) _client.getRing().getPrimary("key");
+		owner.delay = 100;
+		long start = System.currentTimeMillis();
+		assertEquals(1, _client.get("key")[0]);
+		assertTrue(100 <= System.currentTimeMillis() - start);
+	}
+}
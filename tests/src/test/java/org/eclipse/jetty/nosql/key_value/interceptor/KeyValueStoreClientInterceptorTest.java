@@ -0,0 +1,470 @@
+package org.eclipse.jetty.nosql.key_value.interceptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.ForwardingKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientInterceptor;
+
+public class KeyValueStoreClientInterceptorTest extends TestCase {
+	/**
+	 * map backed client which fails the given number of calls first.
+	 */
+	static class MapClient extends AbstractKeyValueStoreClient {
+		final Map<String, byte[]> data = Collections.synchronizedMap(new HashMap<String, byte[]>());
+		int failures = 0;
+		int calls = 0;
+		int batches = 0;
+
+		MapClient() {
+			super("");
+		}
+
+		private synchronized void call() throws KeyValueStoreClientException {
+			calls++;
+			if (0 < failures) {
+				failures--;
+				throw new KeyValueStoreClientException("failure");
+			}
+		}
+
+		public boolean connect() { return true; }
+
+		public boolean shutdown() { return true; }
+
+		public boolean isAlive() { return true; }
+
+		public byte[] get(String key) throws KeyValueStoreClientException {
+			call();
+			return data.get(key);
+		}
+
+		public boolean set(String key, byte[] raw) throws KeyValueStoreClientException {
+			return set(key, raw, 0);
+		}
+
+		public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+			call();
+			data.put(key, raw);
+			return true;
+		}
+
+		public boolean add(String key, byte[] raw) throws KeyValueStoreClientException {
+			return add(key, raw, 0);
+		}
+
+		public boolean add(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+			call();
+			if (data.containsKey(key)) {
+				return false;
+			}
+			data.put(key, raw);
+			return true;
+		}
+
+		public boolean delete(String key) throws KeyValueStoreClientException {
+			call();
+			return data.remove(key) != null;
+		}
+
+		@Override
+		public Map<String, byte[]> getAndTouchMulti(Collection<String> keys, int exp) throws KeyValueStoreClientException {
+			batches++;
+			return super.getAndTouchMulti(keys, exp);
+		}
+	}
+
+	public void testCompression() throws Exception {
+		MapClient store = new MapClient();
+		CompressionInterceptor compression = new CompressionInterceptor();
+		compression.setThreshold(100);
+		KeyValueStoreClient client = compression.intercept(store);
+
+		byte[] small = "small".getBytes("UTF-8");
+		client.set("small", small);
+		assertTrue(Arrays.equals(small, store.data.get("small")));
+
+		byte[] large = new byte[10000];
+		Arrays.fill(large, (byte) 'a');
+		client.set("large", large);
+		assertTrue(store.data.get("large").length < large.length);
+		assertTrue(Arrays.equals(large, client.get("large")));
+
+		// values which only look like GZIP are returned as is
+		byte[] fake = new byte[32];
+		fake[0] = (byte) 0x1f;
+		fake[1] = (byte) 0x8b;
+		fake[2] = (byte) 0x08;
+		store.data.put("fake", fake);
+		assertTrue(Arrays.equals(fake, client.get("fake")));
+		assertNull(client.get("missing"));
+	}
+
+	public void testRetry() throws Exception {
+		MapClient store = new MapClient();
+		RetryInterceptor retry = new RetryInterceptor();
+		retry.setMaxRetries(2);
+		retry.setBackoff(0);
+		KeyValueStoreClient client = retry.intercept(store);
+
+		store.failures = 2;
+		assertTrue(client.set("key", new byte[1]));
+		assertEquals(3, store.calls);
+
+		store.calls = 0;
+		store.failures = 3;
+		try {
+			client.get("key");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		assertEquals(3, store.calls);
+
+		// add is not retried by default
+		store.calls = 0;
+		store.failures = 1;
+		try {
+			client.add("other", new byte[1]);
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		assertEquals(1, store.calls);
+	}
+
+	public void testKeyRewrite() throws Exception {
+		MapClient store = new MapClient();
+		KeyRewriteInterceptor rewrite = new KeyRewriteInterceptor();
+		rewrite.setPrefix("app:");
+		rewrite.setMaxKeyLength(60);
+		KeyValueStoreClient client = rewrite.intercept(store);
+
+		client.set("short", new byte[1]);
+		assertTrue(store.data.containsKey("app:short"));
+		assertNotNull(client.get("short"));
+
+		char[] chars = new char[300];
+		Arrays.fill(chars, 'k');
+		String longKey = new String(chars);
+		client.set(longKey, new byte[1]);
+		String stored = rewrite.rewrite(longKey);
+		assertEquals(60, stored.length());
+		assertTrue(stored.startsWith("app:"));
+		assertTrue(store.data.containsKey(stored));
+		assertFalse(stored.equals(rewrite.rewrite(longKey + "x")));
+		assertTrue(client.delete(longKey));
+
+		// the limit is in bytes: 40 characters of 3 bytes each
+		char[] wide = new char[40];
+		Arrays.fill(wide, '\u3042');
+		String wideKey = new String(wide);
+		stored = rewrite.rewrite(wideKey);
+		assertFalse(stored.equals("app:" + wideKey));
+		assertTrue(stored.getBytes("UTF-8").length <= 60);
+		assertTrue(stored.startsWith("app:\u3042\u3042\u3042\u3042\u3042:"));
+
+		try {
+			rewrite.setMaxKeyLength(40);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		rewrite.setMaxKeyLength(41);
+		assertEquals(41, rewrite.rewrite(longKey).length());
+		rewrite.setMaxKeyLength(0);
+		assertEquals("app:" + longKey, rewrite.rewrite(longKey));
+	}
+
+	public void testCircuitBreaker() throws Exception {
+		MapClient store = new MapClient();
+		CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor();
+		breaker.setWindowSize(10);
+		breaker.setMinimumCalls(4);
+		breaker.setOpenDuration(50);
+		KeyValueStoreClient client = breaker.intercept(store);
+
+		store.failures = 4;
+		for (int i = 0; i < 4; i++) {
+			try {
+				client.get("key");
+				fail();
+			} catch (KeyValueStoreClientException expected) {
+			}
+		}
+		assertEquals(CircuitBreakerInterceptor.State.OPEN, breaker.getState());
+
+		// fails fast without calling the store
+		store.calls = 0;
+		try {
+			client.set("key", new byte[1]);
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		assertEquals(0, store.calls);
+		assertEquals(1, breaker.getRejectedCount());
+
+		// a failed probe opens the breaker again
+		Thread.sleep(60);
+		store.failures = 1;
+		try {
+			client.get("key");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		assertEquals(CircuitBreakerInterceptor.State.OPEN, breaker.getState());
+
+		Thread.sleep(60);
+		assertNull(client.get("key"));
+		assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState());
+		assertEquals(2, breaker.getOpenedCount());
+	}
+
+	public void testCircuitBreakerFallback() throws Exception {
+		MapClient store = new MapClient();
+		CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor();
+		breaker.setMinimumCalls(1);
+		breaker.setOpenDuration(50);
+		breaker.setFallback(true);
+		KeyValueStoreClient client = breaker.intercept(store);
+		store.data.put("gone", new byte[1]);
+
+		store.failures = 1;
+		try {
+			client.get("key");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		assertTrue(client.add("key", new byte[] { 1 }));
+		assertFalse(client.add("key", new byte[] { 2 }));
+		assertEquals(1, client.get("key")[0]);
+		client.delete("gone");
+		assertFalse(store.data.containsKey("key"));
+		assertTrue(store.data.containsKey("gone"));
+
+		// local entries are written back once a probe succeeds
+		Thread.sleep(60);
+		assertEquals(1, client.get("key")[0]);
+		assertNull(client.get("other"));
+		assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState());
+		awaitWriteBack(breaker);
+		assertEquals(1, store.data.get("key")[0]);
+		assertEquals(1, client.get("key")[0]);
+		assertFalse(store.data.containsKey("gone"));
+	}
+
+	public void testCircuitBreakerWriteBackSuperseded() throws Exception {
+		MapClient store = new MapClient();
+		CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor();
+		breaker.setMinimumCalls(1);
+		breaker.setOpenDuration(50);
+		breaker.setFallback(true);
+		KeyValueStoreClient client = breaker.intercept(store);
+
+		store.failures = 1;
+		try {
+			client.get("key");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		client.set("key", new byte[] { 1 });
+		client.set("other", new byte[] { 1 });
+
+		// the probe writes the key, which is then not written back
+		Thread.sleep(60);
+		assertTrue(client.set("key", new byte[] { 2 }));
+		assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState());
+		awaitWriteBack(breaker);
+		assertEquals(2, store.data.get("key")[0]);
+		assertEquals(1, store.data.get("other")[0]);
+
+		// newer data in the store is not shadowed by local entries
+		store.data.put("other", new byte[] { 3 });
+		assertEquals(3, client.get("other")[0]);
+		assertEquals(2, client.get("key")[0]);
+	}
+
+	public void testCircuitBreakerWriteBackInBackground() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		MapClient store = new MapClient() {
+			@Override
+			public boolean set(String key, byte[] raw, int exp) throws KeyValueStoreClientException {
+				try {
+					release.await(1, TimeUnit.SECONDS);
+				} catch (InterruptedException error) {
+					Thread.currentThread().interrupt();
+				}
+				return super.set(key, raw, exp);
+			}
+		};
+		CircuitBreakerInterceptor breaker = new CircuitBreakerInterceptor();
+		breaker.setMinimumCalls(1);
+		breaker.setOpenDuration(50);
+		breaker.setFallback(true);
+		KeyValueStoreClient client = breaker.intercept(store);
+
+		store.failures = 1;
+		try {
+			client.get("key");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		}
+		for (int i = 0; i < 10; i++) {
+			client.set("key" + i, new byte[] { 1 });
+		}
+
+		// the probe which closes the breaker does not wait for the write back
+		Thread.sleep(60);
+		long start = System.nanoTime();
+		assertNull(client.get("other"));
+		assertEquals(CircuitBreakerInterceptor.State.CLOSED, breaker.getState());
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+		assertTrue(breaker.isWritingBack());
+
+		release.countDown();
+		awaitWriteBack(breaker);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(1, store.data.get("key" + i)[0]);
+		}
+	}
+
+	private static void awaitWriteBack(CircuitBreakerInterceptor breaker) throws InterruptedException {
+		for (int i = 0; i < 100 && breaker.isWritingBack(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(breaker.isWritingBack());
+	}
+
+	public void testOrder() throws Exception {
+		final List<String> calls = new ArrayList<String>();
+		class Recording implements KeyValueStoreClientInterceptor {
+			final String name;
+
+			Recording(String name) {
+				this.name = name;
+			}
+
+			public KeyValueStoreClient intercept(KeyValueStoreClient client) {
+				return new ForwardingKeyValueStoreClient(client) {
+					@Override
+					public byte[] get(String key) throws KeyValueStoreClientException {
+						calls.add(name);
+						return super.get(key);
+					}
+				};
+			}
+		}
+		KeyValueStoreClient client = new MapClient();
+		List<KeyValueStoreClientInterceptor> interceptors = Arrays.<KeyValueStoreClientInterceptor>asList(
+				new Recording("first"), new Recording("second"));
+		for (int i = interceptors.size() - 1; 0 <= i; i--) {
+			client = interceptors.get(i).intercept(client);
+		}
+		client.get("key");
+		assertEquals(Arrays.asList("first", "second"), calls);
+	}
+
+	public void testChunking() throws Exception {
+		MapClient store = new MapClient();
+		ChunkingInterceptor chunking = new ChunkingInterceptor();
+		chunking.setChunkSize(100);
+		KeyValueStoreClient client = chunking.intercept(store);
+
+		byte[] small = "small".getBytes("UTF-8");
+		client.set("small", small);
+		assertTrue(Arrays.equals(small, store.data.get("small")));
+
+		byte[] large = new byte[250];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) i;
+		}
+		client.set("large", large);
+		// manifest plus three chunks
+		assertEquals(5, store.data.size());
+		assertTrue(store.data.get("large").length < 100);
+		assertTrue(Arrays.equals(large, client.get("large")));
+		assertTrue(Arrays.equals(large, client.getAndTouch("large", 60)));
+
+		Map<String, byte[]> values = client.getMulti(Arrays.asList("small", "large", "missing"));
+		assertEquals(2, values.size());
+		assertTrue(Arrays.equals(small, values.get("small")));
+		assertTrue(Arrays.equals(large, values.get("large")));
+
+		// chunks of a replaced value are deleted
+		client.set("large", small);
+		assertEquals(2, store.data.size());
+		assertTrue(Arrays.equals(small, client.get("large")));
+
+		assertTrue(client.add("added", large));
+		assertFalse(client.add("added", large));
+		assertEquals(6, store.data.size());
+		assertTrue(client.delete("added"));
+		assertEquals(2, store.data.size());
+		assertNull(client.get("added"));
+	}
+
+	public void testChunkingMissingChunk() throws Exception {
+		MapClient store = new MapClient();
+		ChunkingInterceptor chunking = new ChunkingInterceptor();
+		chunking.setChunkSize(100);
+		KeyValueStoreClient client = chunking.intercept(store);
+
+		Map<String, byte[]> values = new HashMap<String, byte[]>();
+		values.put("a", new byte[10]);
+		values.put("b", new byte[150]);
+		assertTrue(client.setMulti(values, 0));
+		assertEquals(4, store.data.size());
+		assertEquals(150, client.get("b").length);
+
+		// evicted chunk
+		for (String key : new ArrayList<String>(store.data.keySet())) {
+			if (key.startsWith("b#") && key.endsWith(".1")) {
+				store.data.remove(key);
+			}
+		}
+		assertNull(client.get("b"));
+		assertEquals(1, client.getMulti(Arrays.asList("a", "b")).size());
+	}
+
+	public void testChunkingRoundTrips() throws Exception {
+		MapClient store = new MapClient();
+		ChunkingInterceptor chunking = new ChunkingInterceptor();
+		chunking.setChunkSize(100);
+		KeyValueStoreClient client = chunking.intercept(store);
+
+		byte[] large = new byte[250];
+		client.set("large", large, 60);
+		assertEquals(4, store.data.size());
+		// chunks of a replaced value are deleted even if they expire
+		client.set("large", large, 60);
+		assertEquals(4, store.data.size());
+		// also when replaced by another client, which has to read the manifest first
+		chunking.intercept(store).set("large", large, 60);
+		assertEquals(4, store.data.size());
+
+		// chunks are read and touched in one batch
+		assertTrue(Arrays.equals(large, client.getAndTouch("large", 60)));
+		assertEquals(1, store.batches);
+
+		// small values known to the client are written and deleted without reading them first
+		client.set("small", new byte[10], 60);
+		store.calls = 0;
+		client.set("small", new byte[10], 60);
+		assertEquals(1, store.calls);
+		store.calls = 0;
+		assertTrue(client.delete("small"));
+		assertEquals(1, store.calls);
+
+		assertTrue(client.delete("large"));
+		assertTrue(store.data.isEmpty());
+	}
+}
@@ -0,0 +1,72 @@
+package org.eclipse.jetty.nosql.key_value.memcached.embedded;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.memcached.spymemcached.BinarySpyMemcachedClient;
+import org.eclipse.jetty.nosql.key_value.memcached.spymemcached.SpyMemcachedClient;
+import org.eclipse.jetty.nosql.key_value.memcached.xmemcached.BinaryXMemcachedClient;
+import org.eclipse.jetty.nosql.key_value.memcached.xmemcached.XMemcachedClient;
+
+public class EmbeddedMemcachedServerTest extends TestCase {
+	private EmbeddedMemcachedServer server = null;
+
+	public void setUp() throws Exception {
+		server = new EmbeddedMemcachedServer();
+		server.start();
+	}
+
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	public void testSpyMemcachedClient() throws Exception {
+		exercise(new SpyMemcachedClient(server.getServerString()));
+	}
+
+	public void testBinarySpyMemcachedClient() throws Exception {
+		exercise(new BinarySpyMemcachedClient(server.getServerString()));
+	}
+
+	public void testXMemcachedClient() throws Exception {
+		exercise(new XMemcachedClient(server.getServerString()));
+	}
+
+	public void testBinaryXMemcachedClient() throws Exception {
+		exercise(new BinaryXMemcachedClient(server.getServerString()));
+	}
+
+	public void testLatency() throws Exception {
+		server.setLatency(200);
+		AbstractKeyValueStoreClient client = new SpyMemcachedClient(server.getServerString());
+		client.connect();
+		try {
+			long start = System.currentTimeMillis();
+			assertNull(client.get("foo"));
+			assertTrue(200 <= System.currentTimeMillis() - start);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	private void exercise(AbstractKeyValueStoreClient client) throws Exception {
+		byte[] raw1 = {11, 22, 33, 44, 55};
+		byte[] raw2 = new byte[100 * 1024];
+		Arrays.fill(raw2, (byte) 7);
+		client.connect();
+		try {
+			assertNull(client.get("foo"));
+			assertTrue(client.set("foo", raw1, 60));
+			assertTrue(Arrays.equals(raw1, client.get("foo")));
+			assertFalse(client.add("foo", raw2, 60));
+			assertTrue(client.add("bar", raw2, 60));
+			assertTrue(Arrays.equals(raw2, client.get("bar")));
+			assertTrue(client.delete("foo"));
+			assertNull(client.get("foo"));
+		} finally {
+			client.shutdown();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package org.eclipse.jetty.nosql.key_value.memcached.meta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.memcached.embedded.EmbeddedMemcachedServer;
+
+public class MetaMemcachedClientTest extends TestCase {
+	private EmbeddedMemcachedServer server1 = null;
+	private EmbeddedMemcachedServer server2 = null;
+
+	public void setUp() throws Exception {
+		server1 = new EmbeddedMemcachedServer(0);
+		server1.start();
+		server2 = new EmbeddedMemcachedServer(0);
+		server2.start();
+	}
+
+	public void tearDown() throws Exception {
+		server1.stop();
+		server2.stop();
+	}
+
+	private MetaMemcachedClient newClient(boolean quietWrites) throws Exception {
+		MetaMemcachedClientFactory factory = new MetaMemcachedClientFactory();
+		factory.setQuietWrites(quietWrites);
+		MetaMemcachedClient client = (MetaMemcachedClient) factory.create(server1.getServerString() + " "
+				+ server2.getServerString());
+		client.connect();
+		return client;
+	}
+
+	public void testOperations() throws Exception {
+		exercise(newClient(false));
+	}
+
+	public void testQuietWrites() throws Exception {
+		exercise(newClient(true));
+	}
+
+	private void exercise(MetaMemcachedClient client) throws Exception {
+		try {
+			assertNull(client.get("foo"));
+			assertTrue(client.set("foo", "bar".getBytes(), 60));
+			assertEquals("bar", new String(client.get("foo")));
+			assertFalse(client.add("foo", "baz".getBytes(), 60));
+			assertTrue(client.add("qux", "baz".getBytes()));
+			assertEquals("baz", new String(client.get("qux")));
+			assertTrue(client.delete("qux"));
+			assertNull(client.get("qux"));
+
+			for (int i = 0; i < 100; i++) {
+				assertTrue(client.set("key" + i, new byte[] { (byte) i }));
+			}
+			// spread over both servers
+			assertTrue(10 < server1.size() && 10 < server2.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, client.get("key" + i)[0]);
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testItem() throws Exception {
+		MetaMemcachedClient client = newClient(false);
+		try {
+			assertNull(client.getItem("foo"));
+			assertTrue(client.set("foo", "bar".getBytes(), 60));
+			MetaMemcachedClient.Item item = client.getItem("foo");
+			assertEquals("bar", new String(item.getValue()));
+			assertTrue(0 < item.getTtl() && item.getTtl() <= 60);
+
+			assertEquals("bar", new String(client.getAndTouch("foo", 3600)));
+			assertTrue(60 < client.getItem("foo").getTtl());
+
+			// compare and set
+			assertTrue(client.cas("foo", "baz".getBytes(), 60, item.getCas()));
+			assertFalse(client.cas("foo", "qux".getBytes(), 60, item.getCas()));
+			assertEquals("baz", new String(client.get("foo")));
+
+			assertTrue(client.set("forever", "bar".getBytes()));
+			assertEquals(-1, client.getItem("forever").getTtl());
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testServerDown() throws Exception {
+		MetaMemcachedClient client = newClient(false);
+		try {
+			server1.stop();
+			server2.stop();
+			client.get("foo");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testMaxConnections() throws Exception {
+		final MetaMemcachedClient client = new MetaMemcachedClient(server1.getServerString());
+		client.setMaxConnections(2);
+		client.connect();
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			assertTrue(client.set("foo", new byte[] { 1 }));
+			List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < 200; i++) {
+				futures.add(executor.submit(new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						return client.get("foo");
+					}
+				}));
+			}
+			for (Future<byte[]> future : futures) {
+				assertEquals(1, future.get()[0]);
+			}
+			// concurrent calls wait for one of the connections instead of opening more
+			assertTrue(server1.getAcceptedConnections() <= 2);
+		} finally {
+			executor.shutdownNow();
+			client.shutdown();
+		}
+	}
+}
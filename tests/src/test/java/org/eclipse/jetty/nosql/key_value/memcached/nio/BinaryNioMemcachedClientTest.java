@@ -0,0 +1,222 @@
+package org.eclipse.jetty.nosql.key_value.memcached.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
+import org.eclipse.jetty.nosql.key_value.memcached.embedded.EmbeddedMemcachedServer;
+
+public class BinaryNioMemcachedClientTest extends TestCase {
+	private EmbeddedMemcachedServer server1 = null;
+	private EmbeddedMemcachedServer server2 = null;
+
+	public void setUp() throws Exception {
+		server1 = new EmbeddedMemcachedServer(0);
+		server1.start();
+		server2 = new EmbeddedMemcachedServer(0);
+		server2.start();
+	}
+
+	public void tearDown() throws Exception {
+		server1.stop();
+		server2.stop();
+	}
+
+	private BinaryNioMemcachedClient newClient(boolean quiet) throws Exception {
+		BinaryNioMemcachedClientFactory factory = new BinaryNioMemcachedClientFactory();
+		factory.setQuiet(quiet);
+		factory.setBufferSize(1024);
+		BinaryNioMemcachedClient client = (BinaryNioMemcachedClient) factory.create(server1.getServerString() + " "
+				+ server2.getServerString());
+		client.connect();
+		return client;
+	}
+
+	public void testOperations() throws Exception {
+		exercise(newClient(false));
+	}
+
+	public void testQuiet() throws Exception {
+		exercise(newClient(true));
+	}
+
+	private void exercise(BinaryNioMemcachedClient client) throws Exception {
+		try {
+			assertNull(client.get("foo"));
+			assertTrue(client.set("foo", "bar".getBytes(), 60));
+			assertEquals("bar", new String(client.get("foo")));
+			assertFalse(client.add("foo", "baz".getBytes(), 60));
+			assertTrue(client.add("qux", "baz".getBytes()));
+			assertEquals("baz", new String(client.get("qux")));
+			assertEquals("baz", new String(client.getAndTouch("qux", 3600)));
+			assertNull(client.getAndTouch("quux", 3600));
+			assertTrue(client.delete("qux"));
+			assertFalse(client.delete("qux"));
+			assertNull(client.get("qux"));
+
+			// values larger than the buffers
+			byte[] large = new byte[100 * 1024];
+			for (int i = 0; i < large.length; i++) {
+				large[i] = (byte) i;
+			}
+			assertTrue(client.set("large", large));
+			assertTrue(Arrays.equals(large, client.get("large")));
+
+			for (int i = 0; i < 100; i++) {
+				assertTrue(client.set("key" + i, new byte[] { (byte) i }));
+			}
+			// spread over both servers
+			assertTrue(10 < server1.size() && 10 < server2.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, client.get("key" + i)[0]);
+			}
+
+			// batches spread over both servers
+			Map<String, byte[]> values = new HashMap<String, byte[]>();
+			for (int i = 0; i < 100; i++) {
+				values.put("multi" + i, new byte[] { (byte) i });
+			}
+			assertTrue(client.setMulti(values, 60));
+			List<String> keys = new ArrayList<String>(values.keySet());
+			keys.add("missing");
+			Map<String, byte[]> found = client.getMulti(keys);
+			assertEquals(100, found.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, found.get("multi" + i)[0]);
+			}
+			found = client.getAndTouchMulti(keys, 3600);
+			assertEquals(100, found.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, found.get("multi" + i)[0]);
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testPipelining() throws Exception {
+		final BinaryNioMemcachedClient client = newClient(true);
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 16; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						for (int i = 0; i < 200; i++) {
+							String key = "key" + thread + "-" + i;
+							if (!client.set(key, key.getBytes()) || !key.equals(new String(client.get(key)))) {
+								return false;
+							}
+							if (client.get("missing" + thread + "-" + i) != null) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertTrue(future.get());
+			}
+		} finally {
+			executor.shutdownNow();
+			client.shutdown();
+		}
+	}
+
+	public void testUnixDomainSocket() throws Exception {
+		if (!UnixDomainSockets.isSupported()) {
+			return;
+		}
+		File socket = File.createTempFile("memcached", ".sock");
+		EmbeddedMemcachedServer server = new EmbeddedMemcachedServer();
+		server.setUnixDomainSocket(socket.getAbsolutePath());
+		server.start();
+		try {
+			BinaryNioMemcachedClient client = new BinaryNioMemcachedClient(server.getServerString());
+			client.connect();
+			try {
+				assertTrue(client.set("foo", "bar".getBytes()));
+				assertEquals("bar", new String(client.get("foo")));
+				assertEquals(1, server.size());
+			} finally {
+				client.shutdown();
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	public void testServerDown() throws Exception {
+		BinaryNioMemcachedClient client = newClient(false);
+		try {
+			server1.stop();
+			server2.stop();
+			client.get("foo");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testConnectTimeout() throws Exception {
+		// a server which never accepts, with its backlog filled up: further connects hang
+		ServerSocket listener = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		List<Socket> backlog = new ArrayList<Socket>();
+		BinaryNioMemcachedClient client = new BinaryNioMemcachedClient("127.0.0.1:" + listener.getLocalPort());
+		try {
+			for (int i = 0; i < 4; i++) {
+				Socket socket = new Socket();
+				try {
+					socket.connect(listener.getLocalSocketAddress(), 100);
+					backlog.add(socket);
+				} catch (IOException full) {
+					socket.close();
+					break;
+				}
+			}
+			client.setTimeout(200);
+			client.setReadTimeout(5000);
+			client.setReconnectDelay(60000);
+			client.connect();
+			long start = System.currentTimeMillis();
+			try {
+				client.get("foo");
+				fail();
+			} catch (KeyValueStoreClientException expected) {
+			}
+			assertTrue(System.currentTimeMillis() - start < 2000);
+			// marked down, fails right away
+			start = System.currentTimeMillis();
+			try {
+				client.get("foo");
+				fail();
+			} catch (KeyValueStoreClientException expected) {
+			}
+			assertTrue(System.currentTimeMillis() - start < 100);
+		} finally {
+			client.shutdown();
+			for (Socket socket : backlog) {
+				socket.close();
+			}
+			listener.close();
+		}
+	}
+}
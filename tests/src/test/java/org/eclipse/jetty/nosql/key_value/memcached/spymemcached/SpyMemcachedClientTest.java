@@ -0,0 +1,150 @@
+package org.eclipse.jetty.nosql.key_value.memcached.spymemcached;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.memcached.embedded.EmbeddedMemcachedServer;
+
+public class SpyMemcachedClientTest extends TestCase {
+	private EmbeddedMemcachedServer[] servers = null;
+
+	public void setUp() throws Exception {
+		servers = new EmbeddedMemcachedServer[4];
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new EmbeddedMemcachedServer(0);
+			servers[i].start();
+		}
+	}
+
+	public void tearDown() throws Exception {
+		for (EmbeddedMemcachedServer server : servers) {
+			server.stop();
+		}
+	}
+
+	private String serverString(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(servers[i].getServerString()).append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return number of keys written through three servers which are still found through four
+	 */
+	private int hitsAfterAddingServer(boolean ketama) throws Exception {
+		SpyMemcachedClientFactory factory = new SpyMemcachedClientFactory();
+		factory.setKetama(ketama);
+		SpyMemcachedClient three = (SpyMemcachedClient) factory.create(serverString(3));
+		three.connect();
+		try {
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(three.set("key" + i, new byte[] { 1 }));
+			}
+		} finally {
+			three.shutdown();
+		}
+		SpyMemcachedClient four = (SpyMemcachedClient) factory.create(serverString(4));
+		four.connect();
+		try {
+			int hits = 0;
+			for (int i = 0; i < 1000; i++) {
+				if (four.get("key" + i) != null) {
+					hits++;
+				}
+			}
+			return hits;
+		} finally {
+			four.shutdown();
+		}
+	}
+
+	public void testKetama() throws Exception {
+		// about three quarters of the keys stay where they were
+		int hits = hitsAfterAddingServer(true);
+		assertTrue("hits " + hits, 600 < hits);
+	}
+
+	public void testModulo() throws Exception {
+		// about a quarter of the keys stay where they were
+		int hits = hitsAfterAddingServer(false);
+		assertTrue("hits " + hits, hits < 400);
+	}
+
+	public void testKetamaDefault() throws Exception {
+		// existing installations keep their key distribution
+		assertFalse(new SpyMemcachedClient(serverString(1)).isKetama());
+		assertFalse(new SpyMemcachedClientFactory().isKetama());
+	}
+
+	public void testFailureMode() throws Exception {
+		SpyMemcachedClient client = new SpyMemcachedClient(serverString(1));
+		client.setFailureMode("Cancel");
+		assertEquals("Cancel", client.getFailureMode());
+		try {
+			client.setFailureMode("ignore");
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	public void testUnixDomainSocket() throws Exception {
+		// spymemcached connects over TCP only
+		SpyMemcachedClient client = new SpyMemcachedClient("unix:/tmp/memcached.sock");
+		try {
+			client.connect();
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+			assertTrue(expected.getCause() instanceof UnsupportedOperationException);
+		}
+	}
+
+	public void testGetAndTouch() throws Exception {
+		SpyMemcachedClient text = new SpyMemcachedClient(serverString(1));
+		SpyMemcachedClient binary = new BinarySpyMemcachedClient(serverString(1));
+		text.connect();
+		binary.connect();
+		try {
+			assertTrue(text.set("text", new byte[] { 1 }, 1));
+			assertTrue(text.set("binary", new byte[] { 2 }, 1));
+			assertEquals(1, text.getAndTouch("text", 60)[0]);
+			assertEquals(2, binary.getAndTouch("binary", 60)[0]);
+			assertNull(text.getAndTouch("missing", 60));
+			assertNull(binary.getAndTouch("missing", 60));
+			Thread.sleep(1500);
+			// expiry has been extended
+			assertNotNull(text.get("text"));
+			assertNotNull(text.get("binary"));
+		} finally {
+			text.shutdown();
+			binary.shutdown();
+		}
+	}
+
+	public void testMulti() throws Exception {
+		SpyMemcachedClient client = new SpyMemcachedClient(serverString(4));
+		client.connect();
+		try {
+			Map<String, byte[]> values = new HashMap<String, byte[]>();
+			for (int i = 0; i < 100; i++) {
+				values.put("key" + i, new byte[] { (byte) i });
+			}
+			assertTrue(client.setMulti(values, 60));
+			List<String> keys = new ArrayList<String>(values.keySet());
+			keys.add("missing");
+			Map<String, byte[]> found = client.getMulti(keys);
+			assertEquals(100, found.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, found.get("key" + i)[0]);
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.eclipse.jetty.nosql.key_value.memcached.xmemcached;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.memcached.embedded.EmbeddedMemcachedServer;
+
+public class XMemcachedClientTest extends TestCase {
+	private EmbeddedMemcachedServer[] servers = null;
+
+	public void setUp() throws Exception {
+		servers = new EmbeddedMemcachedServer[4];
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new EmbeddedMemcachedServer(0);
+			servers[i].start();
+		}
+	}
+
+	public void tearDown() throws Exception {
+		for (EmbeddedMemcachedServer server : servers) {
+			server.stop();
+		}
+	}
+
+	private String serverString(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(servers[i].getServerString()).append(' ');
+		}
+		return sb.toString();
+	}
+
+	public void testConnectionPool() throws Exception {
+		XMemcachedClientFactory factory = new XMemcachedClientFactory();
+		factory.setConnectionPoolSize(4);
+		XMemcachedClient client = (XMemcachedClient) factory.create(serverString(1));
+		client.connect();
+		try {
+			assertTrue(client.set("foo", new byte[] { 1 }));
+			assertEquals(4, servers[0].getAcceptedConnections());
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testKetama() throws Exception {
+		XMemcachedClientFactory factory = new XMemcachedClientFactory();
+		factory.setSessionLocator(XMemcachedClient.KETAMA);
+		XMemcachedClient three = (XMemcachedClient) factory.create(serverString(3));
+		three.connect();
+		try {
+			for (int i = 0; i < 1000; i++) {
+				assertTrue(three.set("key" + i, new byte[] { 1 }));
+			}
+		} finally {
+			three.shutdown();
+		}
+		XMemcachedClient four = (XMemcachedClient) factory.create(serverString(4));
+		four.connect();
+		try {
+			int hits = 0;
+			for (int i = 0; i < 1000; i++) {
+				if (four.get("key" + i) != null) {
+					hits++;
+				}
+			}
+			// about three quarters of the keys stay where they were
+			assertTrue("hits " + hits, 600 < hits);
+		} finally {
+			four.shutdown();
+		}
+	}
+
+	public void testSessionLocator() throws Exception {
+		XMemcachedClient client = new XMemcachedClient(serverString(1));
+		// existing installations keep their key distribution
+		assertEquals(XMemcachedClient.ARRAY, client.getSessionLocator());
+		assertEquals(XMemcachedClient.ARRAY, new XMemcachedClientFactory().getSessionLocator());
+		client.setSessionLocator(XMemcachedClient.KETAMA);
+		try {
+			client.setSessionLocator("modulo");
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	public void testGetAndTouch() throws Exception {
+		XMemcachedClient text = new XMemcachedClient(serverString(1));
+		XMemcachedClient binary = new BinaryXMemcachedClient(serverString(1));
+		text.connect();
+		binary.connect();
+		try {
+			assertTrue(text.set("text", new byte[] { 1 }, 1));
+			assertTrue(text.set("binary", new byte[] { 2 }, 1));
+			assertEquals(1, text.getAndTouch("text", 60)[0]);
+			assertEquals(2, binary.getAndTouch("binary", 60)[0]);
+			assertNull(text.getAndTouch("missing", 60));
+			assertNull(binary.getAndTouch("missing", 60));
+			Thread.sleep(1500);
+			// expiry has been extended
+			assertNotNull(text.get("text"));
+			assertNotNull(text.get("binary"));
+		} finally {
+			text.shutdown();
+			binary.shutdown();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package org.eclipse.jetty.nosql.key_value.mmap;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MmapClientTest extends TestCase {
+	private File directory = null;
+	private MmapClient client = null;
+
+	public void setUp() throws Exception {
+		directory = File.createTempFile("mmap-client-test", "");
+		directory.delete();
+		client = newClient();
+		client.connect();
+	}
+
+	public void tearDown() throws Exception {
+		client.shutdown();
+		File[] files = directory.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			files[i].delete();
+		}
+		directory.delete();
+	}
+
+	private MmapClient newClient() {
+		MmapClient c = new MmapClient(directory.getPath());
+		c.setSegmentSize(4096);
+		c.setCompactionInterval(3600);
+		return c;
+	}
+
+	public void testSetGetDelete() throws Exception {
+		byte[] raw = {1, 2, 3};
+		assertNull(client.get("foo"));
+		assertTrue(client.set("foo", raw));
+		assertTrue(Arrays.equals(raw, client.get("foo")));
+		assertTrue(client.delete("foo"));
+		assertNull(client.get("foo"));
+		assertFalse(client.delete("foo"));
+	}
+
+	public void testAdd() throws Exception {
+		assertTrue(client.add("foo", new byte[] {1}));
+		assertFalse(client.add("foo", new byte[] {2}));
+		assertTrue(Arrays.equals(new byte[] {1}, client.get("foo")));
+	}
+
+	public void testExpiry() throws Exception {
+		client.set("foo", new byte[] {1}, 1);
+		assertNotNull(client.get("foo"));
+		Thread.sleep(1100);
+		assertNull(client.get("foo"));
+		assertTrue(client.add("foo", new byte[] {2}, 1));
+	}
+
+	public void testGetAndTouch() throws Exception {
+		client.set("foo", new byte[] {1}, 1);
+		assertEquals(1, client.getAndTouch("foo", 60)[0]);
+		assertNull(client.getAndTouch("bar", 60));
+		Thread.sleep(1100);
+		// expiry has been extended
+		assertEquals(1, client.get("foo")[0]);
+	}
+
+	public void testRecovery() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			client.set("key" + i, new byte[100]);
+		}
+		client.set("key0", new byte[] {42});
+		client.delete("key1");
+		client.shutdown();
+
+		client = newClient();
+		client.connect();
+		assertTrue(Arrays.equals(new byte[] {42}, client.get("key0")));
+		assertNull(client.get("key1"));
+		assertEquals(100, client.get("key99").length);
+	}
+
+	public void testCompaction() throws Exception {
+		for (int n = 0; n < 10; n++) {
+			for (int i = 0; i < 20; i++) {
+				client.set("key" + i, new byte[] {(byte) n});
+			}
+		}
+		client.delete("key0");
+		int before = directory.list().length;
+		client.compact();
+		assertTrue(directory.list().length < before);
+		client.shutdown();
+
+		client = newClient();
+		client.connect();
+		assertNull(client.get("key0"));
+		for (int i = 1; i < 20; i++) {
+			assertTrue(Arrays.equals(new byte[] {9}, client.get("key" + i)));
+		}
+	}
+
+	public void testCompactionDropsTombstones() throws Exception {
+		// a segment of live entries which is never compacted
+		for (int i = 0; i < 30; i++) {
+			client.set("keep" + i, new byte[100]);
+		}
+		for (int i = 0; i < 300; i++) {
+			client.set("temp" + i, new byte[100]);
+			client.delete("temp" + i);
+		}
+		for (int n = 0; n < 3; n++) {
+			client.compact();
+		}
+		// no older segment holds the deleted keys, so their tombstones are gone
+		int segments = 0;
+		for (String name : directory.list()) {
+			if (name.startsWith("segment-")) {
+				segments++;
+			}
+		}
+		assertTrue("segments " + segments, segments <= 3);
+		client.shutdown();
+
+		client = newClient();
+		client.connect();
+		for (int i = 0; i < 30; i++) {
+			assertEquals(100, client.get("keep" + i).length);
+		}
+		assertNull(client.get("temp0"));
+	}
+}
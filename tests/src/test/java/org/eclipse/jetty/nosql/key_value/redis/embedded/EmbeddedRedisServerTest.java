@@ -0,0 +1,102 @@
+package org.eclipse.jetty.nosql.key_value.redis.embedded;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.redis.jedis.JedisClient;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+public class EmbeddedRedisServerTest extends TestCase {
+	private EmbeddedRedisServer server = null;
+
+	public void setUp() throws Exception {
+		server = new EmbeddedRedisServer();
+		server.start();
+	}
+
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	public void testJedisClient() throws Exception {
+		byte[] raw1 = {11, 22, 33, 44, 55};
+		byte[] raw2 = new byte[100 * 1024];
+		Arrays.fill(raw2, (byte) 7);
+		AbstractKeyValueStoreClient client = new JedisClient(server.getServerString());
+		client.connect();
+		try {
+			assertNull(client.get("foo"));
+			assertTrue(client.set("foo", raw1, 60));
+			assertTrue(Arrays.equals(raw1, client.get("foo")));
+			assertFalse(client.add("foo", raw2, 60));
+			assertTrue(client.add("bar", raw2, 60));
+			assertTrue(Arrays.equals(raw2, client.get("bar")));
+			assertTrue(client.delete("foo"));
+			assertNull(client.get("foo"));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testExpiry() throws Exception {
+		Jedis jedis = new Jedis("127.0.0.1", server.getPort());
+		try {
+			jedis.psetex("foo", 100, "bar");
+			assertEquals("bar", jedis.get("foo"));
+			assertTrue(0 < jedis.pttl("foo"));
+			Thread.sleep(200);
+			assertNull(jedis.get("foo"));
+			assertEquals(Long.valueOf(-2), jedis.ttl("foo"));
+			jedis.set("foo", "bar");
+			assertEquals(Long.valueOf(-1), jedis.ttl("foo"));
+		} finally {
+			jedis.close();
+		}
+	}
+
+	public void testPipeline() throws Exception {
+		Jedis jedis = new Jedis("127.0.0.1", server.getPort());
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			for (int i = 0; i < 100; i++) {
+				pipeline.set("key" + i, "value" + i);
+			}
+			pipeline.sync();
+			assertEquals(100, server.size());
+			assertEquals(Arrays.asList("value0", "value99", null), jedis.mget("key0", "key99", "key100"));
+		} finally {
+			jedis.close();
+		}
+	}
+
+	public void testLatency() throws Exception {
+		server.setLatency(200);
+		AbstractKeyValueStoreClient client = new JedisClient(server.getServerString());
+		client.connect();
+		try {
+			long start = System.currentTimeMillis();
+			assertNull(client.get("foo"));
+			assertTrue(200 <= System.currentTimeMillis() - start);
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testErrorRate() throws Exception {
+		server.setErrorRate(1.0);
+		AbstractKeyValueStoreClient client = new JedisClient(server.getServerString());
+		client.connect();
+		try {
+			client.get("foo");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		} finally {
+			client.shutdown();
+		}
+	}
+}
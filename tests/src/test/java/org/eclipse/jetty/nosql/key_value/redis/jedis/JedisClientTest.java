@@ -0,0 +1,173 @@
+package org.eclipse.jetty.nosql.key_value.redis.jedis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.redis.embedded.EmbeddedRedisServer;
+
+import redis.clients.jedis.Jedis;
+
+public class JedisClientTest extends TestCase {
+	private EmbeddedRedisServer primary = null;
+	private EmbeddedRedisServer replica1 = null;
+	private EmbeddedRedisServer replica2 = null;
+
+	public void setUp() throws Exception {
+		primary = new EmbeddedRedisServer(0);
+		primary.start();
+		replica1 = new EmbeddedRedisServer(0);
+		replica1.start();
+		replica2 = new EmbeddedRedisServer(0);
+		replica2.start();
+	}
+
+	public void tearDown() throws Exception {
+		primary.stop();
+		replica1.stop();
+		replica2.stop();
+	}
+
+	private static void put(EmbeddedRedisServer server, String key, String value) {
+		Jedis jedis = new Jedis("127.0.0.1", server.getPort());
+		try {
+			jedis.set(key, value);
+		} finally {
+			jedis.close();
+		}
+	}
+
+	public void testReadReplicas() throws Exception {
+		// the embedded servers do not replicate, so the answer tells which server has been read
+		put(primary, "foo", "0");
+		put(replica1, "foo", "1");
+		put(replica2, "foo", "2");
+		JedisClientFactory factory = new JedisClientFactory();
+		factory.setReadReplicas(replica1.getServerString() + " " + replica2.getServerString());
+		JedisClient client = (JedisClient) factory.create(primary.getServerString());
+		client.connect();
+		Jedis jedis = new Jedis("127.0.0.1", primary.getPort());
+		try {
+			// loads go to the replicas, the expiry is reset on the primary
+			String first = new String(client.getAndTouch("foo", 60));
+			String second = new String(client.getAndTouch("foo", 60));
+			assertFalse(first.equals(second));
+			assertFalse("0".equals(first) || "0".equals(second));
+			assertTrue(0 < jedis.ttl("foo"));
+			// plain gets precede a write, so they go to the primary
+			assertEquals("0", new String(client.get("foo")));
+
+			assertTrue(client.set("bar", "primary".getBytes(), 60));
+			assertEquals(2, primary.size());
+			// missing on the lagging replicas, found on the primary
+			assertEquals("primary", new String(client.getAndTouch("bar", 60)));
+			assertNull(client.getAndTouch("missing", 60));
+			assertFalse(jedis.exists("missing"));
+
+			// unreachable replicas fall back to the primary
+			replica1.stop();
+			replica2.stop();
+			assertEquals("primary", new String(client.getAndTouch("bar", 60)));
+		} finally {
+			jedis.close();
+			client.shutdown();
+		}
+	}
+
+	public void testReadYourWrites() throws Exception {
+		JedisClient client = new JedisClient(primary.getServerString());
+		client.setReadReplicas(replica1.getServerString());
+		client.setReadStrategy(JedisClient.LEAST_LATENCY);
+		client.setReadYourWritesWindow(100);
+		client.connect();
+		try {
+			assertTrue(client.set("foo", "primary".getBytes(), 60));
+			put(replica1, "foo", "replica");
+			assertEquals("primary", new String(client.getAndTouch("foo", 60)));
+			Thread.sleep(150);
+			assertEquals("replica", new String(client.getAndTouch("foo", 60)));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testAddWithExpiry() throws Exception {
+		JedisClient client = new JedisClient(primary.getServerString());
+		client.connect();
+		Jedis jedis = new Jedis("127.0.0.1", primary.getPort());
+		try {
+			assertTrue(client.add("foo", "first".getBytes(), 60));
+			assertTrue(0 < jedis.ttl("foo") && jedis.ttl("foo") <= 60);
+			// an existing key keeps both its value and its expiry
+			assertFalse(client.add("foo", "second".getBytes(), 3600));
+			assertEquals("first", new String(client.get("foo")));
+			assertTrue(jedis.ttl("foo") <= 60);
+
+			assertTrue(client.add("bar", "forever".getBytes(), 0));
+			assertEquals(-1L, jedis.ttl("bar").longValue());
+			assertTrue(client.set("bar", "still".getBytes(), 0));
+			assertEquals("still", new String(client.get("bar")));
+		} finally {
+			jedis.close();
+			client.shutdown();
+		}
+	}
+
+	public void testPrewarm() throws Exception {
+		JedisClient client = new JedisClient(primary.getServerString());
+		client.setMinIdleConnections(3);
+		client.connect();
+		try {
+			for (int i = 0; i < 100 && primary.getAcceptedConnections() < 3; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(3, primary.getAcceptedConnections());
+			for (int i = 0; i < 10; i++) {
+				client.get("foo");
+			}
+			// served by the connections opened on connect
+			assertEquals(3, primary.getAcceptedConnections());
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testGetAndTouch() throws Exception {
+		JedisClient client = new JedisClient(primary.getServerString());
+		client.connect();
+		Jedis jedis = new Jedis("127.0.0.1", primary.getPort());
+		try {
+			assertTrue(client.set("foo", "bar".getBytes(), 10));
+			assertEquals("bar", new String(client.getAndTouch("foo", 3600)));
+			assertTrue(10 < jedis.ttl("foo"));
+			assertNull(client.getAndTouch("missing", 3600));
+			assertFalse(jedis.exists("missing"));
+		} finally {
+			jedis.close();
+			client.shutdown();
+		}
+	}
+
+	public void testMulti() throws Exception {
+		JedisClient client = new JedisClient(primary.getServerString());
+		client.connect();
+		try {
+			Map<String, byte[]> values = new HashMap<String, byte[]>();
+			values.put("foo", "bar".getBytes());
+			values.put("baz", "qux".getBytes());
+			assertTrue(client.setMulti(values, 60));
+			Map<String, byte[]> found = client.getMulti(Arrays.asList("foo", "missing", "baz"));
+			assertEquals(2, found.size());
+			assertEquals("bar", new String(found.get("foo")));
+			assertEquals("qux", new String(found.get("baz")));
+			found = client.getAndTouchMulti(Arrays.asList("foo", "missing", "baz"), 3600);
+			assertEquals(2, found.size());
+			assertEquals("bar", new String(found.get("foo")));
+			assertEquals("qux", new String(found.get("baz")));
+		} finally {
+			client.shutdown();
+		}
+	}
+}
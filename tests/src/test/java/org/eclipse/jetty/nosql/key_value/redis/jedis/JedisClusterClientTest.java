@@ -0,0 +1,84 @@
+package org.eclipse.jetty.nosql.key_value.redis.jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.redis.embedded.EmbeddedRedisServer;
+
+public class JedisClusterClientTest extends TestCase {
+	private List<EmbeddedRedisServer> nodes = null;
+
+	public void setUp() throws Exception {
+		nodes = new ArrayList<EmbeddedRedisServer>();
+		for (int i = 0; i < 3; i++) {
+			EmbeddedRedisServer node = new EmbeddedRedisServer(0);
+			node.start();
+			nodes.add(node);
+		}
+		assign(0, 5460, 5461, 10922, 10923, 16383);
+	}
+
+	public void tearDown() throws Exception {
+		for (EmbeddedRedisServer node : nodes) {
+			node.stop();
+		}
+	}
+
+	private void assign(int... ranges) {
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).setCluster(nodes, ranges[i * 2], ranges[i * 2 + 1]);
+		}
+	}
+
+	public void testRouting() throws Exception {
+		JedisClusterClient client = new JedisClusterClient(nodes.get(1).getServerString());
+		client.connect();
+		try {
+			for (int i = 0; i < 100; i++) {
+				assertTrue(client.set("key" + i, new byte[] { (byte) i }, 60));
+			}
+			int total = 0;
+			for (EmbeddedRedisServer node : nodes) {
+				assertTrue(0 < node.size());
+				total += node.size();
+			}
+			assertEquals(100, total);
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i, client.get("key" + i)[0]);
+			}
+			assertTrue(client.add("new", new byte[1], 60));
+			assertFalse(client.add("new", new byte[1], 60));
+			assertTrue(client.delete("new"));
+			assertNull(client.get("new"));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testHashTags() {
+		assertEquals(JedisClusterClient.slotOf("{abc}"), JedisClusterClient.slotOf("prefix:{abc}.suffix"));
+		assertEquals(JedisClusterClient.slotOf("abc"), JedisClusterClient.slotOf("{abc}"));
+	}
+
+	public void testMoved() throws Exception {
+		JedisClusterClient client = new JedisClusterClient(nodes.get(0).getServerString() + " " + nodes.get(2).getServerString());
+		client.setMinRefreshInterval(0);
+		client.connect();
+		try {
+			int slot = JedisClusterClient.slotOf("foo");
+			// move all slots to a node which did not own the key before
+			int owner = slot <= 5460 ? 0 : slot <= 10922 ? 1 : 2;
+			EmbeddedRedisServer target = nodes.get((owner + 1) % nodes.size());
+			for (EmbeddedRedisServer node : nodes) {
+				node.setCluster(nodes, node == target ? 0 : -1, node == target ? 16383 : -1);
+			}
+			assertTrue(client.set("foo", new byte[] { 1 }, 60));
+			assertEquals(1, target.size());
+			assertEquals(1, client.get("foo")[0]);
+		} finally {
+			client.shutdown();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package org.eclipse.jetty.nosql.key_value.redis.jedis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.AbstractKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.cluster.ShardedKeyValueStoreClient;
+import org.eclipse.jetty.nosql.key_value.redis.RedisSessionIdManager;
+import org.eclipse.jetty.nosql.key_value.redis.embedded.EmbeddedRedisServer;
+import org.eclipse.jetty.server.Server;
+
+import redis.clients.jedis.Jedis;
+
+public class ShardedJedisClientTest extends TestCase {
+	private EmbeddedRedisServer[] servers = null;
+
+	public void setUp() throws Exception {
+		servers = new EmbeddedRedisServer[4];
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new EmbeddedRedisServer(0);
+			servers[i].start();
+		}
+	}
+
+	public void tearDown() throws Exception {
+		for (EmbeddedRedisServer server : servers) {
+			server.stop();
+		}
+	}
+
+	private ShardedKeyValueStoreClient newClient(int count) {
+		return newClient(count, new JedisClientFactory());
+	}
+
+	private ShardedKeyValueStoreClient newClient(int count, JedisClientFactory factory) {
+		Map<String, AbstractKeyValueStoreClient> shards = new LinkedHashMap<String, AbstractKeyValueStoreClient>();
+		for (int i = 0; i < count; i++) {
+			shards.put(servers[i].getServerString(), factory.create(servers[i].getServerString()));
+		}
+		return new ShardedKeyValueStoreClient(shards);
+	}
+
+	public void testSharding() throws Exception {
+		ShardedKeyValueStoreClient client = newClient(3);
+		client.connect();
+		try {
+			for (int i = 0; i < 300; i++) {
+				assertTrue(client.set("key" + i, ("value" + i).getBytes(), 60));
+			}
+			int total = 0;
+			for (int i = 0; i < 3; i++) {
+				// every server holds a fair share
+				assertTrue(50 < servers[i].size());
+				total += servers[i].size();
+			}
+			assertEquals(300, total);
+			for (int i = 0; i < 300; i++) {
+				assertEquals("value" + i, new String(client.get("key" + i)));
+			}
+			assertFalse(client.add("key0", "other".getBytes()));
+			assertTrue(client.delete("key0"));
+			assertNull(client.get("key0"));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testAddingShardMovesFewKeys() throws Exception {
+		ShardedKeyValueStoreClient three = newClient(3);
+		ShardedKeyValueStoreClient four = newClient(4);
+		int moved = 0;
+		for (int i = 0; i < 10000; i++) {
+			String key = "key" + i;
+			KeyValueStoreClient before = three.getRing().getPrimary(key);
+			KeyValueStoreClient after = four.getRing().getPrimary(key);
+			String from = ((AbstractKeyValueStoreClient) before).getServerString();
+			String to = ((AbstractKeyValueStoreClient) after).getServerString();
+			if (!from.equals(to)) {
+				// keys only move to the new server
+				assertSame(four.getNodes().get(servers[3].getServerString()), after);
+				moved++;
+			}
+		}
+		// about a quarter of the keys
+		assertTrue("moved " + moved, 1500 < moved && moved < 3500);
+	}
+
+	public void testReadReplicasPerShard() throws Exception {
+		// servers 0 and 1 are primaries, 2 and 3 their replicas
+		JedisClientFactory factory = new JedisClientFactory();
+		factory.setReadReplicas(servers[0].getServerString() + "=" + servers[2].getServerString() + ";"
+				+ servers[1].getServerString() + "=" + servers[3].getServerString());
+		ShardedKeyValueStoreClient client = newClient(2, factory);
+		client.connect();
+		try {
+			for (int i = 0; i < 100; i++) {
+				String key = "key" + i;
+				assertTrue(client.set(key, "primary".getBytes(), 60));
+				// replicate to the replica of the owning primary only
+				String owner = ((AbstractKeyValueStoreClient) client.getRing().getPrimary(key)).getServerString();
+				EmbeddedRedisServer replica = owner.equals(servers[0].getServerString()) ? servers[2] : servers[3];
+				Jedis jedis = new Jedis("127.0.0.1", replica.getPort());
+				try {
+					jedis.set(key, "replica");
+				} finally {
+					jedis.close();
+				}
+			}
+			assertTrue(30 < servers[2].size() && 30 < servers[3].size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals("replica", new String(client.getAndTouch("key" + i, 60)));
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testUngroupedReadReplicasRefused() throws Exception {
+		JedisClientFactory factory = new JedisClientFactory();
+		factory.setReadReplicas(servers[2].getServerString());
+		RedisSessionIdManager manager = new RedisSessionIdManager(new Server(), servers[0].getServerString() + " "
+				+ servers[1].getServerString(), factory);
+		try {
+			manager.start();
+			fail();
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getMessage().indexOf("grouped") != -1);
+		} finally {
+			manager.stop();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.eclipse.jetty.nosql.key_value.redis.nio;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+import org.eclipse.jetty.nosql.key_value.UnixDomainSockets;
+import org.eclipse.jetty.nosql.key_value.redis.embedded.EmbeddedRedisServer;
+
+public class MultiplexedRedisClientTest extends TestCase {
+	private EmbeddedRedisServer server = null;
+
+	public void setUp() throws Exception {
+		server = new EmbeddedRedisServer(0);
+		server.start();
+	}
+
+	public void tearDown() throws Exception {
+		server.stop();
+	}
+
+	private MultiplexedRedisClient newClient() throws Exception {
+		MultiplexedRedisClientFactory factory = new MultiplexedRedisClientFactory();
+		factory.setBufferSize(1024);
+		MultiplexedRedisClient client = (MultiplexedRedisClient) factory.create(server.getServerString());
+		client.connect();
+		return client;
+	}
+
+	public void testOperations() throws Exception {
+		MultiplexedRedisClient client = newClient();
+		try {
+			assertNull(client.get("foo"));
+			assertTrue(client.set("foo", "bar".getBytes(), 60));
+			assertEquals("bar", new String(client.get("foo")));
+			assertFalse(client.add("foo", "baz".getBytes(), 60));
+			assertTrue(client.add("qux", "baz".getBytes()));
+			assertEquals("baz", new String(client.getAndTouch("qux", 3600)));
+			assertNull(client.getAndTouch("quux", 3600));
+			assertTrue(client.delete("qux"));
+			assertFalse(client.delete("qux"));
+			assertNull(client.get("qux"));
+			assertTrue(client.set("empty", new byte[0]));
+			assertEquals(0, client.get("empty").length);
+
+			// values larger than the buffers
+			byte[] large = new byte[100 * 1024];
+			for (int i = 0; i < large.length; i++) {
+				large[i] = (byte) i;
+			}
+			assertTrue(client.set("large", large));
+			assertTrue(Arrays.equals(large, client.get("large")));
+
+			Map<String, byte[]> values = new HashMap<String, byte[]>();
+			for (int i = 0; i < 100; i++) {
+				values.put("multi" + i, new byte[] { (byte) i });
+			}
+			assertTrue(client.setMulti(values, 60));
+			List<String> keys = new ArrayList<String>(values.keySet());
+			keys.add("missing");
+			Map<String, byte[]> found = client.getMulti(keys);
+			assertEquals(100, found.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, found.get("multi" + i)[0]);
+			}
+			found = client.getAndTouchMulti(keys, 3600);
+			assertEquals(100, found.size());
+			for (int i = 0; i < 100; i++) {
+				assertEquals((byte) i, found.get("multi" + i)[0]);
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testMultiplexing() throws Exception {
+		final MultiplexedRedisClient client = newClient();
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		try {
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			for (int t = 0; t < 32; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						for (int i = 0; i < 200; i++) {
+							String key = "key" + thread + "-" + i;
+							if (!client.set(key, key.getBytes(), 60) || !key.equals(new String(client.get(key)))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> future : futures) {
+				assertTrue(future.get());
+			}
+			assertEquals(32 * 200, server.size());
+			// 32 threads over 2 connections
+			assertEquals(2, server.getAcceptedConnections());
+		} finally {
+			executor.shutdownNow();
+			client.shutdown();
+		}
+	}
+
+	public void testErrorReply() throws Exception {
+		MultiplexedRedisClient client = newClient();
+		try {
+			server.setErrorRate(1.0);
+			try {
+				client.get("foo");
+				fail();
+			} catch (KeyValueStoreClientException expected) {
+			}
+			// the connection stays in sync
+			server.setErrorRate(0.0);
+			assertTrue(client.set("foo", "bar".getBytes()));
+			assertEquals("bar", new String(client.get("foo")));
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	public void testUnixDomainSocket() throws Exception {
+		if (!UnixDomainSockets.isSupported()) {
+			return;
+		}
+		File socket = File.createTempFile("redis", ".sock");
+		EmbeddedRedisServer server = new EmbeddedRedisServer();
+		server.setUnixDomainSocket(socket.getAbsolutePath());
+		server.start();
+		try {
+			MultiplexedRedisClient client = new MultiplexedRedisClient(server.getServerString());
+			client.connect();
+			try {
+				assertTrue(client.set("foo", "bar".getBytes()));
+				assertEquals("bar", new String(client.get("foo")));
+				assertEquals(1, server.size());
+			} finally {
+				client.shutdown();
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	public void testServerDown() throws Exception {
+		MultiplexedRedisClient client = newClient();
+		try {
+			server.stop();
+			client.get("foo");
+			fail();
+		} catch (KeyValueStoreClientException expected) {
+		} finally {
+			client.shutdown();
+		}
+	}
+}
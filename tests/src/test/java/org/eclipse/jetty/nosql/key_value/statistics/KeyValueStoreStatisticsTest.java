@@ -0,0 +1,121 @@
+package org.eclipse.jetty.nosql.key_value.statistics;
+
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.nosql.key_value.KeyValueStoreClientException;
+
+public class KeyValueStoreStatisticsTest extends TestCase {
+	public void testBuckets() {
+		for (long value = 0; value < 100000; value++) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+			assertTrue(bucket == 0 || LatencyHistogram.upperBoundOf(bucket - 1) < value);
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+	}
+
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMean(), 0.001);
+		assertEquals(1000, histogram.getMax());
+		long p50 = histogram.getPercentile(50);
+		assertTrue(500 <= p50 && p50 < 500 * 1.25);
+		long p99 = histogram.getPercentile(99);
+		assertTrue(990 <= p99 && p99 <= 1000);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(99));
+	}
+
+	public void testAdaptiveTimeout() {
+		AdaptiveTimeout timeout = new AdaptiveTimeout(1000);
+		timeout.setWindow(100);
+		timeout.setPercentile(99);
+		timeout.setFactor(2.0);
+		timeout.setMinTimeout(5);
+		timeout.setMaxTimeout(500);
+		for (int i = 1; i < 100; i++) {
+			assertFalse(timeout.record(TimeUnit.MILLISECONDS.toNanos(20)));
+		}
+		assertEquals(1000, timeout.getTimeout());
+		assertTrue(timeout.record(TimeUnit.MILLISECONDS.toNanos(20)));
+		int adapted = timeout.getTimeout();
+		assertTrue(40 <= adapted && adapted <= 50);
+
+		for (int i = 0; i < 100; i++) {
+			timeout.record(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+		assertEquals(5, timeout.getTimeout());
+		for (int i = 0; i < 100; i++) {
+			timeout.record(TimeUnit.SECONDS.toNanos(1));
+		}
+		assertEquals(500, timeout.getTimeout());
+	}
+
+	public void testOperationStatistics() {
+		OperationStatistics statistics = new OperationStatistics();
+		long start = System.nanoTime();
+		statistics.hit(start);
+		statistics.miss(start);
+		statistics.rejected(start);
+		statistics.error(start, new KeyValueStoreClientException(new SocketTimeoutException()));
+		statistics.error(start, new KeyValueStoreClientException(new IllegalStateException()));
+		statistics.bytes(100);
+		statistics.bytes(300);
+		assertEquals(5, statistics.getCount());
+		assertEquals(1, statistics.getHits());
+		assertEquals(1, statistics.getMisses());
+		assertEquals(1, statistics.getRejections());
+		assertEquals(2, statistics.getErrors());
+		assertEquals(1, statistics.getTimeouts());
+		assertEquals(400, statistics.getBytes());
+		assertEquals(300, statistics.getMaxBytes());
+		statistics.reset();
+		assertEquals(0, statistics.getRejections());
+	}
+
+	public void testTimeout() {
+		assertTrue(OperationStatistics.isTimeout(new TimeoutException()));
+		assertTrue(OperationStatistics.isTimeout(new KeyValueStoreClientException(new SocketTimeoutException())));
+		assertTrue(OperationStatistics.isTimeout(new KeyValueStoreClientException(
+				new RuntimeException("wrapped", new TimeoutException()))));
+		assertFalse(OperationStatistics.isTimeout(new KeyValueStoreClientException(new IllegalStateException())));
+		assertFalse(OperationStatistics.isTimeout(new TimeoutMisnamedException()));
+		assertFalse(OperationStatistics.isTimeout(null));
+		assertEquals(KeyValueStoreTracer.TIMEOUT, OperationStatistics.outcomeOf(new TimeoutException()));
+		assertEquals(KeyValueStoreTracer.ERROR, OperationStatistics.outcomeOf(new IllegalStateException()));
+	}
+
+	private static class TimeoutMisnamedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public void testMBean() throws Exception {
+		KeyValueStoreStatistics statistics = new KeyValueStoreStatistics();
+		statistics.getStoreGet().hit(System.nanoTime());
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.eclipse.jetty.nosql.key_value:type=KeyValueStoreStatistics,name=test");
+		server.registerMBean(statistics, name);
+		try {
+			CompositeData get = (CompositeData) server.getAttribute(name, "StoreGet");
+			assertEquals(Long.valueOf(1), get.get("hits"));
+			server.invoke(name, "reset", new Object[0], new String[0]);
+			assertEquals(0, statistics.getStoreGet().getCount());
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+}